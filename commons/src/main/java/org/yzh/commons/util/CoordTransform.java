@@ -1,5 +1,8 @@
 package org.yzh.commons.util;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * WGS-84 GPS坐标（谷歌地图国外）
  * GCJ-02 国测局坐标（谷歌地图国内、高德地图、腾讯地图）
@@ -19,6 +22,12 @@ public class CoordTransform {
 
     private static final double X_PI = Math.PI * 3000.0 / 180.0;
 
+    /** 微度(1e-6度)与度的换算 */
+    private static final double MICRO = 1000000D;
+
+    /** 批量转换时每个分片的最小点数，小于2倍时不拆分 */
+    public static final int PARALLEL_THRESHOLD = 1 << 14;
+
     public static double[] wgs84tobd09(double[] lngLat) {
         return wgs84tobd09(lngLat[0], lngLat[1], new double[2]);
     }
@@ -143,22 +152,252 @@ public class CoordTransform {
         }
     }
 
+    /** WGS-84 转 GCJ-02，原地批量转换，经纬度分别存放，单位度 */
+    public static void wgs84togcj02(double[] lngs, double[] lats) {
+        wgs84togcj02(lngs, lats, 0, lngs.length);
+    }
+
+    /** WGS-84 转 GCJ-02，原地批量转换[from, to)范围内的点 */
+    public static void wgs84togcj02(double[] lngs, double[] lats, int from, int to) {
+        shift(lngs, lats, from, to, 1.0);
+    }
+
+    /** GCJ-02 转 WGS-84，原地批量转换 */
+    public static void gcj02towgs84(double[] lngs, double[] lats) {
+        gcj02towgs84(lngs, lats, 0, lngs.length);
+    }
+
+    public static void gcj02towgs84(double[] lngs, double[] lats, int from, int to) {
+        shift(lngs, lats, from, to, -1.0);
+    }
+
+    /** GCJ-02 转 BD-09，原地批量转换 */
+    public static void gcj02tobd09(double[] lngs, double[] lats) {
+        gcj02tobd09(lngs, lats, 0, lngs.length);
+    }
+
+    public static void gcj02tobd09(double[] lngs, double[] lats, int from, int to) {
+        check(lngs.length, lats.length, from, to);
+        for (int i = from; i < to; i++) {
+            double lng = lngs[i];
+            double lat = lats[i];
+            double z = Math.sqrt(lng * lng + lat * lat) + 0.00002 * Math.sin(lat * X_PI);
+            double theta = Math.atan2(lat, lng) + 0.000003 * Math.cos(lng * X_PI);
+            lngs[i] = z * Math.cos(theta) + 0.0065;
+            lats[i] = z * Math.sin(theta) + 0.006;
+        }
+    }
+
+    /** WGS-84 转 BD-09，原地批量转换 */
+    public static void wgs84tobd09(double[] lngs, double[] lats) {
+        wgs84tobd09(lngs, lats, 0, lngs.length);
+    }
+
+    public static void wgs84tobd09(double[] lngs, double[] lats, int from, int to) {
+        wgs84togcj02(lngs, lats, from, to);
+        gcj02tobd09(lngs, lats, from, to);
+    }
+
+    /** WGS-84 转 GCJ-02，原地批量转换，单位微度(1e-6度，即位置信息汇报中的经纬度)，结果四舍五入 */
+    public static void wgs84togcj02(int[] lngs, int[] lats) {
+        wgs84togcj02(lngs, lats, 0, lngs.length);
+    }
+
+    public static void wgs84togcj02(int[] lngs, int[] lats, int from, int to) {
+        shift(lngs, lats, from, to, 1.0);
+    }
+
+    /** GCJ-02 转 WGS-84，原地批量转换，单位微度 */
+    public static void gcj02towgs84(int[] lngs, int[] lats) {
+        gcj02towgs84(lngs, lats, 0, lngs.length);
+    }
+
+    public static void gcj02towgs84(int[] lngs, int[] lats, int from, int to) {
+        shift(lngs, lats, from, to, -1.0);
+    }
+
+    /** WGS-84 转 BD-09，原地批量转换，单位微度 */
+    public static void wgs84tobd09(int[] lngs, int[] lats) {
+        wgs84tobd09(lngs, lats, 0, lngs.length);
+    }
+
+    public static void wgs84tobd09(int[] lngs, int[] lats, int from, int to) {
+        check(lngs.length, lats.length, from, to);
+        for (int i = from; i < to; i++) {
+            double lng = lngs[i] / MICRO;
+            double lat = lats[i] / MICRO;
+            if (inChina(lng, lat)) {
+                double x = lng - 105.0;
+                double y = lat - 35.0;
+                double common = transformcommon(x);
+                double radlat = lat * (PI / 180.0);
+                double magic = Math.sin(radlat);
+                magic = 1 - EE * magic * magic;
+                double sqrtmagic = Math.sqrt(magic);
+                lat += offsetlat(transformlat(x, y, common), magic, sqrtmagic);
+                lng += offsetlng(transformlng(x, y, common), radlat, sqrtmagic);
+            }
+            double z = Math.sqrt(lng * lng + lat * lat) + 0.00002 * Math.sin(lat * X_PI);
+            double theta = Math.atan2(lat, lng) + 0.000003 * Math.cos(lng * X_PI);
+            lngs[i] = (int) Math.round((z * Math.cos(theta) + 0.0065) * MICRO);
+            lats[i] = (int) Math.round((z * Math.sin(theta) + 0.006) * MICRO);
+        }
+    }
+
+    /**
+     * WGS-84与GCJ-02互转的循环体：经纬度分开存放，逐点无对象分配、无虚调用，
+     * 经纬度偏移量中相同的正弦项只计算一次
+     * @param sign 1为WGS-84转GCJ-02，-1为GCJ-02转WGS-84
+     */
+    private static void shift(double[] lngs, double[] lats, int from, int to, double sign) {
+        check(lngs.length, lats.length, from, to);
+        for (int i = from; i < to; i++) {
+            double lng = lngs[i];
+            double lat = lats[i];
+            if (inChina(lng, lat)) {
+                double x = lng - 105.0;
+                double y = lat - 35.0;
+                double common = transformcommon(x);
+                double radlat = lat * (PI / 180.0);
+                double magic = Math.sin(radlat);
+                magic = 1 - EE * magic * magic;
+                double sqrtmagic = Math.sqrt(magic);
+                lats[i] = lat + sign * offsetlat(transformlat(x, y, common), magic, sqrtmagic);
+                lngs[i] = lng + sign * offsetlng(transformlng(x, y, common), radlat, sqrtmagic);
+            }
+        }
+    }
+
+    private static void shift(int[] lngs, int[] lats, int from, int to, double sign) {
+        check(lngs.length, lats.length, from, to);
+        for (int i = from; i < to; i++) {
+            double lng = lngs[i] / MICRO;
+            double lat = lats[i] / MICRO;
+            if (inChina(lng, lat)) {
+                double x = lng - 105.0;
+                double y = lat - 35.0;
+                double common = transformcommon(x);
+                double radlat = lat * (PI / 180.0);
+                double magic = Math.sin(radlat);
+                magic = 1 - EE * magic * magic;
+                double sqrtmagic = Math.sqrt(magic);
+                lats[i] += (int) Math.round(sign * offsetlat(transformlat(x, y, common), magic, sqrtmagic) * MICRO);
+                lngs[i] += (int) Math.round(sign * offsetlng(transformlng(x, y, common), radlat, sqrtmagic) * MICRO);
+            }
+        }
+    }
+
+    private static void check(int lngLength, int latLength, int from, int to) {
+        if (lngLength != latLength)
+            throw new IllegalArgumentException("lngs.length " + lngLength + " != lats.length " + latLength);
+        if (from < 0 || from > to || to > lngLength)
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", length: " + lngLength);
+    }
+
+    /** 批量转换方法，如 CoordTransform::wgs84togcj02 */
+    @FunctionalInterface
+    public interface Batch {
+        void convert(double[] lngs, double[] lats, int from, int to);
+    }
+
+    /** 微度批量转换方法，如 CoordTransform::wgs84togcj02 */
+    @FunctionalInterface
+    public interface IntBatch {
+        void convert(int[] lngs, int[] lats, int from, int to);
+    }
+
+    /** 点数不小于2倍PARALLEL_THRESHOLD时在ForkJoinPool.commonPool中分片并行转换，否则在当前线程转换 */
+    public static void parallel(Batch batch, double[] lngs, double[] lats) {
+        check(lngs.length, lats.length, 0, lngs.length);
+        if (lngs.length < PARALLEL_THRESHOLD * 2)
+            batch.convert(lngs, lats, 0, lngs.length);
+        else
+            ForkJoinPool.commonPool().invoke(new BatchTask(batch, null, lngs, lats, null, null, 0, lngs.length));
+    }
+
+    public static void parallel(IntBatch batch, int[] lngs, int[] lats) {
+        check(lngs.length, lats.length, 0, lngs.length);
+        if (lngs.length < PARALLEL_THRESHOLD * 2)
+            batch.convert(lngs, lats, 0, lngs.length);
+        else
+            ForkJoinPool.commonPool().invoke(new BatchTask(null, batch, null, null, lngs, lats, 0, lngs.length));
+    }
+
+    private static final class BatchTask extends RecursiveAction {
+        private final Batch batch;
+        private final IntBatch intBatch;
+        private final double[] lngs;
+        private final double[] lats;
+        private final int[] intLngs;
+        private final int[] intLats;
+        private final int from;
+        private final int to;
+
+        private BatchTask(Batch batch, IntBatch intBatch, double[] lngs, double[] lats, int[] intLngs, int[] intLats, int from, int to) {
+            this.batch = batch;
+            this.intBatch = intBatch;
+            this.lngs = lngs;
+            this.lats = lats;
+            this.intLngs = intLngs;
+            this.intLats = intLats;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < PARALLEL_THRESHOLD * 2) {
+                if (batch != null)
+                    batch.convert(lngs, lats, from, to);
+                else
+                    intBatch.convert(intLngs, intLats, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(batch, intBatch, lngs, lats, intLngs, intLats, from, mid),
+                    new BatchTask(batch, intBatch, lngs, lats, intLngs, intLats, mid, to));
+        }
+    }
+
     private static double transformlat(double lng, double lat) {
+        return transformlat(lng, lat, transformcommon(lng));
+    }
+
+    private static double transformlng(double lng, double lat) {
+        return transformlng(lng, lat, transformcommon(lng));
+    }
+
+    /** 纬度与经度偏移量中相同的项，批量转换时只计算一次 */
+    private static double transformcommon(double lng) {
+        return (20.0 * Math.sin(PI * 6.0 * lng) + 20.0 * Math.sin(PI * 2.0 * lng)) * (2.0 / 3.0);
+    }
+
+    private static double transformlat(double lng, double lat, double common) {
         double ret = -100.0 + 2.0 * lng + 3.0 * lat + 0.2 * lat * lat + 0.1 * lng * lat + 0.2 * Math.sqrt(Math.abs(lng));
-        ret += (20.0 * Math.sin(PI * 6.0 * lng) + 20.0 * Math.sin(PI * 2.0 * lng)) * (2.0 / 3.0);
+        ret += common;
         ret += (20.0 * Math.sin(PI * lat) + 40.0 * Math.sin(PI / 3.0 * lat)) * (2.0 / 3.0);
         ret += (160.0 * Math.sin(lat / (12.0 / PI)) + 320 * Math.sin(lat * (PI / 30.0))) * (2.0 / 3.0);
         return ret;
     }
 
-    private static double transformlng(double lng, double lat) {
+    private static double transformlng(double lng, double lat, double common) {
         double ret = 300.0 + lng + 2.0 * lat + 0.1 * lng * lng + 0.1 * lng * lat + 0.1 * Math.sqrt(Math.abs(lng));
-        ret += (20.0 * Math.sin(PI * 6.0 * lng) + 20.0 * Math.sin(PI * 2.0 * lng)) * (2.0 / 3.0);
+        ret += common;
         ret += (20.0 * Math.sin(PI * lng) + 40.0 * Math.sin(PI / 3.0 * lng)) * (2.0 / 3.0);
         ret += (150.0 * Math.sin(lng / (12.0 / PI)) + 300.0 * Math.sin(lng * (PI / 30.0))) * (2.0 / 3.0);
         return ret;
     }
 
+    /** 纬度偏移量(度) */
+    private static double offsetlat(double dlat, double magic, double sqrtmagic) {
+        return (dlat * 180.0) / ((A * (1 - EE)) * PI / (magic * sqrtmagic));
+    }
+
+    /** 经度偏移量(度) */
+    private static double offsetlng(double dlng, double radlat, double sqrtmagic) {
+        return (dlng * 180.0) / (A * PI / sqrtmagic * Math.cos(radlat));
+    }
+
     /** 判断是否在国内，不在国内则不做偏移 */
     public static boolean inChina(double lng, double lat) {
         // 纬度3.86~53.55,经度73.66~135.05
@@ -1,5 +1,7 @@
 package org.yzh.commons.util;
 
+import java.util.PriorityQueue;
+
 /**
  * 几何图形工具类
  * @author yezhihao
@@ -59,6 +61,88 @@ public class GeomUtils {
         return 2D * s / a;
     }
 
+    /**
+     * 道格拉斯-普克(Douglas-Peucker)抽稀，返回保留点的下标(升序)，首尾点总是保留
+     * 每次保留偏差最大的点，因此同时限制点数时保留的是形状上最重要的点
+     * @param points    坐标数组[x1,y1,x2,y2...]
+     * @param tolerance 最大允许偏差(米)，偏差不大于此值的点被舍弃
+     * @param maxPoints 最多保留的点数，不大于0时不限制，两项均不大于0时不抽稀
+     */
+    public static int[] simplify(double[] points, double tolerance, int maxPoints) {
+        int n = points.length / 2;
+        if (maxPoints > 0)
+            maxPoints = Math.max(maxPoints, 2);
+        if (n <= 2 || (tolerance <= 0 && (maxPoints <= 0 || maxPoints >= n))) {
+            int[] result = new int[n];
+            for (int i = 0; i < n; i++)
+                result[i] = i;
+            return result;
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = keep[n - 1] = true;
+        int count = 2;
+        PriorityQueue<Segment> queue = new PriorityQueue<>();
+        Segment segment = Segment.of(points, 0, n - 1);
+        if (segment != null)
+            queue.add(segment);
+        while ((segment = queue.poll()) != null && (maxPoints <= 0 || count < maxPoints)) {
+            if (segment.distance <= tolerance)
+                break;
+            keep[segment.index] = true;
+            count++;
+            Segment left = Segment.of(points, segment.from, segment.index);
+            if (left != null)
+                queue.add(left);
+            Segment right = Segment.of(points, segment.index, segment.to);
+            if (right != null)
+                queue.add(right);
+        }
+
+        int[] result = new int[count];
+        for (int i = 0, j = 0; i < n; i++)
+            if (keep[i])
+                result[j++] = i;
+        return result;
+    }
+
+    /** 抽稀时的一段折线，index为段内距首尾连线最远的点 */
+    private static class Segment implements Comparable<Segment> {
+        private final int from;
+        private final int to;
+        private final int index;
+        private final double distance;
+
+        private Segment(int from, int to, int index, double distance) {
+            this.from = from;
+            this.to = to;
+            this.index = index;
+            this.distance = distance;
+        }
+
+        private static Segment of(double[] points, int from, int to) {
+            if (to - from < 2)
+                return null;
+            double x1 = points[from * 2], y1 = points[from * 2 + 1];
+            double x2 = points[to * 2], y2 = points[to * 2 + 1];
+            int index = from + 1;
+            double max = -1;
+            for (int i = from + 1; i < to; i++) {
+                double d = distancePointToLine(x1, y1, x2, y2, points[i * 2], points[i * 2 + 1]);
+                if (d > max) {
+                    max = d;
+                    index = i;
+                }
+            }
+            return new Segment(from, to, index, max);
+        }
+
+        @Override
+        public int compareTo(Segment that) {
+            return Double.compare(that.distance, this.distance);
+        }
+    }
+
     /** 判断坐标是否在矩形内 */
     public static boolean inside(double x, double y, double minX, double minY, double maxX, double maxY) {
         return (x >= minX && x <= maxX &&
@@ -0,0 +1,159 @@
+package org.yzh.commons.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoordTransformTest {
+
+    /** 批量转换合并了部分运算，与逐点转换允许的误差(度) */
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testBatch() {
+        for (int size : new int[]{0, 1, 1000}) {
+            double[][] points = points(new Random(size), size);
+            assertBatch(points, CoordTransform::wgs84togcj02, CoordTransform::wgs84togcj02);
+            assertBatch(points, CoordTransform::gcj02towgs84, CoordTransform::gcj02towgs84);
+            assertBatch(points, CoordTransform::gcj02tobd09, CoordTransform::gcj02tobd09);
+            assertBatch(points, CoordTransform::wgs84tobd09, CoordTransform::wgs84tobd09);
+        }
+
+        //国外的点不偏移
+        double[][] points = points(new Random(0), 1000);
+        double[] lngs = points[0].clone();
+        double[] lats = points[1].clone();
+        CoordTransform.wgs84togcj02(lngs, lats);
+        int outside = 0;
+        for (int i = 0; i < lngs.length; i++) {
+            if (!CoordTransform.inChina(points[0][i], points[1][i])) {
+                assertEquals(points[0][i], lngs[i]);
+                assertEquals(points[1][i], lats[i]);
+                outside++;
+            } else {
+                assertNotEquals(points[0][i], lngs[i]);
+            }
+        }
+        assertTrue(outside > 0 && outside < lngs.length);
+    }
+
+    @Test
+    public void testIntBatch() {
+        int[][] points = microdegrees(points(new Random(1), 1000));
+        assertIntBatch(points, CoordTransform::wgs84togcj02, CoordTransform::wgs84togcj02);
+        assertIntBatch(points, CoordTransform::gcj02towgs84, CoordTransform::gcj02towgs84);
+        assertIntBatch(points, CoordTransform::wgs84tobd09, CoordTransform::wgs84tobd09);
+    }
+
+    @Test
+    public void testRange() {
+        double[][] points = points(new Random(2), 100);
+        double[] lngs = points[0].clone();
+        double[] lats = points[1].clone();
+        CoordTransform.wgs84togcj02(lngs, lats, 10, 20);
+        double[] result = new double[2];
+        for (int i = 0; i < lngs.length; i++) {
+            if (i >= 10 && i < 20) {
+                CoordTransform.wgs84togcj02(points[0][i], points[1][i], result);
+                assertEquals(result[0], lngs[i], DELTA);
+                assertEquals(result[1], lats[i], DELTA);
+            } else {
+                assertEquals(points[0][i], lngs[i]);
+                assertEquals(points[1][i], lats[i]);
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> CoordTransform.wgs84togcj02(new double[2], new double[1]));
+        assertThrows(IndexOutOfBoundsException.class, () -> CoordTransform.wgs84togcj02(new double[2], new double[2], 1, 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> CoordTransform.wgs84tobd09(new int[2], new int[2], 2, 1));
+    }
+
+    @Test
+    public void testParallel() {
+        //超过2倍阈值且不能整除，覆盖拆分后长度不等的分片
+        int size = CoordTransform.PARALLEL_THRESHOLD * 5 + 7;
+        double[][] points = points(new Random(3), size);
+
+        double[] lngs = points[0].clone();
+        double[] lats = points[1].clone();
+        CoordTransform.wgs84tobd09(lngs, lats);
+        double[] parallelLngs = points[0].clone();
+        double[] parallelLats = points[1].clone();
+        CoordTransform.parallel(CoordTransform::wgs84tobd09, parallelLngs, parallelLats);
+        assertArrayEquals(lngs, parallelLngs);
+        assertArrayEquals(lats, parallelLats);
+        assertBatch(points, (x, y, from, to) -> CoordTransform.parallel(CoordTransform::wgs84tobd09, x, y), CoordTransform::wgs84tobd09);
+
+        int[][] ints = microdegrees(points);
+        int[] intLngs = ints[0].clone();
+        int[] intLats = ints[1].clone();
+        CoordTransform.wgs84togcj02(intLngs, intLats);
+        int[] parallelIntLngs = ints[0].clone();
+        int[] parallelIntLats = ints[1].clone();
+        CoordTransform.parallel(CoordTransform::wgs84togcj02, parallelIntLngs, parallelIntLats);
+        assertArrayEquals(intLngs, parallelIntLngs);
+        assertArrayEquals(intLats, parallelIntLats);
+        assertIntBatch(ints, (x, y, from, to) -> CoordTransform.parallel(CoordTransform::wgs84togcj02, x, y), CoordTransform::wgs84togcj02);
+
+        assertThrows(IllegalArgumentException.class, () -> CoordTransform.parallel(CoordTransform::wgs84togcj02, new double[size], new double[size - 1]));
+    }
+
+    private interface Point {
+        double[] convert(double lng, double lat, double[] result);
+    }
+
+    /** 批量转换的结果与逐点转换一致 */
+    private static void assertBatch(double[][] points, CoordTransform.Batch batch, Point point) {
+        double[] lngs = points[0].clone();
+        double[] lats = points[1].clone();
+        batch.convert(lngs, lats, 0, lngs.length);
+        double[] result = new double[2];
+        for (int i = 0; i < lngs.length; i++) {
+            point.convert(points[0][i], points[1][i], result);
+            assertEquals(result[0], lngs[i], DELTA);
+            assertEquals(result[1], lats[i], DELTA);
+        }
+    }
+
+    /** 微度批量转换的结果与逐点按度转换后四舍五入一致，偏移量单独取整时允许1微度的误差 */
+    private static void assertIntBatch(int[][] points, CoordTransform.IntBatch batch, Point point) {
+        int[] lngs = points[0].clone();
+        int[] lats = points[1].clone();
+        batch.convert(lngs, lats, 0, lngs.length);
+        double[] result = new double[2];
+        for (int i = 0; i < lngs.length; i++) {
+            point.convert(points[0][i] / 1000000D, points[1][i] / 1000000D, result);
+            assertEquals(Math.round(result[0] * 1000000D), lngs[i], 1);
+            assertEquals(Math.round(result[1] * 1000000D), lats[i], 1);
+        }
+    }
+
+    /** 国内外各占一半的随机点，经纬度分别存放 */
+    private static double[][] points(Random random, int size) {
+        double[] lngs = new double[size];
+        double[] lats = new double[size];
+        for (int i = 0; i < size; i++) {
+            if (random.nextBoolean()) {
+                lngs[i] = 73.66 + random.nextDouble() * (135.05 - 73.66);
+                lats[i] = 3.86 + random.nextDouble() * (53.55 - 3.86);
+            } else {
+                lngs[i] = -180 + random.nextDouble() * (73.66 + 180);
+                lats[i] = -90 + random.nextDouble() * 180;
+            }
+        }
+        return new double[][]{lngs, lats};
+    }
+
+    private static int[][] microdegrees(double[][] points) {
+        int size = points[0].length;
+        int[] lngs = new int[size];
+        int[] lats = new int[size];
+        for (int i = 0; i < size; i++) {
+            lngs[i] = (int) Math.round(points[0][i] * 1000000D);
+            lats[i] = (int) Math.round(points[1][i] * 1000000D);
+        }
+        return new int[][]{lngs, lats};
+    }
+}
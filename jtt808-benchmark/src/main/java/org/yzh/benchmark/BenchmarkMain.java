@@ -0,0 +1,23 @@
+package org.yzh.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口，默认启用GC分析器(输出gc.alloc.rate.norm 即每次操作分配的字节数)
+ * java -jar jtt808-benchmark/target/benchmarks.jar [JMH参数，如 CodecBenchmark -p message=T0200Attributes]
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package org.yzh.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.codec.JTMessageDecoder;
+import org.yzh.protocol.codec.JTMessageEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JTMessageDecoder.decode / JTMessageEncoder.encode
+ * 覆盖JT808Beans中的所有消息，contiguous=false为原CompositeByteBuf实现，compiled=false为RuntimeSchema
+ * 两种缓冲区模式的编码内存分配对比见GC分析器输出的gc.alloc.rate.norm，如 CodecBenchmark.encode -p message=T0001,T8100 -p compiled=true
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"T0001", "T0100", "T0102", "T0104", "T0107", "T0108", "T0200", "T0200Attributes", "T0200JSATL12", "T0200_",
+            "T0201_0500", "T0301", "T0302", "T0303", "T0702", "T0704", "T0705", "T0800", "T0801", "T0802", "T0805",
+            "T0900", "T0901", "T0A00_8A00", "T1003", "T1005", "T1205", "T1206", "T1210", "T1211", "T8003", "T8100",
+            "T8103", "T8105", "T8106", "T8108", "T8202", "T8203", "T8300", "T8301", "T8302", "T8303", "T8304", "T8400",
+            "T8401", "T8500", "T8600", "T8601", "T8602", "T8604", "T8606", "T8608", "T8800", "T8801", "T8802", "T8803",
+            "T8804", "T8805", "T9101", "T9102", "T9105", "T9201", "T9202", "T9205", "T9206", "T9207", "T9208", "T9212",
+            "T9301", "T9302"})
+    public String message;
+
+    @Param({"2013", "2019"})
+    public int version;
+
+    @Param({"true", "false"})
+    public boolean contiguous;
+
+    @Param({"true", "false"})
+    public boolean compiled;
+
+    private JTMessageEncoder encoder;
+    private JTMessageDecoder decoder;
+
+    private JTMessage bean;
+    private byte[] bytes;
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() {
+        encoder = new JTMessageEncoder(Messages.BASE_PACKAGE);
+        decoder = new JTMessageDecoder(Messages.BASE_PACKAGE);
+        encoder.setContiguous(contiguous);
+        decoder.setContiguous(contiguous);
+        encoder.setCompiled(compiled);
+        decoder.setCompiled(compiled);
+
+        bean = Messages.of(message, version);
+        bytes = Messages.encode(encoder, bean);
+        frame = Unpooled.buffer(bytes.length, bytes.length);
+    }
+
+    @Benchmark
+    public ByteBuf encode() {
+        ByteBuf output = encoder.encode(bean);
+        output.release();
+        Messages.rewind(bean);
+        return output;
+    }
+
+    @Benchmark
+    public JTMessage decode() {
+        //原实现反转义时会改写输入，每次还原报文
+        frame.setBytes(0, bytes).setIndex(0, bytes.length);
+        JTMessage result = decoder.decode(frame);
+        Messages.release(result, frame);
+        return result;
+    }
+}
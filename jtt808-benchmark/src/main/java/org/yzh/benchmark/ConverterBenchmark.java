@@ -0,0 +1,61 @@
+package org.yzh.benchmark;
+
+import io.github.yezhihao.protostar.SchemaManager;
+import io.github.yezhihao.protostar.schema.RuntimeSchema;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.yzh.protocol.basics.JTMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息体中Map类型字段的转换器
+ * T0200: AttributeConverter(2013) / AttributeConverterYue(2019)
+ * T0104、T8103: ParameterConverter
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+    @Param({"T0200Attributes", "T0200JSATL12", "T0104", "T8103"})
+    public String message;
+
+    @Param({"2013", "2019"})
+    public int version;
+
+    private RuntimeSchema<JTMessage> schema;
+    private JTMessage bean;
+    private ByteBuf body;
+    private ByteBuf output;
+
+    @Setup
+    public void setup() {
+        SchemaManager schemaManager = new SchemaManager(Messages.BASE_PACKAGE);
+        bean = Messages.of(message, version);
+        schema = schemaManager.getRuntimeSchema(bean.getMessageId(), bean.getProtocolVersion());
+
+        output = Unpooled.buffer(1024);
+        schema.writeTo(output, bean);
+        body = output.copy();
+    }
+
+    @Benchmark
+    public JTMessage read() {
+        body.readerIndex(0);
+        return schema.readFrom(body);
+    }
+
+    @Benchmark
+    public ByteBuf write() {
+        output.clear();
+        schema.writeTo(output, bean);
+        return output;
+    }
+}
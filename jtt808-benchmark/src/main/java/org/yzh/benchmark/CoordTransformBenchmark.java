@@ -0,0 +1,96 @@
+package org.yzh.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.yzh.commons.util.CoordTransform;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 坐标系转换：逐点转换(每点分配double[2]) / 原地批量转换(度、微度) / ForkJoin并行批量转换
+ * 每次操作转换size个点，一天的轨迹按10秒一个点约8640个
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordTransformBenchmark {
+
+    @Param({"8640", "1000000"})
+    public int size;
+
+    private double[] lngs;
+    private double[] lats;
+    private int[] intLngs;
+    private int[] intLats;
+
+    private double[] outLngs;
+    private double[] outLats;
+    private int[] outIntLngs;
+    private int[] outIntLats;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        lngs = new double[size];
+        lats = new double[size];
+        intLngs = new int[size];
+        intLats = new int[size];
+        for (int i = 0; i < size; i++) {
+            intLngs[i] = 116000000 + random.nextInt(1000000);
+            intLats[i] = 39500000 + random.nextInt(1000000);
+            lngs[i] = intLngs[i] / 1000000D;
+            lats[i] = intLats[i] / 1000000D;
+        }
+        outLngs = new double[size];
+        outLats = new double[size];
+        outIntLngs = new int[size];
+        outIntLats = new int[size];
+    }
+
+    @Benchmark
+    public double[] pointByPoint() {
+        for (int i = 0; i < size; i++) {
+            double[] result = CoordTransform.wgs84togcj02(lngs[i], lats[i]);
+            outLngs[i] = result[0];
+            outLats[i] = result[1];
+        }
+        return outLngs;
+    }
+
+    @Benchmark
+    public double[] batch() {
+        System.arraycopy(lngs, 0, outLngs, 0, size);
+        System.arraycopy(lats, 0, outLats, 0, size);
+        CoordTransform.wgs84togcj02(outLngs, outLats);
+        return outLngs;
+    }
+
+    @Benchmark
+    public int[] batchMicrodegree() {
+        System.arraycopy(intLngs, 0, outIntLngs, 0, size);
+        System.arraycopy(intLats, 0, outIntLats, 0, size);
+        CoordTransform.wgs84togcj02(outIntLngs, outIntLats);
+        return outIntLngs;
+    }
+
+    @Benchmark
+    public double[] parallel() {
+        System.arraycopy(lngs, 0, outLngs, 0, size);
+        System.arraycopy(lats, 0, outLats, 0, size);
+        CoordTransform.parallel(CoordTransform::wgs84togcj02, outLngs, outLats);
+        return outLngs;
+    }
+
+    @Benchmark
+    public double[] batchBd09() {
+        System.arraycopy(lngs, 0, outLngs, 0, size);
+        System.arraycopy(lats, 0, outLats, 0, size);
+        CoordTransform.wgs84tobd09(outLngs, outLats);
+        return outLngs;
+    }
+}
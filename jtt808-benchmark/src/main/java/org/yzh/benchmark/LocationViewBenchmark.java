@@ -0,0 +1,102 @@
+package org.yzh.benchmark;
+
+import io.github.yezhihao.protostar.SchemaManager;
+import io.github.yezhihao.protostar.schema.RuntimeSchema;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.codec.JTMessageDecoder;
+import org.yzh.protocol.codec.JTMessageEncoder;
+import org.yzh.protocol.t808.T0200;
+import org.yzh.protocol.t808.T0200View;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 位置信息汇报：T0200(Schema解析) 与 T0200View(只读视图) 读取全部字段的开销
+ * bean/view仅为消息体的解析，decodeBean/decodeView为JTMessageDecoder.decode完整报文(含消息头及消息对象)，
+ * 视图模式下每条消息仍有一份消息体大小的堆内副本
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationViewBenchmark {
+
+    @Param({"T0200", "T0200Attributes", "T0200JSATL12"})
+    public String message;
+
+    @Param({"2013", "2019"})
+    public int version;
+
+    private RuntimeSchema<T0200> schema;
+    private ByteBuf body;
+    private final T0200View view = new T0200View();
+
+    private JTMessageDecoder beanDecoder;
+    private JTMessageDecoder viewDecoder;
+    private byte[] bytes;
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() {
+        SchemaManager schemaManager = new SchemaManager(Messages.BASE_PACKAGE);
+        T0200 bean = (T0200) Messages.of(message, version);
+        schema = schemaManager.getRuntimeSchema(bean.getMessageId(), bean.getProtocolVersion());
+
+        body = Unpooled.buffer(1024);
+        schema.writeTo(body, bean);
+        view.setProtocolVersion(bean.getProtocolVersion());
+
+        beanDecoder = new JTMessageDecoder(schemaManager);
+        viewDecoder = new JTMessageDecoder(schemaManager);
+        viewDecoder.setLocationView(true);
+        bytes = Messages.encode(new JTMessageEncoder(schemaManager), bean);
+        frame = Unpooled.buffer(bytes.length, bytes.length);
+    }
+
+    @Benchmark
+    public long bean() {
+        body.readerIndex(0);
+        T0200 m = schema.readFrom(body);
+        long sum = m.getWarnBit() + m.getStatusBit() + m.getLatitude() + m.getLongitude()
+                + m.getAltitude() + m.getSpeed() + m.getDirection() + m.getDeviceTime().getSecond();
+        Map<Integer, Object> attributes = m.getAttributes();
+        if (attributes != null) {
+            for (Map.Entry<Integer, Object> e : attributes.entrySet()) {
+                Object value = e.getValue();
+                sum += e.getKey() + (value instanceof Number ? ((Number) value).longValue() : 0);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long view() {
+        T0200View m = view.wrap(body, 0, body.writerIndex());
+        long sum = m.getWarnBit() + m.getStatusBit() + m.getLatitude() + m.getLongitude()
+                + m.getAltitude() + m.getSpeed() + m.getDirection() + m.getDeviceTimeValue();
+        T0200View.Attributes it = m.attributes();
+        while (it.next())
+            sum += it.id() + (it.length() <= 4 ? it.longValue() : 0);
+        return sum;
+    }
+
+    @Benchmark
+    public JTMessage decodeBean() {
+        frame.setBytes(0, bytes).setIndex(0, bytes.length);
+        return beanDecoder.decode(frame);
+    }
+
+    @Benchmark
+    public JTMessage decodeView() {
+        frame.setBytes(0, bytes).setIndex(0, bytes.length);
+        return viewDecoder.decode(frame);
+    }
+}
@@ -0,0 +1,81 @@
+package org.yzh.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.yzh.protocol.JT808Beans;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.codec.JTMessageEncoder;
+import org.yzh.protocol.t808.T0801;
+
+import java.lang.reflect.Method;
+
+/**
+ * 基准测试数据，按名称从JT808Beans中获取消息
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class Messages {
+
+    public static final String BASE_PACKAGE = "org.yzh.protocol";
+
+    /**
+     * @param name    JT808Beans中的方法名，带版本后缀的方法(如T0102_2013)可省略后缀
+     * @param version 2013 or 2019
+     */
+    public static JTMessage of(String name, int version) {
+        try {
+            JTMessage message;
+            Method method = find(name + '_' + version);
+            if (method != null) {
+                message = (JTMessage) method.invoke(null);
+            } else if ((method = find(name)) != null) {
+                if (method.getParameterCount() == 1)
+                    message = (JTMessage) method.invoke(null, version);
+                else
+                    message = (JTMessage) method.invoke(null);
+            } else {
+                throw new IllegalArgumentException("JT808Beans." + name + " not found");
+            }
+            return version == 2013 ? JT808Beans.H2013(message) : JT808Beans.H2019(message);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 编码为完整的报文(含标识位及转义) */
+    public static byte[] encode(JTMessageEncoder encoder, JTMessage message) {
+        ByteBuf buf = encoder.encode(message);
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+            rewind(message);
+        }
+    }
+
+    /** 编码会读取T0801.packet，重复编码前复位 */
+    public static void rewind(JTMessage message) {
+        if (message instanceof T0801) {
+            ByteBuf packet = ((T0801) message).getPacket();
+            if (packet != null)
+                packet.readerIndex(0);
+        }
+    }
+
+    /** 释放解码后消息持有的缓冲区(T0801.packet)，frame为解码时的输入 */
+    public static void release(JTMessage message, ByteBuf frame) {
+        if (message instanceof T0801) {
+            ByteBuf packet = ((T0801) message).getPacket();
+            if (packet != null && packet.unwrap() != frame)
+                packet.release();
+        }
+    }
+
+    private static Method find(String name) {
+        for (Method method : JT808Beans.class.getMethods()) {
+            if (method.getName().equals(name) && JTMessage.class.isAssignableFrom(method.getReturnType()))
+                return method;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,106 @@
+package org.yzh.benchmark;
+
+import io.github.yezhihao.protostar.SchemaManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.codec.JTMessageEncoder;
+import org.yzh.protocol.codec.MultiPacketDecoder;
+import org.yzh.protocol.codec.MultiPacketListener;
+import org.yzh.protocol.t808.T0801;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MultiPacketDecoder 分包合并，每次操作解码一条完整的多媒体数据(T0801)的全部分包
+ * mode=file时分包在调用线程中写入临时文件(media-file.writer-threads=0)，与memory的差值即I/O线程为每条多媒体数据付出的磁盘写入耗时
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPacketBenchmark {
+
+    /** 多媒体数据大小(字节) */
+    @Param({"8192", "65536"})
+    public int size;
+
+    /** memory: 内存中合并；file: 写入临时文件 */
+    @Param({"memory", "file"})
+    public String mode;
+
+    private MultiPacketDecoder decoder;
+    private byte[][] packets;
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() {
+        SchemaManager schemaManager = new SchemaManager(Messages.BASE_PACKAGE);
+        JTMessageEncoder encoder = new JTMessageEncoder(schemaManager);
+        decoder = new MultiPacketDecoder(schemaManager, new MultiPacketListener(20));
+        if ("file".equals(mode)) {
+            try {
+                decoder.setMediaFileDir(Files.createTempDirectory("benchmark").toFile());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        T0801 bean = (T0801) Messages.of("T0801", 2019);
+        bean.setPacket(Unpooled.wrappedBuffer(data));
+
+        packets = split(Messages.encode(encoder, bean));
+        int maxLength = 0;
+        for (byte[] packet : packets)
+            maxLength = Math.max(maxLength, packet.length);
+        frame = Unpooled.buffer(maxLength, maxLength);
+    }
+
+    @Benchmark
+    public JTMessage reassemble() {
+        JTMessage result = null;
+        for (byte[] packet : packets) {
+            frame.setBytes(0, packet).setIndex(0, packet.length);
+            result = decoder.decode(frame);
+        }
+        Messages.release(result, frame);
+        if (result instanceof T0801 && ((T0801) result).getFile() != null)
+            ((T0801) result).getFile().delete();
+        return result;
+    }
+
+    @TearDown
+    public void tearDown() {
+        File dir = decoder.getMediaFileDir();
+        if (dir != null)
+            dir.delete();
+    }
+
+    /** 按标识位拆分为单个分包报文 */
+    private static byte[][] split(byte[] bytes) {
+        List<byte[]> result = new ArrayList<>();
+        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+        int start = 0;
+        while (start < bytes.length) {
+            int end = buf.indexOf(start + 1, bytes.length, (byte) 0x7e);
+            result.add(ByteBufUtil.getBytes(buf, start, end + 1 - start));
+            start = end + 1;
+        }
+        return result.toArray(new byte[0][]);
+    }
+}
@@ -0,0 +1,57 @@
+package org.yzh.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.*;
+import org.yzh.protocol.codec.JTMessageEncoder;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.t808.T0001;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 平台通用应答的编码，每次操作新建应答对象(与JTHandlerInterceptor.successful一致)
+ * replyTemplate=false为消息头、消息体Schema编码
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplyBenchmark {
+
+    @Param({"2013", "2019"})
+    public int version;
+
+    @Param({"true", "false"})
+    public boolean replyTemplate;
+
+    private JTMessageEncoder encoder;
+    private int serialNo;
+
+    @Setup
+    public void setup() {
+        encoder = new JTMessageEncoder(Messages.BASE_PACKAGE);
+        encoder.setReplyTemplate(replyTemplate);
+    }
+
+    @Benchmark
+    public ByteBuf encode() {
+        int protocolVersion = version == 2019 ? 1 : 0;
+        T0001 response = new T0001();
+        response.setMessageId(JT808.平台通用应答);
+        response.setProtocolVersion(protocolVersion);
+        response.setVersion(protocolVersion > 0);
+        response.setClientId(protocolVersion > 0 ? "12345678901234567890" : "013800138000");
+        response.setSerialNo(serialNo++ & 0xffff);
+        response.setResponseSerialNo(serialNo & 0xffff);
+        response.setResponseMessageId(JT808.位置信息汇报);
+        response.setResultCode(T0001.Success);
+
+        ByteBuf output = encoder.encode(response);
+        output.release();
+        return output;
+    }
+}
@@ -0,0 +1,146 @@
+package org.yzh.protocol.codec;
+
+import io.github.yezhihao.protostar.ProtostarUtil;
+import io.github.yezhihao.protostar.Schema;
+import io.github.yezhihao.protostar.annotation.Field;
+import io.github.yezhihao.protostar.field.BasicField;
+import io.github.yezhihao.protostar.schema.RuntimeSchema;
+import io.github.yezhihao.protostar.schema.SchemaRegistry;
+import io.github.yezhihao.protostar.util.ArrayMap;
+import io.github.yezhihao.protostar.util.ClassUtils;
+import io.github.yezhihao.protostar.util.Explain;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * 编译期生成的消息编解码器基类(由SchemaProcessor根据@Field注解生成XxxSchema)
+ * 字段顺序与版本划分同RuntimeSchema，基础数值字段直接读写，省去反射与逐字段的虚调用；
+ * 加载时逐个版本与RuntimeSchema比对版本及长度，不一致则丢弃，解码器与编码器回退到RuntimeSchema
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public abstract class CompiledSchema<T> implements Schema<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledSchema.class);
+
+    private static final CompiledSchema<?>[] NONE = new CompiledSchema[0];
+
+    private static final ClassValue<CompiledSchema<?>[]> CACHE = new ClassValue<CompiledSchema<?>[]>() {
+        @Override
+        protected CompiledSchema<?>[] computeValue(Class<?> type) {
+            return load(type);
+        }
+    };
+
+    protected final Class<T> typeClass;
+    protected final int version;
+    protected final int length;
+    private final String[] fieldNames;
+
+    protected CompiledSchema(Class<T> typeClass, int version, int length, String[] fieldNames) {
+        this.typeClass = typeClass;
+        this.version = version;
+        this.length = length;
+        this.fieldNames = fieldNames;
+    }
+
+    public abstract T newInstance();
+
+    public abstract T mergeFrom(ByteBuf input, T message);
+
+    @Override
+    public abstract void writeTo(ByteBuf output, T message);
+
+    @Override
+    public T readFrom(ByteBuf input) {
+        return mergeFrom(input, newInstance());
+    }
+
+    @Override
+    public T readFrom(ByteBuf input, Explain explain) {
+        if (explain == null)
+            return readFrom(input);
+        return Schema.super.readFrom(input, explain);
+    }
+
+    @Override
+    public void writeTo(ByteBuf output, T message, Explain explain) {
+        if (explain == null)
+            writeTo(output, message);
+        else
+            Schema.super.writeTo(output, message, explain);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    public Class<T> typeClass() {
+        return typeClass;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    /** 与RuntimeSchema对应的生成编解码器，不存在时返回null */
+    public static <T> CompiledSchema<T> of(RuntimeSchema<T> schema) {
+        for (CompiledSchema<?> compiled : CACHE.get(schema.typeClass())) {
+            if (compiled.version == schema.version())
+                return (CompiledSchema<T>) compiled;
+        }
+        return null;
+    }
+
+    /** 生成代码中非基础数值字段委托给protostar的字段实现，保证与RuntimeSchema相同的编解码规则 */
+    protected static BasicField field(Class<?> owner, String name, int annotationIndex, int index, int nestedVersion) {
+        try {
+            java.lang.reflect.Field f = owner.getDeclaredField(name);
+            Field a = f.getAnnotationsByType(Field.class)[annotationIndex];
+            BasicField field = SchemaRegistry.get(a, f);
+            if (field == null) {
+                RuntimeSchema nested = ProtostarUtil.getRuntimeSchema(ClassUtils.getGenericType(f)).getOrDefault(nestedVersion);
+                CompiledSchema compiled = of(nested);
+                field = SchemaRegistry.get(a, f, compiled != null ? compiled : nested);
+            }
+            return field.init(a, f, index);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(owner.getName() + "." + name, e);
+        }
+    }
+
+    private static CompiledSchema<?>[] load(Class<?> type) {
+        Class<?> generated;
+        try {
+            generated = Class.forName(type.getName().replace('$', '_') + "Schema", true, type.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return NONE;
+        }
+        try {
+            CompiledSchema<?>[] schemas = (CompiledSchema<?>[]) generated.getMethod("create").invoke(null);
+            ArrayMap<RuntimeSchema> runtimeSchemas = ProtostarUtil.getRuntimeSchema(type);
+            return Arrays.stream(schemas).filter(s -> matches(s, runtimeSchemas.getOrDefault(s.version))).toArray(CompiledSchema[]::new);
+        } catch (Throwable e) {
+            log.warn("加载{}失败，使用RuntimeSchema", generated.getName(), e);
+            return NONE;
+        }
+    }
+
+    /** 仅使用protostar的公开API比对版本与定长部分长度，字段顺序由单元测试(TestHex.testCompiledSchema)逐字节比对保证 */
+    private static boolean matches(CompiledSchema<?> compiled, RuntimeSchema<?> runtime) {
+        if (runtime != null && runtime.version() == compiled.version && runtime.length() == compiled.length)
+            return true;
+        log.warn("{}与RuntimeSchema不一致，使用RuntimeSchema: version={}, fields={}, runtime={}",
+                compiled.getClass().getName(), compiled.version, Arrays.toString(compiled.fieldNames), runtime);
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledSchema{typeClass=" + typeClass.getName() + ", version=" + version + ", length=" + length + '}';
+    }
+}
@@ -10,6 +10,13 @@ import io.netty.buffer.ByteBufUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.commons.JTUtils;
+import org.yzh.protocol.t808.T0001;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * JT消息编解码适配器
@@ -24,6 +31,13 @@ public class JTMessageAdapter implements MessageEncoder<JTMessage>, MessageDecod
 
     private final JTMessageDecoder messageDecoder;
 
+    /** 终端心跳快速应答：从消息头识别心跳后直接写出平台通用应答，不创建消息对象，不经过Handler */
+    private boolean heartbeatFastPath;
+
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder heartbeats = new LongAdder();
+    private final LongAdder heartbeatFallbacks = new LongAdder();
+
     public JTMessageAdapter(String... basePackages) {
         this(new SchemaManager(basePackages));
     }
@@ -37,6 +51,14 @@ public class JTMessageAdapter implements MessageEncoder<JTMessage>, MessageDecod
         this.messageDecoder = messageDecoder;
     }
 
+    public boolean isHeartbeatFastPath() {
+        return heartbeatFastPath;
+    }
+
+    public void setHeartbeatFastPath(boolean heartbeatFastPath) {
+        this.heartbeatFastPath = heartbeatFastPath;
+    }
+
     public ByteBuf encode(JTMessage message, Explain explain) {
         return messageEncoder.encode(message, explain);
     }
@@ -62,6 +84,9 @@ public class JTMessageAdapter implements MessageEncoder<JTMessage>, MessageDecod
 
     @Override
     public JTMessage decode(ByteBuf input, Session session) {
+        decoded.increment();
+        if (heartbeatFastPath && session != null && heartbeat(input, session))
+            return null;
         JTMessage message = messageDecoder.decode(input);
         if (message != null)
             message.setSession(session);
@@ -69,6 +94,65 @@ public class JTMessageAdapter implements MessageEncoder<JTMessage>, MessageDecod
         return message;
     }
 
+    /**
+     * 已注册会话的终端心跳：消息体为空、不分包不加密、无转义字节且校验通过时，刷新会话最后访问时间并直接应答；
+     * 其他情况(含需要日志监控的会话)返回false，按完整流程解码
+     */
+    private boolean heartbeat(ByteBuf input, Session session) {
+        int low = input.readerIndex();
+        int high = input.writerIndex();
+        if (high - low < 4)
+            return false;
+        if (input.getByte(low) == 0x7e)
+            low++;
+        if (input.getByte(high - 1) == 0x7e)
+            high--;
+        if (input.getUnsignedShort(low) != JT808.终端心跳)
+            return false;
+
+        int properties = input.getUnsignedShort(low + 2);
+        int version = (properties & 0x4000) != 0 ? input.getUnsignedByte(low + 4) : 0;
+        if ((properties & 0x4000) != 0 && version == 0 || (properties & 0xBFFF) != 0 ||
+                high - low != JTUtils.headerLength(version, false) + 1 ||
+                !session.isRegistered() || !fastPath(session)) {
+            heartbeatFallbacks.increment();
+            return false;
+        }
+        int checkCode = 0;
+        for (int i = low; i < high; i++) {
+            byte value = input.getByte(i);
+            if (value == 0x7d) {
+                heartbeatFallbacks.increment();
+                return false;
+            }
+            checkCode ^= value;
+        }
+        if (checkCode != 0) {
+            heartbeatFallbacks.increment();
+            return false;
+        }
+
+        session.access();
+        heartbeats.increment();
+        ByteBuf output = ReplyTemplate.encode(input, low, session.nextSerialNo(), T0001.Success);
+        session.notify(output).subscribe(null, e -> log.warn("{}心跳应答失败{}", session, e.getMessage()));
+        return true;
+    }
+
+    /** 会话是否可以使用心跳快速应答，需要查看该会话完整收发日志时返回false */
+    protected boolean fastPath(Session session) {
+        return true;
+    }
+
+    /** 解码的报文数、快速应答的心跳数、因报文格式或会话状态未能快速应答的心跳数 */
+    public Map<String, Long> getStats() {
+        Map<String, Long> result = new LinkedHashMap<>(4);
+        result.put("decoded", decoded.sum());
+        result.put("heartbeats", heartbeats.sum());
+        result.put("heartbeatFallbacks", heartbeatFallbacks.sum());
+        return result;
+    }
+
     public void encodeLog(Session session, JTMessage message, ByteBuf output) {
         if (log.isInfoEnabled())
             log.info("{}\n>>>>>-{},hex[{}]", session, message, ByteBufUtil.hexDump(output));
@@ -7,7 +7,9 @@ import io.github.yezhihao.protostar.util.Explain;
 import io.netty.buffer.*;
 import org.yzh.protocol.basics.JTMessage;
 import org.yzh.protocol.commons.Bit;
+import org.yzh.protocol.commons.JT808;
 import org.yzh.protocol.commons.JTUtils;
+import org.yzh.protocol.t808.T0200View;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -25,6 +27,18 @@ public class JTMessageDecoder {
 
     private final ArrayMap<RuntimeSchema> headerSchemaMap;
 
+    /** 连续缓冲区解码模式：单次扫描完成反转义与校验；关闭后使用原CompositeByteBuf方式 */
+    private boolean contiguous = true;
+
+    /**
+     * 位置信息汇报解码为T0200View，不再经过T0200的Schema(不创建LocalDateTime、附加信息Map及装箱对象)
+     * 视图会被异步批量处理并缓存为设备最新位置，生命周期不可控，因此每条消息仍复制一份消息体到非池化的堆缓冲区
+     */
+    private boolean locationView;
+
+    /** 优先使用编译期生成的Schema(见CompiledSchema)，调试解析(Explain)时仍使用RuntimeSchema */
+    private boolean compiled = true;
+
     public JTMessageDecoder(String... basePackages) {
         this.schemaManager = new SchemaManager(basePackages);
         this.headerSchemaMap = schemaManager.getRuntimeSchema(JTMessage.class);
@@ -35,14 +49,68 @@ public class JTMessageDecoder {
         this.headerSchemaMap = schemaManager.getRuntimeSchema(JTMessage.class);
     }
 
+    public boolean isContiguous() {
+        return contiguous;
+    }
+
+    public void setContiguous(boolean contiguous) {
+        this.contiguous = contiguous;
+    }
+
+    public boolean isLocationView() {
+        return locationView;
+    }
+
+    public void setLocationView(boolean locationView) {
+        this.locationView = locationView;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
     public JTMessage decode(ByteBuf input) {
         return decode(input, null);
     }
 
     public JTMessage decode(ByteBuf input, Explain explain) {
-        ByteBuf buf = unescape(input);
+        if (!contiguous) {
+            ByteBuf buf = unescape(input);
+            return decode(input, buf, verify(buf), explain);
+        }
+
+        int low = input.readerIndex();
+        int high = input.writerIndex();
+        if (input.getByte(low) == 0x7e)
+            low++;
+        if (input.getByte(high - 1) == 0x7e)
+            high--;
+
+        int mark = indexOfEscape(input, low, high);
+        if (mark == -1) {
+            ByteBuf buf = input.slice(low, high - low);
+            return decode(input, buf, xor(input, low, high) == 0, explain);
+        }
 
-        boolean verified = verify(buf);
+        ByteBuf buf = ALLOC.buffer(high - low);
+        try {
+            boolean verified = unescape(input, low, mark, high, buf) == 0;
+            JTMessage message = decode(input, buf, verified, explain);
+            //消息体引用了缓冲区(如T0801.packet)时，由消息持有者负责释放
+            if (message.isSubpackage() || message.noBuffer())
+                buf.release();
+            return message;
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    private JTMessage decode(ByteBuf input, ByteBuf buf, boolean verified, Explain explain) {
         int messageId = buf.getUnsignedShort(0);
         int properties = buf.getUnsignedShort(2);
 
@@ -56,8 +124,12 @@ public class JTMessageDecoder {
         RuntimeSchema<JTMessage> headSchema = headerSchemaMap.get(version);
         RuntimeSchema<JTMessage> bodySchema = schemaManager.getRuntimeSchema(messageId, version);
 
+        boolean view = locationView && messageId == JT808.位置信息汇报;
+
         JTMessage message;
-        if (bodySchema == null)
+        if (view)
+            message = new T0200View();
+        else if (bodySchema == null)
             message = new JTMessage();
         else
             message = bodySchema.newInstance();
@@ -66,7 +138,7 @@ public class JTMessageDecoder {
 
         int writerIndex = buf.writerIndex();
         buf.writerIndex(headLen);
-        headSchema.mergeFrom(buf, message, explain);
+        mergeFrom(headSchema, buf, message, explain);
         buf.writerIndex(writerIndex - 1);
 
         int realVersion = message.getProtocolVersion();
@@ -86,18 +158,45 @@ public class JTMessageDecoder {
                     return message;
 
                 ByteBuf bodyBuf = Unpooled.wrappedBuffer(packages);
-                bodySchema.mergeFrom(bodyBuf, message, explain);
-                if (message.noBuffer()) {
+                if (view) {
+                    wrapCopy((T0200View) message, bodyBuf);
                     bodyBuf.release();
+                } else {
+                    mergeFrom(bodySchema, bodyBuf, message, explain);
+                    if (message.noBuffer()) {
+                        bodyBuf.release();
+                    }
                 }
             } else {
                 buf.readerIndex(headLen);
-                bodySchema.mergeFrom(buf, message, explain);
+                if (view)
+                    wrapCopy((T0200View) message, buf);
+                else
+                    mergeFrom(bodySchema, buf, message, explain);
             }
         }
         return message;
     }
 
+    private void mergeFrom(RuntimeSchema<JTMessage> schema, ByteBuf buf, JTMessage message, Explain explain) {
+        CompiledSchema<JTMessage> compiledSchema = compiled(schema, explain);
+        if (compiledSchema != null)
+            compiledSchema.mergeFrom(buf, message);
+        else
+            schema.mergeFrom(buf, message, explain);
+    }
+
+    private CompiledSchema<JTMessage> compiled(RuntimeSchema<JTMessage> schema, Explain explain) {
+        if (compiled && explain == null)
+            return CompiledSchema.of(schema);
+        return null;
+    }
+
+    /** 输入缓冲区在解码后即被释放，视图持有消息体的堆内副本(分配消息体长度的byte[]，非池化，无需释放) */
+    private static void wrapCopy(T0200View message, ByteBuf body) {
+        message.wrap(Unpooled.wrappedBuffer(ByteBufUtil.getBytes(body)));
+    }
+
     protected ByteBuf[] addAndGet(JTMessage message, ByteBuf bytes) {
         return null;
     }
@@ -108,6 +207,69 @@ public class JTMessageDecoder {
         return checkCode == buf.getByte(buf.writerIndex() - 1);
     }
 
+    /** 查找第一个转义符0x7d */
+    private static int indexOfEscape(ByteBuf source, int low, int high) {
+        int i = low;
+        for (int end = high - 7; i < end; i += 8) {
+            long match = JTUtils.matches(source.getLong(i), JTUtils.ESCAPE);
+            if (match != 0)
+                return i + (Long.numberOfLeadingZeros(match) >>> 3);
+        }
+        for (; i < high; i++) {
+            if (source.getByte(i) == 0x7d)
+                return i;
+        }
+        return -1;
+    }
+
+    /** 异或[low, high)区间内所有字节(含校验码)，结果为0表示校验通过 */
+    private static int xor(ByteBuf source, int low, int high) {
+        long cs = 0;
+        int i = low;
+        for (int end = high - 7; i < end; i += 8)
+            cs ^= source.getLong(i);
+        int result = JTUtils.fold(cs);
+        for (; i < high; i++)
+            result ^= source.getByte(i);
+        return result & 0xff;
+    }
+
+    /**
+     * 单次扫描：反转义到连续缓冲区，同时计算异或校验
+     * @param mark 第一个转义符位置
+     * @return 异或结果(含校验码)，为0表示校验通过
+     */
+    private static int unescape(ByteBuf source, int low, int mark, int high, ByteBuf output) {
+        int cs = 0;
+        for (; ; ) {
+            int len = mark - low;
+            if (len > 0) {
+                cs ^= xor(source, low, mark);
+                output.writeBytes(source, low, len);
+            }
+            if (mark == high)
+                return cs;
+
+            int value = 0x7d;
+            low = mark + 1;
+            if (low < high) {
+                byte second = source.getByte(low);
+                if (second == 0x01) {
+                    low++;
+                } else if (second == 0x02) {
+                    value = 0x7e;
+                    low++;
+                }
+            }
+            output.writeByte(value);
+            cs ^= value;
+
+            mark = indexOfEscape(source, low, high);
+            if (mark == -1)
+                mark = high;
+        }
+    }
+
     /** 反转义 */
     public static ByteBuf unescape(ByteBuf source) {
         int low = source.readerIndex();
@@ -9,6 +9,7 @@ import io.netty.buffer.*;
 import io.netty.util.ByteProcessor;
 import org.yzh.protocol.basics.JTMessage;
 import org.yzh.protocol.commons.JTUtils;
+import org.yzh.protocol.t808.T0001;
 
 import java.util.LinkedList;
 
@@ -25,6 +26,15 @@ public class JTMessageEncoder {
 
     private final ArrayMap<RuntimeSchema> headerSchemaMap;
 
+    /** 连续缓冲区编码模式：标识位、消息头、消息体、校验码及转义写入同一缓冲区；关闭后使用原CompositeByteBuf方式 */
+    private boolean contiguous = true;
+
+    /** 优先使用编译期生成的Schema(见CompiledSchema)，调试解析(Explain)时仍使用RuntimeSchema */
+    private boolean compiled = true;
+
+    /** 通用应答(T0001)使用预先构建的报文模板(见ReplyTemplate)，调试解析(Explain)时仍使用Schema */
+    private boolean replyTemplate = true;
+
     public JTMessageEncoder(String... basePackages) {
         this.schemaManager = new SchemaManager(basePackages);
         this.headerSchemaMap = schemaManager.getRuntimeSchema(JTMessage.class);
@@ -35,17 +45,112 @@ public class JTMessageEncoder {
         this.headerSchemaMap = schemaManager.getRuntimeSchema(JTMessage.class);
     }
 
+    public boolean isContiguous() {
+        return contiguous;
+    }
+
+    public void setContiguous(boolean contiguous) {
+        this.contiguous = contiguous;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    public boolean isReplyTemplate() {
+        return replyTemplate;
+    }
+
+    public void setReplyTemplate(boolean replyTemplate) {
+        this.replyTemplate = replyTemplate;
+    }
+
     public ByteBuf encode(JTMessage message) {
         return encode(message, null);
     }
 
     public ByteBuf encode(JTMessage message, Explain explain) {
+        if (replyTemplate && explain == null && message.getClass() == T0001.class) {
+            ByteBuf output = ReplyTemplate.encode((T0001) message);
+            if (output != null)
+                return output;
+        }
+        if (contiguous)
+            return encodeContiguous(message, explain);
+        return encodeComposite(message, explain);
+    }
+
+    private ByteBuf encodeContiguous(JTMessage message, Explain explain) {
+        int version = message.getProtocolVersion();
+        int headLength = JTUtils.headerLength(version, false);
+        int bodyLength = 0;
+
+        Schema headSchema = schema(headerSchemaMap.get(version), explain);
+        Schema bodySchema = schema(schemaManager.getRuntimeSchema(message.getMessageId(), version), explain);
+
+        //标识位[1] + 消息头 + 消息体 + 校验码[1] + 标识位[1]，转义字节按需扩容
+        int start = 1 + headLength;
+        ByteBuf output;
+        if (bodySchema != null) {
+            output = ALLOC.buffer(start + bodySchema.length() + 2);
+            output.writerIndex(start);
+            bodySchema.writeTo(output, message, explain);
+            bodyLength = output.writerIndex() - start;
+        } else {
+            output = ALLOC.buffer(start + 2);
+            output.writerIndex(start);
+        }
+
+        if (bodyLength <= 1023) {
+            message.setBodyLength(bodyLength);
+
+            int writerIndex = output.writerIndex();
+            output.writerIndex(1);
+            headSchema.writeTo(output, message, explain);
+            output.writerIndex(writerIndex);
+
+            signAndEscape(output, 1);
+            return output;
+        }
+
+        message.setSubpackage(true);
+        int total = (bodyLength - 1) / 1023 + 1;
+        message.setPackageTotal(total);
+
+        headLength = JTUtils.headerLength(version, true);
+        ByteBuf body = output;
+        output = ALLOC.buffer(bodyLength + total * (headLength + 4));
+        try {
+            for (int i = 0; i < total; i++) {
+                int offset = start + i * 1023;
+                int length = Math.min(1023, bodyLength - i * 1023);
+
+                message.setPackageNo(i + 1);
+                message.setBodyLength(length);
+
+                output.writeByte(0x7e);
+                int from = output.writerIndex();
+                headSchema.writeTo(output, message, explain);
+                output.writeBytes(body, offset, length);
+                signAndEscape(output, from);
+            }
+        } finally {
+            body.release();
+        }
+        return output;
+    }
+
+    private ByteBuf encodeComposite(JTMessage message, Explain explain) {
         int version = message.getProtocolVersion();
         int headLength = JTUtils.headerLength(version, false);
         int bodyLength = 0;
 
-        Schema headSchema = headerSchemaMap.get(version);
-        Schema bodySchema = schemaManager.getRuntimeSchema(message.getMessageId(), version);
+        Schema headSchema = schema(headerSchemaMap.get(version), explain);
+        Schema bodySchema = schema(schemaManager.getRuntimeSchema(message.getMessageId(), version), explain);
 
         ByteBuf output;
         if (bodySchema != null) {
@@ -117,6 +222,56 @@ public class JTMessageEncoder {
         return slices;
     }
 
+    /**
+     * 对output的[start, writerIndex)区间计算校验码并原地转义，
+     * 在start - 1处写入起始标识位，末尾追加校验码与结束标识位
+     */
+    public static void signAndEscape(ByteBuf output, int start) {
+        int end = output.writerIndex();
+        int count = 0;
+        long cs = 0;
+        int i = start;
+        for (int limit = end - 7; i < limit; i += 8) {
+            long word = output.getLong(i);
+            cs ^= word;
+            count += Long.bitCount(JTUtils.matches(word, JTUtils.ESCAPE) | JTUtils.matches(word, JTUtils.DELIMITER));
+        }
+        int checkCode = JTUtils.fold(cs);
+        for (; i < end; i++) {
+            byte value = output.getByte(i);
+            checkCode ^= value;
+            if (value == 0x7d || value == 0x7e)
+                count++;
+        }
+        checkCode &= 0xff;
+        if (checkCode == 0x7d || checkCode == 0x7e)
+            count++;
+        output.writeByte(checkCode);
+
+        if (count > 0) {
+            int src = end;
+            int dst = end + count;
+            output.ensureWritable(count);
+            output.writerIndex(dst + 1);
+            while (count > 0) {
+                byte value = output.getByte(src--);
+                if (value == 0x7d) {
+                    output.setByte(dst--, 0x01);
+                    output.setByte(dst--, 0x7d);
+                    count--;
+                } else if (value == 0x7e) {
+                    output.setByte(dst--, 0x02);
+                    output.setByte(dst--, 0x7d);
+                    count--;
+                } else {
+                    output.setByte(dst--, value);
+                }
+            }
+        }
+        output.setByte(start - 1, 0x7e);
+        output.writeByte(0x7e);
+    }
+
     /** 签名 */
     public static ByteBuf sign(ByteBuf buf) {
         byte checkCode = JTUtils.bcc(buf, 0);
@@ -172,4 +327,13 @@ public class JTMessageEncoder {
         }
         return bufs;
     }
+
+    private Schema schema(RuntimeSchema schema, Explain explain) {
+        if (compiled && explain == null && schema != null) {
+            CompiledSchema compiledSchema = CompiledSchema.of(schema);
+            if (compiledSchema != null)
+                return compiledSchema;
+        }
+        return schema;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,272 @@
+package org.yzh.protocol.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.yzh.protocol.basics.JTMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多媒体数据上传(0x0801)的分包，按序号直接写入临时文件对应的位置，不在内存中缓存
+ * 除最后一包外各分包长度相同，第n包的多媒体数据位于 (n - 1) * 分包长度 - 消息体头部长度；
+ * 消息体头部(多媒体ID、类型、格式、事件、通道、位置信息)保留在内存中，接收完成后按T0801解析；
+ * 设置executor时文件写入在写入线程中按提交顺序执行，不占用I/O线程，分包数据在写入前保留在内存中(见getPendingBytes)，
+ * 接收完成时可能仍在写入，由T0801.awaitFile等待；未设置时在调用线程中写入
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+class MediaFilePacket extends MultiPacket {
+
+    /** 多媒体ID[4] + 类型[1] + 格式[1] + 事件[1] + 通道[1] + 位置信息[28] */
+    static final int HEADER_LENGTH = 36;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long[] bitmap;
+
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks;
+    private boolean running;
+    /** 已提交未写入的分包字节数 */
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final CompletableFuture<File> written = new CompletableFuture<>();
+    /** 写入失败后不再写入，接收完成时由written返回 */
+    private volatile IOException error;
+
+    /** 分包长度，收到非最后一包前未知 */
+    private int packetLength = -1;
+    private ByteBuf header;
+    private ByteBuf lastPacket;
+
+    /** @param executor 文件写入线程，为空时在调用线程中写入 */
+    MediaFilePacket(JTMessage firstPacket, int key, File dir, Executor executor) throws IOException {
+        super(firstPacket, key, false);
+        this.executor = executor;
+        this.tasks = executor != null ? new ArrayDeque<>(8) : null;
+        this.bitmap = new long[(total + 63) >>> 6];
+        this.file = File.createTempFile("0801_" + firstPacket.getClientId() + '_', ".tmp", dir);
+        try {
+            this.raf = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        this.channel = raf.getChannel();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** 全部分包写入文件后完成，写入失败时以IOException完成 */
+    public Future<File> getWritten() {
+        return written;
+    }
+
+    /** 已接收未写入文件的字节数 */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * @return 全部到达时返回消息体头部，多媒体数据已写入文件
+     * @throws IllegalArgumentException 分包长度不一致，无法计算写入位置
+     */
+    @Override
+    public ByteBuf[] addAndGet(int packetNo, ByteBuf packetData) {
+        access();
+        int index = packetNo - 1;
+        if (isArrived(index)) {
+            packetData.release();
+            return null;
+        }
+        boolean release = true;
+        try {
+            checkError();
+            int length = packetData.readableBytes();
+            if (packetNo < total) {
+                if (packetLength < 0) {
+                    if (length <= HEADER_LENGTH)
+                        throw new IllegalArgumentException("分包长度" + length);
+                    packetLength = length;
+                    long fileLength = (long) total * length - HEADER_LENGTH;
+                    submit(() -> raf.setLength(fileLength));
+                    if (lastPacket != null) {
+                        ByteBuf last = lastPacket;
+                        lastPacket = null;
+                        bytes -= last.readableBytes();
+                        write(total, last);
+                    }
+                } else if (length != packetLength) {
+                    throw new IllegalArgumentException("分包长度不一致" + length + "!=" + packetLength);
+                }
+                release = false;
+                write(packetNo, packetData);
+            } else if (packetLength < 0) {
+                lastPacket = packetData;
+                bytes += length;
+                release = false;
+            } else {
+                release = false;
+                write(packetNo, packetData);
+            }
+            checkError();
+            bitmap[index >>> 6] |= 1L << index;
+            count++;
+        } finally {
+            if (release)
+                packetData.release();
+        }
+
+        if (!isComplete())
+            return null;
+        submit(() -> {
+            channel.close();
+            IOException e = error;
+            if (e == null)
+                written.complete(file);
+            else
+                written.completeExceptionally(e);
+        });
+        checkError();
+        ByteBuf result = header;
+        header = null;
+        bytes = 0;
+        return new ByteBuf[]{result};
+    }
+
+    /** 消息体头部在调用线程中复制，其余数据提交写入，写入后释放data */
+    private void write(int packetNo, ByteBuf data) {
+        long position;
+        if (packetNo == 1) {
+            header = Unpooled.buffer(HEADER_LENGTH, HEADER_LENGTH);
+            data.readBytes(header, Math.min(HEADER_LENGTH, data.readableBytes()));
+            bytes += HEADER_LENGTH;
+            position = 0;
+        } else {
+            position = (long) (packetNo - 1) * packetLength - HEADER_LENGTH;
+        }
+        boolean last = packetNo == total;
+        int length = data.readableBytes();
+        pendingBytes.addAndGet(length);
+        submit(new Task() {
+            @Override
+            public void run() throws IOException {
+                long p = position;
+                if (last)
+                    channel.truncate(p + data.readableBytes());
+                while (data.isReadable())
+                    p += data.readBytes(channel, p, data.readableBytes());
+            }
+
+            @Override
+            public void close() {
+                pendingBytes.addAndGet(-length);
+                data.release();
+            }
+        });
+    }
+
+    private void checkError() {
+        IOException e = error;
+        if (e != null)
+            throw new UncheckedIOException(e);
+    }
+
+    /** 按提交顺序执行，失败后跳过其余的写入 */
+    private void submit(Task task) {
+        if (executor == null) {
+            execute(task);
+            return;
+        }
+        synchronized (tasks) {
+            tasks.add(() -> execute(task));
+            if (running)
+                return;
+            running = true;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            drain();
+        }
+    }
+
+    private void execute(Task task) {
+        try {
+            if (error == null)
+                task.run();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        } finally {
+            task.close();
+        }
+    }
+
+    private void drain() {
+        for (; ; ) {
+            Runnable task;
+            synchronized (tasks) {
+                task = tasks.poll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            }
+            task.run();
+        }
+    }
+
+    private interface Task {
+        void run() throws IOException;
+
+        default void close() {
+        }
+    }
+
+    @Override
+    protected boolean isArrived(int index) {
+        return (bitmap[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /** 释放内存中的数据，关闭并删除临时文件 */
+    @Override
+    public void release() {
+        if (header != null) {
+            header.release();
+            header = null;
+        }
+        if (lastPacket != null) {
+            lastPacket.release();
+            lastPacket = null;
+        }
+        if (error == null)
+            error = new IOException("分包消息已丢弃");
+        //在已提交的写入之后关闭，其余写入被跳过
+        submit(new Task() {
+            @Override
+            public void run() {
+            }
+
+            @Override
+            public void close() {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                file.delete();
+                written.completeExceptionally(error);
+            }
+        });
+    }
+}
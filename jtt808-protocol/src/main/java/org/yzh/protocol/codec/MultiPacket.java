@@ -1,6 +1,7 @@
 package org.yzh.protocol.codec;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Timeout;
 import org.yzh.protocol.basics.JTMessage;
 import org.yzh.protocol.commons.MessageId;
 
@@ -22,23 +23,49 @@ public class MultiPacket {
     private final long creationTime;
     private long lastAccessedTime;
 
-    private int count = 0;
+    protected final int total;
+    protected int count = 0;
+    protected long bytes;
     private final ByteBuf[] packets;
 
+    private final int key;
+    private Timeout timeout;
+
     public MultiPacket(JTMessage firstPacket) {
+        this(firstPacket, firstPacket.getMessageId() << 16 | firstPacket.getPackageTotal());
+    }
+
+    /**
+     * @param key 终端内的分包消息标识：消息ID(高16位) + 总包数(低16位)
+     */
+    public MultiPacket(JTMessage firstPacket, int key) {
+        this(firstPacket, key, true);
+    }
+
+    /**
+     * @param buffered 是否在内存中缓存分包数据，子类自行保存时为false
+     */
+    protected MultiPacket(JTMessage firstPacket, int key, boolean buffered) {
         this.firstPacket = firstPacket;
+        this.key = key;
         this.creationTime = System.currentTimeMillis();
         this.lastAccessedTime = creationTime;
 
-        this.packets = new ByteBuf[firstPacket.getPackageTotal()];
+        this.total = firstPacket.getPackageTotal();
+        this.packets = buffered ? new ByteBuf[total] : null;
     }
 
+    /**
+     * 添加分包，重复的分包直接释放
+     * @return 全部到达时返回按序号排列的分包数据，否则返回null
+     */
     public ByteBuf[] addAndGet(int packetNo, ByteBuf packetData) {
-        lastAccessedTime = System.currentTimeMillis();
+        access();
 
         packetNo = packetNo - 1;
         if (packets[packetNo] == null) {
             packets[packetNo] = packetData;
+            bytes += packetData.readableBytes();
             count++;
         } else {
             packetData.release();
@@ -49,14 +76,22 @@ public class MultiPacket {
         return null;
     }
 
+    /** @param index 分包序号 - 1 */
+    protected boolean isArrived(int index) {
+        return packets[index] != null;
+    }
+
+    protected void access() {
+        lastAccessedTime = System.currentTimeMillis();
+    }
+
     public List<Integer> getNotArrived() {
         if (isComplete())
             return null;
 
-        int total = packets.length;
         List<Integer> result = new ArrayList<>(total - count);
         for (int i = 0; i < total; i++) {
-            if (packets[i] == null)
+            if (!isArrived(i))
                 result.add(i + 1);
         }
         return result;
@@ -71,13 +106,31 @@ public class MultiPacket {
 
     public void addRetryCount(int retryCount) {
         this.retryCount += retryCount;
-        this.lastAccessedTime = System.currentTimeMillis();
+        access();
     }
 
     public int getRetryCount() {
         return retryCount;
     }
 
+    /** 已缓存的分包数据字节数 */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    void cancelTimeout() {
+        if (timeout != null)
+            timeout.cancel();
+    }
+
     public long getLastAccessedTime() {
         return lastAccessedTime;
     }
@@ -87,7 +140,7 @@ public class MultiPacket {
     }
 
     public boolean isComplete() {
-        return count == packets.length;
+        return count == total;
     }
 
     public JTMessage getFirstPacket() {
@@ -99,24 +152,24 @@ public class MultiPacket {
     }
 
     public void setSerialNo(int serialNo) {
-        if (serialNo == -1)
+        if (this.serialNo == -1)
             this.serialNo = serialNo;
     }
 
     @Override
     public String toString() {
-        int total = packets.length;
         final StringBuilder sb = new StringBuilder(82 + (total * 3));
         sb.append(MessageId.getName(firstPacket.getMessageId()));
         sb.append(", cid=").append(firstPacket.getClientId());
         sb.append(", total=").append(total);
         sb.append(", count=").append(count);
+        sb.append(", bytes=").append(bytes);
         sb.append(", retryCount=").append(retryCount);
         sb.append(", waitTime=").append((System.currentTimeMillis() - creationTime) / 1000);
         sb.append(", packets=");
         sb.append('{');
         for (int i = 0; i < total; i++) {
-            if (packets[i] != null) sb.append(i + 1);
+            if (isArrived(i)) sb.append(i + 1);
             else sb.append(' ');
             sb.append(',');
         }
@@ -2,17 +2,31 @@ package org.yzh.protocol.codec;
 
 import io.github.yezhihao.protostar.SchemaManager;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.t808.T0801;
 
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * 分包消息管理
+ * 按终端号分组，组内以(消息ID,总包数)组成的int值查找，不再为每个分包拼接字符串；
+ * 超时由时间轮调度，每个分包消息仅在到期时检查一次，不再周期性扫描全部分包消息；
+ * 单个终端缓存的分包字节数超过上限时丢弃该分包消息，避免异常终端长期占用内存池；
+ * 设置mediaFileDir后，多媒体数据上传的分包直接写入临时文件(见MediaFilePacket)，不计入缓存上限，
+ * 单个终端同时写入的临时文件数不超过maxMediaFilesPerDevice，超出时在内存中合并；
+ * 设置mediaFileExecutor后文件写入不占用I/O线程，写入积压(已接收未写入)超过缓存上限时丢弃该分包消息
  * @author yezhihao
  * https://gitee.com/yezhihao/jt808-server
  */
@@ -20,10 +34,26 @@ public class MultiPacketDecoder extends JTMessageDecoder {
 
     private static final Logger log = LoggerFactory.getLogger(MultiPacketDecoder.class);
 
-    private final Map<String, MultiPacket> multiPacketsMap;
+    private static final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory("MultiPacketListener", true, Thread.MIN_PRIORITY),
+            100, TimeUnit.MILLISECONDS, 512);
+
+    /** 单个终端缓存分包的默认上限(字节) */
+    public static final int DEFAULT_MAX_BYTES_PER_DEVICE = 8 * 1024 * 1024;
+    /** 单个终端同时写入的多媒体临时文件的默认上限 */
+    public static final int DEFAULT_MAX_MEDIA_FILES_PER_DEVICE = 2;
+
+    private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
 
     private final MultiPacketListener multiPacketListener;
 
+    private int maxBytesPerDevice = DEFAULT_MAX_BYTES_PER_DEVICE;
+
+    /** 多媒体数据(0x0801)分包写入的临时目录，为空时在内存中合并 */
+    private File mediaFileDir;
+    /** 多媒体临时文件的写入线程，为空时在I/O线程中写入 */
+    private Executor mediaFileExecutor;
+    private int maxMediaFilesPerDevice = DEFAULT_MAX_MEDIA_FILES_PER_DEVICE;
+
     public MultiPacketDecoder(String... basePackages) {
         this(new SchemaManager(basePackages));
     }
@@ -32,73 +62,246 @@ public class MultiPacketDecoder extends JTMessageDecoder {
         this(schemaManager, null);
     }
 
+    /**
+     * @param multiPacketListener 为null时使用默认监听器：超时(30秒)后丢弃
+     */
     public MultiPacketDecoder(SchemaManager schemaManager, MultiPacketListener multiPacketListener) {
         super(schemaManager);
-        if (multiPacketListener == null) {
-            this.multiPacketsMap = new WeakHashMap<>();
-            this.multiPacketListener = null;
-        } else {
-            this.multiPacketsMap = new ConcurrentHashMap<>();
-            this.multiPacketListener = multiPacketListener;
-            startListener();
-        }
+        this.multiPacketListener = multiPacketListener != null ? multiPacketListener : new MultiPacketListener();
+    }
+
+    public int getMaxBytesPerDevice() {
+        return maxBytesPerDevice;
+    }
+
+    public void setMaxBytesPerDevice(int maxBytesPerDevice) {
+        this.maxBytesPerDevice = maxBytesPerDevice;
+    }
+
+    public File getMediaFileDir() {
+        return mediaFileDir;
+    }
+
+    /**
+     * 设置后多媒体数据上传的分包按序号写入该目录下的临时文件，接收完成后由T0801.getFile()获得，packet为空；
+     * 文件由消息处理者移动或删除
+     */
+    public void setMediaFileDir(File mediaFileDir) {
+        if (mediaFileDir != null)
+            mediaFileDir.mkdirs();
+        this.mediaFileDir = mediaFileDir;
+    }
+
+    public Executor getMediaFileExecutor() {
+        return mediaFileExecutor;
+    }
+
+    /** 设置后多媒体临时文件在该执行器中写入，同一文件的写入按接收顺序执行 */
+    public void setMediaFileExecutor(Executor mediaFileExecutor) {
+        this.mediaFileExecutor = mediaFileExecutor;
+    }
+
+    public int getMaxMediaFilesPerDevice() {
+        return maxMediaFilesPerDevice;
+    }
+
+    public void setMaxMediaFilesPerDevice(int maxMediaFilesPerDevice) {
+        this.maxMediaFilesPerDevice = maxMediaFilesPerDevice;
+    }
+
+    /** 正在接收的分包消息数量 */
+    public int size() {
+        int size = 0;
+        for (Device device : devices.values())
+            size += device.size;
+        return size;
     }
 
     @Override
     protected ByteBuf[] addAndGet(JTMessage message, ByteBuf packetData) {
-        String clientId = message.getClientId();
-        int messageId = message.getMessageId();
         int packageTotal = message.getPackageTotal();
         int packetNo = message.getPackageNo();
+        if (packetNo < 1 || packetNo > packageTotal) {
+            log.warn("<<<<<分包序号错误{}/{}", packetNo, packageTotal);
+            packetData.release();
+            return null;
+        }
 
-        String key = new StringBuilder(21).append(clientId).append('/').append(messageId).append('/').append(packageTotal).toString();
+        String clientId = message.getClientId();
+        int key = message.getMessageId() << 16 | packageTotal;
+        int length = packetData.readableBytes();
 
-        MultiPacket multiPacket = multiPacketsMap.get(key);
-        if (multiPacket == null)
-            multiPacketsMap.put(key, multiPacket = new MultiPacket(message));
-        if (packetNo == 1)
-            multiPacket.setSerialNo(message.getSerialNo());
+        for (; ; ) {
+            Device device = devices.computeIfAbsent(clientId, Device::new);
+            MultiPacket multiPacket;
+            ByteBuf[] packages;
+            synchronized (device) {
+                if (device.removed)
+                    continue;
 
+                multiPacket = device.get(key);
+                if (multiPacket == null) {
+                    device.add(multiPacket = newMultiPacket(device, message, key));
+                    schedule(device, multiPacket, multiPacketListener.delay(multiPacket));
+                }
+                if (packetNo == 1)
+                    multiPacket.setSerialNo(message.getSerialNo());
 
-        ByteBuf[] packages = multiPacket.addAndGet(packetNo, packetData);
-        log.debug("<<<<<分包消息{}", multiPacket);
-        if (packages == null)
-            return null;
-        multiPacketsMap.remove(key);
-        return packages;
-    }
-
-    private void startListener() {
-        Thread thread = new Thread(() -> {
-            long timeout = multiPacketListener.timeout;
-            for (; ; ) {
-                long nextDelay = timeout;
-                long now = System.currentTimeMillis();
-
-                for (Map.Entry<String, MultiPacket> entry : multiPacketsMap.entrySet()) {
-                    MultiPacket packet = entry.getValue();
-
-                    long time = timeout - (now - packet.getLastAccessedTime());
-                    if (time <= 0) {
-                        if (!multiPacketListener.receiveTimeout(packet)) {
-                            log.warn("<<<<<分包接收超时{}", packet);
-                            multiPacketsMap.remove(entry.getKey());
-                            packet.release();
-                        }
-                    } else {
-                        nextDelay = Math.min(time, nextDelay);
+                boolean media = multiPacket instanceof MediaFilePacket;
+                if (media ? ((MediaFilePacket) multiPacket).getPendingBytes() + length > maxBytesPerDevice : device.bytes + length > maxBytesPerDevice) {
+                    log.warn("<<<<<{}超出上限{}字节，丢弃{}", media ? "文件写入积压" : "分包缓存", maxBytesPerDevice, multiPacket);
+                    packetData.release();
+                    remove(device, multiPacket);
+                    multiPacket.release();
+                    packages = null;
+                } else {
+                    long bytes = multiPacket.getBytes();
+                    boolean failed = false;
+                    try {
+                        packages = multiPacket.addAndGet(packetNo, packetData);
+                    } catch (RuntimeException e) {
+                        log.warn("<<<<<分包保存失败，丢弃{}", multiPacket, e);
+                        packages = null;
+                        failed = true;
                     }
+                    device.bytes += multiPacket.getBytes() - bytes;
+                    log.debug("<<<<<分包消息{}", multiPacket);
+                    if (packages == null && !failed)
+                        return null;
+                    remove(device, multiPacket);
+                    if (failed)
+                        multiPacket.release();
+                    else if (media && message instanceof T0801)
+                        ((T0801) message).setFile(((MediaFilePacket) multiPacket).getFile(), ((MediaFilePacket) multiPacket).getWritten());
                 }
+            }
+            //监听器回调不持有终端锁
+            if (packages == null)
+                multiPacketListener.receiveDiscard(multiPacket);
+            else
+                multiPacketListener.receiveComplete(multiPacket);
+            return packages;
+        }
+    }
+
+    private MultiPacket newMultiPacket(Device device, JTMessage message, int key) {
+        if (mediaFileDir != null && message.getMessageId() == JT808.多媒体数据上传) {
+            if (device.mediaFiles() >= maxMediaFilesPerDevice) {
+                log.warn("<<<<<多媒体临时文件超出上限{}个，使用内存接收{}", maxMediaFilesPerDevice, message);
+            } else {
                 try {
-                    Thread.sleep(nextDelay);
-                } catch (InterruptedException e) {
-                    log.error("MultiPacketListener", e);
+                    return new MediaFilePacket(message, key, mediaFileDir, mediaFileExecutor);
+                } catch (IOException e) {
+                    log.warn("<<<<<创建多媒体临时文件失败，使用内存接收", e);
+                }
+            }
+        }
+        return new MultiPacket(message, key);
+    }
+
+    private void remove(Device device, MultiPacket multiPacket) {
+        device.remove(multiPacket);
+        multiPacket.cancelTimeout();
+        if (device.size == 0) {
+            device.removed = true;
+            devices.remove(device.clientId, device);
+        }
+    }
+
+    private void schedule(Device device, MultiPacket multiPacket, long delay) {
+        multiPacket.setTimeout(TIMER.newTimeout(t -> expire(device, multiPacket), delay, TimeUnit.MILLISECONDS));
+    }
+
+    /** 到期时再按最后访问时间判断，期间收到的分包只更新访问时间，不重新调度 */
+    private void expire(Device device, MultiPacket multiPacket) {
+        long remaining;
+        synchronized (device) {
+            if (!device.contains(multiPacket))
+                return;
+            remaining = multiPacketListener.delay(multiPacket) - (System.currentTimeMillis() - multiPacket.getLastAccessedTime());
+            if (remaining > 0) {
+                schedule(device, multiPacket, remaining);
+                return;
+            }
+        }
+
+        boolean waiting;
+        try {
+            waiting = multiPacketListener.receiveTimeout(multiPacket);
+        } catch (Exception e) {
+            log.error("MultiPacketListener", e);
+            waiting = false;
+        }
+
+        synchronized (device) {
+            if (!device.contains(multiPacket))
+                return;
+            if (waiting) {
+                //监听器未发出补传请求(如限流)时，等待一个完整周期后再检查
+                long delay = multiPacketListener.delay(multiPacket);
+                remaining = delay - (System.currentTimeMillis() - multiPacket.getLastAccessedTime());
+                schedule(device, multiPacket, remaining > 0 ? remaining : delay);
+                return;
+            }
+            log.warn("<<<<<分包接收超时{}", multiPacket);
+            remove(device, multiPacket);
+            multiPacket.release();
+        }
+        multiPacketListener.receiveDiscard(multiPacket);
+    }
+
+    /** 单个终端正在接收的分包消息，通常只有1~2条，线性查找 */
+    private static final class Device {
+        private final String clientId;
+        private MultiPacket[] packets = new MultiPacket[2];
+        private int size;
+        private long bytes;
+        private boolean removed;
+
+        private Device(String clientId) {
+            this.clientId = clientId;
+        }
+
+        private MultiPacket get(int key) {
+            for (int i = 0; i < size; i++) {
+                if (packets[i].getKey() == key)
+                    return packets[i];
+            }
+            return null;
+        }
+
+        private int mediaFiles() {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (packets[i] instanceof MediaFilePacket)
+                    count++;
+            }
+            return count;
+        }
+
+        private boolean contains(MultiPacket multiPacket) {
+            for (int i = 0; i < size; i++) {
+                if (packets[i] == multiPacket)
+                    return true;
+            }
+            return false;
+        }
+
+        private void add(MultiPacket multiPacket) {
+            if (size == packets.length)
+                packets = Arrays.copyOf(packets, size << 1);
+            packets[size++] = multiPacket;
+        }
+
+        private void remove(MultiPacket multiPacket) {
+            for (int i = 0; i < size; i++) {
+                if (packets[i] == multiPacket) {
+                    System.arraycopy(packets, i + 1, packets, i, size - i - 1);
+                    packets[--size] = null;
+                    bytes -= multiPacket.getBytes();
+                    return;
                 }
             }
-        });
-        thread.setName("MultiPacketListener");
-        thread.setPriority(Thread.MIN_PRIORITY);
-        thread.setDaemon(true);
-        thread.start();
+        }
     }
-}
\ No newline at end of file
+}
@@ -29,4 +29,31 @@ public class MultiPacketListener {
     public boolean receiveTimeout(MultiPacket multiPacket) {
         return false;
     }
+
+    /**
+     * 距最后一次接收(或补传请求)多久后视为超时，可按重试次数退避
+     * @param multiPacket 分包信息
+     * @return 毫秒
+     */
+    public long delay(MultiPacket multiPacket) {
+        return timeout;
+    }
+
+    /**
+     * 分包消息接收完成
+     * @param multiPacket 分包信息
+     */
+    public void receiveComplete(MultiPacket multiPacket) {
+    }
+
+    /**
+     * 分包消息被丢弃(超时或超出缓存上限)，分包数据已释放
+     * @param multiPacket 分包信息
+     */
+    public void receiveDiscard(MultiPacket multiPacket) {
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
 }
\ No newline at end of file
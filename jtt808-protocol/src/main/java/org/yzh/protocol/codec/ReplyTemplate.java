@@ -0,0 +1,138 @@
+package org.yzh.protocol.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.commons.JTUtils;
+import org.yzh.protocol.t808.T0001;
+
+/**
+ * 通用应答(0x8001/0x0001)的报文模板
+ * 每个协议版本预先构建一帧：标识位[1] + 消息头 + 消息体[5]，消息ID为平台通用应答、消息体长度为5；
+ * 编码时复制模板，写入消息体属性、协议版本号、终端手机号、流水号及应答字段，再计算校验码并转义，不经过消息头和消息体的Schema；
+ * 与Schema的编码结果逐字节相同，分包或终端手机号含非16进制字符时返回null，由调用方按Schema编码
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public final class ReplyTemplate {
+
+    private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+    /** 消息体长度：应答流水号[2] + 应答ID[2] + 结果[1] */
+    public static final int BODY_LENGTH = 5;
+
+    /** 消息体属性中的版本标识 */
+    private static final int VERSION = 0b0100_0000_0000_0000;
+
+    private static final byte[] V2013 = template(0);
+    private static final byte[] V2019 = template(1);
+
+    private ReplyTemplate() {
+    }
+
+    private static byte[] template(int version) {
+        byte[] frame = new byte[1 + JTUtils.headerLength(version, false) + BODY_LENGTH];
+        frame[0] = 0x7e;
+        frame[1] = (byte) (JT808.平台通用应答 >>> 8);
+        frame[2] = (byte) JT808.平台通用应答;
+        frame[3] = (byte) (BODY_LENGTH >>> 8);
+        frame[4] = (byte) BODY_LENGTH;
+        return frame;
+    }
+
+    /** @return 完整的报文(含标识位)，无法使用模板时返回null */
+    public static ByteBuf encode(T0001 message) {
+        if (message.isSubpackage())
+            return null;
+        int version = message.getProtocolVersion();
+        byte[] template = version > 0 ? V2019 : V2013;
+        int clientIdLength = version > 0 ? 10 : 6;
+
+        //消息体长度与模板一致，其余属性位(加密、版本标识等)取自消息
+        message.setBodyLength(BODY_LENGTH);
+        //转义后最长为(模板长度 - 1) * 2 + 校验码[2] + 标识位[1]
+        ByteBuf output = ALLOC.buffer(template.length + 8, template.length * 2 + 2);
+        output.writeBytes(template);
+        int i = 1;
+        if (message.getMessageId() != JT808.平台通用应答)
+            output.setShort(i, message.getMessageId());
+        output.setShort(i + 2, message.getProperties());
+        i += 4;
+        if (version > 0)
+            output.setByte(i++, version);
+        if (!writeBCD(output, i, message.getClientId(), clientIdLength)) {
+            output.release();
+            return null;
+        }
+        i += clientIdLength;
+        output.setShort(i, message.getSerialNo());
+        output.setShort(i + 2, message.getResponseSerialNo());
+        output.setShort(i + 4, message.getResponseMessageId());
+        output.setByte(i + 6, message.getResultCode());
+
+        JTMessageEncoder.signAndEscape(output, 1);
+        return output;
+    }
+
+    /**
+     * 按请求的消息头直接生成平台通用应答，终端手机号、协议版本号从请求复制，不解析为字符串也不创建消息对象
+     * @param request 反转义后的请求，index为消息头起始位置，消息头不分包
+     * @param serialNo 应答的流水号
+     */
+    public static ByteBuf encode(ByteBuf request, int index, int serialNo, int resultCode) {
+        int properties = request.getUnsignedShort(index + 2);
+        int version = (properties & VERSION) != 0 ? request.getUnsignedByte(index + 4) : 0;
+        byte[] template = version > 0 ? V2019 : V2013;
+        int clientIdLength = version > 0 ? 10 : 6;
+
+        ByteBuf output = ALLOC.buffer(template.length + 8, template.length * 2 + 2);
+        output.writeBytes(template);
+        int i = 3;
+        output.setShort(i, properties & VERSION | BODY_LENGTH);
+        i += 2;
+        int from = index + 4;
+        if (version > 0) {
+            output.setByte(i++, version);
+            from++;
+        }
+        output.setBytes(i, request, from, clientIdLength);
+        i += clientIdLength;
+        output.setShort(i, serialNo);
+        output.setShort(i + 2, request.getUnsignedShort(from + clientIdLength));
+        output.setShort(i + 4, request.getUnsignedShort(index));
+        output.setByte(i + 6, resultCode);
+
+        JTMessageEncoder.signAndEscape(output, 1);
+        return output;
+    }
+
+    /**
+     * 与Schema的BCD字符串编码一致：不足length * 2位时左补0，超出时取末尾length * 2位；为null时全0
+     * @return false 含非16进制字符
+     */
+    private static boolean writeBCD(ByteBuf output, int index, String value, int length) {
+        if (value == null)
+            return true;
+        int digits = length << 1;
+        int padding = digits - value.length();
+        for (int i = 0; i < digits; i += 2) {
+            int high = i < padding ? 0 : digit(value.charAt(i - padding));
+            int low = i + 1 < padding ? 0 : digit(value.charAt(i + 1 - padding));
+            if ((high | low) < 0)
+                return false;
+            output.setByte(index + (i >> 1), high << 4 | low);
+        }
+        return true;
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+}
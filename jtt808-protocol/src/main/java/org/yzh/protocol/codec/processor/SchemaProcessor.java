@@ -0,0 +1,678 @@
+package org.yzh.protocol.codec.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 编译期根据@Field注解生成消息体编解码器(XxxSchema)
+ * 字段顺序、版本划分与protostar的RuntimeSchema一致：基础数值类型直接读写，其余字段委托protostar对应的BasicField，
+ * lengthExpression翻译为Java表达式；无法生成的类(如无setter、不支持的表达式)保持使用RuntimeSchema
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@SupportedAnnotationTypes({SchemaProcessor.FIELD, SchemaProcessor.FS})
+public class SchemaProcessor extends AbstractProcessor {
+
+    static final String FIELD = "io.github.yezhihao.protostar.annotation.Field";
+    static final String FS = "io.github.yezhihao.protostar.annotation.Fs";
+    static final String MERGE_SUPERCLASS = "io.github.yezhihao.protostar.annotation.MergeSuperclass";
+    static final String SCHEMA = "io.github.yezhihao.protostar.Schema";
+
+    static final int DEFAULT_VERSION = Integer.MAX_VALUE;
+
+    private static final Set<String> LEAF_TYPES = new HashSet<>(Arrays.asList(
+            "java.lang.String", "io.netty.buffer.ByteBuf", "java.nio.ByteBuffer"));
+
+    private static final Map<String, Integer> NUMBER = new HashMap<>();
+
+    static {
+        String[][] numbers = {
+                {"boolean", "java.lang.Boolean", "1"}, {"char", "java.lang.Character", "2"},
+                {"byte", "java.lang.Byte", "1"}, {"short", "java.lang.Short", "2"},
+                {"int", "java.lang.Integer", "4"}, {"long", "java.lang.Long", "8"},
+                {"float", "java.lang.Float", "4"}, {"double", "java.lang.Double", "8"}};
+        for (String[] number : numbers) {
+            NUMBER.put(number[0], Integer.parseInt(number[2]));
+            NUMBER.put(number[1], Integer.parseInt(number[2]));
+        }
+    }
+
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*|\\d+|\\s+|==|!=|<=|>=|&&|\\|\\||[-+*/%()?:<>!]");
+
+    private Elements elements;
+    private Types types;
+
+    private final Map<String, Model> models = new HashMap<>();
+    private final Set<String> resolving = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver())
+            return false;
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+
+        Set<TypeElement> candidates = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.FIELD)
+                    candidates.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+        for (Element element : roundEnv.getRootElements()) {
+            for (TypeElement type : ElementFilter.typesIn(Collections.singleton(element)))
+                collectMergeSubclasses(type, candidates);
+        }
+
+        for (TypeElement type : candidates) {
+            Model model = model(type);
+            if (model == null || model.skip != null) {
+                note(type, model == null ? "unsupported field" : model.skip);
+                continue;
+            }
+            try {
+                write(model);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.toString(), type);
+            }
+        }
+        return false;
+    }
+
+    private void collectMergeSubclasses(TypeElement type, Set<TypeElement> candidates) {
+        if (annotation(type, MERGE_SUPERCLASS) != null)
+            candidates.add(type);
+        for (TypeElement inner : ElementFilter.typesIn(type.getEnclosedElements()))
+            collectMergeSubclasses(inner, candidates);
+    }
+
+    private void note(TypeElement type, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "RuntimeSchema: " + type.getQualifiedName() + " (" + reason + ")");
+    }
+
+    /** 与ProtostarUtil.getRuntimeSchema相同的规则划分版本，返回null表示含有无法解析的字段 */
+    private Model model(TypeElement type) {
+        String key = type.getQualifiedName().toString();
+        Model model = models.get(key);
+        if (model != null || models.containsKey(key))
+            return model;
+        if (!resolving.add(key))
+            return null;
+        try {
+            model = build(type);
+        } finally {
+            resolving.remove(key);
+        }
+        models.put(key, model);
+        return model;
+    }
+
+    private Model build(TypeElement type) {
+        List<VariableElement> fields = findFields(type);
+        if (fields.isEmpty())
+            return null;
+
+        Model model = new Model(type);
+        TreeMap<Integer, LinkedHashMap<VariableElement, Entry>> versions = new TreeMap<>();
+
+        for (int i = 0; i < fields.size(); i++) {
+            VariableElement field = fields.get(i);
+            List<AnnotationMirror> annotations = fieldAnnotations(field);
+            for (int j = 0; j < annotations.size(); j++) {
+                AnnotationMirror annotation = annotations.get(j);
+                Entry entry = entry(field, annotation, j, i);
+                if (entry == null)
+                    return null;
+
+                int[] explicit = intArray(value(annotation, "version"));
+                int[] keys = explicit;
+                if (keys.length == 0) {
+                    if (entry.nested == null) {
+                        keys = new int[]{DEFAULT_VERSION};
+                    } else {
+                        Model nested = model(entry.nested);
+                        if (nested == null)
+                            return null;
+                        keys = nested.keys();
+                    }
+                }
+                for (int version : keys) {
+                    LinkedHashMap<VariableElement, Entry> set = versions.computeIfAbsent(version, k -> new LinkedHashMap<>());
+                    set.putIfAbsent(field, entry.nestedVersion(version));
+                }
+            }
+        }
+
+        LinkedHashMap<VariableElement, Entry> all = versions.get(DEFAULT_VERSION);
+        for (Map.Entry<Integer, LinkedHashMap<VariableElement, Entry>> e : versions.entrySet()) {
+            List<Entry> list = new ArrayList<>(e.getValue().values());
+            if (all != null && e.getKey() != DEFAULT_VERSION) {
+                for (Map.Entry<VariableElement, Entry> a : all.entrySet()) {
+                    if (!e.getValue().containsKey(a.getKey()))
+                        list.add(a.getValue());
+                }
+            }
+            list.sort(Comparator.comparingInt(o -> o.index));
+            model.versions.put(e.getKey(), list);
+        }
+
+        model.skip = checkGenerable(model);
+        return model;
+    }
+
+    private String checkGenerable(Model model) {
+        TypeElement type = model.type;
+        Set<Modifier> modifiers = type.getModifiers();
+        if (type.getKind() != ElementKind.CLASS || modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.PRIVATE))
+            return "not a concrete accessible class";
+        if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC))
+            return "inner class";
+        if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS)
+            return "local class";
+        if (!type.getTypeParameters().isEmpty())
+            return "generic class";
+        for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE))
+                return "private enclosing class";
+        }
+        boolean constructor = false;
+        for (ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))
+                constructor = true;
+        }
+        if (!constructor)
+            return "no accessible no-arg constructor";
+
+        for (List<Entry> entries : model.versions.values()) {
+            for (Entry entry : entries) {
+                if (!accessibleType(type, types.erasure(entry.type)))
+                    return "inaccessible type of " + entry.name;
+                if (entry.getter == null) {
+                    entry.getter = accessor(type, entry, true);
+                    entry.setter = accessor(type, entry, false);
+                    if (entry.getter == null || entry.setter == null)
+                        return "no getter/setter for " + entry.name;
+                }
+                if (entry.expression != null && entry.lengthExpression == null) {
+                    entry.lengthExpression = translate(type, entry.expression);
+                    if (entry.lengthExpression == null)
+                        return "unsupported lengthExpression: " + entry.expression;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** 与ProtostarUtil.findFields相同：@MergeSuperclass时合并父类字段 */
+    private List<VariableElement> findFields(TypeElement type) {
+        LinkedList<VariableElement> list = new LinkedList<>();
+        boolean addFirst = false;
+        TypeElement current = type;
+        while (current != null) {
+            List<VariableElement> declared = ElementFilter.fieldsIn(current.getEnclosedElements());
+            if (addFirst)
+                list.addAll(0, declared);
+            else
+                list.addAll(declared);
+
+            AnnotationMirror merge = annotation(current, MERGE_SUPERCLASS);
+            if (merge == null)
+                break;
+            addFirst = (Boolean) value(merge, "addFirst");
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+        }
+
+        List<VariableElement> result = new ArrayList<>(list.size());
+        for (VariableElement field : list) {
+            if (annotation(field, FIELD) != null || annotation(field, FS) != null)
+                result.add(field);
+        }
+        return result;
+    }
+
+    private List<AnnotationMirror> fieldAnnotations(VariableElement field) {
+        AnnotationMirror single = annotation(field, FIELD);
+        if (single != null)
+            return Collections.singletonList(single);
+        List<AnnotationMirror> result = new ArrayList<>();
+        for (Object value : (List<?>) value(annotation(field, FS), "value"))
+            result.add((AnnotationMirror) ((AnnotationValue) value).getValue());
+        return result;
+    }
+
+    /** 与SchemaRegistry.get的类型判断顺序一致 */
+    private Entry entry(VariableElement field, AnnotationMirror annotation, int annotationIndex, int position) {
+        Entry entry = new Entry();
+        entry.field = field;
+        entry.owner = (TypeElement) field.getEnclosingElement();
+        entry.name = field.getSimpleName().toString();
+        entry.type = field.asType();
+        entry.annotationIndex = annotationIndex;
+        int index = (Integer) value(annotation, "index");
+        entry.index = index != 0 ? index : position;
+
+        int length = (Integer) value(annotation, "length");
+        String charset = ((String) value(annotation, "charset")).toUpperCase();
+        String expression = (String) value(annotation, "lengthExpression");
+        TypeMirror converter = (TypeMirror) value(annotation, "converter");
+        String typeName = typeName(entry.type);
+
+        Integer numberLength = NUMBER.get(typeName);
+        entry.length = length > 0 ? length : (numberLength != null ? numberLength : 16);
+        if (!expression.isEmpty())
+            entry.expression = expression;
+
+        if (numberLength != null) {
+            if (entry.type.getKind().isPrimitive() && entry.expression == null && !"LE".equals(charset))
+                entry.inline = inline(typeName, length);
+            return entry;
+        }
+        if (LEAF_TYPES.contains(typeName) || isTemporal(entry.type) || isPrimitiveArray(entry.type))
+            return entry;
+        if (!SCHEMA.equals(typeName(converter)))
+            return entry;
+
+        if (entry.expression != null)
+            return null;
+        if (isAssignable(entry.type, "java.util.Map") || entry.type.getKind() == TypeKind.ARRAY)
+            return null;
+        TypeMirror nested = entry.type;
+        if (isAssignable(entry.type, "java.util.Collection")) {
+            List<? extends TypeMirror> arguments = ((DeclaredType) entry.type).getTypeArguments();
+            if (arguments.size() != 1)
+                return null;
+            nested = arguments.get(0);
+        }
+        if (nested.getKind() != TypeKind.DECLARED)
+            return null;
+        entry.nested = (TypeElement) types.asElement(nested);
+        return entry;
+    }
+
+    /** NumberPSchema中readAndSet与getAndWrite的等价写法 */
+    private static String[] inline(String type, int length) {
+        switch (type) {
+            case "int":
+                if (length == 1)
+                    return new String[]{"input.readUnsignedByte()", "output.writeByte(%s)"};
+                if (length == 2)
+                    return new String[]{"input.readUnsignedShort()", "output.writeShort(%s)"};
+                if (length == 4 || length <= 0)
+                    return new String[]{"input.readInt()", "output.writeInt(%s)"};
+                return null;
+            case "long":
+                if (length == 4)
+                    return new String[]{"input.readUnsignedInt()", "output.writeInt((int) %s)"};
+                return null;
+            case "short":
+                if (length == 2 || length <= 0)
+                    return new String[]{"input.readShort()", "output.writeShort(%s)"};
+                return null;
+            case "byte":
+                if (length == 1 || length <= 0)
+                    return new String[]{"input.readByte()", "output.writeByte(%s)"};
+                return null;
+            case "boolean":
+                if (length <= 0)
+                    return new String[]{"input.readBoolean()", "output.writeBoolean(%s)"};
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private String accessor(TypeElement type, Entry entry, boolean getter) {
+        String name = entry.name;
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        List<String> candidates = new ArrayList<>(3);
+        if (getter) {
+            if (entry.type.getKind() == TypeKind.BOOLEAN)
+                candidates.add("is" + capitalized);
+            candidates.add("get" + capitalized);
+        } else {
+            candidates.add("set" + capitalized);
+        }
+        for (String candidate : candidates) {
+            for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+                if (!method.getSimpleName().contentEquals(candidate) || !accessible(type, method))
+                    continue;
+                if (getter ? method.getParameters().isEmpty() : method.getParameters().size() == 1)
+                    return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean accessible(TypeElement type, Element member) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PUBLIC))
+            return true;
+        if (modifiers.contains(Modifier.PRIVATE))
+            return false;
+        return elements.getPackageOf(member).equals(elements.getPackageOf(type));
+    }
+
+    private boolean accessibleType(TypeElement type, TypeMirror mirror) {
+        if (mirror.getKind() == TypeKind.ARRAY)
+            return accessibleType(type, ((javax.lang.model.type.ArrayType) mirror).getComponentType());
+        if (mirror.getKind() != TypeKind.DECLARED)
+            return true;
+        for (Element e = types.asElement(mirror); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (!accessible(type, e))
+                return false;
+        }
+        return true;
+    }
+
+    /** 将SpEL长度表达式翻译为Java表达式：方法调用与属性访问均指向消息对象 */
+    private String translate(TypeElement type, String expression) {
+        StringBuilder sb = new StringBuilder(expression.length() + 16);
+        Matcher matcher = TOKEN.matcher(expression);
+        int end = 0;
+        while (matcher.find()) {
+            if (matcher.start() != end)
+                return null;
+            end = matcher.end();
+            String token = matcher.group();
+            if (!Character.isJavaIdentifierStart(token.charAt(0))) {
+                sb.append(token);
+                continue;
+            }
+            if (token.equals("true") || token.equals("false")) {
+                sb.append(token);
+                continue;
+            }
+            int next = end;
+            while (next < expression.length() && Character.isWhitespace(expression.charAt(next)))
+                next++;
+            if (next < expression.length() && expression.charAt(next) == '(') {
+                if (!hasMethod(type, token))
+                    return null;
+                sb.append("message.").append(token);
+            } else {
+                Entry property = new Entry();
+                property.name = token;
+                property.type = elements.getTypeElement("java.lang.Object").asType();
+                String getter = accessor(type, property, true);
+                if (getter == null)
+                    return null;
+                sb.append("message.").append(getter).append("()");
+            }
+        }
+        return end == expression.length() ? sb.toString() : null;
+    }
+
+    private boolean hasMethod(TypeElement type, String name) {
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            if (method.getSimpleName().contentEquals(name) && accessible(type, method))
+                return true;
+        }
+        return false;
+    }
+
+    private void write(Model model) throws IOException {
+        TypeElement type = model.type;
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String typeName = type.getQualifiedName().toString();
+        String simpleName = schemaName(type);
+
+        StringBuilder sb = new StringBuilder(8192);
+        sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("import io.github.yezhihao.protostar.field.BasicField;\n");
+        sb.append("import io.netty.buffer.ByteBuf;\n");
+        sb.append("import org.yzh.protocol.codec.CompiledSchema;\n\n");
+        sb.append("/**\n * 由").append(SchemaProcessor.class.getSimpleName()).append("根据").append(typeName)
+                .append("的@Field注解生成，请勿修改\n */\n");
+        sb.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        sb.append("public final class ").append(simpleName).append(" {\n\n");
+        sb.append("    private ").append(simpleName).append("() {\n    }\n\n");
+        sb.append("    public static CompiledSchema<?>[] create() {\n");
+        sb.append("        return new CompiledSchema<?>[]{");
+        int n = 0;
+        for (Integer version : model.versions.keySet()) {
+            if (n++ > 0)
+                sb.append(", ");
+            sb.append("new ").append(variantName(version)).append("()");
+        }
+        sb.append("};\n    }\n");
+
+        for (Map.Entry<Integer, List<Entry>> e : model.versions.entrySet())
+            writeVariant(sb, typeName, e.getKey(), e.getValue());
+        sb.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(packageName + "." + simpleName, type).openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    private void writeVariant(StringBuilder sb, String typeName, int version, List<Entry> entries) {
+        String name = variantName(version);
+        String versionLiteral = version == DEFAULT_VERSION ? "Integer.MAX_VALUE" : Integer.toString(version);
+
+        sb.append("\n    static final class ").append(name).append(" extends CompiledSchema<").append(typeName).append("> {\n");
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.inline != null)
+                continue;
+            String nestedVersion = entry.nestedVersion == DEFAULT_VERSION ? "Integer.MAX_VALUE" : Integer.toString(entry.nestedVersion);
+            sb.append("        private final BasicField f").append(i).append(" = field(")
+                    .append(entry.owner.getQualifiedName()).append(".class, \"").append(entry.name).append("\", ")
+                    .append(entry.annotationIndex).append(", ").append(entry.index).append(", ").append(nestedVersion).append(");\n");
+        }
+        int length = 0;
+        StringBuilder names = new StringBuilder();
+        for (Entry entry : entries) {
+            length += entry.length;
+            if (names.length() > 0)
+                names.append(", ");
+            names.append('"').append(entry.name).append('"');
+        }
+        sb.append("\n        ").append(name).append("() {\n");
+        sb.append("            super(").append(typeName).append(".class, ").append(versionLiteral).append(", ")
+                .append(length).append(", new String[]{").append(names).append("});\n        }\n");
+
+        sb.append("\n        @Override\n        public ").append(typeName).append(" newInstance() {\n");
+        sb.append("            return new ").append(typeName).append("();\n        }\n");
+
+        sb.append("\n        @Override\n        public ").append(typeName).append(" mergeFrom(ByteBuf input, ").append(typeName).append(" message) {\n");
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            sb.append("            if (!input.isReadable())\n                return message;\n");
+            if (entry.inline != null) {
+                sb.append("            message.").append(entry.setter).append('(').append(entry.inline[0]).append(");\n");
+            } else if (entry.lengthExpression != null) {
+                sb.append("            int len").append(i).append(" = ").append(entry.lengthExpression).append(";\n");
+                sb.append("            if (len").append(i).append(" > 0)\n    ");
+                sb.append("            message.").append(entry.setter).append('(')
+                        .append(cast(entry, "f" + i + ".readFrom(input, len" + i + ")")).append(");\n");
+            } else {
+                sb.append("            message.").append(entry.setter).append('(').append(cast(entry, "f" + i + ".readFrom(input)")).append(");\n");
+            }
+        }
+        sb.append("            return message;\n        }\n");
+
+        sb.append("\n        @Override\n        public void writeTo(ByteBuf output, ").append(typeName).append(" message) {\n");
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            String value = "message." + entry.getter + "()";
+            if (entry.inline != null) {
+                sb.append("            ").append(String.format(entry.inline[1], value)).append(";\n");
+            } else if (entry.lengthExpression != null) {
+                sb.append("            int len").append(i).append(" = ").append(entry.lengthExpression).append(";\n");
+                sb.append("            if (len").append(i).append(" > 0)\n    ");
+                sb.append("            f").append(i).append(".writeTo(output, len").append(i).append(", ").append(value).append(");\n");
+            } else {
+                sb.append("            f").append(i).append(".writeTo(output, ").append(value).append(");\n");
+            }
+        }
+        sb.append("        }\n    }\n");
+    }
+
+    private String cast(Entry entry, String expression) {
+        TypeKind kind = entry.type.getKind();
+        switch (kind) {
+            case BOOLEAN:
+                return "(Boolean) " + expression;
+            case CHAR:
+                return "(Character) " + expression;
+            case BYTE:
+                return "((Number) " + expression + ").byteValue()";
+            case SHORT:
+                return "((Number) " + expression + ").shortValue()";
+            case INT:
+                return "((Number) " + expression + ").intValue()";
+            case LONG:
+                return "((Number) " + expression + ").longValue()";
+            case FLOAT:
+                return "((Number) " + expression + ").floatValue()";
+            case DOUBLE:
+                return "((Number) " + expression + ").doubleValue()";
+            default:
+                return "(" + types.erasure(entry.type) + ") " + expression;
+        }
+    }
+
+    /** 生成类名：嵌套类以下划线连接，如T8600.Circle对应T8600_CircleSchema */
+    static String schemaName(TypeElement type) {
+        StringBuilder sb = new StringBuilder(type.getSimpleName());
+        for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement())
+            sb.insert(0, '_').insert(0, e.getSimpleName());
+        return sb.append("Schema").toString();
+    }
+
+    private static String variantName(int version) {
+        if (version == DEFAULT_VERSION)
+            return "VDefault";
+        return version < 0 ? "V_" + (-version) : "V" + version;
+    }
+
+    private String typeName(TypeMirror type) {
+        if (type.getKind().isPrimitive())
+            return type.toString();
+        if (type.getKind() == TypeKind.DECLARED)
+            return ((TypeElement) types.asElement(type)).getQualifiedName().toString();
+        return types.erasure(type).toString();
+    }
+
+    private boolean isTemporal(TypeMirror type) {
+        return isAssignable(type, "java.time.temporal.Temporal");
+    }
+
+    private boolean isPrimitiveArray(TypeMirror type) {
+        return type.getKind() == TypeKind.ARRAY && ((javax.lang.model.type.ArrayType) type).getComponentType().getKind().isPrimitive();
+    }
+
+    private boolean isAssignable(TypeMirror type, String className) {
+        TypeElement element = elements.getTypeElement(className);
+        return element != null && types.isAssignable(types.erasure(type), types.erasure(element.asType()));
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name))
+                return mirror;
+        }
+        return null;
+    }
+
+    private Object value(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : elements.getElementValuesWithDefaults(annotation).entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals(name))
+                return e.getValue().getValue();
+        }
+        return null;
+    }
+
+    private int[] intArray(Object value) {
+        List<?> list = (List<?>) value;
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (Integer) ((AnnotationValue) list.get(i)).getValue();
+        return result;
+    }
+
+    private static class Model {
+        final TypeElement type;
+        final TreeMap<Integer, List<Entry>> versions = new TreeMap<>();
+        String skip;
+
+        Model(TypeElement type) {
+            this.type = type;
+        }
+
+        /** 与ArrayMap.keys()一致：区间内的空位由默认版本填充，仅有默认版本时包含0 */
+        int[] keys() {
+            boolean hasDefault = versions.containsKey(DEFAULT_VERSION);
+            List<Integer> explicit = new ArrayList<>(versions.keySet());
+            explicit.remove((Integer) DEFAULT_VERSION);
+
+            List<Integer> keys = new ArrayList<>();
+            if (explicit.isEmpty()) {
+                if (hasDefault)
+                    keys.add(0);
+            } else {
+                for (int v = explicit.get(0), max = explicit.get(explicit.size() - 1); v <= max; v++) {
+                    if (hasDefault || versions.containsKey(v))
+                        keys.add(v);
+                }
+            }
+            if (hasDefault)
+                keys.add(DEFAULT_VERSION);
+
+            int[] result = new int[keys.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = keys.get(i);
+            return result;
+        }
+    }
+
+    private static class Entry implements Cloneable {
+        VariableElement field;
+        TypeElement owner;
+        String name;
+        TypeMirror type;
+        int annotationIndex;
+        int index;
+        int length;
+        String expression;
+        String lengthExpression;
+        String[] inline;
+        TypeElement nested;
+        int nestedVersion = DEFAULT_VERSION;
+        String getter;
+        String setter;
+
+        Entry nestedVersion(int version) {
+            if (nested == null)
+                return this;
+            try {
+                Entry copy = (Entry) clone();
+                copy.nestedVersion = version;
+                return copy;
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -4,6 +4,10 @@ import io.netty.buffer.ByteBuf;
 
 public class JTUtils {
 
+    public static final long ESCAPE = 0x7d7d7d7d7d7d7d7dL;
+    public static final long DELIMITER = 0x7e7e7e7e7e7e7e7eL;
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+
     /**
      * BCC校验(异或校验)
      */
@@ -16,6 +20,24 @@ public class JTUtils {
         return cs;
     }
 
+    /**
+     * 按8字节比较，与pattern相同的字节最高位置1，其余为0(无进位误判)
+     * @param word 大端顺序读取的8个字节
+     * @param pattern 8个相同字节组成的比较值，如 ESCAPE、DELIMITER
+     */
+    public static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    /** 将8字节异或折叠为1字节 */
+    public static int fold(long word) {
+        word ^= word >>> 32;
+        word ^= word >>> 16;
+        word ^= word >>> 8;
+        return (int) word & 0xff;
+    }
+
     public static int headerLength(int version, boolean isSubpackage) {
         if (version > 0)
             return isSubpackage ? 21 : 17;
@@ -0,0 +1,252 @@
+package org.yzh.protocol.t808;
+
+import io.github.yezhihao.protostar.ProtostarUtil;
+import io.github.yezhihao.protostar.schema.RuntimeSchema;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.commons.JT808;
+
+import java.time.LocalDateTime;
+
+/**
+ * 位置信息汇报(0x0200)的只读视图
+ * 直接从反转义后的消息体读取各字段，不创建LocalDateTime、Map及附加信息的装箱对象；
+ * 可通过wrap复用同一实例扫描多个缓冲区，也可由解码器为声明此类型的Handler生成
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class T0200View extends JTMessage {
+
+    /** 固定部分长度：报警标志(4)、状态(4)、纬度(4)、经度(4)、高程(2)、速度(2)、方向(2)、时间(6) */
+    public static final int FIXED_LENGTH = 28;
+
+    private ByteBuf buf;
+    private int offset;
+    private int length;
+
+    private final Attributes attributes = new Attributes();
+
+    public T0200View() {
+        setMessageId(JT808.位置信息汇报);
+    }
+
+    /** 绑定消息体，不复制不持有引用计数；缓冲区须在视图使用期间保持有效 */
+    public T0200View wrap(ByteBuf buf, int offset, int length) {
+        if (length < FIXED_LENGTH)
+            throw new IndexOutOfBoundsException("0x0200 body length " + length + " < " + FIXED_LENGTH);
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public T0200View wrap(ByteBuf buf) {
+        return wrap(buf, buf.readerIndex(), buf.readableBytes());
+    }
+
+    public ByteBuf getBuf() {
+        return buf;
+    }
+
+    public int getWarnBit() {
+        return buf.getInt(offset);
+    }
+
+    public int getStatusBit() {
+        return buf.getInt(offset + 4);
+    }
+
+    public int getLatitude() {
+        return buf.getInt(offset + 8);
+    }
+
+    public int getLongitude() {
+        return buf.getInt(offset + 12);
+    }
+
+    public int getAltitude() {
+        return buf.getUnsignedShort(offset + 16);
+    }
+
+    public int getSpeed() {
+        return buf.getUnsignedShort(offset + 18);
+    }
+
+    public int getDirection() {
+        return buf.getUnsignedShort(offset + 20);
+    }
+
+    /** 时间(YYMMDDHHMMSS)的十进制数值，如230102030405 */
+    public long getDeviceTimeValue() {
+        long value = 0;
+        for (int i = offset + 22, end = i + 6; i < end; i++)
+            value = value * 100 + bcd(buf.getByte(i));
+        return value;
+    }
+
+    /**
+     * 设备时间的纪元秒
+     * @param offsetSeconds 设备时间所在时区相对UTC的偏移秒数，如东八区为28800
+     */
+    public long getDeviceEpochSecond(int offsetSeconds) {
+        int i = offset + 22;
+        int year = 2000 + bcd(buf.getByte(i));
+        int month = bcd(buf.getByte(i + 1));
+        int day = bcd(buf.getByte(i + 2));
+        int hour = bcd(buf.getByte(i + 3));
+        int minute = bcd(buf.getByte(i + 4));
+        int second = bcd(buf.getByte(i + 5));
+        return epochDay(year, month, day) * 86400L + hour * 3600 + minute * 60 + second - offsetSeconds;
+    }
+
+    public LocalDateTime getDeviceTime() {
+        int i = offset + 22;
+        return LocalDateTime.of(2000 + bcd(buf.getByte(i)), bcd(buf.getByte(i + 1)), bcd(buf.getByte(i + 2)),
+                bcd(buf.getByte(i + 3)), bcd(buf.getByte(i + 4)), bcd(buf.getByte(i + 5)));
+    }
+
+    /** 位置附加信息游标，每个视图复用同一实例，非线程安全 */
+    public Attributes attributes() {
+        return attributes.reset();
+    }
+
+    /** 查找附加信息项，返回其无符号整数值，不存在时返回defaultValue */
+    public long getAttribute(int id, long defaultValue) {
+        Attributes it = attributes();
+        while (it.next()) {
+            if (it.id() == id)
+                return it.longValue();
+        }
+        return defaultValue;
+    }
+
+    /** 按T0200的转换器解析为完整对象 */
+    public T0200 toT0200() {
+        RuntimeSchema<T0200> schema = ProtostarUtil.getRuntimeSchema(T0200.class, getProtocolVersion());
+        T0200 message = new T0200();
+        message.setMessageId(messageId);
+        message.setProperties(properties);
+        message.setProtocolVersion(protocolVersion);
+        message.setClientId(clientId);
+        message.setSerialNo(serialNo);
+        message.setPackageTotal(packageTotal);
+        message.setPackageNo(packageNo);
+        message.setVerified(verified);
+        message.setPayload(getPayload());
+        message.setSession(getSession());
+        schema.mergeFrom(buf.slice(offset, length), message);
+        return message;
+    }
+
+    /**
+     * 按T0200的转换器将完整对象编码为视图，用于定位数据批量上传(0x0704)中的位置项
+     * @param header 提供终端手机号、协议版本、流水号及会话的消息
+     */
+    public static T0200View of(JTMessage header, T0200 body) {
+        RuntimeSchema<T0200> schema = ProtostarUtil.getRuntimeSchema(T0200.class, header.getProtocolVersion());
+        ByteBuf buf = Unpooled.buffer(FIXED_LENGTH + 32);
+        schema.writeTo(buf, body);
+        T0200View view = new T0200View();
+        view.setProtocolVersion(header.getProtocolVersion());
+        view.setClientId(header.getClientId());
+        view.setSerialNo(header.getSerialNo());
+        view.setSession(header.getSession());
+        return view.wrap(buf);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = toStringHead();
+        sb.append("T0200View{deviceTime=").append(getDeviceTimeValue());
+        sb.append(",longitude=").append(getLongitude());
+        sb.append(",latitude=").append(getLatitude());
+        sb.append(",altitude=").append(getAltitude());
+        sb.append(",speed=").append(getSpeed());
+        sb.append(",direction=").append(getDirection());
+        sb.append(",warnBit=").append(Integer.toBinaryString(getWarnBit()));
+        sb.append(",statusBit=").append(Integer.toBinaryString(getStatusBit()));
+        sb.append(",attributes={");
+        Attributes it = attributes();
+        while (it.next())
+            sb.append(it.id()).append(':').append(it.length()).append(',');
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    /**
+     * 附加信息项游标：ID(BYTE) + 长度(BYTE) + 值
+     * 值按大端无符号整数读取，超过8字节的项(如ADAS报警)通过offset/length自行解析
+     */
+    public final class Attributes {
+        private int position;
+        private int id;
+        private int valueOffset;
+        private int valueLength;
+
+        private Attributes reset() {
+            position = offset + FIXED_LENGTH;
+            return this;
+        }
+
+        public boolean next() {
+            int end = offset + length;
+            if (position + 2 > end)
+                return false;
+            id = buf.getUnsignedByte(position);
+            valueLength = buf.getUnsignedByte(position + 1);
+            valueOffset = position + 2;
+            if (valueOffset + valueLength > end)
+                return false;
+            position = valueOffset + valueLength;
+            return true;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public int length() {
+            return valueLength;
+        }
+
+        /** 值在缓冲区中的起始位置 */
+        public int offset() {
+            return valueOffset;
+        }
+
+        public int intValue() {
+            return (int) longValue();
+        }
+
+        public long longValue() {
+            switch (valueLength) {
+                case 1:
+                    return buf.getUnsignedByte(valueOffset);
+                case 2:
+                    return buf.getUnsignedShort(valueOffset);
+                case 4:
+                    return buf.getUnsignedInt(valueOffset);
+                default:
+                    long value = 0;
+                    for (int i = valueOffset, end = i + Math.min(valueLength, 8); i < end; i++)
+                        value = (value << 8) | buf.getUnsignedByte(i);
+                    return value;
+            }
+        }
+    }
+
+    private static int bcd(byte b) {
+        return ((b >> 4) & 0xf) * 10 + (b & 0xf);
+    }
+
+    /** 公历日期距1970-01-01的天数 */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+}
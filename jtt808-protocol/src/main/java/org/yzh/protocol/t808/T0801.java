@@ -6,6 +6,12 @@ import io.netty.buffer.ByteBuf;
 import org.yzh.protocol.basics.JTMessage;
 import org.yzh.protocol.commons.JT808;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
  * @author yezhihao
  * https://gitee.com/yezhihao/jt808-server
@@ -27,6 +33,10 @@ public class T0801 extends JTMessage {
     private T0200 location;
     @Field(desc = "多媒体数据包")
     private ByteBuf packet;
+    /** 分包写入磁盘时(见MultiPacketDecoder.setMediaFileDir)，多媒体数据所在的临时文件，此时packet为空 */
+    private transient File file;
+    /** 文件写入完成，分包在写入线程中写入时不为空，见awaitFile */
+    private transient Future<?> written;
 
     public int getId() {
         return id;
@@ -84,6 +94,40 @@ public class T0801 extends JTMessage {
         this.packet = packet;
     }
 
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public void setFile(File file, Future<?> written) {
+        this.file = file;
+        this.written = written;
+    }
+
+    /**
+     * 等待分包全部写入文件，不可在I/O线程中调用
+     * @throws IOException 写入失败
+     */
+    public File awaitFile() throws IOException {
+        if (written != null) {
+            try {
+                written.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        return file;
+    }
+
     @Override
     public boolean noBuffer() {
         return packet == null;
@@ -1,15 +1,48 @@
 package org.yzh.protocol;
 
+import io.github.yezhihao.protostar.ProtostarUtil;
+import io.github.yezhihao.protostar.SchemaManager;
+import io.github.yezhihao.protostar.schema.RuntimeSchema;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
+import io.github.yezhihao.netmc.session.Packet;
+import io.github.yezhihao.netmc.session.Session;
+import io.github.yezhihao.netmc.session.SessionManager;
+import io.netty.channel.embedded.EmbeddedChannel;
 import org.junit.jupiter.api.Test;
 import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.codec.CompiledSchema;
+import org.yzh.protocol.codec.JTMessageAdapter;
+import org.yzh.protocol.codec.JTMessageDecoder;
+import org.yzh.protocol.codec.JTMessageEncoder;
+import org.yzh.protocol.codec.MultiPacket;
+import org.yzh.protocol.codec.MultiPacketDecoder;
+import org.yzh.protocol.codec.MultiPacketListener;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.t808.*;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * JT/T HEX单元测试类
@@ -36,6 +69,368 @@ public class TestHex {
         }
     }
 
+    @Test
+    public void testUnescapeMode() throws Exception {
+        JTMessageDecoder composite = new JTMessageDecoder("org.yzh.protocol");
+        composite.setContiguous(false);
+        JTMessageDecoder contiguous = new JTMessageDecoder("org.yzh.protocol");
+
+        try (BufferedReader reader = reader("target/test-classes/JT808.txt")) {
+            reader.lines().filter(hex -> !hex.isEmpty()).forEach(hex -> {
+                byte[] bytes = ByteBufUtil.decodeHexDump(hex);
+                JTMessage message1 = composite.decode(Unpooled.wrappedBuffer(bytes.clone()));
+                JTMessage message2 = contiguous.decode(Unpooled.wrappedBuffer(bytes.clone()));
+                assertEquals(message1.isVerified(), message2.isVerified(), hex);
+                assertEquals(BeanTest.gson.toJson(message1), BeanTest.gson.toJson(message2), hex);
+            });
+        }
+    }
+
+    @Test
+    public void testLocationView() throws Exception {
+        JTMessageDecoder decoder = new JTMessageDecoder("org.yzh.protocol");
+        JTMessageDecoder viewDecoder = new JTMessageDecoder("org.yzh.protocol");
+        viewDecoder.setLocationView(true);
+
+        List<byte[]> frames = new ArrayList<>();
+        try (BufferedReader reader = reader("target/test-classes/JT808.txt")) {
+            reader.lines().filter(hex -> hex.startsWith("7e0200")).forEach(hex -> frames.add(ByteBufUtil.decodeHexDump(hex)));
+        }
+        JTMessageEncoder encoder = new JTMessageEncoder("org.yzh.protocol");
+        for (T0200 bean : new T0200[]{JT808Beans.T0200Attributes(), JT808Beans.T0200JSATL12()}) {
+            frames.add(encode(encoder, JT808Beans.H2013(bean)));
+            frames.add(encode(encoder, JT808Beans.H2019(bean)));
+        }
+
+        for (byte[] bytes : frames) {
+            String hex = ByteBufUtil.hexDump(bytes);
+            T0200 bean = (T0200) decoder.decode(Unpooled.wrappedBuffer(bytes.clone()));
+            JTMessage message = viewDecoder.decode(Unpooled.wrappedBuffer(bytes.clone()));
+            assertTrue(message instanceof T0200View, hex);
+            T0200View view = (T0200View) message;
+
+            assertEquals(bean.getWarnBit(), view.getWarnBit(), hex);
+            assertEquals(bean.getStatusBit(), view.getStatusBit(), hex);
+            assertEquals(bean.getLatitude(), view.getLatitude(), hex);
+            assertEquals(bean.getLongitude(), view.getLongitude(), hex);
+            assertEquals(bean.getAltitude(), view.getAltitude(), hex);
+            assertEquals(bean.getSpeed(), view.getSpeed(), hex);
+            assertEquals(bean.getDirection(), view.getDirection(), hex);
+            assertEquals(bean.getDeviceTime(), view.getDeviceTime(), hex);
+            assertEquals(bean.getDeviceTime().toEpochSecond(ZoneOffset.ofHours(8)), view.getDeviceEpochSecond(8 * 3600), hex);
+
+            Map<Integer, Object> attributes = bean.getAttributes();
+            int count = 0;
+            T0200View.Attributes it = view.attributes();
+            while (it.next()) {
+                count++;
+                Object value = attributes.get(it.id());
+                if (value instanceof Number && it.length() <= 4)
+                    assertEquals(((Number) value).longValue() & ((1L << (it.length() * 8)) - 1), it.longValue(), hex);
+            }
+            assertEquals(attributes == null ? 0 : attributes.size(), count, hex);
+            assertEquals(BeanTest.gson.toJson(bean), BeanTest.gson.toJson(view.toT0200()), hex);
+        }
+    }
+
+    @Test
+    public void testCompiledSchema() throws Exception {
+        for (Class<?> type : new Class[]{JTMessage.class, T0200.class, T0100.class, T0704.class, T8600.class, T8103.class}) {
+            for (int version = -1; version <= 1; version++) {
+                RuntimeSchema<?> schema = ProtostarUtil.getRuntimeSchema(type, version);
+                assertNotNull(CompiledSchema.of(schema), schema.toString());
+            }
+        }
+        //生成了编解码器的消息，各版本都须与RuntimeSchema一致，否则会静默回退
+        for (Method method : JT808Beans.class.getMethods()) {
+            Class<?> type = method.getReturnType();
+            if (!JTMessage.class.isAssignableFrom(type) || !generated(type))
+                continue;
+            for (int version = 0; version < 2; version++) {
+                RuntimeSchema<?> schema = ProtostarUtil.getRuntimeSchema(type, version);
+                assertNotNull(CompiledSchema.of(schema), schema.toString());
+            }
+        }
+
+        JTMessageEncoder runtimeEncoder = new JTMessageEncoder("org.yzh.protocol");
+        runtimeEncoder.setCompiled(false);
+        runtimeEncoder.setReplyTemplate(false);
+        JTMessageEncoder compiledEncoder = new JTMessageEncoder("org.yzh.protocol");
+        compiledEncoder.setReplyTemplate(false);
+        JTMessageDecoder runtimeDecoder = new JTMessageDecoder("org.yzh.protocol");
+        runtimeDecoder.setCompiled(false);
+        JTMessageDecoder compiledDecoder = new JTMessageDecoder("org.yzh.protocol");
+
+        List<byte[]> frames = new ArrayList<>();
+        for (Method method : JT808Beans.class.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0 || !JTMessage.class.isAssignableFrom(method.getReturnType()))
+                continue;
+            for (int version = 0; version < 2; version++) {
+                JTMessage message1 = (JTMessage) method.invoke(null);
+                JTMessage message2 = (JTMessage) method.invoke(null);
+                message1 = version == 0 ? JT808Beans.H2013(message1) : JT808Beans.H2019(message1);
+                message2 = version == 0 ? JT808Beans.H2013(message2) : JT808Beans.H2019(message2);
+                byte[] bytes = encode(runtimeEncoder, message1);
+                assertEquals(ByteBufUtil.hexDump(bytes), ByteBufUtil.hexDump(encode(compiledEncoder, message2)), method.getName());
+                frames.add(bytes);
+            }
+        }
+        try (BufferedReader reader = reader("target/test-classes/JT808.txt")) {
+            reader.lines().filter(hex -> !hex.isEmpty()).forEach(hex -> frames.add(ByteBufUtil.decodeHexDump(hex)));
+        }
+
+        for (byte[] bytes : frames) {
+            String hex = ByteBufUtil.hexDump(bytes);
+            JTMessage message1 = runtimeDecoder.decode(Unpooled.wrappedBuffer(bytes.clone()));
+            JTMessage message2 = compiledDecoder.decode(Unpooled.wrappedBuffer(bytes.clone()));
+            assertEquals(BeanTest.gson.toJson(message1), BeanTest.gson.toJson(message2), hex);
+        }
+    }
+
+    @Test
+    public void testReplyTemplate() {
+        JTMessageEncoder schemaEncoder = new JTMessageEncoder("org.yzh.protocol");
+        schemaEncoder.setReplyTemplate(false);
+        JTMessageEncoder templateEncoder = new JTMessageEncoder("org.yzh.protocol");
+
+        String[] clientIds = {"123456789012", "13800138000", "12345678901234567890123", "00007e7d", "", null};
+        //含0x7e、0x7d的流水号和应答ID需转义，校验码也可能为0x7e、0x7d
+        int[] serialNos = {0, 1, 0x7e7d, 0x7d7e, 0xffff};
+        for (int version = -1; version <= 1; version++) {
+            for (String clientId : clientIds) {
+                for (int serialNo : serialNos) {
+                    for (int resultCode = 0; resultCode < 256; resultCode += 17) {
+                        T0001 message1 = reply(version, clientId, serialNo, resultCode);
+                        T0001 message2 = reply(version, clientId, serialNo, resultCode);
+                        String expected = ByteBufUtil.hexDump(encode(schemaEncoder, message1));
+                        assertEquals(expected, ByteBufUtil.hexDump(encode(templateEncoder, message2)), expected);
+                        assertEquals(message1.getProperties(), message2.getProperties(), expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHeartbeat() {
+        JTMessageAdapter adapter = new JTMessageAdapter("org.yzh.protocol");
+        adapter.setHeartbeatFastPath(true);
+        JTMessageEncoder encoder = new JTMessageEncoder("org.yzh.protocol");
+        encoder.setReplyTemplate(false);
+        JTMessageDecoder decoder = new JTMessageDecoder("org.yzh.protocol");
+
+        EmbeddedChannel channel = new EmbeddedChannel();
+        Session session = new SessionManager().newInstance(channel, new InetSocketAddress(0), s -> true);
+
+        JTMessage heartbeat = JT808Beans.H2013(new JTMessage(JT808.终端心跳));
+        byte[] bytes = encode(encoder, heartbeat);
+        //未注册的会话按完整流程解码
+        assertNotNull(adapter.decode(Unpooled.wrappedBuffer(bytes), session));
+        session.register(heartbeat);
+
+        int count = 0;
+        for (int version = 0; version < 2; version++) {
+            for (int serialNo : new int[]{0, 1, 0x7e01, 0x017d, 0xffff}) {
+                heartbeat = version == 0 ? JT808Beans.H2013(new JTMessage(JT808.终端心跳)) : JT808Beans.H2019(new JTMessage(JT808.终端心跳));
+                heartbeat.setSerialNo(serialNo);
+                bytes = encode(encoder, heartbeat);
+                String hex = ByteBufUtil.hexDump(bytes);
+                JTMessage message = adapter.decode(Unpooled.wrappedBuffer(bytes), session);
+                //含转义字节的报文按完整流程解码
+                if (hex.contains("7d")) {
+                    assertNotNull(message, hex);
+                    continue;
+                }
+                assertNull(message, hex);
+                count++;
+
+                Packet packet = channel.readOutbound();
+                T0001 reply = (T0001) decoder.decode(packet.byteBuf.duplicate());
+                assertTrue(reply.isVerified(), hex);
+                assertEquals(JT808.平台通用应答, reply.getMessageId(), hex);
+                assertEquals(heartbeat.getProtocolVersion(), reply.getProtocolVersion(), hex);
+                assertEquals(heartbeat.getClientId(), reply.getClientId(), hex);
+                assertEquals(serialNo, reply.getResponseSerialNo(), hex);
+                assertEquals(JT808.终端心跳, reply.getResponseMessageId(), hex);
+                assertEquals(T0001.Success, reply.getResultCode(), hex);
+
+                //与JTHandlerInterceptor.successful经Schema编码的结果一致
+                T0001 expected = new T0001();
+                expected.copyBy(heartbeat);
+                expected.setMessageId(JT808.平台通用应答);
+                expected.setSerialNo(reply.getSerialNo());
+                expected.setResponseSerialNo(serialNo);
+                expected.setResponseMessageId(JT808.终端心跳);
+                expected.setResultCode(T0001.Success);
+                assertEquals(ByteBufUtil.hexDump(encode(encoder, expected)), ByteBufUtil.hexDump(packet.byteBuf), hex);
+                packet.byteBuf.release();
+            }
+        }
+        assertTrue(count > 0);
+        assertEquals((long) count, adapter.getStats().get("heartbeats"));
+        assertNull(channel.readOutbound());
+    }
+
+    private static boolean generated(Class<?> type) {
+        try {
+            Class.forName(type.getName().replace('$', '_') + "Schema");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /** 编码为完整报文并释放编码器输出的缓冲区 */
+    private static byte[] encode(JTMessageEncoder encoder, JTMessage message) {
+        ByteBuf buf = encoder.encode(message);
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static T0001 reply(int version, String clientId, int serialNo, int resultCode) {
+        T0001 message = new T0001();
+        message.setMessageId(JT808.平台通用应答);
+        message.setProtocolVersion(version);
+        message.setVersion(version > 0);
+        message.setClientId(clientId);
+        message.setSerialNo(serialNo);
+        message.setResponseSerialNo(serialNo ^ 0x5a5a);
+        message.setResponseMessageId(JT808.位置信息汇报);
+        message.setResultCode(resultCode);
+        return message;
+    }
+
+    @Test
+    public void testMultiPacket() throws Exception {
+        byte[] data = new byte[8192];
+        new Random(8192).nextBytes(data);
+        T0801 bean = JT808Beans.H2019(JT808Beans.T0801());
+        bean.setPacket(Unpooled.wrappedBuffer(data));
+        List<byte[]> frames = split(encode(new JTMessageEncoder("org.yzh.protocol"), bean));
+        assertTrue(frames.size() > 8);
+
+        MultiPacketDecoder decoder = new MultiPacketDecoder("org.yzh.protocol");
+        JTMessage message = null;
+        for (byte[] frame : frames)
+            message = decoder.decode(Unpooled.wrappedBuffer(frame.clone()));
+        assertEquals(ByteBufUtil.hexDump(data), ByteBufUtil.hexDump(((T0801) message).getPacket()));
+        assertEquals(0, decoder.size());
+        ((T0801) message).getPacket().release();
+
+        decoder.setMaxBytesPerDevice(4096);
+        for (byte[] frame : frames) {
+            message = decoder.decode(Unpooled.wrappedBuffer(frame.clone()));
+            assertTrue(message.isSubpackage() && ((T0801) message).getPacket() == null);
+        }
+    }
+
+    @Test
+    public void testMediaFilePacket() throws Exception {
+        byte[] data = new byte[8000];
+        new Random(8000).nextBytes(data);
+        T0801 bean = JT808Beans.H2019(JT808Beans.T0801());
+        bean.setPacket(Unpooled.wrappedBuffer(data));
+        List<byte[]> frames = split(encode(new JTMessageEncoder("org.yzh.protocol"), bean));
+        //最后一包先到达，分包长度未知时暂存于内存
+        Collections.reverse(frames);
+        Collections.swap(frames, 1, frames.size() - 1);
+
+        File dir = Files.createTempDirectory("media").toFile();
+        MultiPacketDecoder decoder = new MultiPacketDecoder("org.yzh.protocol");
+        decoder.setMediaFileDir(dir);
+        T0801 message = null;
+        for (int i = 0; i < frames.size(); i++) {
+            message = (T0801) decoder.decode(Unpooled.wrappedBuffer(frames.get(i).clone()));
+            if (i < 2)
+                decoder.decode(Unpooled.wrappedBuffer(frames.get(i).clone()));
+        }
+        assertEquals(0, decoder.size());
+        assertEquals(null, message.getPacket());
+        assertEquals(bean.getId(), message.getId());
+        assertEquals(BeanTest.gson.toJson(bean.getLocation()), BeanTest.gson.toJson(message.getLocation()));
+        assertEquals(ByteBufUtil.hexDump(data), ByteBufUtil.hexDump(Files.readAllBytes(message.getFile().toPath())));
+        assertTrue(message.getFile().delete());
+        assertTrue(dir.delete());
+    }
+
+    @Test
+    public void testMediaFileExecutor() throws Exception {
+        byte[] data = new byte[8000];
+        new Random(8000).nextBytes(data);
+        T0801 bean = JT808Beans.H2019(JT808Beans.T0801());
+        bean.setPacket(Unpooled.wrappedBuffer(data));
+        List<byte[]> frames = split(encode(new JTMessageEncoder("org.yzh.protocol"), bean));
+
+        //写入任务暂存，解码线程不写文件
+        List<Runnable> writes = new ArrayList<>();
+        File dir = Files.createTempDirectory("media").toFile();
+        MultiPacketDecoder decoder = new MultiPacketDecoder("org.yzh.protocol");
+        decoder.setMediaFileDir(dir);
+        decoder.setMediaFileExecutor(writes::add);
+        T0801 message = null;
+        for (byte[] frame : frames)
+            message = (T0801) decoder.decode(Unpooled.wrappedBuffer(frame.clone()));
+        assertEquals(0, decoder.size());
+        assertEquals(0, message.getFile().length());
+        assertEquals(1, writes.size());
+
+        FutureTask<File> waiting = new FutureTask<>(message::awaitFile);
+        new Thread(waiting).start();
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+        writes.remove(0).run();
+        assertEquals(ByteBufUtil.hexDump(data), ByteBufUtil.hexDump(Files.readAllBytes(waiting.get(5, TimeUnit.SECONDS).toPath())));
+        assertTrue(message.getFile().delete());
+
+        //超出临时文件数时在内存中合并
+        decoder.setMaxMediaFilesPerDevice(0);
+        for (byte[] frame : frames)
+            message = (T0801) decoder.decode(Unpooled.wrappedBuffer(frame.clone()));
+        assertEquals(null, message.getFile());
+        assertEquals(ByteBufUtil.hexDump(data), ByteBufUtil.hexDump(message.getPacket()));
+        message.getPacket().release();
+        assertTrue(writes.isEmpty());
+        assertTrue(dir.delete());
+    }
+
+    @Test
+    public void testMultiPacketTimeout() throws Exception {
+        T0801 bean = JT808Beans.H2019(JT808Beans.T0801());
+        bean.setPacket(Unpooled.wrappedBuffer(new byte[2048]));
+        List<byte[]> frames = split(encode(new JTMessageEncoder("org.yzh.protocol"), bean));
+
+        CountDownLatch latch = new CountDownLatch(2);
+        MultiPacketDecoder decoder = new MultiPacketDecoder(new SchemaManager("org.yzh.protocol"), new MultiPacketListener(1) {
+            @Override
+            public boolean receiveTimeout(MultiPacket multiPacket) {
+                assertEquals(Arrays.asList(2, 3), multiPacket.getNotArrived());
+                latch.countDown();
+                multiPacket.addRetryCount(1);
+                return multiPacket.getRetryCount() < 2;
+            }
+        });
+        decoder.decode(Unpooled.wrappedBuffer(frames.get(0)));
+        assertEquals(1, decoder.size());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(0, decoder.size());
+    }
+
+    /** 按标识位拆分为单个分包报文 */
+    private static List<byte[]> split(byte[] bytes) {
+        List<byte[]> result = new ArrayList<>();
+        for (int start = 0, end; start < bytes.length; start = end + 1) {
+            end = start + 1;
+            while (bytes[end] != 0x7e)
+                end++;
+            result.add(Arrays.copyOfRange(bytes, start, end + 1));
+        }
+        return result;
+    }
+
     public static BufferedReader reader(String path) throws FileNotFoundException {
         return new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8));
     }
@@ -1,37 +1,60 @@
 package org.yzh.web.config;
 
 import io.github.yezhihao.netmc.core.HandlerMapping;
-import io.github.yezhihao.netmc.core.SpringHandlerMapping;
+import io.github.yezhihao.netmc.core.handler.Handler;
 import io.github.yezhihao.netmc.session.SessionListener;
 import io.github.yezhihao.netmc.session.SessionManager;
 import io.github.yezhihao.protostar.SchemaManager;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.yzh.protocol.codec.DataFrameMessageDecoder;
 import org.yzh.protocol.codec.JTMessageAdapter;
 import org.yzh.protocol.codec.JTMessageEncoder;
 import org.yzh.protocol.codec.MultiPacketDecoder;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.web.endpoint.BlockingExecutor;
+import org.yzh.web.endpoint.CompiledHandlerMapping;
 import org.yzh.web.endpoint.JTSessionListener;
 import org.yzh.web.endpoint.JTHandlerInterceptor;
 import org.yzh.web.endpoint.JTMultiPacketListener;
+import org.yzh.web.endpoint.OrderedExecutor;
 import org.yzh.web.model.enums.SessionKey;
+import org.yzh.web.service.LocationSequencer;
+import org.yzh.web.service.PositionService;
+
+import java.io.File;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.Executors;
 
 @Configuration
 public class JTBeanConfig {
 
     @Bean
-    public HandlerMapping handlerMapping() {
-        return new SpringHandlerMapping();
+    public HandlerMapping handlerMapping(@Value("${jt-server.jt808.executor.lanes:0}") int lanes,
+                                         @Value("${jt-server.jt808.blocking.enable:false}") boolean blocking) {
+        return new CompiledHandlerMapping(lanes > 0, blocking);
     }
 
     @Bean
-    public JTHandlerInterceptor handlerInterceptor() {
-        return new JTHandlerInterceptor();
+    public JTHandlerInterceptor handlerInterceptor(PositionService positionService, HandlerMapping handlerMapping,
+                                                   @Value("${jt-server.jt808.executor.lanes:0}") int lanes,
+                                                   @Value("${jt-server.jt808.executor.queue-capacity:1024}") int queueCapacity,
+                                                   @Value("${jt-server.jt808.blocking.enable:false}") boolean blocking,
+                                                   @Value("${jt-server.jt808.blocking.virtual-threads:true}") boolean virtualThreads) {
+        if (lanes <= 0 && !blocking)
+            return new JTHandlerInterceptor(positionService);
+        return new JTHandlerInterceptor(positionService, handlerMapping,
+                lanes > 0 ? new OrderedExecutor(lanes, queueCapacity, "JTLane") : null,
+                blocking ? new BlockingExecutor(virtualThreads, "JTBlocking") : null);
     }
 
     @Bean
-    public SessionListener sessionListener() {
-        return new JTSessionListener();
+    public SessionListener sessionListener(PositionService positionService, LocationSequencer locationSequencer) {
+        return new JTSessionListener(positionService, locationSequencer);
     }
 
     @Bean
@@ -45,10 +68,41 @@ public class JTBeanConfig {
     }
 
     @Bean
-    public JTMessageAdapter messageAdapter(SchemaManager schemaManager) {
+    public JTMultiPacketListener multiPacketListener() {
+        return new JTMultiPacketListener(10);
+    }
+
+    @Bean
+    public JTMessageAdapter messageAdapter(SchemaManager schemaManager, HandlerMapping handlerMapping, JTMultiPacketListener multiPacketListener,
+                                           @Value("${jt-server.jt808.media-file.path}") String mediaFileRoot,
+                                           @Value("${jt-server.jt808.media-file.writer-threads:2}") int writerThreads,
+                                           @Value("${jt-server.jt808.media-file.max-files-per-device:2}") int maxFilesPerDevice,
+                                           @Value("${jt-server.jt808.heartbeat-fast-path:true}") boolean heartbeatFastPath) {
         JTMessageEncoder encoder = new JTMessageEncoder(schemaManager);
-        MultiPacketDecoder decoder = new MultiPacketDecoder(schemaManager, new JTMultiPacketListener(10));
-        return new WebLogAdapter(encoder, decoder);
+        MultiPacketDecoder decoder = new MultiPacketDecoder(schemaManager, multiPacketListener);
+        //多媒体数据分包直接写入磁盘，完成后由FileService移动到设备目录
+        decoder.setMediaFileDir(new File(mediaFileRoot, ".tmp"));
+        decoder.setMaxMediaFilesPerDevice(maxFilesPerDevice);
+        //文件写入不占用I/O线程
+        if (writerThreads > 0)
+            decoder.setMediaFileExecutor(Executors.newFixedThreadPool(writerThreads, new DefaultThreadFactory("MediaFileWriter", true)));
+        decoder.setLocationView(declares(handlerMapping.getHandler(JT808.位置信息汇报), T0200View.class));
+        WebLogAdapter adapter = new WebLogAdapter(encoder, decoder);
+        adapter.setHeartbeatFastPath(heartbeatFastPath);
+        return adapter;
+    }
+
+    /** Handler的消息参数(或@AsyncBatch的List元素)是否声明为指定类型 */
+    private static boolean declares(Handler handler, Class<?> type) {
+        if (handler == null)
+            return false;
+        for (Type parameter : handler.targetMethod.getGenericParameterTypes()) {
+            if (parameter instanceof ParameterizedType)
+                parameter = ((ParameterizedType) parameter).getActualTypeArguments()[0];
+            if (parameter == type)
+                return true;
+        }
+        return false;
     }
 
     @Bean
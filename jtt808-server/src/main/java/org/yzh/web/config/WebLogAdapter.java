@@ -51,6 +51,12 @@ public class WebLogAdapter extends JTMessageAdapter {
             super.encodeLog(session, message, output);
     }
 
+    /** 订阅了收发日志的设备不使用心跳快速应答 */
+    @Override
+    protected boolean fastPath(Session session) {
+        return !clientIds.containsKey(session.getClientId());
+    }
+
     @Override
     public void decodeLog(Session session, JTMessage message, ByteBuf input) {
         if (message != null) {
@@ -0,0 +1,61 @@
+package org.yzh.web.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.yzh.commons.model.APIResult;
+import org.yzh.web.model.vo.AlarmEvent;
+import org.yzh.web.service.AlarmStateService;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("device/alarm")
+public class AlarmStateController {
+
+    /** 每个订阅者最多缓冲的事件数，超过时丢弃最早的 */
+    private static final int MAX_PENDING = 1000;
+
+    @Autowired
+    private AlarmStateService alarmStateService;
+
+    @Operation(summary = "报警标志、状态位的变化事件")
+    @GetMapping("events")
+    public APIResult<List<AlarmEvent>> events(@Parameter(description = "终端手机号，为空时查询所有终端") @RequestParam(required = false) String clientId,
+                                              @Parameter(description = "起始事件序号(不含)") @RequestParam(defaultValue = "0") long after,
+                                              @Parameter(description = "数量") @RequestParam(defaultValue = "100") int limit) {
+        return APIResult.ok(alarmStateService.getEvents(clientId, after, limit));
+    }
+
+    @Operation(summary = "订阅报警标志、状态位的变化事件")
+    @GetMapping(value = "sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AlarmEvent>> sse(@Parameter(description = "终端手机号，为空时订阅所有终端") @RequestParam(required = false) String clientId) {
+        return Flux.<ServerSentEvent<AlarmEvent>>create(emitter -> {
+            Runnable unsubscribe = alarmStateService.subscribe(clientId, event -> emitter.next(
+                    ServerSentEvent.builder(event).id(String.valueOf(event.getSequence())).event(event.getClientId()).build()));
+            emitter.onDispose(unsubscribe::run);
+        }, FluxSink.OverflowStrategy.IGNORE).onBackpressureBuffer(MAX_PENDING, BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    @Operation(summary = "终端最后的报警标志和状态[warnBit, statusBit]")
+    @GetMapping("state")
+    public APIResult<int[]> state(@Parameter(description = "终端手机号") @RequestParam String clientId) {
+        return APIResult.ok(alarmStateService.getState(clientId));
+    }
+
+    @Operation(summary = "报警状态变化统计")
+    @GetMapping("stats")
+    public APIResult<Map<String, Object>> stats() {
+        return APIResult.ok(alarmStateService.getStats());
+    }
+}
@@ -0,0 +1,59 @@
+package org.yzh.web.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.yzh.commons.model.APIResult;
+import org.yzh.web.model.vo.GeofenceEvent;
+import org.yzh.web.service.GeofenceService;
+import org.yzh.web.service.RouteService;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("device/geofence")
+public class GeofenceController {
+
+    @Autowired
+    private GeofenceService geofenceService;
+    @Autowired
+    private RouteService routeService;
+
+    @Operation(summary = "最近的区域事件")
+    @GetMapping("events")
+    public APIResult<List<GeofenceEvent>> events(@Parameter(description = "终端手机号，为空时查询所有终端") @RequestParam(required = false) String clientId,
+                                                 @Parameter(description = "数量") @RequestParam(defaultValue = "100") int limit) {
+        return APIResult.ok(geofenceService.getEvents(clientId, limit));
+    }
+
+    @Operation(summary = "终端当前所在的区域")
+    @GetMapping("inside")
+    public APIResult<List<Integer>> inside(@Parameter(description = "终端手机号") @RequestParam String clientId,
+                                           @Parameter(description = "区域类型：1.圆形 2.矩形 3.多边形") @RequestParam int type) {
+        return APIResult.ok(geofenceService.getInside(clientId, type));
+    }
+
+    @Operation(summary = "终端在路线上当前所在的路段ID，未进入或已偏离时为空")
+    @GetMapping("route/segment")
+    public APIResult<Integer> segment(@Parameter(description = "终端手机号") @RequestParam String clientId,
+                                      @Parameter(description = "路线ID") @RequestParam int routeId) {
+        return APIResult.ok(routeService.getSegment(clientId, routeId));
+    }
+
+    @Operation(summary = "路线判断统计")
+    @GetMapping("route/stats")
+    public APIResult<Map<String, Object>> routeStats() {
+        return APIResult.ok(routeService.getStats());
+    }
+
+    @Operation(summary = "区域判断统计")
+    @GetMapping("stats")
+    public APIResult<Map<String, Object>> stats() {
+        return APIResult.ok(geofenceService.getStats());
+    }
+}
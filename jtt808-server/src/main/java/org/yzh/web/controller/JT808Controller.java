@@ -11,6 +11,8 @@ import org.yzh.protocol.basics.JTMessage;
 import org.yzh.protocol.commons.JT808;
 import org.yzh.protocol.t808.*;
 import org.yzh.web.endpoint.MessageManager;
+import org.yzh.web.service.GeofenceService;
+import org.yzh.web.service.RouteService;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -20,6 +22,12 @@ public class JT808Controller {
     @Autowired
     private MessageManager messageManager;
 
+    @Autowired
+    private GeofenceService geofenceService;
+
+    @Autowired
+    private RouteService routeService;
+
     @Operation(summary = "8103 设置终端参数")
     @PostMapping("8103")
     public Mono<APIResult<T0001>> T8103(@RequestBody T8103 request) {
@@ -125,49 +133,81 @@ public class JT808Controller {
     @Operation(summary = "8600 设置圆形区域")
     @PostMapping("8600")
     public Mono<APIResult<T0001>> T8600(@RequestBody T8600 request) {
-        return messageManager.requestR(request, T0001.class);
+        return messageManager.requestR(request, T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        geofenceService.update(request);
+                });
     }
 
     @Operation(summary = "8601 删除圆形区域")
     @PostMapping("8601")
     public Mono<APIResult<T0001>> T8601(@RequestBody T8601 request) {
-        return messageManager.requestR(request.messageId(JT808.删除圆形区域), T0001.class);
+        return messageManager.requestR(request.messageId(JT808.删除圆形区域), T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        geofenceService.remove(request.getClientId(), GeofenceService.Circle, request.getId());
+                });
     }
 
     @Operation(summary = "8602 设置矩形区域")
     @PostMapping("8602")
     public Mono<APIResult<T0001>> T8602(@RequestBody T8602 request) {
-        return messageManager.requestR(request, T0001.class);
+        return messageManager.requestR(request, T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        geofenceService.update(request);
+                });
     }
 
     @Operation(summary = "8603 删除矩形区域")
     @PostMapping("8603")
     public Mono<APIResult<T0001>> T8603(@RequestBody T8601 request) {
-        return messageManager.requestR(request.messageId(JT808.删除矩形区域), T0001.class);
+        return messageManager.requestR(request.messageId(JT808.删除矩形区域), T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        geofenceService.remove(request.getClientId(), GeofenceService.Rectangle, request.getId());
+                });
     }
 
     @Operation(summary = "8604 设置多边形区域")
     @PostMapping("8604")
     public Mono<APIResult<T0001>> T8604(@RequestBody T8604 request) {
-        return messageManager.requestR(request, T0001.class);
+        return messageManager.requestR(request, T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        geofenceService.update(request);
+                });
     }
 
     @Operation(summary = "8605 删除多边形区域")
     @PostMapping("8605")
     public Mono<APIResult<T0001>> T8605(@RequestBody T8601 request) {
-        return messageManager.requestR(request.messageId(JT808.删除多边形区域), T0001.class);
+        return messageManager.requestR(request.messageId(JT808.删除多边形区域), T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        geofenceService.remove(request.getClientId(), GeofenceService.Polygon, request.getId());
+                });
     }
 
     @Operation(summary = "8606 设置路线")
     @PostMapping("8606")
     public Mono<APIResult<T0001>> T8606(@RequestBody T8606 request) {
-        return messageManager.requestR(request, T0001.class);
+        return messageManager.requestR(request, T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        routeService.update(request);
+                });
     }
 
     @Operation(summary = "8607 删除路线")
     @PostMapping("8607")
     public Mono<APIResult<T0001>> T8607(@RequestBody T8601 request) {
-        return messageManager.requestR(request.messageId(JT808.删除路线), T0001.class);
+        return messageManager.requestR(request.messageId(JT808.删除路线), T0001.class)
+                .doOnNext(result -> {
+                    if (acknowledged(result))
+                        routeService.remove(request.getClientId(), request.getId());
+                });
     }
 
     @Operation(summary = "8608 查询区域或线路数据")
@@ -241,4 +281,9 @@ public class JT808Controller {
     public Mono<APIResult<T0A00_8A00>> T8A00(@RequestBody T0A00_8A00 request) {
         return messageManager.requestR(request.build(), T0A00_8A00.class);
     }
-}
\ No newline at end of file
+
+    /** 终端应答成功后，平台侧区域、路线与终端保持一致 */
+    private static boolean acknowledged(APIResult<T0001> result) {
+        return result.isSuccess() && result.getData() != null && result.getData().isSuccess();
+    }
+}
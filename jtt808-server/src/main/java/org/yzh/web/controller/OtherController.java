@@ -15,10 +15,16 @@ import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.yzh.commons.model.APIResult;
 import org.yzh.commons.util.LogUtils;
+import org.yzh.protocol.codec.JTMessageAdapter;
 import org.yzh.protocol.codec.JTMessageDecoder;
 import org.yzh.web.config.WebLogAdapter;
+import org.yzh.web.endpoint.JTHandlerInterceptor;
+import org.yzh.web.endpoint.JTMultiPacketListener;
 import org.yzh.web.model.entity.DeviceDO;
 import org.yzh.web.model.enums.SessionKey;
+import org.yzh.web.service.LocationSequencer;
+import org.yzh.web.service.LocationService;
+import org.yzh.web.service.TrackService;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
@@ -29,6 +35,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 @RestController
@@ -39,6 +46,18 @@ public class OtherController {
     private SessionManager sessionManager;
     @Autowired
     private JTMessageDecoder decoder;
+    @Autowired
+    private JTMessageAdapter messageAdapter;
+    @Autowired
+    private JTMultiPacketListener multiPacketListener;
+    @Autowired
+    private JTHandlerInterceptor handlerInterceptor;
+    @Autowired
+    private LocationService locationService;
+    @Autowired
+    private LocationSequencer locationSequencer;
+    @Autowired
+    private TrackService trackService;
 
     @Hidden
     @Operation(hidden = true)
@@ -54,6 +73,54 @@ public class OtherController {
         return APIResult.ok(all);
     }
 
+    @Operation(summary = "分包补传统计")
+    @GetMapping("device/multipacket")
+    public APIResult<Map<String, Long>> multiPacketStats() {
+        return APIResult.ok(multiPacketListener.getStats());
+    }
+
+    @Operation(summary = "解码及心跳快速应答统计")
+    @GetMapping("device/decode/stats")
+    public APIResult<Map<String, Long>> decodeStats() {
+        return APIResult.ok(messageAdapter.getStats());
+    }
+
+    @Operation(summary = "位置信息入库统计")
+    @GetMapping("device/location/stats")
+    public APIResult<Map<String, Object>> locationStats() {
+        return APIResult.ok(locationService.getStats());
+    }
+
+    @Operation(summary = "被丢弃的重复位置信息汇报数(相同会话、流水号及设备时间)")
+    @GetMapping("device/location/duplicates")
+    public APIResult<Long> duplicates() {
+        return APIResult.ok(handlerInterceptor.getDuplicates());
+    }
+
+    @Operation(summary = "分道执行统计")
+    @GetMapping("device/executor/stats")
+    public APIResult<Map<String, Object>> executorStats() {
+        return APIResult.ok(handlerInterceptor.getExecutorStats());
+    }
+
+    @Operation(summary = "阻塞型Handler执行统计")
+    @GetMapping("device/blocking/stats")
+    public APIResult<Map<String, Object>> blockingStats() {
+        return APIResult.ok(handlerInterceptor.getBlockingStats());
+    }
+
+    @Operation(summary = "位置排序及盲区补报统计")
+    @GetMapping("device/location/sequence")
+    public APIResult<Map<String, Object>> sequenceStats() {
+        return APIResult.ok(locationSequencer.getStats());
+    }
+
+    @Operation(summary = "轨迹存储统计")
+    @GetMapping("device/track/stats")
+    public APIResult<Map<String, Object>> trackStats() {
+        return APIResult.ok(trackService.getStats());
+    }
+
     @Operation(summary = "获得当前所有在线设备信息")
     @GetMapping("device/option")
     public APIResult<Collection<DeviceDO>> getClientId(HttpSession httpSession) {
@@ -0,0 +1,54 @@
+package org.yzh.web.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.yzh.commons.model.APIResult;
+import org.yzh.web.model.vo.Position;
+import org.yzh.web.service.PositionService;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("device/position")
+public class PositionController {
+
+    @Autowired
+    private PositionService positionService;
+
+    @Operation(summary = "矩形范围内的在线设备")
+    @GetMapping("within")
+    public APIResult<List<Position>> within(@Parameter(description = "最小纬度(百万分之一度)") @RequestParam int minLatitude,
+                                            @Parameter(description = "最小经度(百万分之一度)") @RequestParam int minLongitude,
+                                            @Parameter(description = "最大纬度(百万分之一度)") @RequestParam int maxLatitude,
+                                            @Parameter(description = "最大经度(百万分之一度)") @RequestParam int maxLongitude) {
+        return APIResult.ok(positionService.within(minLatitude, minLongitude, maxLatitude, maxLongitude));
+    }
+
+    @Operation(summary = "距离范围内的在线设备，由近及远")
+    @GetMapping("nearby")
+    public APIResult<List<Position>> nearby(@Parameter(description = "纬度(百万分之一度)") @RequestParam int latitude,
+                                            @Parameter(description = "经度(百万分之一度)") @RequestParam int longitude,
+                                            @Parameter(description = "距离(米)") @RequestParam double distance) {
+        return APIResult.ok(positionService.nearby(latitude, longitude, distance));
+    }
+
+    @Operation(summary = "最近的在线设备，由近及远")
+    @GetMapping("nearest")
+    public APIResult<List<Position>> nearest(@Parameter(description = "纬度(百万分之一度)") @RequestParam int latitude,
+                                             @Parameter(description = "经度(百万分之一度)") @RequestParam int longitude,
+                                             @Parameter(description = "数量") @RequestParam(defaultValue = "10") int count) {
+        return APIResult.ok(positionService.nearest(latitude, longitude, count));
+    }
+
+    @Operation(summary = "位置索引统计")
+    @GetMapping("stats")
+    public APIResult<Map<String, Object>> stats() {
+        return APIResult.ok(positionService.getStats());
+    }
+}
@@ -0,0 +1,56 @@
+package org.yzh.web.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.yzh.commons.model.APIResult;
+import org.yzh.web.model.vo.Mileage;
+import org.yzh.web.service.MileageService;
+import org.yzh.web.service.TrackService;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+@RestController
+@RequestMapping("device")
+public class TrackController {
+
+    @Autowired
+    private TrackService trackService;
+    @Autowired
+    private MileageService mileageService;
+
+    @Operation(summary = "历史轨迹查询", description = "分块输出NDJSON，每行一个定位点；tolerance、maxPoints任一大于0时按道格拉斯-普克算法抽稀")
+    @GetMapping(value = "track", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> track(@Parameter(description = "设备ID，未注册时为终端手机号") @RequestParam String deviceId,
+                                                       @Parameter(description = "开始时间") @RequestParam LocalDateTime startTime,
+                                                       @Parameter(description = "结束时间") @RequestParam LocalDateTime endTime,
+                                                       @Parameter(description = "抽稀容差(米)") @RequestParam(defaultValue = "0") double tolerance,
+                                                       @Parameter(description = "最多返回点数") @RequestParam(defaultValue = "0") int maxPoints) {
+        long start = startTime.toEpochSecond(TrackService.ZONE);
+        long end = endTime.toEpochSecond(TrackService.ZONE);
+        StreamingResponseBody body = output -> trackService.write(deviceId, start, end, tolerance, maxPoints, output);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @Operation(summary = "日里程统计")
+    @GetMapping("mileage")
+    public APIResult<Mileage> mileage(@Parameter(description = "设备ID，未注册时为终端手机号") @RequestParam String deviceId,
+                                      @Parameter(description = "日期") @RequestParam LocalDate date) {
+        return APIResult.ok(mileageService.get(deviceId, date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth()));
+    }
+
+    @Operation(summary = "日里程统计状态")
+    @GetMapping("mileage/stats")
+    public APIResult<Map<String, Object>> mileageStats() {
+        return APIResult.ok(mileageService.getStats());
+    }
+}
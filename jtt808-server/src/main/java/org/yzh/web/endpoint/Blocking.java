@@ -0,0 +1,18 @@
+package org.yzh.web.endpoint;
+
+import java.lang.annotation.*;
+
+/**
+ * 标记包含阻塞I/O(如文件读写)的Handler
+ * 启用jt-server.jt808.blocking时在BlockingExecutor中执行，不占用I/O线程、共享的@Async线程池及分道执行的通道
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Blocking {
+
+    /** 该端点的在途消息数上限(排队及执行中)，超出时应答失败 */
+    int permits() default 1024;
+}
@@ -0,0 +1,183 @@
+package org.yzh.web.endpoint;
+
+import io.github.yezhihao.netmc.core.handler.Handler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 阻塞型Handler(@Blocking)的执行器
+ * JDK21及以上使用虚拟线程，线程数不需要按并发上传数预先设定；否则使用按需创建的平台线程；
+ * 同一个键(终端手机号)的任务按提交顺序依次执行(如文件数据先于上传完成消息写入)，不同键之间并行；
+ * 每个端点的在途任务数不超过@Blocking.permits，超出时拒绝，由调用方决定如何应答
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class BlockingExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockingExecutor.class);
+
+    private static final Limit NONE = new Limit(null, 0);
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private volatile boolean closed;
+
+    private final ConcurrentHashMap<String, Serial> serials = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Handler, Limit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param virtualThreads 使用虚拟线程，当前JDK不支持时使用平台线程
+     * @param name           线程名前缀
+     */
+    public BlockingExecutor(boolean virtualThreads, String name) {
+        ExecutorService executor = virtualThreads ? newVirtualThreadExecutor(name) : null;
+        this.virtual = executor != null;
+        if (executor == null) {
+            AtomicInteger index = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, name + "-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.executor = executor;
+    }
+
+    /** 通过反射创建，以便在JDK8下编译和运行 */
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("当前JDK{}不支持虚拟线程，使用平台线程", System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    /** @return null 未标记@Blocking */
+    public Limit limit(Handler handler) {
+        Limit limit = limits.computeIfAbsent(handler, h -> {
+            Method method = h.targetMethod;
+            Blocking blocking = method.getAnnotation(Blocking.class);
+            if (blocking == null)
+                return NONE;
+            return new Limit(method.getDeclaringClass().getSimpleName() + '.' + method.getName(), blocking.permits());
+        });
+        return limit == NONE ? null : limit;
+    }
+
+    /** @return false 端点的在途任务数已达上限或执行器已关闭，任务未提交 */
+    public boolean execute(Limit limit, String key, Runnable task) {
+        if (closed || !limit.permits.tryAcquire()) {
+            limit.rejected.increment();
+            return false;
+        }
+        Runnable command = () -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("{}执行失败", limit.name, e);
+            } finally {
+                limit.permits.release();
+                limit.executed.increment();
+            }
+        };
+        for (; ; ) {
+            Serial serial = serials.computeIfAbsent(key, Serial::new);
+            synchronized (serial) {
+                if (serial.removed)
+                    continue;
+                serial.tasks.add(command);
+                if (serial.running)
+                    return true;
+                serial.running = true;
+            }
+            try {
+                executor.execute(serial);
+            } catch (RejectedExecutionException e) {
+                //关闭过程中提交的，在当前线程执行完
+                serial.run();
+            }
+            return true;
+        }
+    }
+
+    /** 是否使用虚拟线程、执行中的终端数，及各端点的在途、已执行、被拒绝的任务数 */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        result.put("virtual", virtual);
+        result.put("clients", serials.size());
+        for (Limit limit : limits.values()) {
+            if (limit == NONE)
+                continue;
+            Map<String, Object> stats = new LinkedHashMap<>(8);
+            stats.put("permits", limit.max);
+            stats.put("inFlight", limit.max - limit.permits.availablePermits());
+            stats.put("executed", limit.executed.sum());
+            stats.put("rejected", limit.rejected.sum());
+            result.put(limit.name, stats);
+        }
+        return result;
+    }
+
+    /** 停止接收任务，等待已提交的任务执行完 */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        executor.shutdown();
+        executor.awaitTermination(timeout, unit);
+    }
+
+    public static final class Limit {
+        private final String name;
+        private final int max;
+        private final Semaphore permits;
+        private final LongAdder executed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Limit(String name, int max) {
+            this.name = name;
+            this.max = max;
+            this.permits = new Semaphore(max);
+        }
+    }
+
+    /** 同一个键的任务队列，队列为空时从serials中移除 */
+    private final class Serial implements Runnable {
+        private final String key;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>(4);
+        private boolean running;
+        private boolean removed;
+
+        private Serial(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            for (; ; ) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        removed = true;
+                        serials.remove(key, this);
+                        return;
+                    }
+                }
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.yzh.web.endpoint;
+
+import io.github.yezhihao.netmc.core.HandlerMapping;
+import io.github.yezhihao.netmc.core.annotation.Async;
+import io.github.yezhihao.netmc.core.annotation.AsyncBatch;
+import io.github.yezhihao.netmc.core.annotation.Endpoint;
+import io.github.yezhihao.netmc.core.annotation.Mapping;
+import io.github.yezhihao.netmc.core.handler.AsyncBatchHandler;
+import io.github.yezhihao.netmc.core.handler.Handler;
+import io.github.yezhihao.netmc.core.handler.SimpleHandler;
+import io.github.yezhihao.netmc.core.model.Message;
+import io.github.yezhihao.netmc.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.*;
+
+/**
+ * 启动时将@Mapping方法编译为LambdaMetafactory生成的调用器，替代SpringHandlerMapping逐条消息的反射调用
+ * 消息ID在0~0xFFFF内的Handler存放于按ID索引的数组，其余(如JSATL12、JT1078码流的帧头标识)存放于Map；
+ * 注册规则与SpringHandlerMapping一致：后注册的覆盖相同消息ID的Handler，@AsyncBatch仍由AsyncBatchHandler按批调用；
+ * 无法生成调用器的方法(如参数或返回值为基本类型)退回反射调用；
+ * 分道执行时Handler一律按同步注册，使beforeHandle在I/O线程上按到达顺序调用，由JTHandlerInterceptor转入通道，
+ * 否则@Async的Handler会先被DispatcherHandler提交到共享线程池，到达通道前顺序已被打乱；
+ * 同理，启用@Blocking执行器时标记@Blocking的Handler也按同步注册，由JTHandlerInterceptor转入BlockingExecutor
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class CompiledHandlerMapping implements HandlerMapping, ApplicationContextAware {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledHandlerMapping.class);
+
+    private static final int MAX_INDEX = 0xFFFF;
+
+    private Handler[] handlers = new Handler[0];
+    private final Map<Integer, Handler> others = new HashMap<>(8);
+    /** 忽略@Async，由JTHandlerInterceptor分道执行 */
+    private final boolean ordered;
+    /** 标记@Blocking的Handler忽略@Async，由JTHandlerInterceptor转入BlockingExecutor */
+    private final boolean blocking;
+
+    public CompiledHandlerMapping() {
+        this(false, false);
+    }
+
+    /** @param ordered 启用分道执行(见JTHandlerInterceptor)，忽略@Async */
+    public CompiledHandlerMapping(boolean ordered) {
+        this(ordered, false);
+    }
+
+    /**
+     * @param ordered  启用分道执行(见JTHandlerInterceptor)，忽略@Async
+     * @param blocking 启用BlockingExecutor，标记@Blocking的Handler忽略@Async
+     */
+    public CompiledHandlerMapping(boolean ordered, boolean blocking) {
+        this.ordered = ordered;
+        this.blocking = blocking;
+    }
+
+    @Override
+    public Handler getHandler(int messageId) {
+        Handler[] handlers = this.handlers;
+        if (messageId >= 0 && messageId < handlers.length)
+            return handlers[messageId];
+        return others.get(messageId);
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        for (Object bean : applicationContext.getBeansWithAnnotation(Endpoint.class).values())
+            registerHandlers(bean);
+    }
+
+    public synchronized void registerHandlers(Object bean) {
+        Map<Integer, Handler> registered = new HashMap<>(64);
+        int max = handlers.length - 1;
+        for (Method method : bean.getClass().getDeclaredMethods()) {
+            Mapping mapping = method.getAnnotation(Mapping.class);
+            if (mapping == null)
+                continue;
+            Handler handler = newHandler(bean, method, mapping.desc());
+            for (int type : mapping.types()) {
+                registered.put(type, handler);
+                if (type >= 0 && type <= MAX_INDEX)
+                    max = Math.max(max, type);
+            }
+        }
+
+        Handler[] result = new Handler[max + 1];
+        System.arraycopy(handlers, 0, result, 0, handlers.length);
+        for (Map.Entry<Integer, Handler> entry : registered.entrySet()) {
+            int type = entry.getKey();
+            Handler previous;
+            if (type >= 0 && type <= MAX_INDEX) {
+                previous = result[type];
+                result[type] = entry.getValue();
+            } else {
+                previous = others.put(type, entry.getValue());
+            }
+            if (previous != null)
+                log.warn("消息ID[{}]的Handler[{}]被覆盖为[{}]", Integer.toHexString(type), previous.targetMethod, entry.getValue().targetMethod);
+        }
+        handlers = result;
+    }
+
+    private Handler newHandler(Object bean, Method method, String desc) {
+        AsyncBatch asyncBatch = method.getAnnotation(AsyncBatch.class);
+        if (asyncBatch != null)
+            return new AsyncBatchHandler(bean, method, desc, asyncBatch.poolSize(), asyncBatch.maxElements(), asyncBatch.maxWait());
+
+        boolean async = !ordered && !(blocking && method.isAnnotationPresent(Blocking.class)) && method.isAnnotationPresent(Async.class);
+        try {
+            return new CompiledHandler(bean, method, desc, async);
+        } catch (Throwable e) {
+            log.warn("生成调用器失败，使用反射调用{}", method, e);
+            return new SimpleHandler(bean, method, desc, async);
+        }
+    }
+
+    /** 调用器，与Handler.invoke的参数一致，按方法声明的参数顺序传入消息和会话 */
+    private interface Invoker {
+        Object invoke(Message message, Session session) throws Exception;
+    }
+
+    public static class CompiledHandler extends Handler {
+
+        private final Invoker invoker;
+
+        public CompiledHandler(Object targetObject, Method targetMethod, String desc, boolean async) throws Throwable {
+            super(targetObject, targetMethod, desc, async);
+            this.invoker = compile(targetObject, targetMethod, parameterTypes, returnVoid);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends Message> T invoke(T request, Session session) throws Exception {
+            return (T) invoker.invoke(request, session);
+        }
+    }
+
+    /** 生成绑定targetObject的函数式接口实现，返回值为void的方法生成Consumer系列，其余生成Function系列 */
+    @SuppressWarnings("unchecked")
+    private static Invoker compile(Object target, Method method, int[] parameterTypes, boolean returnVoid) throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle implMethod = lookup.unreflect(method);
+        MethodType instantiated = implMethod.type().dropParameterTypes(0, 1);
+
+        switch (parameterTypes.length) {
+            case 0:
+                if (returnVoid) {
+                    Runnable f = lambda(lookup, implMethod, target, Runnable.class, "run", MethodType.methodType(void.class), instantiated);
+                    return (m, s) -> {
+                        f.run();
+                        return null;
+                    };
+                } else {
+                    Supplier<Object> f = lambda(lookup, implMethod, target, Supplier.class, "get", MethodType.methodType(Object.class), instantiated);
+                    return (m, s) -> f.get();
+                }
+            case 1:
+                boolean message = parameterTypes[0] == Handler.MESSAGE;
+                if (returnVoid) {
+                    Consumer<Object> f = lambda(lookup, implMethod, target, Consumer.class, "accept", MethodType.methodType(void.class, Object.class), instantiated);
+                    return message ? (m, s) -> {
+                        f.accept(m);
+                        return null;
+                    } : (m, s) -> {
+                        f.accept(s);
+                        return null;
+                    };
+                } else {
+                    Function<Object, Object> f = lambda(lookup, implMethod, target, Function.class, "apply", MethodType.methodType(Object.class, Object.class), instantiated);
+                    return message ? (m, s) -> f.apply(m) : (m, s) -> f.apply(s);
+                }
+            case 2:
+                boolean messageFirst = parameterTypes[0] == Handler.MESSAGE;
+                if (returnVoid) {
+                    BiConsumer<Object, Object> f = lambda(lookup, implMethod, target, BiConsumer.class, "accept", MethodType.methodType(void.class, Object.class, Object.class), instantiated);
+                    return messageFirst ? (m, s) -> {
+                        f.accept(m, s);
+                        return null;
+                    } : (m, s) -> {
+                        f.accept(s, m);
+                        return null;
+                    };
+                } else {
+                    BiFunction<Object, Object, Object> f = lambda(lookup, implMethod, target, BiFunction.class, "apply", MethodType.methodType(Object.class, Object.class, Object.class), instantiated);
+                    return messageFirst ? (m, s) -> f.apply(m, s) : (m, s) -> f.apply(s, m);
+                }
+            default:
+                throw new IllegalArgumentException("参数个数超过2个:" + method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T lambda(MethodHandles.Lookup lookup, MethodHandle implMethod, Object target, Class<?> type, String name,
+                                MethodType samMethodType, MethodType instantiatedMethodType) throws Throwable {
+        CallSite site = LambdaMetafactory.metafactory(lookup, name, MethodType.methodType(type, target.getClass()),
+                samMethodType, implMethod, instantiatedMethodType);
+        return (T) site.getTarget().invoke(target);
+    }
+}
@@ -0,0 +1,40 @@
+package org.yzh.web.endpoint;
+
+import java.util.Arrays;
+
+/**
+ * 会话内最近收到的位置信息汇报(流水号，设备时间)，用于识别终端未收到应答而重发的消息
+ * 固定长度的环形数组，键为流水号(16位)与设备时间(YYMMDDhhmmss的十进制数值，不超过40位)拼接的long，写满后覆盖最早的键
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class DuplicateFilter {
+
+    private static final long EMPTY = -1L;
+
+    private final long[] keys;
+    private final int mask;
+    private int position;
+
+    /** @param size 容量，向上取整为2的幂 */
+    public DuplicateFilter(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 1) - 1) << 1;
+        this.keys = new long[Math.max(capacity, 1)];
+        this.mask = keys.length - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @param deviceTime 设备时间YYMMDDhhmmss的十进制数值，如240101083000
+     * @return true 已存在相同的流水号和设备时间
+     */
+    public synchronized boolean isDuplicate(int serialNo, long deviceTime) {
+        long key = (long) (serialNo & 0xFFFF) << 40 | deviceTime;
+        for (long k : keys) {
+            if (k == key)
+                return true;
+        }
+        keys[position++ & mask] = key;
+        return false;
+    }
+}
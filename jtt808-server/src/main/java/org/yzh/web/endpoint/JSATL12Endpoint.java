@@ -47,6 +47,7 @@ public class JSATL12Endpoint {
         if (!session.isRegistered()) session.register(message);
     }
 
+    @Blocking(permits = 4096)
     @Mapping(types = JSATL12.文件数据上传, desc = "文件数据上传")
     public Object alarmFile(DataPacket dataPacket, Session session) {
         Map<String, T1210.Item> fileInfos = cache.getIfPresent(session.getClientId());
@@ -65,6 +66,7 @@ public class JSATL12Endpoint {
         return null;
     }
 
+    @Blocking(permits = 1024)
     @Mapping(types = JSATL12.文件上传完成消息, desc = "文件上传完成消息")
     public T9212 alarmFileComplete(T1211 message) {
         Map<String, T1210.Item> fileInfos = cache.getIfPresent(message.getClientId());
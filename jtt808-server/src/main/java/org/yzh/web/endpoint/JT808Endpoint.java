@@ -1,13 +1,17 @@
 package org.yzh.web.endpoint;
 
+import io.github.yezhihao.netmc.core.HandlerMapping;
 import io.github.yezhihao.netmc.core.annotation.Async;
 import io.github.yezhihao.netmc.core.annotation.AsyncBatch;
 import io.github.yezhihao.netmc.core.annotation.Endpoint;
 import io.github.yezhihao.netmc.core.annotation.Mapping;
+import io.github.yezhihao.netmc.core.handler.AsyncBatchHandler;
+import io.github.yezhihao.netmc.core.handler.Handler;
 import io.github.yezhihao.netmc.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 import org.yzh.protocol.basics.JTMessage;
 import org.yzh.protocol.commons.JT808;
@@ -15,10 +19,12 @@ import org.yzh.protocol.t808.*;
 import org.yzh.web.model.entity.DeviceDO;
 import org.yzh.web.model.enums.SessionKey;
 import org.yzh.web.service.FileService;
+import org.yzh.web.service.LocationSequencer;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.yzh.protocol.commons.JT808.*;
 
@@ -31,6 +37,13 @@ public class JT808Endpoint {
     @Autowired
     private FileService fileService;
 
+    @Autowired
+    private LocationSequencer locationSequencer;
+
+    @Lazy
+    @Autowired
+    private HandlerMapping handlerMapping;
+
     @Mapping(types = 终端通用应答, desc = "终端通用应答")
     public Object T0001(T0001 message, Session session) {
         session.response(message);
@@ -111,14 +124,30 @@ public class JT808Endpoint {
      * poolSize：参考数据库CPU核心数量
      * maxElements：最大累积4000条记录处理一次
      * maxWait：最大等待时间1秒
+     * 参数声明为T0200View时，解码器直接生成只读视图，不再解析附加信息
      */
     @AsyncBatch(poolSize = 2, maxElements = 4000, maxWait = 1000)
     @Mapping(types = 位置信息汇报, desc = "位置信息汇报")
-    public void T0200(List<T0200> list) {
+    public void T0200(List<T0200View> list) {
+        locationSequencer.live(list);
     }
 
+    /**
+     * 正常位置批量汇报进入位置信息汇报的@AsyncBatch队列，与0200一同处理；
+     * 盲区补报在低优先级队列中处理，与实时位置按设备时间合并后参与统计，队列满时应答失败，见LocationSequencer
+     */
     @Mapping(types = 定位数据批量上传, desc = "定位数据批量上传")
-    public void T0704(T0704 message) {
+    public void T0704(T0704 message, Session session) throws Exception {
+        if (message.getType() == 0 && message.getItems() != null) {
+            Handler handler = handlerMapping.getHandler(位置信息汇报);
+            if (handler instanceof AsyncBatchHandler) {
+                for (T0200View location : LocationSequencer.views(message))
+                    handler.invoke(location, session);
+                return;
+            }
+        }
+        if (!locationSequencer.batch(message))
+            throw new RejectedExecutionException("盲区补报队列已满");
     }
 
     @Mapping(types = {位置信息查询应答, 车辆控制应答}, desc = "位置信息查询应答/车辆控制应答")
@@ -166,9 +195,10 @@ public class JT808Endpoint {
     }
 
     @Async
+    @Blocking(permits = 256)
     @Mapping(types = 多媒体数据上传, desc = "多媒体数据上传")
     public JTMessage T0801(T0801 message, Session session) {
-        if (message.getPacket() == null) {
+        if (message.getPacket() == null && message.getFile() == null) {
             T0001 result = new T0001();
             result.copyBy(message);
             result.setMessageId(JT808.平台通用应答);
@@ -1,20 +1,61 @@
 package org.yzh.web.endpoint;
 
 import io.github.yezhihao.netmc.core.HandlerInterceptor;
+import io.github.yezhihao.netmc.core.HandlerMapping;
+import io.github.yezhihao.netmc.core.handler.AsyncBatchHandler;
+import io.github.yezhihao.netmc.core.handler.Handler;
 import io.github.yezhihao.netmc.session.Session;
+import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yzh.protocol.basics.JTMessage;
 import org.yzh.protocol.commons.JT808;
 import org.yzh.protocol.t808.T0001;
 import org.yzh.protocol.t808.T0200;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.protocol.t808.T0801;
 import org.yzh.web.model.entity.DeviceDO;
 import org.yzh.web.model.enums.SessionKey;
+import org.yzh.web.service.PositionService;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class JTHandlerInterceptor implements HandlerInterceptor<JTMessage> {
 
     private static final Logger log = LoggerFactory.getLogger(JTHandlerInterceptor.class);
 
+    private final PositionService positionService;
+
+    private HandlerMapping handlerMapping;
+    /** 分道执行：除@AsyncBatch外的Handler按终端手机号进入固定通道顺序执行，不占用I/O线程和共享的@Async线程池(需配合CompiledHandlerMapping(true)，使@Async的Handler按同步注册) */
+    private OrderedExecutor executor;
+    /** 标记@Blocking的Handler按连接顺序在此执行，优先于分道执行(需配合CompiledHandlerMapping的blocking参数，使其按同步注册) */
+    private BlockingExecutor blockingExecutor;
+
+    /** 被丢弃的重复位置信息汇报数 */
+    private final LongAdder duplicates = new LongAdder();
+
+    public JTHandlerInterceptor(PositionService positionService) {
+        this.positionService = positionService;
+    }
+
+    public JTHandlerInterceptor(PositionService positionService, HandlerMapping handlerMapping, OrderedExecutor executor) {
+        this(positionService, handlerMapping, executor, null);
+    }
+
+    public JTHandlerInterceptor(PositionService positionService, HandlerMapping handlerMapping, OrderedExecutor executor, BlockingExecutor blockingExecutor) {
+        this.positionService = positionService;
+        this.handlerMapping = handlerMapping;
+        this.executor = executor;
+        this.blockingExecutor = blockingExecutor;
+    }
+
     /** 未找到对应的Handle */
     @Override
     public JTMessage notSupported(JTMessage request, Session session) {
@@ -64,17 +105,95 @@ public class JTHandlerInterceptor implements HandlerInterceptor<JTMessage> {
         return response;
     }
 
-    /** 调用之前 */
+    /** 调用之前，阻塞型Handler或分道执行时转入对应的执行器并返回false，由执行器完成调用及应答 */
     @Override
     public boolean beforeHandle(JTMessage request, Session session) {
+        if (executor != null || blockingExecutor != null) {
+            Handler handler = handlerMapping.getHandler(request.getMessageId());
+            if (handler != null && !(handler instanceof AsyncBatchHandler)) {
+                BlockingExecutor.Limit limit;
+                if (blockingExecutor != null && (limit = blockingExecutor.limit(handler)) != null) {
+                    //未注册的连接没有会话ID，按消息头中的终端手机号排序
+                    String key = session.isRegistered() ? session.getId() : request.getClientId();
+                    if (!blockingExecutor.execute(limit, key, () -> dispatch(handler, request, session))) {
+                        discard(request);
+                        reply(request, exceptional(request, session, new RejectedExecutionException("端点并发数已满")), session);
+                    }
+                    return false;
+                }
+                if (executor != null) {
+                    if (!executor.execute(request.getClientId(), () -> dispatch(handler, request, session))) {
+                        discard(request);
+                        reply(request, exceptional(request, session, new RejectedExecutionException("通道队列已满")), session);
+                    }
+                    return false;
+                }
+            }
+        }
+        return handle(request, session);
+    }
+
+    /** 在通道或阻塞执行器中执行，与DispatcherHandler的调用流程一致 */
+    private void dispatch(Handler handler, JTMessage request, Session session) {
+        JTMessage response;
+        try {
+            if (!handle(request, session))
+                return;
+            response = handler.invoke(request, session);
+            if (handler.returnVoid)
+                response = successful(request, session);
+            else
+                afterHandle(request, response, session);
+        } catch (Exception e) {
+            response = exceptional(request, session, e);
+        }
+        reply(request, response, session);
+    }
+
+    /** 被拒绝的消息不会到达Handler，释放解码器移交的多媒体数据 */
+    private static void discard(JTMessage request) {
+        if (request instanceof T0801) {
+            T0801 message = (T0801) request;
+            ByteBuf packet = message.getPacket();
+            if (packet != null && packet.refCnt() > 0)
+                packet.release();
+            File file = message.getFile();
+            if (file != null)
+                file.delete();
+        }
+    }
+
+    private static void reply(JTMessage request, JTMessage response, Session session) {
+        if (response != null)
+            session.notify(response).subscribe(null, e -> log.warn("{}应答失败{}{}", session, request, e.getMessage()));
+    }
+
+    private boolean handle(JTMessage request, Session session) {
         int messageId = request.getMessageId();
         if (messageId == JT808.终端注册 || messageId == JT808.终端鉴权)
             return true;
         boolean transform = request.transform();
         if (messageId == JT808.位置信息汇报) {
+            //终端未收到应答而重发的位置，只应答不处理
+            if (isDuplicate(request, session)) {
+                duplicates.increment();
+                session.notify(successful(request, session))
+                        .subscribe(null, e -> log.warn("{}重复位置应答失败{}", session, e.getMessage()));
+                return false;
+            }
             DeviceDO device = SessionKey.getDevice(session);
-            if (device != null)
-                device.setLocation((T0200) request);
+            String deviceId = device != null && device.getDeviceId() != null ? device.getDeviceId() : session.getClientId();
+            if (request instanceof T0200View) {
+                T0200View location = (T0200View) request;
+                if (device != null)
+                    device.setLocationView(location);
+                positionService.update(deviceId, location);
+            } else {
+                T0200 location = (T0200) request;
+                if (device != null)
+                    device.setLocation(location);
+                positionService.update(deviceId, location);
+            }
             return transform;
         }
         if (!session.isRegistered()) {
@@ -84,6 +203,47 @@ public class JTHandlerInterceptor implements HandlerInterceptor<JTMessage> {
         return true;
     }
 
+    /** 相同流水号和设备时间的位置信息汇报已在本会话中收到 */
+    private static boolean isDuplicate(JTMessage request, Session session) {
+        long deviceTime;
+        if (request instanceof T0200View) {
+            deviceTime = ((T0200View) request).getDeviceTimeValue();
+        } else {
+            LocalDateTime time = ((T0200) request).getDeviceTime();
+            if (time == null)
+                return false;
+            deviceTime = (time.getYear() % 100) * 10000000000L + time.getMonthValue() * 100000000L + time.getDayOfMonth() * 1000000L +
+                    time.getHour() * 10000 + time.getMinute() * 100 + time.getSecond();
+        }
+        return SessionKey.getDuplicateFilter(session).isDuplicate(request.getSerialNo(), deviceTime);
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /** 分道执行的统计，未启用时为空 */
+    public Map<String, Object> getExecutorStats() {
+        if (executor == null)
+            return Collections.emptyMap();
+        return executor.getStats();
+    }
+
+    /** 阻塞型Handler执行器的统计，未启用时为空 */
+    public Map<String, Object> getBlockingStats() {
+        if (blockingExecutor == null)
+            return Collections.emptyMap();
+        return blockingExecutor.getStats();
+    }
+
+    /** 等待通道及阻塞执行器中已接收的消息处理完 */
+    public void close() throws InterruptedException {
+        if (executor != null)
+            executor.shutdown(10, TimeUnit.SECONDS);
+        if (blockingExecutor != null)
+            blockingExecutor.shutdown(10, TimeUnit.SECONDS);
+    }
+
     /** 调用之后 */
     @Override
     public void afterHandle(JTMessage request, JTMessage response, Session session) {
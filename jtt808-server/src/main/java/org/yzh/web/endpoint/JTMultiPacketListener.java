@@ -1,25 +1,83 @@
 package org.yzh.web.endpoint;
 
 import io.github.yezhihao.netmc.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.yzh.protocol.codec.MultiPacket;
 import org.yzh.protocol.codec.MultiPacketListener;
 import org.yzh.protocol.commons.JT808;
 import org.yzh.protocol.t808.T8003;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 分包补传请求(0x8003)
+ * 异步发送，不阻塞分包超时调度线程；每个会话同时只有一个未写出的补传请求，
+ * 全局未写出的请求数超过上限时延后到下一周期，重试间隔按重试次数倍增
+ */
 public class JTMultiPacketListener extends MultiPacketListener {
 
+    private static final Logger log = LoggerFactory.getLogger(JTMultiPacketListener.class);
+
+    private final int maxRetry;
+    private final int maxPending;
+
+    private final Set<String> pendingSessions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
     public JTMultiPacketListener(int timeout) {
+        this(timeout, 5, 256);
+    }
+
+    /**
+     * @param timeout    超时时间(秒)
+     * @param maxRetry   最大补传次数
+     * @param maxPending 全局未写出的补传请求上限
+     */
+    public JTMultiPacketListener(int timeout, int maxRetry, int maxPending) {
         super(timeout);
+        this.maxRetry = maxRetry;
+        this.maxPending = maxPending;
+    }
+
+    @Override
+    public long delay(MultiPacket multiPacket) {
+        return timeout << Math.min(multiPacket.getRetryCount(), 3);
     }
 
     @Override
     public boolean receiveTimeout(MultiPacket multiPacket) {
-        int retryCount = multiPacket.getRetryCount();
-        if (retryCount > 5)
+        if (multiPacket.getRetryCount() > maxRetry)
+            return false;
+        Session session = multiPacket.getFirstPacket().getSession();
+        if (session == null)
             return false;
 
+        String sessionId = session.getId();
+        if (!pendingSessions.add(sessionId)) {
+            deferred.increment();
+            return true;
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            release(sessionId);
+            deferred.increment();
+            return true;
+        }
+
         T8003 request = new T8003();
         request.setMessageId(JT808.服务器补传分包请求);
         request.copyBy(multiPacket.getFirstPacket());
@@ -30,12 +88,49 @@ public class JTMultiPacketListener extends MultiPacketListener {
             idList[i] = notArrived.get(i).shortValue();
         }
         request.setId(idList);
-        Session session = multiPacket.getFirstPacket().getSession();
-        if (session != null) {
-            session.notify(request).block();
-            multiPacket.addRetryCount(1);
-            return true;
+
+        Mono<Void> notify;
+        try {
+            notify = session.notify(request);
+        } catch (RuntimeException e) {
+            release(sessionId);
+            throw e;
         }
-        return false;
+        multiPacket.addRetryCount(1);
+        sent.increment();
+        notify.timeout(Duration.ofMillis(timeout))
+                .doFinally(signal -> release(sessionId))
+                .subscribe(null, e -> {
+                    failed.increment();
+                    log.warn("补传分包请求发送失败{},{}", session, e.getMessage());
+                });
+        return true;
+    }
+
+    private void release(String sessionId) {
+        pending.decrementAndGet();
+        pendingSessions.remove(sessionId);
+    }
+
+    @Override
+    public void receiveComplete(MultiPacket multiPacket) {
+        completed.increment();
+    }
+
+    @Override
+    public void receiveDiscard(MultiPacket multiPacket) {
+        abandoned.increment();
+    }
+
+    /** 补传请求发送、失败、延后次数，以及分包消息完成、放弃数量 */
+    public Map<String, Long> getStats() {
+        Map<String, Long> result = new LinkedHashMap<>(8);
+        result.put("sent", sent.sum());
+        result.put("failed", failed.sum());
+        result.put("deferred", deferred.sum());
+        result.put("pending", (long) pending.get());
+        result.put("completed", completed.sum());
+        result.put("abandoned", abandoned.sum());
+        return result;
     }
-}
\ No newline at end of file
+}
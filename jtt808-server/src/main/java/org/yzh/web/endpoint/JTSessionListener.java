@@ -6,11 +6,21 @@ import io.github.yezhihao.netmc.session.SessionListener;
 import org.yzh.protocol.basics.JTMessage;
 import org.yzh.web.model.entity.DeviceDO;
 import org.yzh.web.model.enums.SessionKey;
+import org.yzh.web.service.LocationSequencer;
+import org.yzh.web.service.PositionService;
 
 import java.util.function.BiConsumer;
 
 public class JTSessionListener implements SessionListener {
 
+    private final PositionService positionService;
+    private final LocationSequencer locationSequencer;
+
+    public JTSessionListener(PositionService positionService, LocationSequencer locationSequencer) {
+        this.positionService = positionService;
+        this.locationSequencer = locationSequencer;
+    }
+
     /**
      * 下行消息拦截器
      */
@@ -46,6 +56,8 @@ public class JTSessionListener implements SessionListener {
      */
     @Override
     public void sessionRegistered(Session session) {
+        //重连后的盲区补报通常晚于实时位置到达
+        locationSequencer.online(session.getClientId());
     }
 
     /**
@@ -53,5 +65,8 @@ public class JTSessionListener implements SessionListener {
      */
     @Override
     public void sessionDestroyed(Session session) {
+        DeviceDO device = SessionKey.getDevice(session);
+        positionService.remove(device != null && device.getDeviceId() != null ? device.getDeviceId() : session.getClientId());
+        locationSequencer.offline(session.getClientId());
     }
 }
\ No newline at end of file
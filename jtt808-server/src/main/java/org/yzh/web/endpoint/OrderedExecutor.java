@@ -0,0 +1,89 @@
+package org.yzh.web.endpoint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按键分道的顺序执行器
+ * 固定数量的单线程通道，同一个键(终端手机号)的任务总是进入同一通道，按提交顺序执行；
+ * 每个通道的队列有界，队列满时拒绝任务，由调用方决定如何应答
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class OrderedExecutor {
+
+    private final ThreadPoolExecutor[] lanes;
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param lanes         通道数
+     * @param queueCapacity 每个通道的队列容量
+     * @param name          线程名前缀
+     */
+    public OrderedExecutor(int lanes, int queueCapacity, String name) {
+        this.lanes = new ThreadPoolExecutor[lanes];
+        AtomicInteger index = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, name + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        for (int i = 0; i < lanes; i++)
+            this.lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /** @return false 通道队列已满或执行器已关闭，任务未提交 */
+    public boolean execute(String key, Runnable task) {
+        try {
+            lanes[lane(key)].execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    executed.increment();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    public int lane(String key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % lanes.length;
+    }
+
+    /** 通道数、排队中的任务总数及最长的通道队列、已执行及被拒绝的任务数 */
+    public Map<String, Object> getStats() {
+        int queued = 0, maxQueued = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            int size = lane.getQueue().size();
+            queued += size;
+            maxQueued = Math.max(maxQueued, size);
+        }
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        result.put("lanes", lanes.length);
+        result.put("queued", queued);
+        result.put("maxQueued", maxQueued);
+        result.put("executed", executed.sum());
+        result.put("rejected", rejected.sum());
+        return result;
+    }
+
+    /** 停止接收任务，等待已提交的任务执行完 */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for (ThreadPoolExecutor lane : lanes)
+            lane.shutdown();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor lane : lanes)
+            lane.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+}
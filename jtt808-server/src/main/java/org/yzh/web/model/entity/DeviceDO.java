@@ -2,6 +2,7 @@ package org.yzh.web.model.entity;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import org.yzh.protocol.t808.T0200;
+import org.yzh.protocol.t808.T0200View;
 
 import java.util.Objects;
 
@@ -21,6 +22,8 @@ public class DeviceDO {
     private int protocolVersion;
     @Schema(description = "实时状态")
     private T0200 location;
+    /** 最新的位置视图，首次读取时才转换为T0200并缓存 */
+    private transient volatile LocationView locationView;
 
     public DeviceDO() {
     }
@@ -58,11 +61,19 @@ public class DeviceDO {
     }
 
     public T0200 getLocation() {
+        LocationView view = locationView;
+        if (view != null)
+            return view.get();
         return location;
     }
 
     public void setLocation(T0200 location) {
         this.location = location;
+        this.locationView = null;
+    }
+
+    public void setLocationView(T0200View locationView) {
+        this.locationView = new LocationView(locationView);
     }
 
     public DeviceDO mobileNo(String mobileNo) {
@@ -100,4 +111,21 @@ public class DeviceDO {
         sb.append('}');
         return sb.toString();
     }
-}
\ No newline at end of file
+
+    /** 视图与其转换结果成对替换，避免每次读取都经过T0200的Schema；并发首次读取时可能重复转换，结果相同 */
+    private static final class LocationView {
+        private final T0200View view;
+        private volatile T0200 location;
+
+        private LocationView(T0200View view) {
+            this.view = view;
+        }
+
+        private T0200 get() {
+            T0200 result = location;
+            if (result == null)
+                location = result = view.toT0200();
+            return result;
+        }
+    }
+}
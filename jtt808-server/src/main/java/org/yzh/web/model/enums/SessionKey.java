@@ -1,6 +1,7 @@
 package org.yzh.web.model.enums;
 
 import io.github.yezhihao.netmc.session.Session;
+import org.yzh.web.endpoint.DuplicateFilter;
 import org.yzh.web.model.entity.DeviceDO;
 
 /**
@@ -9,9 +10,17 @@ import org.yzh.web.model.entity.DeviceDO;
  */
 public enum SessionKey {
 
-    Device;
+    Device,
+    DuplicateFilter;
 
     public static DeviceDO getDevice(Session session) {
         return (DeviceDO) session.getAttribute(Device);
     }
+
+    public static DuplicateFilter getDuplicateFilter(Session session) {
+        DuplicateFilter filter = (DuplicateFilter) session.getAttribute(DuplicateFilter);
+        if (filter == null)
+            session.setAttribute(DuplicateFilter, filter = new DuplicateFilter(16));
+        return filter;
+    }
 }
\ No newline at end of file
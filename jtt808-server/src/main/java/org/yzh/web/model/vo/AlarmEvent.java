@@ -0,0 +1,148 @@
+package org.yzh.web.model.vo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+
+/**
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class AlarmEvent {
+
+    /** 报警标志位 */
+    public static final int Warn = 0;
+    /** 状态位 */
+    public static final int Status = 1;
+
+    @Schema(description = "事件序号，递增，用于断线后续传")
+    private long sequence;
+    @Schema(description = "终端手机号")
+    private String clientId;
+    @Schema(description = "类型：0.报警标志 1.状态")
+    private int type;
+    @Schema(description = "位序号(0~31)")
+    private int bit;
+    @Schema(description = "变化后的值：true.产生报警、状态置位 false.解除报警、状态复位")
+    private boolean value;
+    @Schema(description = "变化后的报警标志")
+    private int warnBit;
+    @Schema(description = "变化后的状态")
+    private int statusBit;
+    @Schema(description = "纬度")
+    private int latitude;
+    @Schema(description = "经度")
+    private int longitude;
+    @Schema(description = "时间(YYMMDDhhmmss)")
+    private LocalDateTime deviceTime;
+
+    public AlarmEvent() {
+    }
+
+    public AlarmEvent(String clientId, int type, int bit, boolean value, int warnBit, int statusBit, int latitude, int longitude, LocalDateTime deviceTime) {
+        this.clientId = clientId;
+        this.type = type;
+        this.bit = bit;
+        this.value = value;
+        this.warnBit = warnBit;
+        this.statusBit = statusBit;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.deviceTime = deviceTime;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public int getBit() {
+        return bit;
+    }
+
+    public void setBit(int bit) {
+        this.bit = bit;
+    }
+
+    public boolean isValue() {
+        return value;
+    }
+
+    public void setValue(boolean value) {
+        this.value = value;
+    }
+
+    public int getWarnBit() {
+        return warnBit;
+    }
+
+    public void setWarnBit(int warnBit) {
+        this.warnBit = warnBit;
+    }
+
+    public int getStatusBit() {
+        return statusBit;
+    }
+
+    public void setStatusBit(int statusBit) {
+        this.statusBit = statusBit;
+    }
+
+    public int getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(int latitude) {
+        this.latitude = latitude;
+    }
+
+    public int getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(int longitude) {
+        this.longitude = longitude;
+    }
+
+    public LocalDateTime getDeviceTime() {
+        return deviceTime;
+    }
+
+    public void setDeviceTime(LocalDateTime deviceTime) {
+        this.deviceTime = deviceTime;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append("{sequence=").append(sequence);
+        sb.append(",clientId=").append(clientId);
+        sb.append(",type=").append(type);
+        sb.append(",bit=").append(bit);
+        sb.append(",value=").append(value);
+        sb.append(",latitude=").append(latitude);
+        sb.append(",longitude=").append(longitude);
+        sb.append(",deviceTime=").append(deviceTime);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package org.yzh.web.model.vo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+
+/**
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class GeofenceEvent {
+
+    /** 进区域 */
+    public static final int Enter = 0;
+    /** 出区域 */
+    public static final int Exit = 1;
+    /** 区域内超速、路段超速 */
+    public static final int Overspeed = 2;
+    /** 偏离路线 */
+    public static final int Deviate = 3;
+    /** 路段行驶时间过长 */
+    public static final int TooLong = 4;
+    /** 路段行驶时间不足 */
+    public static final int TooShort = 5;
+
+    @Schema(description = "终端手机号")
+    private String clientId;
+    @Schema(description = "事件类型：0.进区域 1.出区域 2.区域内超速 3.偏离路线 4.路段行驶时间过长 5.路段行驶时间不足")
+    private int type;
+    @Schema(description = "区域类型：1.圆形 2.矩形 3.多边形 4.路线")
+    private int areaType;
+    @Schema(description = "区域ID")
+    private int areaId;
+    @Schema(description = "区域名称")
+    private String areaName;
+    @Schema(description = "路段ID，区域事件为0")
+    private int segmentId;
+    @Schema(description = "路段行驶时间(秒)，仅路段行驶时间过长、不足事件")
+    private int driveTime;
+    @Schema(description = "纬度")
+    private int latitude;
+    @Schema(description = "经度")
+    private int longitude;
+    @Schema(description = "速度(1/10公里每小时)")
+    private int speed;
+    @Schema(description = "时间(YYMMDDhhmmss)")
+    private LocalDateTime deviceTime;
+
+    public GeofenceEvent() {
+    }
+
+    public GeofenceEvent(String clientId, int type, int areaType, int areaId, String areaName, int latitude, int longitude, int speed, LocalDateTime deviceTime) {
+        this.clientId = clientId;
+        this.type = type;
+        this.areaType = areaType;
+        this.areaId = areaId;
+        this.areaName = areaName;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.speed = speed;
+        this.deviceTime = deviceTime;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public int getAreaType() {
+        return areaType;
+    }
+
+    public void setAreaType(int areaType) {
+        this.areaType = areaType;
+    }
+
+    public int getAreaId() {
+        return areaId;
+    }
+
+    public void setAreaId(int areaId) {
+        this.areaId = areaId;
+    }
+
+    public String getAreaName() {
+        return areaName;
+    }
+
+    public void setAreaName(String areaName) {
+        this.areaName = areaName;
+    }
+
+    public int getSegmentId() {
+        return segmentId;
+    }
+
+    public void setSegmentId(int segmentId) {
+        this.segmentId = segmentId;
+    }
+
+    public int getDriveTime() {
+        return driveTime;
+    }
+
+    public void setDriveTime(int driveTime) {
+        this.driveTime = driveTime;
+    }
+
+    public int getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(int latitude) {
+        this.latitude = latitude;
+    }
+
+    public int getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(int longitude) {
+        this.longitude = longitude;
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(int speed) {
+        this.speed = speed;
+    }
+
+    public LocalDateTime getDeviceTime() {
+        return deviceTime;
+    }
+
+    public void setDeviceTime(LocalDateTime deviceTime) {
+        this.deviceTime = deviceTime;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(160);
+        sb.append("{clientId=").append(clientId);
+        sb.append(",type=").append(type);
+        sb.append(",areaType=").append(areaType);
+        sb.append(",areaId=").append(areaId);
+        sb.append(",areaName=").append(areaName);
+        if (segmentId != 0)
+            sb.append(",segmentId=").append(segmentId);
+        if (driveTime != 0)
+            sb.append(",driveTime=").append(driveTime);
+        sb.append(",latitude=").append(latitude);
+        sb.append(",longitude=").append(longitude);
+        sb.append(",speed=").append(speed);
+        sb.append(",deviceTime=").append(deviceTime);
+        sb.append('}');
+        return sb.toString();
+    }
+}
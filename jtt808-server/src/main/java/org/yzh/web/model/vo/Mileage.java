@@ -0,0 +1,164 @@
+package org.yzh.web.model.vo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class Mileage {
+
+    @Schema(description = "设备id")
+    private String deviceId;
+    @Schema(description = "日期")
+    private LocalDate date;
+    @Schema(description = "当天首个定位点的时间")
+    private LocalDateTime startTime;
+    @Schema(description = "当天最后一个定位点的时间")
+    private LocalDateTime endTime;
+    @Schema(description = "定位点数")
+    private int points;
+    @Schema(description = "当天首个里程表读数(1/10km)，终端未上报时为-1")
+    private long startMileage;
+    @Schema(description = "当天最后一个里程表读数(1/10km)，终端未上报时为-1")
+    private long endMileage;
+    @Schema(description = "按里程表读数差值累计的里程(米)")
+    private long odometerDistance;
+    @Schema(description = "按定位点间球面距离累计的里程(米)")
+    private long gpsDistance;
+    @Schema(description = "里程(米)，终端上报里程表读数时取odometerDistance，否则取gpsDistance")
+    private long distance;
+    @Schema(description = "最高速度(1/10公里每小时)")
+    private int maxSpeed;
+    @Schema(description = "行驶时长(秒)")
+    private int movingTime;
+    @Schema(description = "ACC开且未行驶的怠速时长(秒)")
+    private int idleTime;
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public void setDate(LocalDate date) {
+        this.date = date;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(LocalDateTime startTime) {
+        this.startTime = startTime;
+    }
+
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(LocalDateTime endTime) {
+        this.endTime = endTime;
+    }
+
+    public int getPoints() {
+        return points;
+    }
+
+    public void setPoints(int points) {
+        this.points = points;
+    }
+
+    public long getStartMileage() {
+        return startMileage;
+    }
+
+    public void setStartMileage(long startMileage) {
+        this.startMileage = startMileage;
+    }
+
+    public long getEndMileage() {
+        return endMileage;
+    }
+
+    public void setEndMileage(long endMileage) {
+        this.endMileage = endMileage;
+    }
+
+    public long getOdometerDistance() {
+        return odometerDistance;
+    }
+
+    public void setOdometerDistance(long odometerDistance) {
+        this.odometerDistance = odometerDistance;
+    }
+
+    public long getGpsDistance() {
+        return gpsDistance;
+    }
+
+    public void setGpsDistance(long gpsDistance) {
+        this.gpsDistance = gpsDistance;
+    }
+
+    public long getDistance() {
+        return distance;
+    }
+
+    public void setDistance(long distance) {
+        this.distance = distance;
+    }
+
+    public int getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public void setMaxSpeed(int maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    public int getMovingTime() {
+        return movingTime;
+    }
+
+    public void setMovingTime(int movingTime) {
+        this.movingTime = movingTime;
+    }
+
+    public int getIdleTime() {
+        return idleTime;
+    }
+
+    public void setIdleTime(int idleTime) {
+        this.idleTime = idleTime;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("{deviceId=").append(deviceId);
+        sb.append(",date=").append(date);
+        sb.append(",startTime=").append(startTime);
+        sb.append(",endTime=").append(endTime);
+        sb.append(",points=").append(points);
+        sb.append(",startMileage=").append(startMileage);
+        sb.append(",endMileage=").append(endMileage);
+        sb.append(",odometerDistance=").append(odometerDistance);
+        sb.append(",gpsDistance=").append(gpsDistance);
+        sb.append(",distance=").append(distance);
+        sb.append(",maxSpeed=").append(maxSpeed);
+        sb.append(",movingTime=").append(movingTime);
+        sb.append(",idleTime=").append(idleTime);
+        sb.append('}');
+        return sb.toString();
+    }
+}
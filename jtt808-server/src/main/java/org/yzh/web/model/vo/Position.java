@@ -0,0 +1,96 @@
+package org.yzh.web.model.vo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+
+/**
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class Position {
+
+    @Schema(description = "设备id")
+    private String deviceId;
+    @Schema(description = "纬度")
+    private int latitude;
+    @Schema(description = "经度")
+    private int longitude;
+    @Schema(description = "速度(1/10公里每小时)")
+    private int speed;
+    @Schema(description = "方向")
+    private int direction;
+    @Schema(description = "时间(YYMMDDhhmmss)")
+    private LocalDateTime deviceTime;
+    @Schema(description = "与查询点的距离(米)，按范围查询时为0")
+    private double distance;
+
+    public Position() {
+    }
+
+    public Position(String deviceId, int latitude, int longitude, int speed, int direction, LocalDateTime deviceTime, double distance) {
+        this.deviceId = deviceId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.speed = speed;
+        this.direction = direction;
+        this.deviceTime = deviceTime;
+        this.distance = distance;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public int getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(int latitude) {
+        this.latitude = latitude;
+    }
+
+    public int getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(int longitude) {
+        this.longitude = longitude;
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(int speed) {
+        this.speed = speed;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public void setDirection(int direction) {
+        this.direction = direction;
+    }
+
+    public LocalDateTime getDeviceTime() {
+        return deviceTime;
+    }
+
+    public void setDeviceTime(LocalDateTime deviceTime) {
+        this.deviceTime = deviceTime;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(double distance) {
+        this.distance = distance;
+    }
+}
@@ -0,0 +1,202 @@
+package org.yzh.web.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.web.model.vo.AlarmEvent;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 报警标志、状态位的变化事件
+ * 每个终端保存上一次的报警标志和状态，新位置与其异或得到变化的位，每个变化的位产生一个事件；
+ * 终端的首个位置以报警标志全0、状态为其自身作为上一次的值，即只产生已有报警的事件，不产生状态事件；
+ * warn-mask、status-mask之外的位(如卫星定位系统类型)不产生事件；
+ * 事件保存在定长队列中，可按序号续传，也可订阅实时推送
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class AlarmStateService {
+
+    private static final Logger log = LoggerFactory.getLogger(AlarmStateService.class);
+
+    /** 保留的最近事件数 */
+    private static final int MAX_EVENTS = 10000;
+
+    private final int warnMask;
+    private final int statusMask;
+
+    private final ConcurrentHashMap<String, State> devices = new ConcurrentHashMap<>();
+    private final ArrayDeque<AlarmEvent> events = new ArrayDeque<>(MAX_EVENTS);
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private long sequence;
+
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder changed = new LongAdder();
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder outOfOrder = new LongAdder();
+
+    /**
+     * @param warnMask   产生事件的报警标志位，默认全部
+     * @param statusMask 产生事件的状态位，默认0~1位(ACC、定位)及4~17位(运营、加密、载重、油路、电路、车门等)
+     */
+    public AlarmStateService(@Value("${jt-server.alarm-state.warn-mask:-1}") int warnMask,
+                             @Value("${jt-server.alarm-state.status-mask:0x3FFF3}") int statusMask) {
+        this.warnMask = warnMask;
+        this.statusMask = statusMask;
+    }
+
+    /** 位置须按设备时间排序，早于上一个位置的忽略 */
+    public void update(List<T0200View> list) {
+        List<AlarmEvent> result = null;
+        for (T0200View location : list) {
+            if (LocationService.day(location) < 0)
+                continue;
+            result = update(location.getClientId(), location.getWarnBit(), location.getStatusBit(),
+                    location.getLatitude(), location.getLongitude(), location.getDeviceEpochSecond(TrackService.ZONE_OFFSET), result);
+        }
+        if (result != null)
+            publish(result);
+    }
+
+    public void update(String clientId, int warnBit, int statusBit, int latitude, int longitude, long time) {
+        List<AlarmEvent> result = update(clientId, warnBit, statusBit, latitude, longitude, time, null);
+        if (result != null)
+            publish(result);
+    }
+
+    private List<AlarmEvent> update(String clientId, int warnBit, int statusBit, int latitude, int longitude, long time, List<AlarmEvent> result) {
+        evaluated.increment();
+        State state = devices.computeIfAbsent(clientId, k -> new State(statusBit, time));
+        int warnChanged, statusChanged;
+        synchronized (state) {
+            if (time < state.time) {
+                outOfOrder.increment();
+                return result;
+            }
+            warnChanged = (state.warnBit ^ warnBit) & warnMask;
+            statusChanged = (state.statusBit ^ statusBit) & statusMask;
+            state.warnBit = warnBit;
+            state.statusBit = statusBit;
+            state.time = time;
+        }
+        if ((warnChanged | statusChanged) == 0)
+            return result;
+
+        changed.increment();
+        if (result == null)
+            result = new ArrayList<>(4);
+        LocalDateTime deviceTime = LocalDateTime.ofEpochSecond(time, 0, TrackService.ZONE);
+        for (int bits = warnChanged; bits != 0; bits &= bits - 1) {
+            int bit = Integer.numberOfTrailingZeros(bits);
+            result.add(new AlarmEvent(clientId, AlarmEvent.Warn, bit, (warnBit >>> bit & 1) != 0, warnBit, statusBit, latitude, longitude, deviceTime));
+        }
+        for (int bits = statusChanged; bits != 0; bits &= bits - 1) {
+            int bit = Integer.numberOfTrailingZeros(bits);
+            result.add(new AlarmEvent(clientId, AlarmEvent.Status, bit, (statusBit >>> bit & 1) != 0, warnBit, statusBit, latitude, longitude, deviceTime));
+        }
+        return result;
+    }
+
+    private void publish(List<AlarmEvent> list) {
+        emitted.add(list.size());
+        synchronized (events) {
+            for (AlarmEvent event : list) {
+                event.setSequence(++sequence);
+                if (events.size() == MAX_EVENTS)
+                    events.pollFirst();
+                events.addLast(event);
+            }
+        }
+        for (Subscriber subscriber : subscribers) {
+            for (AlarmEvent event : list) {
+                if (subscriber.clientId == null || subscriber.clientId.equals(event.getClientId())) {
+                    try {
+                        subscriber.listener.accept(event);
+                    } catch (Exception e) {
+                        log.warn("推送报警状态事件失败", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 序号大于after的事件，由旧到新
+     * @param clientId 终端手机号，为空时查询所有终端
+     */
+    public List<AlarmEvent> getEvents(String clientId, long after, int limit) {
+        List<AlarmEvent> result = new ArrayList<>(Math.min(Math.max(limit, 0), 1000));
+        synchronized (events) {
+            for (AlarmEvent event : events) {
+                if (result.size() >= limit)
+                    break;
+                if (event.getSequence() > after && (clientId == null || clientId.equals(event.getClientId())))
+                    result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 订阅之后产生的事件，在位置处理线程中回调，listener不应阻塞
+     * @param clientId 终端手机号，为空时订阅所有终端
+     * @return 取消订阅
+     */
+    public Runnable subscribe(String clientId, Consumer<AlarmEvent> listener) {
+        Subscriber subscriber = new Subscriber(clientId, listener);
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    /** 终端最后的报警标志和状态，[warnBit, statusBit] */
+    public int[] getState(String clientId) {
+        State state = devices.get(clientId);
+        if (state == null)
+            return null;
+        synchronized (state) {
+            return new int[]{state.warnBit, state.statusBit};
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        result.put("devices", devices.size());
+        result.put("evaluated", evaluated.sum());
+        result.put("changed", changed.sum());
+        result.put("events", emitted.sum());
+        result.put("outOfOrder", outOfOrder.sum());
+        result.put("subscribers", subscribers.size());
+        return result;
+    }
+
+    private static final class State {
+        private int warnBit;
+        private int statusBit;
+        /** 设备时间(纪元秒) */
+        private long time;
+
+        private State(int statusBit, long time) {
+            this.statusBit = statusBit;
+            this.time = time;
+        }
+    }
+
+    private static final class Subscriber {
+        private final String clientId;
+        private final Consumer<AlarmEvent> listener;
+
+        private Subscriber(String clientId, Consumer<AlarmEvent> listener) {
+            this.clientId = clientId;
+            this.listener = listener;
+        }
+    }
+}
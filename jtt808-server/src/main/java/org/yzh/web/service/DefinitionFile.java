@@ -0,0 +1,269 @@
+package org.yzh.web.service;
+
+import org.yzh.protocol.t808.T8600;
+import org.yzh.protocol.t808.T8602;
+import org.yzh.protocol.t808.T8604;
+import org.yzh.protocol.t808.T8606;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 平台侧区域、路线定义的本地文件
+ * 每项为终端手机号、类型及区域(T8600.Circle、T8602.Rectangle、T8604)或路线(T8606)的各字段，可选字段按是否为空分别记录，
+ * 不使用下发的报文格式(部分字段为空时无法按原样解析)；各字段的setter会按是否为空改写属性位，读回时最后恢复原属性；
+ * 整体写入临时文件后替换，启动时读回并重新设置
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+final class DefinitionFile {
+
+    private static final int VERSION = 1;
+
+    private static final int CIRCLE = 1;
+    private static final int RECTANGLE = 2;
+    private static final int POLYGON = 3;
+    private static final int ROUTE = 4;
+
+    private static final int NULL_INT = Integer.MIN_VALUE;
+    private static final long NULL_TIME = Long.MIN_VALUE;
+
+    /** 终端的一个区域或路线定义 */
+    static final class Definition {
+        final String clientId;
+        final Object item;
+
+        Definition(String clientId, Object item) {
+            this.clientId = clientId;
+            this.item = item;
+        }
+    }
+
+    private DefinitionFile() {
+    }
+
+    static void write(File file, List<Definition> definitions) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))) {
+            out.writeInt(VERSION);
+            out.writeInt(definitions.size());
+            for (Definition definition : definitions) {
+                out.writeUTF(definition.clientId);
+                Object item = definition.item;
+                if (item instanceof T8600.Circle)
+                    write(out, (T8600.Circle) item);
+                else if (item instanceof T8602.Rectangle)
+                    write(out, (T8602.Rectangle) item);
+                else if (item instanceof T8604)
+                    write(out, (T8604) item);
+                else if (item instanceof T8606)
+                    write(out, (T8606) item);
+                else
+                    throw new IOException("不支持的定义类型" + item.getClass().getName());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static List<Definition> read(File file) throws IOException {
+        List<Definition> result = new ArrayList<>();
+        if (!file.isFile())
+            return result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (in.readInt() != VERSION)
+                throw new IOException("版本不匹配");
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String clientId = in.readUTF();
+                int type = in.readUnsignedByte();
+                Object item;
+                switch (type) {
+                    case CIRCLE:
+                        item = readCircle(in);
+                        break;
+                    case RECTANGLE:
+                        item = readRectangle(in);
+                        break;
+                    case POLYGON:
+                        item = readPolygon(in);
+                        break;
+                    case ROUTE:
+                        item = readRoute(in);
+                        break;
+                    default:
+                        throw new IOException("未知的定义类型" + type);
+                }
+                result.add(new Definition(clientId, item));
+            }
+        }
+        return result;
+    }
+
+    private static void write(DataOutputStream out, T8600.Circle item) throws IOException {
+        out.writeByte(CIRCLE);
+        out.writeInt(item.getId());
+        out.writeInt(item.getAttribute());
+        out.writeInt(item.getLatitude());
+        out.writeInt(item.getLongitude());
+        out.writeInt(item.getRadius());
+        writeTime(out, item.getStartTime());
+        writeTime(out, item.getEndTime());
+        writeInt(out, item.getMaxSpeed());
+        writeInt(out, item.getDuration());
+        writeInt(out, item.getNightMaxSpeed());
+        writeString(out, item.getName());
+    }
+
+    private static T8600.Circle readCircle(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        int attribute = in.readInt();
+        T8600.Circle item = new T8600.Circle(id, attribute, in.readInt(), in.readInt(), in.readInt(),
+                readTime(in), readTime(in), readInt(in), readInt(in), readInt(in), readString(in));
+        item.setAttribute(attribute);
+        return item;
+    }
+
+    private static void write(DataOutputStream out, T8602.Rectangle item) throws IOException {
+        out.writeByte(RECTANGLE);
+        out.writeInt(item.getId());
+        out.writeInt(item.getAttribute());
+        out.writeInt(item.getLatitudeUL());
+        out.writeInt(item.getLongitudeUL());
+        out.writeInt(item.getLatitudeLR());
+        out.writeInt(item.getLongitudeLR());
+        writeTime(out, item.getStartTime());
+        writeTime(out, item.getEndTime());
+        writeInt(out, item.getMaxSpeed());
+        writeInt(out, item.getDuration());
+        writeInt(out, item.getNightMaxSpeed());
+        writeString(out, item.getName());
+    }
+
+    private static T8602.Rectangle readRectangle(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        int attribute = in.readInt();
+        T8602.Rectangle item = new T8602.Rectangle(id, attribute, in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                readTime(in), readTime(in), readInt(in), readInt(in), readInt(in), readString(in));
+        item.setAttribute(attribute);
+        return item;
+    }
+
+    private static void write(DataOutputStream out, T8604 item) throws IOException {
+        out.writeByte(POLYGON);
+        out.writeInt(item.getId());
+        out.writeInt(item.getAttribute());
+        writeTime(out, item.getStartTime());
+        writeTime(out, item.getEndTime());
+        writeInt(out, item.getMaxSpeed());
+        writeInt(out, item.getDuration());
+        writeInt(out, item.getNightMaxSpeed());
+        writeString(out, item.getName());
+        List<T8604.Point> points = item.getPoints();
+        out.writeInt(points.size());
+        for (T8604.Point point : points) {
+            out.writeInt(point.getLatitude());
+            out.writeInt(point.getLongitude());
+        }
+    }
+
+    private static T8604 readPolygon(DataInputStream in) throws IOException {
+        T8604 item = new T8604();
+        item.setId(in.readInt());
+        int attribute = in.readInt();
+        item.setStartTime(readTime(in));
+        item.setEndTime(readTime(in));
+        item.setMaxSpeed(readInt(in));
+        item.setDuration(readInt(in));
+        item.setNightMaxSpeed(readInt(in));
+        item.setName(readString(in));
+        int size = in.readInt();
+        List<T8604.Point> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            points.add(new T8604.Point(in.readInt(), in.readInt()));
+        item.setPoints(points);
+        item.setAttribute(attribute);
+        return item;
+    }
+
+    private static void write(DataOutputStream out, T8606 item) throws IOException {
+        out.writeByte(ROUTE);
+        out.writeInt(item.getId());
+        out.writeInt(item.getAttribute());
+        writeTime(out, item.getStartTime());
+        writeTime(out, item.getEndTime());
+        writeString(out, item.getName());
+        List<T8606.Line> lines = item.getItems();
+        out.writeInt(lines.size());
+        for (T8606.Line line : lines) {
+            out.writeInt(line.getId());
+            out.writeInt(line.getRouteId());
+            out.writeInt(line.getLatitude());
+            out.writeInt(line.getLongitude());
+            out.writeInt(line.getWidth());
+            out.writeInt(line.getAttribute());
+            writeInt(out, line.getUpperLimit());
+            writeInt(out, line.getLowerLimit());
+            writeInt(out, line.getMaxSpeed());
+            writeInt(out, line.getDuration());
+            writeInt(out, line.getNightMaxSpeed());
+        }
+    }
+
+    private static T8606 readRoute(DataInputStream in) throws IOException {
+        T8606 item = new T8606();
+        item.setId(in.readInt());
+        int attribute = in.readInt();
+        item.setStartTime(readTime(in));
+        item.setEndTime(readTime(in));
+        item.setName(readString(in));
+        int size = in.readInt();
+        List<T8606.Line> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int id = in.readInt();
+            int routeId = in.readInt();
+            int latitude = in.readInt();
+            int longitude = in.readInt();
+            int width = in.readInt();
+            int lineAttribute = in.readInt();
+            T8606.Line line = new T8606.Line(id, routeId, latitude, longitude, width, lineAttribute,
+                    readInt(in), readInt(in), readInt(in), readInt(in), readInt(in));
+            line.setAttribute(lineAttribute);
+            lines.add(line);
+        }
+        item.setItems(lines);
+        item.setAttribute(attribute);
+        return item;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeInt(value == null ? NULL_INT : value);
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        int value = in.readInt();
+        return value == NULL_INT ? null : value;
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeLong(value == null ? NULL_TIME : value.toEpochSecond(TrackService.ZONE));
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        long value = in.readLong();
+        return value == NULL_TIME ? null : LocalDateTime.ofEpochSecond(value, 0, TrackService.ZONE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -18,6 +18,8 @@ import org.yzh.web.model.enums.SessionKey;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -183,6 +185,19 @@ public class FileService {
         File dir = new File(mediaFileRoot + '/' + deviceId);
         dir.mkdirs();
 
+        File file = message.getFile();
+        if (file != null) {
+            try {
+                message.awaitFile();
+                Files.move(file.toPath(), new File(dir, filename.toString()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            } catch (IOException e) {
+                log.error("多媒体数据保存失败", e);
+                file.delete();
+                return false;
+            }
+        }
+
         ByteBuf packet = message.getPacket();
         FileOutputStream fos = null;
         try {
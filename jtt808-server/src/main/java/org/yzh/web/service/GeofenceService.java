@@ -0,0 +1,479 @@
+package org.yzh.web.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.yzh.commons.util.GeomUtils;
+import org.yzh.protocol.commons.Bit;
+import org.yzh.protocol.commons.ShapeAction;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.protocol.t808.T8600;
+import org.yzh.protocol.t808.T8602;
+import org.yzh.protocol.t808.T8604;
+import org.yzh.web.model.vo.GeofenceEvent;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 平台侧的区域判断
+ * 与下发给终端的圆形、矩形、多边形区域(8600/8602/8604)保持一致，终端应答成功后更新，删除区域(8601/8603/8605)同理；
+ * 每个终端的区域按网格建立索引，位置汇报时只判断所在网格内的区域，覆盖网格过多的大区域按外接矩形预先过滤；
+ * 区域属性0位表示只在起止时间内生效，1位表示限速，在区域内持续超速达到超速持续时间时产生区域内超速事件；
+ * 区域定义定时写入本地文件(geofence.dat，见DefinitionFile)，启动时读回，终端所在区域等判断状态不保存
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class GeofenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(GeofenceService.class);
+
+    public static final int Circle = 1;
+    public static final int Rectangle = 2;
+    public static final int Polygon = 3;
+
+    /** 网格边长(百万分之一度)，约1.1公里 */
+    static final int CELL = PositionService.CELL;
+    /** 覆盖网格数超过此值的区域不进入网格 */
+    private static final int MAX_CELLS = 64;
+    /** 保留的最近事件数 */
+    private static final int MAX_EVENTS = 1000;
+
+    /** 区域定义文件，为空时只保存在内存中 */
+    private final File file;
+    private volatile boolean dirty;
+
+    private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+    private final ArrayDeque<GeofenceEvent> events = new ArrayDeque<>(MAX_EVENTS);
+
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder tested = new LongAdder();
+    private final LongAdder emitted = new LongAdder();
+
+    /**
+     * @param path 区域定义文件所在目录，为空时不保存
+     */
+    public GeofenceService(@Value("${jt-server.geofence.path:}") String path) throws IOException {
+        this.file = file(path, "geofence.dat");
+        if (file == null)
+            return;
+        for (DefinitionFile.Definition definition : DefinitionFile.read(file)) {
+            Object item = definition.item;
+            if (item instanceof T8600.Circle) {
+                T8600 request = new T8600();
+                request.setAction(ShapeAction.Append);
+                request.setItems(Collections.singletonList((T8600.Circle) item));
+                request.setClientId(definition.clientId);
+                update(request);
+            } else if (item instanceof T8602.Rectangle) {
+                T8602 request = new T8602();
+                request.setAction(ShapeAction.Append);
+                request.setItems(Collections.singletonList((T8602.Rectangle) item));
+                request.setClientId(definition.clientId);
+                update(request);
+            } else if (item instanceof T8604) {
+                ((T8604) item).setClientId(definition.clientId);
+                update((T8604) item);
+            }
+        }
+        dirty = false;
+    }
+
+    /** 设置圆形区域 */
+    public void update(T8600 request) {
+        List<Area> areas = new ArrayList<>();
+        for (T8600.Circle item : request.getItems()) {
+            Area area = new Area(Circle, item.getId(), item.getAttribute(), item.getName(), item.getStartTime(), item.getEndTime(), item.getMaxSpeed(), item.getDuration());
+            area.setCircle(item.getLatitude(), item.getLongitude(), item.getRadius());
+            area.definition = item;
+            areas.add(area);
+        }
+        update(request.getClientId(), Circle, request.getAction(), areas);
+    }
+
+    /** 设置矩形区域 */
+    public void update(T8602 request) {
+        List<Area> areas = new ArrayList<>();
+        for (T8602.Rectangle item : request.getItems()) {
+            Area area = new Area(Rectangle, item.getId(), item.getAttribute(), item.getName(), item.getStartTime(), item.getEndTime(), item.getMaxSpeed(), item.getDuration());
+            area.setBounds(item.getLatitudeUL(), item.getLongitudeUL(), item.getLatitudeLR(), item.getLongitudeLR());
+            area.definition = item;
+            areas.add(area);
+        }
+        update(request.getClientId(), Rectangle, request.getAction(), areas);
+    }
+
+    /** 设置多边形区域 */
+    public void update(T8604 request) {
+        List<T8604.Point> points = request.getPoints();
+        if (points == null || points.size() < 3)
+            return;
+        Area area = new Area(Polygon, request.getId(), request.getAttribute(), request.getName(), request.getStartTime(), request.getEndTime(), request.getMaxSpeed(), request.getDuration());
+        double[] xy = new double[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            T8604.Point point = points.get(i);
+            xy[i * 2] = point.getLongitude();
+            xy[i * 2 + 1] = point.getLatitude();
+        }
+        area.setPolygon(xy);
+        area.definition = request;
+        update(request.getClientId(), Polygon, ShapeAction.Modify, Collections.singletonList(area));
+    }
+
+    /**
+     * 删除区域
+     * @param ids 为空时删除该类型的所有区域
+     */
+    public void remove(String clientId, int type, int[] ids) {
+        Device device = devices.get(clientId);
+        if (device == null)
+            return;
+        synchronized (device) {
+            Map<Long, Area> areas = new HashMap<>(device.index.areas);
+            if (ids == null || ids.length == 0)
+                areas.values().removeIf(area -> area.type == type);
+            else
+                for (int id : ids)
+                    areas.remove(key(type, id));
+            device.setAreas(areas);
+        }
+        dirty = true;
+    }
+
+    private void update(String clientId, int type, int action, List<Area> list) {
+        Device device = devices.computeIfAbsent(clientId, Device::new);
+        synchronized (device) {
+            Map<Long, Area> areas = new HashMap<>(device.index.areas);
+            if (action == ShapeAction.Update)
+                areas.values().removeIf(area -> area.type == type);
+            for (Area area : list)
+                areas.put(area.key, area);
+            device.setAreas(areas);
+        }
+        dirty = true;
+    }
+
+    /** 区域定义有变化时写入文件 */
+    @Scheduled(fixedDelayString = "${jt-server.geofence.flush-interval:10000}")
+    public void flush() {
+        if (file == null || !dirty)
+            return;
+        dirty = false;
+        List<DefinitionFile.Definition> definitions = new ArrayList<>();
+        for (Device device : devices.values())
+            for (Area area : device.index.areas.values())
+                definitions.add(new DefinitionFile.Definition(device.clientId, area.definition));
+        try {
+            DefinitionFile.write(file, definitions);
+        } catch (IOException e) {
+            dirty = true;
+            log.error("写入区域定义失败{}", file, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    /** 定义文件，目录为空时返回null */
+    static File file(String path, String name) throws IOException {
+        if (path == null || path.isEmpty())
+            return null;
+        File dir = new File(path);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("无法创建目录" + dir);
+        return new File(dir, name);
+    }
+
+    public void evaluate(List<T0200View> list) {
+        for (T0200View location : list) {
+            Device device = devices.get(location.getClientId());
+            if (device != null && LocationService.day(location) >= 0)
+                evaluate(device, location.getLatitude(), location.getLongitude(), location.getSpeed(),
+                        location.getDeviceEpochSecond(TrackService.ZONE_OFFSET));
+        }
+    }
+
+    /**
+     * @param speed 速度(1/10公里每小时)
+     * @param time  设备时间(纪元秒)
+     */
+    public void evaluate(String clientId, int latitude, int longitude, int speed, long time) {
+        Device device = devices.get(clientId);
+        if (device != null)
+            evaluate(device, latitude, longitude, speed, time);
+    }
+
+    private void evaluate(Device device, int latitude, int longitude, int speed, long time) {
+        synchronized (device) {
+            //乱序到达的历史位置不参与判断
+            if (time < device.lastTime)
+                return;
+            device.lastTime = time;
+            evaluated.increment();
+            long seq = ++device.seq;
+
+            Index index = device.index;
+            Area[] cell = index.grid.get(cellKey(Math.floorDiv(longitude, CELL), Math.floorDiv(latitude, CELL)));
+            if (cell != null)
+                test(device, cell, seq, latitude, longitude, speed, time);
+            test(device, index.large, seq, latitude, longitude, speed, time);
+
+            if (device.states.size() > 0) {
+                Iterator<State> it = device.states.values().iterator();
+                while (it.hasNext()) {
+                    State state = it.next();
+                    if (state.seq != seq) {
+                        it.remove();
+                        emit(device, GeofenceEvent.Exit, state.area, latitude, longitude, speed, time);
+                    }
+                }
+            }
+        }
+    }
+
+    private void test(Device device, Area[] areas, long seq, int latitude, int longitude, int speed, long time) {
+        for (Area area : areas) {
+            if (time < area.startTime || time > area.endTime)
+                continue;
+            tested.increment();
+            if (!area.contains(latitude, longitude))
+                continue;
+
+            State state = device.states.get(area.key);
+            if (state == null) {
+                state = new State(area);
+                device.states.put(area.key, state);
+                emit(device, GeofenceEvent.Enter, area, latitude, longitude, speed, time);
+            }
+            state.seq = seq;
+
+            if (area.maxSpeed >= 0 && speed > area.maxSpeed) {
+                if (state.overspeedSince < 0)
+                    state.overspeedSince = time;
+                if (!state.overspeed && time - state.overspeedSince >= area.duration) {
+                    state.overspeed = true;
+                    emit(device, GeofenceEvent.Overspeed, area, latitude, longitude, speed, time);
+                }
+            } else {
+                state.overspeedSince = -1;
+                state.overspeed = false;
+            }
+        }
+    }
+
+    private void emit(Device device, int type, Area area, int latitude, int longitude, int speed, long time) {
+        publish(new GeofenceEvent(device.clientId, type, area.type, area.id, area.name,
+                latitude, longitude, speed, LocalDateTime.ofEpochSecond(time, 0, TrackService.ZONE)));
+    }
+
+    /** 记录区域、路线事件 */
+    void publish(GeofenceEvent event) {
+        emitted.increment();
+        synchronized (events) {
+            if (events.size() == MAX_EVENTS)
+                events.pollFirst();
+            events.addLast(event);
+        }
+        log.info("区域事件{}", event);
+    }
+
+    /** 最近的区域事件，由新到旧 */
+    public List<GeofenceEvent> getEvents(String clientId, int limit) {
+        List<GeofenceEvent> result = new ArrayList<>(Math.min(Math.max(limit, 0), MAX_EVENTS));
+        synchronized (events) {
+            Iterator<GeofenceEvent> it = events.descendingIterator();
+            while (it.hasNext() && result.size() < limit) {
+                GeofenceEvent event = it.next();
+                if (clientId == null || clientId.equals(event.getClientId()))
+                    result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /** 终端当前所在的区域 */
+    public List<Integer> getInside(String clientId, int type) {
+        Device device = devices.get(clientId);
+        if (device == null)
+            return Collections.emptyList();
+        List<Integer> result = new ArrayList<>();
+        synchronized (device) {
+            for (State state : device.states.values())
+                if (state.area.type == type)
+                    result.add(state.area.id);
+        }
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        long areas = 0;
+        for (Device device : devices.values())
+            areas += device.index.areas.size();
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        result.put("devices", devices.size());
+        result.put("areas", areas);
+        result.put("evaluated", evaluated.sum());
+        result.put("tested", tested.sum());
+        result.put("events", emitted.sum());
+        return result;
+    }
+
+    private static long key(int type, int id) {
+        return (long) type << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    private static long cellKey(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    /** 区域，坐标单位为百万分之一度，速度单位为1/10公里每小时，时间为纪元秒 */
+    private static final class Area {
+        private final int type;
+        private final int id;
+        private final long key;
+        private final String name;
+        private final long startTime;
+        private final long endTime;
+        private final int maxSpeed;
+        private final int duration;
+        /** 用于保存的区域定义：T8600.Circle、T8602.Rectangle或T8604 */
+        private Object definition;
+
+        private int minLatitude, minLongitude, maxLatitude, maxLongitude;
+        private int latitude, longitude, radius;
+        private double[] points;
+
+        private Area(int type, int id, int attribute, String name, LocalDateTime startTime, LocalDateTime endTime, Integer maxSpeed, Integer duration) {
+            this.type = type;
+            this.id = id;
+            this.key = key(type, id);
+            this.name = name;
+            boolean timed = Bit.isTrue(attribute, 0) && startTime != null && endTime != null;
+            this.startTime = timed ? startTime.toEpochSecond(TrackService.ZONE) : Long.MIN_VALUE;
+            this.endTime = timed ? endTime.toEpochSecond(TrackService.ZONE) : Long.MAX_VALUE;
+            boolean limited = Bit.isTrue(attribute, 1) && maxSpeed != null;
+            this.maxSpeed = limited ? maxSpeed * 10 : -1;
+            this.duration = limited && duration != null ? duration : 0;
+        }
+
+        private void setCircle(int latitude, int longitude, int radius) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+            int dLat = (int) Math.ceil(radius / (GeomUtils.A * GeomUtils.RADIAN) * 1000000D);
+            double cos = Math.cos(latitude / 1000000D * GeomUtils.RADIAN);
+            int dLng = cos < 0.000001D ? 180000000 : (int) Math.min(Math.ceil(dLat / cos), 180000000D);
+            setBounds(latitude + dLat, longitude - dLng, latitude - dLat, longitude + dLng);
+        }
+
+        private void setBounds(int latitude1, int longitude1, int latitude2, int longitude2) {
+            minLatitude = Math.min(latitude1, latitude2);
+            maxLatitude = Math.max(latitude1, latitude2);
+            minLongitude = Math.min(longitude1, longitude2);
+            maxLongitude = Math.max(longitude1, longitude2);
+        }
+
+        private void setPolygon(double[] points) {
+            this.points = points;
+            minLatitude = minLongitude = Integer.MAX_VALUE;
+            maxLatitude = maxLongitude = Integer.MIN_VALUE;
+            for (int i = 0; i < points.length; i += 2) {
+                minLongitude = Math.min(minLongitude, (int) points[i]);
+                maxLongitude = Math.max(maxLongitude, (int) points[i]);
+                minLatitude = Math.min(minLatitude, (int) points[i + 1]);
+                maxLatitude = Math.max(maxLatitude, (int) points[i + 1]);
+            }
+        }
+
+        private boolean contains(int latitude, int longitude) {
+            if (!GeomUtils.inside(longitude, latitude, minLongitude, minLatitude, maxLongitude, maxLatitude))
+                return false;
+            switch (type) {
+                case Circle:
+                    return GeomUtils.distance(this.longitude / 1000000D, this.latitude / 1000000D, longitude / 1000000D, latitude / 1000000D) <= radius;
+                case Polygon:
+                    return GeomUtils.inside(longitude, latitude, points);
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /** 区域索引，更新区域时整体替换 */
+    private static final class Index {
+        private static final Index EMPTY = new Index(Collections.emptyMap());
+
+        private final Map<Long, Area> areas;
+        private final Map<Long, Area[]> grid = new HashMap<>();
+        private final Area[] large;
+
+        private Index(Map<Long, Area> areas) {
+            this.areas = areas;
+            Map<Long, List<Area>> cells = new HashMap<>();
+            List<Area> large = new ArrayList<>();
+            for (Area area : areas.values()) {
+                int x1 = Math.floorDiv(area.minLongitude, CELL), x2 = Math.floorDiv(area.maxLongitude, CELL);
+                int y1 = Math.floorDiv(area.minLatitude, CELL), y2 = Math.floorDiv(area.maxLatitude, CELL);
+                if ((long) (x2 - x1 + 1) * (y2 - y1 + 1) > MAX_CELLS) {
+                    large.add(area);
+                    continue;
+                }
+                for (int x = x1; x <= x2; x++)
+                    for (int y = y1; y <= y2; y++)
+                        cells.computeIfAbsent(cellKey(x, y), k -> new ArrayList<>(2)).add(area);
+            }
+            cells.forEach((k, v) -> grid.put(k, v.toArray(new Area[0])));
+            this.large = large.toArray(new Area[0]);
+        }
+    }
+
+    /** 终端所在的一个区域 */
+    private static final class State {
+        private final Area area;
+        /** 最近一次判断在区域内的序号 */
+        private long seq;
+        /** 开始超速的设备时间，未超速时为-1 */
+        private long overspeedSince = -1;
+        private boolean overspeed;
+
+        private State(Area area) {
+            this.area = area;
+        }
+    }
+
+    private static final class Device {
+        private final String clientId;
+        private volatile Index index = Index.EMPTY;
+        private final Map<Long, State> states = new HashMap<>(4);
+        private long lastTime = Long.MIN_VALUE;
+        private long seq;
+
+        private Device(String clientId) {
+            this.clientId = clientId;
+        }
+
+        /** 更新区域，已删除区域的状态直接丢弃，不产生出区域事件 */
+        private void setAreas(Map<Long, Area> areas) {
+            index = new Index(areas);
+            states.keySet().retainAll(areas.keySet());
+            for (State state : states.values().toArray(new State[0])) {
+                Area area = areas.get(state.area.key);
+                if (area != state.area) {
+                    State replaced = new State(area);
+                    replaced.seq = state.seq;
+                    states.put(area.key, replaced);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.yzh.web.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 位置信息的本地追加日志
+ * 数据库写入落后或出错时批次按到达顺序追加到分段文件(location-序号.journal)，恢复后从最早的分段顺序读出；
+ * 读完的分段即删除；关闭时记录读取位置(location.offset)，重启后从该位置继续，异常退出时头部分段中已读出的批次可能重复入库
+ * 记录格式：长度[4] + CRC32[4] + 日期[4] + 创建时间[8] + 行数[4] + 行数据，行数据见{@link LocationService.Batch}
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+class LocationJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationJournal.class);
+
+    private static final String PREFIX = "location-";
+    private static final String SUFFIX = ".journal";
+    private static final String OFFSET = "location.offset";
+
+    private final File dir;
+    private final long segmentSize;
+    private final long maxSize;
+
+    /** 未读完的分段序号，队尾为正在写入的分段 */
+    private final ArrayDeque<Long> segments = new ArrayDeque<>();
+    private long totalSize;
+
+    private FileChannel writer;
+    private long writeSeq;
+    private long writePosition;
+
+    private FileChannel reader;
+    private long readSeq = -1;
+    private long readPosition;
+
+    /** 上次关闭时的读取位置 */
+    private long offsetSeq = -1;
+    private long offsetPosition;
+
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer header = ByteBuffer.allocate(8);
+
+    /**
+     * @param segmentSize 单个分段的大小上限(字节)
+     * @param maxSize     日志总大小上限(字节)，超过时拒绝追加
+     */
+    LocationJournal(File dir, long segmentSize, long maxSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("无法创建目录" + dir);
+
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        long[] seqs = new long[files == null ? 0 : files.length];
+        for (int i = 0; i < seqs.length; i++) {
+            String name = files[i].getName();
+            seqs[i] = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            totalSize += files[i].length();
+        }
+        Arrays.sort(seqs);
+        for (long seq : seqs)
+            segments.add(seq);
+        writeSeq = seqs.length == 0 ? 0 : seqs[seqs.length - 1] + 1;
+
+        File offset = new File(dir, OFFSET);
+        if (offset.isFile()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(offset))) {
+                offsetSeq = in.readLong();
+                offsetPosition = in.readLong();
+            } catch (IOException e) {
+                log.warn("读取位置文件失败{}", offset, e);
+            }
+            offset.delete();
+        }
+        if (totalSize > 0)
+            log.warn("未回放的位置信息日志{}个分段，共{}字节", seqs.length, totalSize);
+    }
+
+    /** @return false 超过日志总大小上限 */
+    synchronized boolean append(LocationService.Batch batch) throws IOException {
+        ByteBuffer buf = encode(batch);
+        int length = buf.remaining();
+        if (totalSize + length > maxSize)
+            return false;
+        if (writer == null || writePosition + length > segmentSize)
+            roll();
+        while (buf.hasRemaining())
+            writePosition += writer.write(buf, writePosition);
+        totalSize += length;
+        return true;
+    }
+
+    /** @return 最早未读的批次，日志为空时返回null */
+    synchronized LocationService.Batch read() throws IOException {
+        while (!segments.isEmpty()) {
+            long seq = segments.peekFirst();
+            if (reader == null || readSeq != seq) {
+                closeReader();
+                reader = FileChannel.open(file(seq).toPath(), StandardOpenOption.READ);
+                readSeq = seq;
+                readPosition = seq == offsetSeq ? offsetPosition : 0;
+            }
+            boolean writing = writer != null && seq == writeSeq;
+            long end = writing ? writePosition : reader.size();
+            if (readPosition < end) {
+                LocationService.Batch batch = next(end);
+                if (batch != null)
+                    return batch;
+                if (writing) {
+                    log.error("日志损坏，跳过{}:{}/{}", file(seq), readPosition, end);
+                    readPosition = end;
+                    continue;
+                }
+                log.warn("日志末尾不完整，跳过{}:{}/{}", file(seq), readPosition, end);
+            } else if (writing) {
+                //已读到写入位置，截断当前分段继续复用
+                writer.truncate(0);
+                totalSize -= writePosition;
+                writePosition = 0;
+                readPosition = 0;
+                return null;
+            }
+            closeReader();
+            segments.pollFirst();
+            File file = file(seq);
+            totalSize -= file.length();
+            if (!file.delete())
+                log.warn("删除日志失败{}", file);
+        }
+        return null;
+    }
+
+    synchronized boolean isEmpty() {
+        return totalSize == 0;
+    }
+
+    synchronized long size() {
+        return totalSize;
+    }
+
+    /** 日志已读空时删除复用的分段文件，否则记录读取位置 */
+    @Override
+    public synchronized void close() throws IOException {
+        if (reader != null && readPosition > 0 && totalSize > 0) {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, OFFSET)))) {
+                out.writeLong(readSeq);
+                out.writeLong(readPosition);
+            }
+        }
+        closeReader();
+        if (writer != null) {
+            writer.force(false);
+            writer.close();
+            writer = null;
+            if (totalSize == 0) {
+                segments.clear();
+                file(writeSeq).delete();
+            }
+        }
+    }
+
+    private LocationService.Batch next(long end) throws IOException {
+        if (readPosition + 8 > end)
+            return null;
+        header.clear();
+        readFully(header, readPosition);
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+        if (length < 8 || readPosition + length > end)
+            return null;
+        ByteBuffer buf = ByteBuffer.allocate(length - 8);
+        readFully(buf, readPosition + 8);
+        crc.reset();
+        crc.update(buf.array(), 0, buf.limit());
+        if ((int) crc.getValue() != checksum)
+            return null;
+        readPosition += length;
+        return decode(buf);
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = reader.read(buf, position);
+            if (n < 0)
+                throw new IOException("读取日志失败" + file(readSeq) + ":" + position);
+            position += n;
+        }
+        buf.flip();
+    }
+
+    private void roll() throws IOException {
+        if (writer != null) {
+            writer.force(false);
+            writer.close();
+            writeSeq++;
+        }
+        writer = FileChannel.open(file(writeSeq).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        writePosition = writer.size();
+        if (segments.isEmpty() || segments.peekLast() != writeSeq)
+            segments.add(writeSeq);
+    }
+
+    private void closeReader() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+            readSeq = -1;
+        }
+    }
+
+    private File file(long seq) {
+        return new File(dir, PREFIX + seq + SUFFIX);
+    }
+
+    private ByteBuffer encode(LocationService.Batch batch) {
+        byte[][] ids = new byte[batch.size][];
+        int length = 8 + 16;
+        for (int i = 0; i < batch.size; i++) {
+            ids[i] = batch.deviceIds[i].getBytes(StandardCharsets.UTF_8);
+            length += 2 + ids[i].length + LocationService.Batch.ROW_BYTES;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.position(8);
+        buf.putInt(batch.day);
+        buf.putLong(batch.createTime);
+        buf.putInt(batch.size);
+        for (int i = 0; i < batch.size; i++) {
+            buf.putShort((short) ids[i].length).put(ids[i]);
+            batch.writeRow(buf, i);
+        }
+        crc.reset();
+        crc.update(buf.array(), 8, length - 8);
+        buf.putInt(0, length);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    private static LocationService.Batch decode(ByteBuffer buf) {
+        int day = buf.getInt();
+        long createTime = buf.getLong();
+        int size = buf.getInt();
+        LocationService.Batch batch = new LocationService.Batch(day, createTime, size);
+        for (int i = 0; i < size; i++) {
+            byte[] id = new byte[buf.getShort() & 0xffff];
+            buf.get(id);
+            batch.readRow(new String(id, StandardCharsets.UTF_8), buf);
+        }
+        return batch;
+    }
+}
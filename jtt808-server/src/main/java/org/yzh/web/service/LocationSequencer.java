@@ -0,0 +1,344 @@
+package org.yzh.web.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.yzh.protocol.t808.T0200;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.protocol.t808.T0704;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 位置信息(0200)与盲区补报(0704)的统一入口
+ * 入库和轨迹存储与到达顺序无关，收到即写入；里程、区域、路线判断会丢弃设备时间早于上一个点的位置，
+ * 因此先按设备分别缓冲，按设备时间排序，到达超过delay毫秒后再按顺序送出，消除该时间窗口内的乱序；
+ * 盲区补报进入低优先级队列，由单独的线程转换、写入，不占用实时位置的@AsyncBatch线程，队列满时拒绝，由终端稍后重发；
+ * 设备有未处理的补报时，其实时位置暂缓送出(最长max-hold毫秒)，补报合并后再按时间顺序统计；
+ * 终端通常在重连后先发实时位置、再发盲区补报，补报可能晚于delay才到达，因此终端注册或鉴权(见online)后的backfill-wait毫秒内同样暂缓送出；
+ * 等待结束后才到达的补报，设备时间早于已送出的位置，里程、区域、路线、报警判断仍会丢弃，计入late(仅统计终端在线期间)；
+ * 报警标志、状态位的变化同样在送出时按设备时间顺序判断
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class LocationSequencer {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationSequencer.class);
+
+    private final LocationService locationService;
+    private final TrackService trackService;
+    private final MileageService mileageService;
+    private final GeofenceService geofenceService;
+    private final RouteService routeService;
+    private final AlarmStateService alarmStateService;
+
+    private final long delay;
+    private final long maxHold;
+    private final long backfillWait;
+
+    private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+    private final BlockingQueue<T0704> backfills;
+    private final Thread backfiller;
+    private volatile boolean running = true;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder backfilled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder reordered = new LongAdder();
+    private final LongAdder late = new LongAdder();
+
+    /**
+     * @param delay         位置到达后缓冲的时长(毫秒)
+     * @param maxHold       等待补报时实时位置最长缓冲的时长(毫秒)
+     * @param backfillWait  终端上线后等待补报到达的时长(毫秒)，不超过maxHold
+     * @param queueCapacity 补报队列容量(消息数)
+     */
+    public LocationSequencer(LocationService locationService, TrackService trackService, MileageService mileageService,
+                             GeofenceService geofenceService, RouteService routeService, AlarmStateService alarmStateService,
+                             @Value("${jt-server.location.reorder.delay:2000}") long delay,
+                             @Value("${jt-server.location.reorder.max-hold:60000}") long maxHold,
+                             @Value("${jt-server.location.reorder.backfill-wait:30000}") long backfillWait,
+                             @Value("${jt-server.location.reorder.backfill-capacity:1000}") int queueCapacity) {
+        this.locationService = locationService;
+        this.trackService = trackService;
+        this.mileageService = mileageService;
+        this.geofenceService = geofenceService;
+        this.routeService = routeService;
+        this.alarmStateService = alarmStateService;
+        this.delay = delay;
+        this.maxHold = maxHold;
+        this.backfillWait = Math.min(backfillWait, maxHold);
+        this.backfills = new ArrayBlockingQueue<>(queueCapacity);
+        this.backfiller = new Thread(this::backfill, "LocationBackfiller");
+        this.backfiller.setDaemon(true);
+        this.backfiller.setPriority(Thread.MIN_PRIORITY);
+        this.backfiller.start();
+    }
+
+    /** 终端注册或鉴权，随后backfill-wait毫秒内的实时位置暂缓送出，等待盲区补报；在线期间保留设备的送出进度 */
+    public void online(String clientId) {
+        if (clientId == null)
+            return;
+        long until = System.currentTimeMillis() + backfillWait;
+        for (; ; ) {
+            Device device = device(clientId);
+            synchronized (device) {
+                if (device.removed)
+                    continue;
+                device.online = true;
+                if (backfillWait > 0)
+                    device.waitUntil = until;
+                return;
+            }
+        }
+    }
+
+    /** 终端离线，缓冲送出后移除 */
+    public void offline(String clientId) {
+        Device device = clientId == null ? null : devices.get(clientId);
+        if (device != null) {
+            synchronized (device) {
+                device.online = false;
+            }
+        }
+    }
+
+    /** 实时位置 */
+    public void live(List<T0200View> list) {
+        store(list);
+        hold(list, false);
+    }
+
+    /**
+     * 定位数据批量上传，盲区补报进入补报队列，不在调用线程中写入；
+     * 正常位置批量汇报按实时位置处理，会在调用线程中写入，I/O线程中应转入实时位置的@AsyncBatch队列(见JT808Endpoint.T0704)
+     * @return false 补报队列已满，未处理
+     */
+    public boolean batch(T0704 message) {
+        List<T0200> items = message.getItems();
+        if (items == null || items.isEmpty())
+            return true;
+        if (message.getType() == 0) {
+            live(views(message));
+            return true;
+        }
+        backfilling(message.getClientId(), 1);
+        if (!backfills.offer(message)) {
+            backfilling(message.getClientId(), -1);
+            rejected.add(items.size());
+            return false;
+        }
+        return true;
+    }
+
+    private void backfill() {
+        while (running || !backfills.isEmpty()) {
+            T0704 message;
+            try {
+                message = backfills.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (message == null)
+                continue;
+            try {
+                List<T0200View> list = views(message);
+                store(list);
+                hold(list, true);
+                backfilled.add(list.size());
+            } catch (Exception e) {
+                log.error("处理盲区补报失败{}", message.getClientId(), e);
+            } finally {
+                backfilling(message.getClientId(), -1);
+            }
+        }
+    }
+
+    public static List<T0200View> views(T0704 message) {
+        List<T0200> items = message.getItems();
+        List<T0200View> result = new ArrayList<>(items.size());
+        for (T0200 item : items)
+            result.add(T0200View.of(message, item));
+        return result;
+    }
+
+    private void store(List<T0200View> list) {
+        locationService.save(list);
+        trackService.append(list);
+    }
+
+    private void hold(List<T0200View> list, boolean backfill) {
+        long now = System.currentTimeMillis();
+        for (T0200View location : list) {
+            if (LocationService.day(location) < 0)
+                continue;
+            long time = location.getDeviceEpochSecond(TrackService.ZONE_OFFSET);
+            for (; ; ) {
+                Device device = device(location.getClientId());
+                synchronized (device) {
+                    if (device.removed)
+                        continue;
+                    if (device.points.isEmpty())
+                        device.since = now;
+                    device.points.add(new Held(location, time, now, device.sequence++, backfill));
+                    break;
+                }
+            }
+        }
+        received.add(list.size());
+    }
+
+    private Device device(String clientId) {
+        return devices.computeIfAbsent(clientId, k -> new Device());
+    }
+
+    /** 有未处理补报的设备不会被移除，增减须在同一实例上 */
+    private void backfilling(String clientId, int delta) {
+        for (; ; ) {
+            Device device = device(clientId);
+            synchronized (device) {
+                if (device.removed)
+                    continue;
+                device.backfilling += delta;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 送出各设备已到期的位置：到达超过delay的位置中设备时间最大者之前(含)的所有位置，按设备时间排序；
+     * 设备有未处理的补报或在上线后的等待期内，且缓冲未超过max-hold时暂不送出
+     */
+    @Scheduled(fixedDelayString = "${jt-server.location.reorder.interval:200}")
+    public void drain() {
+        drain(System.currentTimeMillis() - delay, false);
+    }
+
+    private void drain(long matured, boolean all) {
+        long now = System.currentTimeMillis();
+        List<T0200View> list = new ArrayList<>();
+        for (Map.Entry<String, Device> entry : devices.entrySet()) {
+            Device device = entry.getValue();
+            synchronized (device) {
+                PriorityQueue<Held> points = device.points;
+                if (points.isEmpty()) {
+                    if (device.backfilling == 0 && !device.online && now >= device.waitUntil) {
+                        device.removed = true;
+                        devices.remove(entry.getKey(), device);
+                    }
+                    continue;
+                }
+                if (!all && (device.backfilling > 0 || now < device.waitUntil) && now - device.since < maxHold)
+                    continue;
+
+                long watermark = Long.MIN_VALUE;
+                long lastSequence = Long.MIN_VALUE;
+                for (Held held : points) {
+                    if ((all || held.arrival <= matured) && held.time > watermark)
+                        watermark = held.time;
+                }
+                if (watermark == Long.MIN_VALUE)
+                    continue;
+                long since = Long.MAX_VALUE;
+                long releasedTime = device.releasedTime;
+                while (!points.isEmpty() && points.peek().time <= watermark) {
+                    Held held = points.poll();
+                    if (held.sequence < lastSequence)
+                        reordered.increment();
+                    if (held.backfill && held.time <= releasedTime)
+                        late.increment();
+                    lastSequence = held.sequence;
+                    list.add(held.location);
+                }
+                if (watermark > releasedTime)
+                    device.releasedTime = watermark;
+                for (Held held : points)
+                    since = Math.min(since, held.arrival);
+                device.since = since;
+            }
+        }
+        if (list.isEmpty())
+            return;
+        released.add(list.size());
+        mileageService.update(list);
+        geofenceService.evaluate(list);
+        routeService.evaluate(list);
+        alarmStateService.update(list);
+    }
+
+    /** 收到、补报、补报队列满被拒绝、送出统计、送出时被前移、迟于已送出位置的补报位置数，缓冲中的设备数及补报队列长度 */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        result.put("received", received.sum());
+        result.put("backfilled", backfilled.sum());
+        result.put("rejected", rejected.sum());
+        result.put("released", released.sum());
+        result.put("reordered", reordered.sum());
+        result.put("late", late.sum());
+        result.put("devices", devices.size());
+        result.put("backfillQueued", backfills.size());
+        return result;
+    }
+
+    /** 处理完补报队列，送出所有缓冲的位置 */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        backfiller.join();
+        drain(Long.MAX_VALUE, true);
+    }
+
+    private static final class Held implements Comparable<Held> {
+        private final T0200View location;
+        /** 设备时间(纪元秒) */
+        private final long time;
+        /** 到达时间(毫秒) */
+        private final long arrival;
+        /** 设备内的到达序号 */
+        private final long sequence;
+        /** 盲区补报 */
+        private final boolean backfill;
+
+        private Held(T0200View location, long time, long arrival, long sequence, boolean backfill) {
+            this.location = location;
+            this.time = time;
+            this.arrival = arrival;
+            this.sequence = sequence;
+            this.backfill = backfill;
+        }
+
+        @Override
+        public int compareTo(Held that) {
+            int result = Long.compare(this.time, that.time);
+            if (result == 0)
+                result = Long.compare(this.sequence, that.sequence);
+            return result;
+        }
+    }
+
+    private static final class Device {
+        private final PriorityQueue<Held> points = new PriorityQueue<>();
+        /** 缓冲中最早到达的时间(毫秒) */
+        private long since;
+        /** 已收到未处理完的补报消息数 */
+        private int backfilling;
+        /** 上线后等待补报的截止时间(毫秒) */
+        private long waitUntil;
+        /** 已送出的最大设备时间(纪元秒)，用于统计迟到的补报 */
+        private long releasedTime = Long.MIN_VALUE;
+        /** 终端在线，缓冲为空时不移除 */
+        private boolean online;
+        private long sequence;
+        private boolean removed;
+    }
+}
@@ -0,0 +1,476 @@
+package org.yzh.web.service;
+
+import io.github.yezhihao.netmc.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.yzh.commons.util.StrUtils;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.web.model.entity.DeviceDO;
+import org.yzh.web.model.enums.SessionKey;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 位置信息入库
+ * 按设备时间分日建表(location_yyyyMMdd)，同一天的记录按batchSize拼接为一条多行INSERT；
+ * parallelism个写入线程从有界队列取批次，每执行commitInterval条语句或队列为空时提交一次事务；
+ * 配置了日志目录时，队列已满或写入失败的批次追加到本地日志(见LocationJournal)，此后新批次也写入日志，
+ * 由回放线程按顺序送回队列，日志读空后恢复直接入队，内存占用不随数据库故障时长增长；
+ * 未配置日志目录时，队列满则由调用线程(@AsyncBatch线程)等待，写入失败的批次丢弃
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class LocationService {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationService.class);
+
+    private static final String COLUMNS = "(device_id,device_time,longitude,latitude,altitude,speed,direction,warn_bit,status_bit,mileage,create_time)";
+    private static final String VALUES = "(?,?,?,?,?,?,?,?,?,?,?)";
+
+    private static final String CREATE_TABLE = " (" +
+            "device_id VARCHAR(32) NOT NULL," +
+            "device_time DATETIME NOT NULL," +
+            "longitude INT NOT NULL," +
+            "latitude INT NOT NULL," +
+            "altitude INT NOT NULL," +
+            "speed INT NOT NULL," +
+            "direction INT NOT NULL," +
+            "warn_bit INT NOT NULL," +
+            "status_bit INT NOT NULL," +
+            "mileage BIGINT NOT NULL," +
+            "create_time DATETIME NOT NULL,";
+
+    /** 日志单个分段大小 */
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    /** 写入失败后暂停回放的时间(毫秒) */
+    private static final long RETRY_INTERVAL = 5000L;
+
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final int commitInterval;
+
+    private final BlockingQueue<Batch> queue;
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    private final LocationJournal journal;
+    private final Thread replayer;
+    /** 日志非空期间新批次也追加到日志，保持顺序 */
+    private volatile boolean spilling;
+    private volatile long lastFailureTime;
+
+    /** 已确认存在的分日表 */
+    private final Set<Integer> tables = ConcurrentHashMap.newKeySet();
+    /** 多行INSERT的VALUES部分，长度为batchSize，最后不足一批的另行拼接 */
+    private final String fullValues;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private long lastWritten;
+    private long lastTime = System.currentTimeMillis();
+    private volatile double rowsPerSecond;
+
+    /**
+     * @param batchSize      每条INSERT语句的最大行数
+     * @param parallelism    写入线程数，参考数据库CPU核心数量
+     * @param commitInterval 每个事务最多包含的INSERT语句数
+     * @param journalPath    本地日志目录，为空时不启用
+     * @param journalMaxSize 本地日志总大小上限(MB)，超过后丢弃
+     */
+    public LocationService(DataSource dataSource,
+                           @Value("${jt-server.location.batch-size:500}") int batchSize,
+                           @Value("${jt-server.location.parallelism:2}") int parallelism,
+                           @Value("${jt-server.location.commit-interval:8}") int commitInterval,
+                           @Value("${jt-server.location.journal.path:}") String journalPath,
+                           @Value("${jt-server.location.journal.max-size:4096}") long journalMaxSize) throws IOException {
+        if (batchSize < 1 || parallelism < 1 || commitInterval < 1)
+            throw new IllegalArgumentException("batchSize=" + batchSize + ",parallelism=" + parallelism + ",commitInterval=" + commitInterval);
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+        this.fullValues = values(batchSize);
+        this.queue = new ArrayBlockingQueue<>(parallelism * commitInterval * 2);
+
+        if (StrUtils.isBlank(journalPath)) {
+            this.journal = null;
+            this.replayer = null;
+        } else {
+            this.journal = new LocationJournal(new File(journalPath), SEGMENT_SIZE, journalMaxSize * 1024 * 1024);
+            this.spilling = !journal.isEmpty();
+            this.replayer = new Thread(this::replay, "LocationReplayer");
+            this.replayer.setDaemon(true);
+        }
+
+        this.workers = new Thread[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            Thread worker = new Thread(this::run, "LocationWriter-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers[i] = worker;
+        }
+        if (replayer != null)
+            replayer.start();
+    }
+
+    /** 按设备时间分日，再按batchSize切分后放入写入队列 */
+    public void save(List<T0200View> list) {
+        long now = System.currentTimeMillis();
+        Map<Integer, Batch> days = new HashMap<>(4);
+        for (T0200View location : list) {
+            int day = day(location);
+            if (day < 0) {
+                failed.increment();
+                continue;
+            }
+            Batch batch = days.get(day);
+            if (batch == null)
+                days.put(day, batch = new Batch(day, now, Math.min(list.size(), batchSize)));
+            batch.add(deviceId(location), location);
+            if (batch.size == batchSize) {
+                put(batch);
+                days.remove(day);
+            }
+        }
+        for (Batch batch : days.values())
+            put(batch);
+    }
+
+    private void put(Batch batch) {
+        if (journal != null && running) {
+            if (spilling || !queue.offer(batch))
+                spill(batch);
+            return;
+        }
+        try {
+            if (running) {
+                queue.put(batch);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failed.add(batch.size);
+    }
+
+    /** 追加到本地日志，超过日志大小上限或写日志失败时丢弃 */
+    private void spill(Batch batch) {
+        synchronized (journal) {
+            try {
+                if (journal.append(batch)) {
+                    spilling = true;
+                    spilled.add(batch.size);
+                    return;
+                }
+                log.error("位置信息日志超过上限{}字节，丢弃{}条", journal.size(), batch.size);
+            } catch (IOException e) {
+                log.error("位置信息写入日志失败，丢弃{}条", batch.size, e);
+            }
+        }
+        failed.add(batch.size);
+    }
+
+    /** 按顺序读出日志中的批次送回队列，写入失败后暂停RETRY_INTERVAL，队列满时等待 */
+    private void replay() {
+        while (running) {
+            try {
+                long wait = lastFailureTime + RETRY_INTERVAL - System.currentTimeMillis();
+                if (!spilling || wait > 0) {
+                    Thread.sleep(spilling ? Math.min(wait, 1000L) : 100L);
+                    continue;
+                }
+                Batch batch;
+                synchronized (journal) {
+                    batch = journal.read();
+                    if (batch == null) {
+                        spilling = false;
+                        continue;
+                    }
+                }
+                while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+                    if (!running) {
+                        spill(batch);
+                        return;
+                    }
+                }
+                replayed.add(batch.size);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                log.error("位置信息日志读取失败", e);
+                lastFailureTime = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            Batch batch;
+            try {
+                batch = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (batch != null)
+                write(batch);
+        }
+    }
+
+    /** 持续写入直到队列为空，连接仅在有数据时持有 */
+    private void write(Batch batch) {
+        List<Batch> uncommitted = new ArrayList<>(commitInterval);
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                do {
+                    if (!tables.contains(batch.day)) {
+                        //部分数据库的DDL会隐式提交，先提交已写入的批次
+                        commit(conn, uncommitted);
+                        createTable(conn, batch.day);
+                    }
+                    insert(conn, batch);
+                    uncommitted.add(batch);
+                    if (uncommitted.size() >= commitInterval)
+                        commit(conn, uncommitted);
+                } while ((batch = queue.poll()) != null);
+                commit(conn, uncommitted);
+            } catch (SQLException | RuntimeException e) {
+                rollback(conn);
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (batch != null && !uncommitted.contains(batch))
+                uncommitted.add(batch);
+            int rows = 0;
+            for (Batch b : uncommitted)
+                rows += b.size;
+            if (journal == null) {
+                failed.add(rows);
+                log.error("位置信息入库失败，丢弃{}条", rows, e);
+            } else {
+                lastFailureTime = System.currentTimeMillis();
+                log.error("位置信息入库失败，{}条写入本地日志", rows, e);
+                for (Batch b : uncommitted)
+                    spill(b);
+            }
+        }
+    }
+
+    private void insert(Connection conn, Batch batch) throws SQLException {
+        String sql = "INSERT INTO " + table(batch.day) + COLUMNS + " VALUES " + (batch.size == batchSize ? fullValues : values(batch.size));
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            Timestamp createTime = new Timestamp(batch.createTime);
+            int[] ints = batch.ints;
+            int p = 1;
+            for (int i = 0, j = 0; i < batch.size; i++, j += Batch.INTS) {
+                ps.setString(p++, batch.deviceIds[i]);
+                ps.setObject(p++, deviceTime(batch.deviceTimes[i]));
+                for (int k = 0; k < Batch.INTS; k++)
+                    ps.setInt(p++, ints[j + k]);
+                ps.setLong(p++, batch.mileages[i]);
+                ps.setTimestamp(p++, createTime);
+            }
+            ps.executeUpdate();
+        }
+        statements.increment();
+    }
+
+    private void commit(Connection conn, List<Batch> uncommitted) throws SQLException {
+        if (uncommitted.isEmpty())
+            return;
+        conn.commit();
+        commits.increment();
+        for (Batch b : uncommitted)
+            written.add(b.size);
+        uncommitted.clear();
+    }
+
+    private void createTable(Connection conn, int day) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            //H2的索引名在schema内唯一，以日期区分
+            st.execute("CREATE TABLE IF NOT EXISTS " + table(day) + CREATE_TABLE + "INDEX idx_location_" + day + " (device_id,device_time))");
+        }
+        conn.commit();
+        tables.add(day);
+    }
+
+    private static void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            log.warn("回滚失败", e);
+        }
+    }
+
+    /** 每10秒计算一次写入速率 */
+    @Scheduled(fixedRate = 10000)
+    public void report() {
+        long now = System.currentTimeMillis();
+        long total = written.sum();
+        long rows = total - lastWritten;
+        rowsPerSecond = rows * 1000d / Math.max(1, now - lastTime);
+        lastWritten = total;
+        lastTime = now;
+        if (rows > 0 || spilling)
+            log.info("位置信息入库{}条/秒，队列{}批，本地日志{}字节", String.format("%.1f", rowsPerSecond), queue.size(), journalSize());
+    }
+
+    /** 已提交、失败、写入日志、从日志回放的行数，语句数、事务数，写入速率，队列中的批次数及日志大小 */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>(16);
+        result.put("written", written.sum());
+        result.put("failed", failed.sum());
+        result.put("spilled", spilled.sum());
+        result.put("replayed", replayed.sum());
+        result.put("statements", statements.sum());
+        result.put("commits", commits.sum());
+        result.put("rowsPerSecond", rowsPerSecond);
+        result.put("queued", queue.size());
+        result.put("journalBytes", journalSize());
+        return result;
+    }
+
+    private long journalSize() {
+        return journal == null ? 0L : journal.size();
+    }
+
+    /** 停止接收新数据，写完队列中剩余的批次，未回放的日志留待下次启动 */
+    @PreDestroy
+    public void close() throws InterruptedException, IOException {
+        running = false;
+        if (replayer != null)
+            replayer.join();
+        for (Thread worker : workers)
+            worker.join();
+        if (journal != null)
+            journal.close();
+    }
+
+    static String deviceId(T0200View location) {
+        Session session = location.getSession();
+        if (session != null) {
+            DeviceDO device = SessionKey.getDevice(session);
+            if (device != null && device.getDeviceId() != null)
+                return device.getDeviceId();
+        }
+        return location.getClientId();
+    }
+
+    /** 设备时间所在日期yyyyMMdd，时间非法时返回-1 */
+    static int day(T0200View location) {
+        long value = location.getDeviceTimeValue();
+        int yyMMdd = (int) (value / 1000000L);
+        int HHmmss = (int) (value % 1000000L);
+        int month = yyMMdd / 100 % 100;
+        int day = yyMMdd % 100;
+        if (month < 1 || month > 12 || day < 1 || day > 31 ||
+                HHmmss / 10000 > 23 || HHmmss / 100 % 100 > 59 || HHmmss % 100 > 59)
+            return -1;
+        if (day > 28) {
+            try {
+                LocalDate.of(2000 + yyMMdd / 10000, month, day);
+            } catch (DateTimeException e) {
+                return -1;
+            }
+        }
+        return 20000000 + yyMMdd;
+    }
+
+    /** @param value 时间(YYMMDDHHMMSS)的十进制数值 */
+    private static LocalDateTime deviceTime(long value) {
+        int yyMMdd = (int) (value / 1000000L);
+        int HHmmss = (int) (value % 1000000L);
+        return LocalDateTime.of(2000 + yyMMdd / 10000, yyMMdd / 100 % 100, yyMMdd % 100,
+                HHmmss / 10000, HHmmss / 100 % 100, HHmmss % 100);
+    }
+
+    public static String table(int day) {
+        return "location_" + day;
+    }
+
+    private static String values(int rows) {
+        StringBuilder sb = new StringBuilder(rows * (VALUES.length() + 1));
+        sb.append(VALUES);
+        for (int i = 1; i < rows; i++)
+            sb.append(',').append(VALUES);
+        return sb.toString();
+    }
+
+    /**
+     * 同一天的一批位置信息，对应一条多行INSERT
+     * 入队时即从T0200View复制为列式数组，不再持有消息体缓冲区
+     */
+    static final class Batch {
+        /** 经度、纬度、高程、速度、方向、报警标志、状态 */
+        static final int INTS = 7;
+        /** 日志中每行除设备ID外的长度：时间[8] + INTS[4 * 7] + 里程[8] */
+        static final int ROW_BYTES = 8 + INTS * 4 + 8;
+
+        final int day;
+        final long createTime;
+        final String[] deviceIds;
+        final long[] deviceTimes;
+        final int[] ints;
+        final long[] mileages;
+        int size;
+
+        Batch(int day, long createTime, int capacity) {
+            this.day = day;
+            this.createTime = createTime;
+            this.deviceIds = new String[capacity];
+            this.deviceTimes = new long[capacity];
+            this.ints = new int[capacity * INTS];
+            this.mileages = new long[capacity];
+        }
+
+        void add(String deviceId, T0200View location) {
+            int j = size * INTS;
+            deviceIds[size] = deviceId;
+            deviceTimes[size] = location.getDeviceTimeValue();
+            ints[j] = location.getLongitude();
+            ints[j + 1] = location.getLatitude();
+            ints[j + 2] = location.getAltitude();
+            ints[j + 3] = location.getSpeed();
+            ints[j + 4] = location.getDirection();
+            ints[j + 5] = location.getWarnBit();
+            ints[j + 6] = location.getStatusBit();
+            mileages[size++] = location.getAttribute(0x01, 0L);
+        }
+
+        void writeRow(ByteBuffer buf, int i) {
+            buf.putLong(deviceTimes[i]);
+            for (int j = i * INTS, end = j + INTS; j < end; j++)
+                buf.putInt(ints[j]);
+            buf.putLong(mileages[i]);
+        }
+
+        void readRow(String deviceId, ByteBuffer buf) {
+            deviceIds[size] = deviceId;
+            deviceTimes[size] = buf.getLong();
+            for (int j = size * INTS, end = j + INTS; j < end; j++)
+                ints[j] = buf.getInt();
+            mileages[size++] = buf.getLong();
+        }
+    }
+}
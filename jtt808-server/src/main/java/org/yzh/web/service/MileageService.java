@@ -0,0 +1,401 @@
+package org.yzh.web.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.yzh.commons.util.GeomUtils;
+import org.yzh.protocol.commons.Bit;
+import org.yzh.protocol.commons.transform.AttributeKey;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.web.model.vo.Mileage;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备日里程统计，随位置信息增量累加，按天分桶，查询某设备某天的统计为哈希查找，不需要回读轨迹
+ * 里程表读数取自位置附加信息(0x01)，未上报时只有按相邻定位点球面距离累计的里程；
+ * 相邻两点的间隔计入后一点所在的日期，超过max-gap秒的间隔不计入行驶、怠速时长，乱序到达的历史位置不参与统计；
+ * 每天的统计定时写入本地文件(mileage-yyyyMMdd.dat)，启动时读回最近retain-days天，并以各设备最后一个定位点继续累加
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class MileageService {
+
+    private static final Logger log = LoggerFactory.getLogger(MileageService.class);
+
+    private static final String PREFIX = "mileage-";
+    private static final String SUFFIX = ".dat";
+    private static final int VERSION = 1;
+
+    /** 行驶的速度阈值(1/10公里每小时) */
+    static final int MOVING_SPEED = 50;
+    /** 合理的最高速度(米每秒)，超过时视为漂移或里程表重置 */
+    static final double MAX_SPEED = 100;
+
+    private final File dir;
+    private final int retainDays;
+    private final int maxGap;
+
+    /** 日期yyyyMMdd -> 当天的统计 */
+    private final ConcurrentHashMap<Integer, Day> days = new ConcurrentHashMap<>();
+    /** 设备最后一个定位点 */
+    private final ConcurrentHashMap<String, Fix> devices = new ConcurrentHashMap<>();
+
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder outOfOrder = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+
+    public MileageService(@Value("${jt-server.mileage.path}") String path,
+                          @Value("${jt-server.mileage.retain-days:7}") int retainDays,
+                          @Value("${jt-server.mileage.max-gap:300}") int maxGap) throws IOException {
+        this.dir = new File(path);
+        this.retainDays = retainDays;
+        this.maxGap = maxGap;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("无法创建目录" + dir);
+
+        int from = day(LocalDate.now(TrackService.ZONE).minusDays(retainDays));
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                int day = parseDay(file.getName());
+                if (day >= from)
+                    days.put(day, load(day));
+            }
+        }
+        for (Day day : days.values()) {
+            for (Map.Entry<String, Daily> entry : day.entries.entrySet()) {
+                Daily daily = entry.getValue();
+                devices.merge(entry.getKey(), new Fix(daily), (a, b) -> a.time >= b.time ? a : b);
+            }
+        }
+    }
+
+    public void update(List<T0200View> list) {
+        for (T0200View location : list) {
+            if (LocationService.day(location) < 0) {
+                dropped.increment();
+                continue;
+            }
+            update(LocationService.deviceId(location), location.getDeviceEpochSecond(TrackService.ZONE_OFFSET),
+                    location.getLatitude(), location.getLongitude(), location.getSpeed(), location.getStatusBit(),
+                    location.getAttribute(AttributeKey.Mileage, -1L));
+        }
+    }
+
+    /**
+     * @param time    设备时间(纪元秒)
+     * @param speed   速度(1/10公里每小时)
+     * @param mileage 里程表读数(1/10km)，未上报时为-1
+     */
+    public void update(String deviceId, long time, int latitude, int longitude, int speed, int statusBit, long mileage) {
+        Fix last = devices.computeIfAbsent(deviceId, k -> new Fix());
+        synchronized (last) {
+            if (time <= last.time) {
+                outOfOrder.increment();
+                return;
+            }
+            Day day = bucket(day(time));
+            Daily daily = day.entries.computeIfAbsent(deviceId, k -> new Daily());
+            synchronized (daily) {
+                if (daily.points == 0)
+                    daily.startTime = time;
+                if (daily.startMileage < 0)
+                    daily.startMileage = mileage;
+                if (last.time != Long.MIN_VALUE)
+                    accumulate(daily, last, time, latitude, longitude, speed, statusBit, mileage);
+                daily.points++;
+                daily.endTime = time;
+                daily.endLatitude = latitude;
+                daily.endLongitude = longitude;
+                daily.endSpeed = speed;
+                daily.endStatusBit = statusBit;
+                if (mileage >= 0)
+                    daily.endMileage = mileage;
+                if (speed > daily.maxSpeed)
+                    daily.maxSpeed = speed;
+            }
+            day.dirty = true;
+            last.set(time, latitude, longitude, speed, statusBit, mileage);
+            updated.increment();
+        }
+    }
+
+    /** 累加上一个定位点到当前定位点之间的里程和时长 */
+    private void accumulate(Daily daily, Fix last, long time, int latitude, int longitude, int speed, int statusBit, long mileage) {
+        long interval = time - last.time;
+        //与最近一次上报的读数比较，中间未上报读数的定位点不影响里程表里程
+        if (last.mileage >= 0 && mileage >= 0) {
+            long delta = (mileage - last.mileage) * 100;
+            if (delta >= 0 && delta <= MAX_SPEED * (time - last.mileageTime) + 1000)
+                daily.odometerDistance += delta;
+        }
+
+        boolean moving = Math.max(last.speed, speed) >= MOVING_SPEED;
+        double distance = 0;
+        if (Bit.isTrue(last.statusBit, 1) && Bit.isTrue(statusBit, 1)) {
+            distance = GeomUtils.distance(last.longitude / 1000000D, last.latitude / 1000000D, longitude / 1000000D, latitude / 1000000D);
+            if (distance > MAX_SPEED * interval)
+                distance = 0;
+            else if (!moving)
+                //按平均速度判断，终端速度为0但位置移动时也视为行驶
+                moving = distance * 36 / interval >= MOVING_SPEED;
+        }
+        //静止时的位置漂移不计入里程
+        if (moving)
+            daily.gpsDistance += distance;
+
+        if (interval <= maxGap) {
+            if (moving)
+                daily.movingTime += interval;
+            else if (Bit.isTrue(last.statusBit, 0))
+                daily.idleTime += interval;
+        }
+    }
+
+    /**
+     * 设备某天的统计
+     * @param date 日期yyyyMMdd
+     * @return 当天无定位点时返回null
+     */
+    public Mileage get(String deviceId, int date) {
+        Day day = days.get(date);
+        if (day == null) {
+            if (!file(date).isFile())
+                return null;
+            day = bucket(date);
+        }
+        Daily daily = day.entries.get(deviceId);
+        if (daily == null)
+            return null;
+        synchronized (daily) {
+            return daily.toMileage(deviceId, date);
+        }
+    }
+
+    private Day bucket(int date) {
+        return days.computeIfAbsent(date, this::load);
+    }
+
+    /** 写入有变化的日期，并移出retain-days之前的日期 */
+    @Scheduled(fixedDelayString = "${jt-server.mileage.flush-interval:60000}")
+    public void flush() {
+        int from = day(LocalDate.now(TrackService.ZONE).minusDays(retainDays));
+        for (Map.Entry<Integer, Day> entry : days.entrySet()) {
+            int date = entry.getKey();
+            Day day = entry.getValue();
+            if (day.dirty) {
+                day.dirty = false;
+                try {
+                    write(date, day);
+                    flushed.increment();
+                } catch (IOException e) {
+                    day.dirty = true;
+                    log.error("写入里程统计失败{}", file(date), e);
+                }
+            }
+            if (date < from && !day.dirty)
+                days.remove(date, day);
+        }
+    }
+
+    private void write(int date, Day day) throws IOException {
+        File file = file(date);
+        File temp = new File(dir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))) {
+            List<Map.Entry<String, Daily>> entries = new ArrayList<>(day.entries.entrySet());
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Daily> entry : entries) {
+                out.writeUTF(entry.getKey());
+                Daily daily = entry.getValue();
+                synchronized (daily) {
+                    daily.write(out);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Day load(int date) {
+        Day day = new Day();
+        File file = file(date);
+        if (!file.isFile())
+            return day;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (in.readInt() != VERSION)
+                throw new IOException("版本不匹配");
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String deviceId = in.readUTF();
+                day.entries.put(deviceId, Daily.read(in));
+            }
+        } catch (IOException e) {
+            log.error("读取里程统计失败{}", file, e);
+        }
+        return day;
+    }
+
+    private File file(int date) {
+        return new File(dir, PREFIX + date + SUFFIX);
+    }
+
+    private static int parseDay(String name) {
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** 设备时间所在日期yyyyMMdd */
+    static int day(long time) {
+        return day(LocalDate.ofEpochDay(Math.floorDiv(time + TrackService.ZONE_OFFSET, 86400L)));
+    }
+
+    private static int day(LocalDate date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    /** 设备数、内存中的天数，累加、乱序丢弃、时间非法丢弃的位置数，写入文件次数 */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        result.put("devices", devices.size());
+        result.put("days", days.size());
+        result.put("updated", updated.sum());
+        result.put("outOfOrder", outOfOrder.sum());
+        result.put("dropped", dropped.sum());
+        result.put("flushed", flushed.sum());
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private static final class Day {
+        private final ConcurrentHashMap<String, Daily> entries = new ConcurrentHashMap<>();
+        private volatile boolean dirty;
+    }
+
+    /** 设备一天的统计，包含当天最后一个定位点，重启后据此继续累加 */
+    private static final class Daily {
+        private int points;
+        private long startTime;
+        private long endTime;
+        private int endLatitude;
+        private int endLongitude;
+        private int endSpeed;
+        private int endStatusBit;
+        private long startMileage = -1;
+        private long endMileage = -1;
+        /** 米 */
+        private long odometerDistance;
+        /** 米 */
+        private double gpsDistance;
+        private int maxSpeed;
+        private int movingTime;
+        private int idleTime;
+
+        private void write(DataOutput out) throws IOException {
+            out.writeInt(points);
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            out.writeInt(endLatitude);
+            out.writeInt(endLongitude);
+            out.writeInt(endSpeed);
+            out.writeInt(endStatusBit);
+            out.writeLong(startMileage);
+            out.writeLong(endMileage);
+            out.writeLong(odometerDistance);
+            out.writeDouble(gpsDistance);
+            out.writeInt(maxSpeed);
+            out.writeInt(movingTime);
+            out.writeInt(idleTime);
+        }
+
+        private static Daily read(DataInput in) throws IOException {
+            Daily daily = new Daily();
+            daily.points = in.readInt();
+            daily.startTime = in.readLong();
+            daily.endTime = in.readLong();
+            daily.endLatitude = in.readInt();
+            daily.endLongitude = in.readInt();
+            daily.endSpeed = in.readInt();
+            daily.endStatusBit = in.readInt();
+            daily.startMileage = in.readLong();
+            daily.endMileage = in.readLong();
+            daily.odometerDistance = in.readLong();
+            daily.gpsDistance = in.readDouble();
+            daily.maxSpeed = in.readInt();
+            daily.movingTime = in.readInt();
+            daily.idleTime = in.readInt();
+            return daily;
+        }
+
+        private Mileage toMileage(String deviceId, int date) {
+            Mileage result = new Mileage();
+            result.setDeviceId(deviceId);
+            result.setDate(LocalDate.of(date / 10000, date / 100 % 100, date % 100));
+            result.setStartTime(LocalDateTime.ofEpochSecond(startTime, 0, TrackService.ZONE));
+            result.setEndTime(LocalDateTime.ofEpochSecond(endTime, 0, TrackService.ZONE));
+            result.setPoints(points);
+            result.setStartMileage(startMileage);
+            result.setEndMileage(endMileage);
+            result.setOdometerDistance(odometerDistance);
+            result.setGpsDistance(Math.round(gpsDistance));
+            result.setDistance(endMileage >= 0 ? odometerDistance : Math.round(gpsDistance));
+            result.setMaxSpeed(maxSpeed);
+            result.setMovingTime(movingTime);
+            result.setIdleTime(idleTime);
+            return result;
+        }
+    }
+
+    /** 设备最后一个定位点 */
+    private static final class Fix {
+        private long time = Long.MIN_VALUE;
+        private int latitude;
+        private int longitude;
+        private int speed;
+        private int statusBit;
+        /** 最近一次上报的里程表读数及其时间 */
+        private long mileage = -1;
+        private long mileageTime;
+
+        private Fix() {
+        }
+
+        private Fix(Daily daily) {
+            set(daily.endTime, daily.endLatitude, daily.endLongitude, daily.endSpeed, daily.endStatusBit, daily.endMileage);
+        }
+
+        private void set(long time, int latitude, int longitude, int speed, int statusBit, long mileage) {
+            this.time = time;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.speed = speed;
+            this.statusBit = statusBit;
+            if (mileage >= 0) {
+                this.mileage = mileage;
+                this.mileageTime = time;
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.yzh.web.service;
+
+import org.springframework.stereotype.Service;
+import org.yzh.commons.util.GeomUtils;
+import org.yzh.protocol.t808.T0200;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.web.model.vo.Position;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 在线设备最新位置的空间索引
+ * 按经纬度划分为边长CELL的网格，每个网格记录其中的设备，位置汇报只在跨网格时移动设备，其余只替换位置；
+ * 范围查询只遍历覆盖的网格，最近查询从所在网格逐圈向外扩展，直到外圈不可能更近为止
+ * 不处理经度±180度处的跨越
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class PositionService {
+
+    /** 网格边长(百万分之一度)，约1.1公里 */
+    static final int CELL = 10000;
+    /** 每度纬度的长度(米) */
+    private static final double METERS_PER_DEGREE = GeomUtils.A * GeomUtils.RADIAN;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Cell> cells = new ConcurrentHashMap<>();
+
+    public void update(String deviceId, T0200View location) {
+        update(deviceId, location.getLatitude(), location.getLongitude(), location.getSpeed(), location.getDirection(),
+                location.getDeviceEpochSecond(TrackService.ZONE_OFFSET));
+    }
+
+    public void update(String deviceId, T0200 location) {
+        LocalDateTime deviceTime = location.getDeviceTime();
+        update(deviceId, location.getLatitude(), location.getLongitude(), location.getSpeed(), location.getDirection(),
+                deviceTime == null ? 0L : deviceTime.toEpochSecond(TrackService.ZONE));
+    }
+
+    /**
+     * 更新设备位置，设备时间早于已有位置时忽略(补传的历史位置)
+     * @param time 设备时间(纪元秒)
+     */
+    public void update(String deviceId, int latitude, int longitude, int speed, int direction, long time) {
+        Point point = new Point(latitude, longitude, speed, direction, time);
+        long key = key(Math.floorDiv(longitude, CELL), Math.floorDiv(latitude, CELL));
+        for (; ; ) {
+            Entry entry = entries.computeIfAbsent(deviceId, Entry::new);
+            synchronized (entry) {
+                if (entry.removed)
+                    continue;
+                Point last = entry.point;
+                if (last != null && last.time > time)
+                    return;
+                entry.point = point;
+                Cell cell = entry.cell;
+                if (cell == null || cell.key != key) {
+                    if (cell != null)
+                        removeFrom(cell, entry);
+                    entry.cell = addTo(key, entry);
+                }
+                return;
+            }
+        }
+    }
+
+    /** 设备离线时移除 */
+    public void remove(String deviceId) {
+        Entry entry = entries.get(deviceId);
+        if (entry == null)
+            return;
+        synchronized (entry) {
+            if (entry.removed)
+                return;
+            entry.removed = true;
+            entries.remove(deviceId, entry);
+            if (entry.cell != null)
+                removeFrom(entry.cell, entry);
+        }
+    }
+
+    private Cell addTo(long key, Entry entry) {
+        for (; ; ) {
+            Cell cell = cells.computeIfAbsent(key, Cell::new);
+            synchronized (cell) {
+                if (cell.removed)
+                    continue;
+                cell.entries.add(entry);
+                return cell;
+            }
+        }
+    }
+
+    private void removeFrom(Cell cell, Entry entry) {
+        synchronized (cell) {
+            cell.entries.remove(entry);
+            if (cell.entries.isEmpty()) {
+                cell.removed = true;
+                cells.remove(cell.key, cell);
+            }
+        }
+    }
+
+    /** 矩形范围内的设备 */
+    public List<Position> within(int minLatitude, int minLongitude, int maxLatitude, int maxLongitude) {
+        List<Position> result = new ArrayList<>();
+        visit(minLatitude, minLongitude, maxLatitude, maxLongitude, entry -> {
+            Point p = entry.point;
+            if (GeomUtils.inside(p.longitude, p.latitude, minLongitude, minLatitude, maxLongitude, maxLatitude))
+                result.add(position(entry, p, 0));
+        });
+        return result;
+    }
+
+    /** 距离(米)内的设备，由近及远 */
+    public List<Position> nearby(int latitude, int longitude, double meters) {
+        int dLat = (int) Math.min(Math.ceil(meters / METERS_PER_DEGREE * 1000000D), 90000000D);
+        double cos = Math.cos(latitude / 1000000D * GeomUtils.RADIAN);
+        int dLng = cos < 0.000001D ? 180000000 : (int) Math.min(Math.ceil(dLat / cos), 180000000D);
+
+        List<Position> result = new ArrayList<>();
+        visit(latitude - dLat, longitude - dLng, latitude + dLat, longitude + dLng, entry -> {
+            Point p = entry.point;
+            double distance = distance(latitude, longitude, p);
+            if (distance <= meters)
+                result.add(position(entry, p, distance));
+        });
+        result.sort(Comparator.comparingDouble(Position::getDistance));
+        return result;
+    }
+
+    /** 最近的count个设备，由近及远 */
+    public List<Position> nearest(int latitude, int longitude, int count) {
+        if (count <= 0)
+            return Collections.emptyList();
+        PriorityQueue<Position> heap = new PriorityQueue<>(count + 1, Comparator.comparingDouble(Position::getDistance).reversed());
+        Consumer<Entry> consumer = entry -> {
+            Point p = entry.point;
+            double distance = distance(latitude, longitude, p);
+            if (heap.size() < count) {
+                heap.add(position(entry, p, distance));
+            } else if (distance < heap.peek().getDistance()) {
+                heap.poll();
+                heap.add(position(entry, p, distance));
+            }
+        };
+
+        int x = Math.floorDiv(longitude, CELL);
+        int y = Math.floorDiv(latitude, CELL);
+        int total = cells.size();
+        long visited = 0;
+        for (int r = 0; ; r++) {
+            if (heap.size() == count && minDistance(latitude, r) > heap.peek().getDistance())
+                break;
+            visited += r == 0 ? 1 : 8L * r;
+            if (visited > total) {
+                //周边稀疏时逐圈查找不如直接遍历所有网格
+                heap.clear();
+                for (Cell cell : cells.values())
+                    cell.entries.forEach(consumer);
+                break;
+            }
+            if (r == 0) {
+                visit(x, y, consumer);
+                continue;
+            }
+            for (int i = -r; i <= r; i++) {
+                visit(x + i, y - r, consumer);
+                visit(x + i, y + r, consumer);
+            }
+            for (int i = -r + 1; i < r; i++) {
+                visit(x - r, y + i, consumer);
+                visit(x + r, y + i, consumer);
+            }
+        }
+
+        List<Position> result = new ArrayList<>(heap);
+        result.sort(Comparator.comparingDouble(Position::getDistance));
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>(4);
+        result.put("devices", entries.size());
+        result.put("cells", cells.size());
+        return result;
+    }
+
+    /** 遍历与矩形相交的网格中的设备，网格数多于非空网格数时改为遍历所有非空网格 */
+    private void visit(int minLatitude, int minLongitude, int maxLatitude, int maxLongitude, Consumer<Entry> consumer) {
+        int x1 = Math.floorDiv(minLongitude, CELL), x2 = Math.floorDiv(maxLongitude, CELL);
+        int y1 = Math.floorDiv(minLatitude, CELL), y2 = Math.floorDiv(maxLatitude, CELL);
+        if (x1 > x2 || y1 > y2)
+            return;
+        if ((long) (x2 - x1 + 1) * (y2 - y1 + 1) > cells.size()) {
+            for (Cell cell : cells.values()) {
+                int x = (int) (cell.key >> 32), y = (int) cell.key;
+                if (x >= x1 && x <= x2 && y >= y1 && y <= y2)
+                    cell.entries.forEach(consumer);
+            }
+        } else {
+            for (int x = x1; x <= x2; x++)
+                for (int y = y1; y <= y2; y++)
+                    visit(x, y, consumer);
+        }
+    }
+
+    private void visit(int x, int y, Consumer<Entry> consumer) {
+        Cell cell = cells.get(key(x, y));
+        if (cell != null)
+            cell.entries.forEach(consumer);
+    }
+
+    /** 第r圈网格与所在网格中任意点的最小距离(米) */
+    private static double minDistance(int latitude, int r) {
+        if (r <= 1)
+            return 0;
+        double lat = Math.min(Math.abs(latitude / 1000000D) + (double) r * CELL / 1000000D, 90D);
+        double size = CELL / 1000000D * METERS_PER_DEGREE;
+        return (r - 1) * size * Math.cos(lat * GeomUtils.RADIAN);
+    }
+
+    private static double distance(int latitude, int longitude, Point p) {
+        return GeomUtils.distance(longitude / 1000000D, latitude / 1000000D, p.longitude / 1000000D, p.latitude / 1000000D);
+    }
+
+    private static Position position(Entry entry, Point p, double distance) {
+        return new Position(entry.deviceId, p.latitude, p.longitude, p.speed, p.direction,
+                LocalDateTime.ofEpochSecond(p.time, 0, TrackService.ZONE), distance);
+    }
+
+    private static long key(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    private static final class Point {
+        private final int latitude;
+        private final int longitude;
+        private final int speed;
+        private final int direction;
+        private final long time;
+
+        private Point(int latitude, int longitude, int speed, int direction, long time) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.speed = speed;
+            this.direction = direction;
+            this.time = time;
+        }
+    }
+
+    private static final class Entry {
+        private final String deviceId;
+        /** 最新位置，整体替换，查询时无需加锁 */
+        private volatile Point point;
+        private Cell cell;
+        private boolean removed;
+
+        private Entry(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    private static final class Cell {
+        private final long key;
+        private final Set<Entry> entries = ConcurrentHashMap.newKeySet();
+        private boolean removed;
+
+        private Cell(long key) {
+            this.key = key;
+        }
+    }
+}
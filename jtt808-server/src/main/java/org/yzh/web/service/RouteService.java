@@ -0,0 +1,431 @@
+package org.yzh.web.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.yzh.commons.util.GeomUtils;
+import org.yzh.protocol.commons.Bit;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.protocol.t808.T8606;
+import org.yzh.web.model.vo.GeofenceEvent;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 平台侧的路线判断
+ * 与下发给终端的路线(8606)保持一致，终端应答成功后更新，删除路线(8607)同理；
+ * 拐点i到拐点i+1为路段i，使用拐点i的路段ID、宽度和属性，与路段的距离超过宽度的一半即不在该路段上；
+ * 每个终端记录在各路线上当前所在的路段，定位点先与当前路段及其后几个路段比较，不匹配时才通过网格索引查找候选路段；
+ * 离开路线时产生偏离路线事件，进入后续路段时按路段行驶时间阈值产生过长、不足事件，路段内持续超速产生超速事件；
+ * 路线定义定时写入本地文件(route.dat，见DefinitionFile)，启动时读回，终端在路线上的进度不保存
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class RouteService {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteService.class);
+
+    public static final int Route = 4;
+
+    /** 网格边长(百万分之一度)，约1.1公里 */
+    static final int CELL = PositionService.CELL;
+    /** 就近比较当前路段之前1个、之后WINDOW个路段 */
+    private static final int WINDOW = 3;
+
+    private final GeofenceService geofenceService;
+    /** 路线定义文件，为空时只保存在内存中 */
+    private final File file;
+    private volatile boolean dirty;
+    private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder nearMatched = new LongAdder();
+    private final LongAdder indexMatched = new LongAdder();
+    private final LongAdder deviated = new LongAdder();
+
+    /**
+     * @param path 路线定义文件所在目录，为空时不保存
+     */
+    public RouteService(GeofenceService geofenceService, @Value("${jt-server.geofence.path:}") String path) throws IOException {
+        this.geofenceService = geofenceService;
+        this.file = GeofenceService.file(path, "route.dat");
+        if (file == null)
+            return;
+        for (DefinitionFile.Definition definition : DefinitionFile.read(file)) {
+            T8606 request = (T8606) definition.item;
+            request.setClientId(definition.clientId);
+            update(request);
+        }
+        dirty = false;
+    }
+
+    /** 设置路线，相同ID的路线被替换 */
+    public void update(T8606 request) {
+        List<T8606.Line> items = request.getItems();
+        if (items == null || items.size() < 2)
+            return;
+        Path route = new Path(request, items);
+        Device device = devices.computeIfAbsent(request.getClientId(), Device::new);
+        synchronized (device) {
+            Map<Integer, Path> routes = new HashMap<>(device.routes);
+            routes.put(route.id, route);
+            device.routes = routes;
+            device.states.remove(route.id);
+        }
+        dirty = true;
+    }
+
+    /**
+     * 删除路线
+     * @param ids 为空时删除所有路线
+     */
+    public void remove(String clientId, int[] ids) {
+        Device device = devices.get(clientId);
+        if (device == null)
+            return;
+        synchronized (device) {
+            Map<Integer, Path> routes = new HashMap<>(device.routes);
+            if (ids == null || ids.length == 0)
+                routes.clear();
+            else
+                for (int id : ids)
+                    routes.remove(id);
+            device.routes = routes;
+            device.states.keySet().retainAll(routes.keySet());
+        }
+        dirty = true;
+    }
+
+    /** 路线定义有变化时写入文件 */
+    @Scheduled(fixedDelayString = "${jt-server.geofence.flush-interval:10000}")
+    public void flush() {
+        if (file == null || !dirty)
+            return;
+        dirty = false;
+        List<DefinitionFile.Definition> definitions = new ArrayList<>();
+        for (Device device : devices.values())
+            for (Path route : device.routes.values())
+                definitions.add(new DefinitionFile.Definition(device.clientId, route.definition));
+        try {
+            DefinitionFile.write(file, definitions);
+        } catch (IOException e) {
+            dirty = true;
+            log.error("写入路线定义失败{}", file, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    public void evaluate(List<T0200View> list) {
+        for (T0200View location : list) {
+            Device device = devices.get(location.getClientId());
+            if (device != null && LocationService.day(location) >= 0)
+                evaluate(device, location.getLatitude(), location.getLongitude(), location.getSpeed(),
+                        location.getDeviceEpochSecond(TrackService.ZONE_OFFSET));
+        }
+    }
+
+    /**
+     * @param speed 速度(1/10公里每小时)
+     * @param time  设备时间(纪元秒)
+     */
+    public void evaluate(String clientId, int latitude, int longitude, int speed, long time) {
+        Device device = devices.get(clientId);
+        if (device != null)
+            evaluate(device, latitude, longitude, speed, time);
+    }
+
+    private void evaluate(Device device, int latitude, int longitude, int speed, long time) {
+        synchronized (device) {
+            //乱序到达的历史位置不参与判断
+            if (time < device.lastTime)
+                return;
+            device.lastTime = time;
+            evaluated.increment();
+
+            for (Path route : device.routes.values()) {
+                if (time < route.startTime || time > route.endTime) {
+                    device.states.remove(route.id);
+                    continue;
+                }
+                State state = device.states.get(route.id);
+                double x = route.x(longitude), y = route.y(latitude);
+                int segment = state == null ? -1 : near(route, state.segment, x, y);
+                if (segment >= 0)
+                    nearMatched.increment();
+                else if ((segment = nearest(route, latitude, longitude, x, y)) >= 0)
+                    indexMatched.increment();
+
+                if (segment < 0) {
+                    //尚未进入路线时不算偏离
+                    if (state != null && !state.deviated) {
+                        state.deviated = true;
+                        state.overspeedSince = -1;
+                        state.overspeed = false;
+                        deviated.increment();
+                        emit(device, GeofenceEvent.Deviate, route, state.segment, 0, latitude, longitude, speed, time);
+                    }
+                    continue;
+                }
+
+                if (state == null) {
+                    state = new State(segment, time);
+                    device.states.put(route.id, state);
+                } else {
+                    state.deviated = false;
+                    if (segment != state.segment) {
+                        int previous = state.segment;
+                        if (segment > previous && !state.partial) {
+                            int driveTime = (int) (time - state.since);
+                            if (route.upperLimits[previous] >= 0 && driveTime > route.upperLimits[previous])
+                                emit(device, GeofenceEvent.TooLong, route, previous, driveTime, latitude, longitude, speed, time);
+                            else if (route.lowerLimits[previous] >= 0 && driveTime < route.lowerLimits[previous])
+                                emit(device, GeofenceEvent.TooShort, route, previous, driveTime, latitude, longitude, speed, time);
+                        }
+                        state.segment = segment;
+                        state.since = time;
+                        state.partial = false;
+                        state.overspeedSince = -1;
+                        state.overspeed = false;
+                    }
+                }
+
+                int maxSpeed = route.maxSpeeds[segment];
+                if (maxSpeed >= 0 && speed > maxSpeed) {
+                    if (state.overspeedSince < 0)
+                        state.overspeedSince = time;
+                    if (!state.overspeed && time - state.overspeedSince >= route.durations[segment]) {
+                        state.overspeed = true;
+                        emit(device, GeofenceEvent.Overspeed, route, segment, 0, latitude, longitude, speed, time);
+                    }
+                } else {
+                    state.overspeedSince = -1;
+                    state.overspeed = false;
+                }
+            }
+        }
+    }
+
+    /** 当前路段附近最近的路段，均不在宽度内时返回-1 */
+    private static int near(Path route, int current, double x, double y) {
+        int result = -1;
+        double min = Double.MAX_VALUE;
+        for (int i = Math.max(current - 1, 0), end = Math.min(current + WINDOW, route.size - 1); i <= end; i++) {
+            double distance = route.distance(i, x, y);
+            if (distance <= route.halfWidths[i] && distance < min) {
+                min = distance;
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /** 网格内最近的路段，均不在宽度内时返回-1 */
+    private static int nearest(Path route, int latitude, int longitude, double x, double y) {
+        int[] segments = route.grid.get(cellKey(Math.floorDiv(longitude, CELL), Math.floorDiv(latitude, CELL)));
+        if (segments == null)
+            return -1;
+        int result = -1;
+        double min = Double.MAX_VALUE;
+        for (int i : segments) {
+            double distance = route.distance(i, x, y);
+            if (distance <= route.halfWidths[i] && distance < min) {
+                min = distance;
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    private void emit(Device device, int type, Path route, int segment, int driveTime, int latitude, int longitude, int speed, long time) {
+        GeofenceEvent event = new GeofenceEvent(device.clientId, type, Route, route.id, route.name,
+                latitude, longitude, speed, LocalDateTime.ofEpochSecond(time, 0, TrackService.ZONE));
+        event.setSegmentId(route.segmentIds[segment]);
+        event.setDriveTime(driveTime);
+        geofenceService.publish(event);
+    }
+
+    /** 终端在路线上当前所在的路段ID，未进入或已偏离时为空 */
+    public Integer getSegment(String clientId, int routeId) {
+        Device device = devices.get(clientId);
+        if (device == null)
+            return null;
+        synchronized (device) {
+            State state = device.states.get(routeId);
+            Path route = device.routes.get(routeId);
+            if (state == null || state.deviated || route == null)
+                return null;
+            return route.segmentIds[state.segment];
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long routes = 0;
+        for (Device device : devices.values())
+            routes += device.routes.size();
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        result.put("devices", devices.size());
+        result.put("routes", routes);
+        result.put("evaluated", evaluated.sum());
+        result.put("nearMatched", nearMatched.sum());
+        result.put("indexMatched", indexMatched.sum());
+        result.put("deviated", deviated.sum());
+        return result;
+    }
+
+    private static long cellKey(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 路线，拐点坐标换算为以米为单位的平面坐标；
+     * 速度单位为1/10公里每小时，时间为纪元秒，无限制时为-1
+     */
+    private static final class Path {
+        /** 用于保存的路线定义 */
+        private final T8606 definition;
+        private final int id;
+        private final String name;
+        private final long startTime;
+        private final long endTime;
+        /** 路段数 */
+        private final int size;
+        private final double[] xs;
+        private final double[] ys;
+        private final int[] segmentIds;
+        private final double[] halfWidths;
+        private final int[] upperLimits;
+        private final int[] lowerLimits;
+        private final int[] maxSpeeds;
+        private final int[] durations;
+        /** 经度方向的缩放，按路线平均纬度计算 */
+        private final double scaleX;
+        private final double scaleY;
+        private final Map<Long, int[]> grid = new HashMap<>();
+
+        private Path(T8606 request, List<T8606.Line> items) {
+            this.definition = request;
+            this.id = request.getId();
+            this.name = request.getName();
+            boolean timed = Bit.isTrue(request.getAttribute(), 0) && request.getStartTime() != null && request.getEndTime() != null;
+            this.startTime = timed ? request.getStartTime().toEpochSecond(TrackService.ZONE) : Long.MIN_VALUE;
+            this.endTime = timed ? request.getEndTime().toEpochSecond(TrackService.ZONE) : Long.MAX_VALUE;
+
+            int count = items.size();
+            this.size = count - 1;
+            double latitude = 0;
+            for (T8606.Line item : items)
+                latitude += item.getLatitude() / 1000000D;
+            latitude /= count;
+            this.scaleY = GeomUtils.A * GeomUtils.RADIAN;
+            this.scaleX = scaleY * Math.cos(latitude * GeomUtils.RADIAN);
+
+            this.xs = new double[count];
+            this.ys = new double[count];
+            this.segmentIds = new int[size];
+            this.halfWidths = new double[size];
+            this.upperLimits = new int[size];
+            this.lowerLimits = new int[size];
+            this.maxSpeeds = new int[size];
+            this.durations = new int[size];
+            for (int i = 0; i < count; i++) {
+                T8606.Line item = items.get(i);
+                xs[i] = x(item.getLongitude());
+                ys[i] = y(item.getLatitude());
+                if (i == size)
+                    break;
+                segmentIds[i] = item.getRouteId();
+                halfWidths[i] = item.getWidth() / 2D;
+                boolean driveTimed = Bit.isTrue(item.getAttribute(), 0);
+                upperLimits[i] = driveTimed && item.getUpperLimit() != null ? item.getUpperLimit() : -1;
+                lowerLimits[i] = driveTimed && item.getLowerLimit() != null ? item.getLowerLimit() : -1;
+                boolean limited = Bit.isTrue(item.getAttribute(), 1) && item.getMaxSpeed() != null;
+                maxSpeeds[i] = limited ? item.getMaxSpeed() * 10 : -1;
+                durations[i] = limited && item.getDuration() != null ? item.getDuration() : 0;
+            }
+
+            Map<Long, List<Integer>> cells = new HashMap<>();
+            for (int i = 0; i < size; i++)
+                index(cells, i, items.get(i), items.get(i + 1));
+            cells.forEach((k, v) -> grid.put(k, v.stream().mapToInt(Integer::intValue).toArray()));
+        }
+
+        /** 沿路段以半个网格为步长取点，登记所在网格及相邻网格(路段宽度不超过255米，远小于网格边长) */
+        private static void index(Map<Long, List<Integer>> cells, int segment, T8606.Line from, T8606.Line to) {
+            long dx = (long) to.getLongitude() - from.getLongitude();
+            long dy = (long) to.getLatitude() - from.getLatitude();
+            int steps = (int) Math.max(1, (Math.max(Math.abs(dx), Math.abs(dy)) * 2 + CELL - 1) / CELL);
+            Set<Long> keys = new HashSet<>();
+            for (int s = 0; s <= steps; s++) {
+                int cx = Math.floorDiv((int) (from.getLongitude() + dx * s / steps), CELL);
+                int cy = Math.floorDiv((int) (from.getLatitude() + dy * s / steps), CELL);
+                for (int x = cx - 1; x <= cx + 1; x++)
+                    for (int y = cy - 1; y <= cy + 1; y++)
+                        keys.add(cellKey(x, y));
+            }
+            for (Long key : keys)
+                cells.computeIfAbsent(key, k -> new ArrayList<>(2)).add(segment);
+        }
+
+        private double x(int longitude) {
+            return longitude / 1000000D * scaleX;
+        }
+
+        private double y(int latitude) {
+            return latitude / 1000000D * scaleY;
+        }
+
+        /** 点到路段的距离(米)，按投影计算，点在路段上时结果稳定为0(海伦公式在三点共线时会因舍入误差得到NaN) */
+        private double distance(int segment, double x, double y) {
+            double x1 = xs[segment], y1 = ys[segment];
+            double dx = xs[segment + 1] - x1, dy = ys[segment + 1] - y1;
+            double length = dx * dx + dy * dy;
+            double t = length == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / length;
+            if (t < 0) t = 0;
+            else if (t > 1) t = 1;
+            return Math.hypot(x - x1 - t * dx, y - y1 - t * dy);
+        }
+    }
+
+    /** 终端在一条路线上的进度 */
+    private static final class State {
+        /** 当前路段下标，偏离后为偏离前所在路段 */
+        private int segment;
+        /** 进入当前路段的设备时间 */
+        private long since;
+        /** 首次匹配时可能已在路段中途，不判断该路段的行驶时间 */
+        private boolean partial = true;
+        private boolean deviated;
+        /** 开始超速的设备时间，未超速时为-1 */
+        private long overspeedSince = -1;
+        private boolean overspeed;
+
+        private State(int segment, long since) {
+            this.segment = segment;
+            this.since = since;
+        }
+    }
+
+    private static final class Device {
+        private final String clientId;
+        private volatile Map<Integer, Path> routes = Collections.emptyMap();
+        private final Map<Integer, State> states = new HashMap<>(4);
+        private long lastTime = Long.MIN_VALUE;
+
+        private Device(String clientId) {
+            this.clientId = clientId;
+        }
+    }
+}
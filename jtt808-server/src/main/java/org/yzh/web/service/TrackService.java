@@ -0,0 +1,123 @@
+package org.yzh.web.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.yzh.commons.util.DateUtils;
+import org.yzh.commons.util.GeomUtils;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.track.Track;
+import org.yzh.track.TrackStore;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 设备轨迹，列式存储于本地文件(见TrackStore)
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+@Service
+public class TrackService {
+
+    /** 设备时间为东八区 */
+    public static final int ZONE_OFFSET = 8 * 3600;
+    public static final ZoneOffset ZONE = ZoneOffset.ofTotalSeconds(ZONE_OFFSET);
+
+    private final TrackStore store;
+
+    public TrackService(@Value("${jt-server.track.path}") String path,
+                        @Value("${jt-server.track.block-size:256}") int blockSize,
+                        @Value("${jt-server.track.flush-interval:60000}") long flushInterval) {
+        this.store = new TrackStore(new File(path), ZONE_OFFSET, blockSize, flushInterval);
+    }
+
+    public void append(List<T0200View> list) {
+        for (T0200View location : list) {
+            if (LocationService.day(location) < 0)
+                continue;
+            store.append(LocationService.deviceId(location), location.getDeviceEpochSecond(ZONE_OFFSET),
+                    location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                    location.getSpeed(), location.getDirection(), location.getWarnBit(), location.getStatusBit());
+        }
+    }
+
+    /**
+     * @param startTime 开始时间(纪元秒)，包含
+     * @param endTime   结束时间(纪元秒)，包含
+     */
+    public Track find(String deviceId, long startTime, long endTime) throws IOException {
+        return store.query(deviceId, startTime, endTime);
+    }
+
+    /**
+     * 按行输出JSON格式的轨迹(NDJSON)，每行一个点，字段与T0200一致
+     * 不抽稀时按天读取并输出；抽稀需要完整轨迹，先读取为列式Track再输出保留的点
+     * @param tolerance 抽稀容差(米)，不大于0时不按容差抽稀
+     * @param maxPoints 最多输出的点数，不大于0时不限制
+     */
+    public void write(String deviceId, long startTime, long endTime, double tolerance, int maxPoints, OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 8192);
+        StringBuilder sb = new StringBuilder(160);
+        if (tolerance <= 0 && maxPoints <= 0) {
+            try {
+                store.query(deviceId, startTime, endTime, track -> {
+                    try {
+                        for (int i = 0, size = track.size(); i < size; i++)
+                            writeLine(writer, sb, track, i);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            Track track = store.query(deviceId, startTime, endTime);
+            for (int i : simplify(track, tolerance, maxPoints))
+                writeLine(writer, sb, track, i);
+        }
+        writer.flush();
+    }
+
+    /** 道格拉斯-普克抽稀，返回保留点的下标 */
+    public static int[] simplify(Track track, double tolerance, int maxPoints) {
+        int size = track.size();
+        int[] longitudes = track.longitudes();
+        int[] latitudes = track.latitudes();
+        double[] points = new double[size * 2];
+        for (int i = 0; i < size; i++) {
+            points[i * 2] = longitudes[i] / 1000000D;
+            points[i * 2 + 1] = latitudes[i] / 1000000D;
+        }
+        return GeomUtils.simplify(points, tolerance, maxPoints);
+    }
+
+    private static void writeLine(Writer writer, StringBuilder sb, Track track, int i) throws IOException {
+        sb.setLength(0);
+        sb.append("{\"deviceTime\":\"");
+        DateUtils.DATE_TIME_FORMATTER.formatTo(LocalDateTime.ofEpochSecond(track.getTime(i), 0, ZONE), sb);
+        sb.append("\",\"latitude\":").append(track.getLatitude(i));
+        sb.append(",\"longitude\":").append(track.getLongitude(i));
+        sb.append(",\"altitude\":").append(track.getAltitude(i));
+        sb.append(",\"speed\":").append(track.getSpeed(i));
+        sb.append(",\"direction\":").append(track.getDirection(i));
+        sb.append(",\"warnBit\":").append(track.getWarnBit(i));
+        sb.append(",\"statusBit\":").append(track.getStatusBit(i));
+        sb.append("}\n");
+        writer.append(sb);
+    }
+
+    public Map<String, Object> getStats() {
+        return store.getStats();
+    }
+
+    @PreDestroy
+    public void close() {
+        store.close();
+    }
+}
@@ -10,6 +10,7 @@ import org.apache.logging.log4j.Level;
 import org.yzh.commons.util.LogUtils;
 import org.yzh.protocol.codec.JTMessageAdapter;
 import org.yzh.web.endpoint.JTHandlerInterceptor;
+import org.yzh.web.service.PositionService;
 
 /**
  * 不依赖spring，快速启动netty服务
@@ -17,7 +18,7 @@ import org.yzh.web.endpoint.JTHandlerInterceptor;
 public class QuickStart {
     public static final JTMessageAdapter messageAdapter = new JTMessageAdapter("org.yzh.protocol");
     public static final DefaultHandlerMapping handlerMapping = new DefaultHandlerMapping("org.yzh.web.endpoint");
-    public static final JTHandlerInterceptor handlerInterceptor = new JTHandlerInterceptor();
+    public static final JTHandlerInterceptor handlerInterceptor = new JTHandlerInterceptor(new PositionService());
     public static final SessionManager sessionManager = new SessionManager(new SessionListener() {
     });
 
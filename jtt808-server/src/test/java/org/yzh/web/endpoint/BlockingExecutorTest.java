@@ -0,0 +1,64 @@
+package org.yzh.web.endpoint;
+
+import io.github.yezhihao.netmc.core.handler.Handler;
+import io.github.yezhihao.netmc.core.handler.SimpleHandler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockingExecutorTest {
+
+    @Blocking(permits = 2)
+    public void blocking() {
+    }
+
+    public void nonBlocking() {
+    }
+
+    private Handler handler(String name) throws NoSuchMethodException {
+        return new SimpleHandler(this, BlockingExecutorTest.class.getMethod(name), name, false);
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        BlockingExecutor executor = new BlockingExecutor(true, "test");
+        assertNull(executor.limit(handler("nonBlocking")));
+        BlockingExecutor.Limit limit = executor.limit(handler("blocking"));
+        assertNotNull(limit);
+
+        //同一连接的任务依次执行，后提交的等待前一个完成
+        List<Integer> result = new ArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(executor.execute(limit, "a", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            result.add(1);
+        }));
+        assertTrue(executor.execute(limit, "a", () -> result.add(2)));
+        //在途任务数达到上限
+        assertFalse(executor.execute(limit, "b", () -> {
+        }));
+
+        release.countDown();
+        executor.shutdown(10, TimeUnit.SECONDS);
+        assertEquals(2, result.size());
+        assertEquals(1, result.get(0));
+        assertEquals(2, result.get(1));
+
+        Map<String, Object> stats = (Map<String, Object>) executor.getStats().get("BlockingExecutorTest.blocking");
+        assertEquals(0, stats.get("inFlight"));
+        assertEquals(2L, stats.get("executed"));
+        assertEquals(1L, stats.get("rejected"));
+        assertEquals(0, executor.getStats().get("clients"));
+        assertFalse(executor.execute(limit, "a", () -> {
+        }));
+    }
+}
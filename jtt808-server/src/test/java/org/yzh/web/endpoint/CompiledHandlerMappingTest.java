@@ -0,0 +1,68 @@
+package org.yzh.web.endpoint;
+
+import io.github.yezhihao.netmc.core.annotation.Mapping;
+import io.github.yezhihao.netmc.core.handler.Handler;
+import io.github.yezhihao.netmc.session.Session;
+import io.github.yezhihao.netmc.session.SessionManager;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.t808.T0001;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledHandlerMappingTest {
+
+    public static class TestEndpoint {
+        private JTMessage received;
+        private Session session;
+
+        @Mapping(types = JT808.终端心跳)
+        public void heartbeat(JTMessage message) {
+            received = message;
+        }
+
+        @Mapping(types = {JT808.查询服务器时间, 0x30316364})
+        public JTMessage echo(Session session, JTMessage message) {
+            this.session = session;
+            return message;
+        }
+
+        @Mapping(types = JT808.终端注销)
+        public void logout(JTMessage message, Session session) throws IOException {
+            throw new IOException("logout");
+        }
+    }
+
+    @Test
+    public void testInvoke() throws Exception {
+        TestEndpoint endpoint = new TestEndpoint();
+        CompiledHandlerMapping mapping = new CompiledHandlerMapping();
+        mapping.registerHandlers(endpoint);
+        Session session = new SessionManager().newInstance(new EmbeddedChannel(), new InetSocketAddress(0), s -> true);
+        T0001 message = new T0001();
+
+        Handler handler = mapping.getHandler(JT808.终端心跳);
+        assertInstanceOf(CompiledHandlerMapping.CompiledHandler.class, handler);
+        assertTrue(handler.returnVoid);
+        assertNull(handler.invoke(message, session));
+        assertSame(message, endpoint.received);
+
+        //参数顺序与声明一致，超出数组索引的消息ID
+        handler = mapping.getHandler(0x30316364);
+        assertSame(handler, mapping.getHandler(JT808.查询服务器时间));
+        assertSame(message, handler.invoke(message, session));
+        assertSame(session, endpoint.session);
+
+        //异常不包装为InvocationTargetException
+        assertThrows(IOException.class, () -> mapping.getHandler(JT808.终端注销).invoke(message, session));
+
+        assertNull(mapping.getHandler(JT808.终端注册));
+        assertNull(mapping.getHandler(-1));
+        assertNull(mapping.getHandler(0x10000));
+    }
+}
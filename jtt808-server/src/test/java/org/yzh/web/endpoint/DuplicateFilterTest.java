@@ -0,0 +1,32 @@
+package org.yzh.web.endpoint;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void testDuplicate() {
+        DuplicateFilter filter = new DuplicateFilter(16);
+        assertFalse(filter.isDuplicate(1, 240101083000L));
+        assertTrue(filter.isDuplicate(1, 240101083000L));
+        //流水号相同、时间不同，或时间相同、流水号不同，均不是重发
+        assertFalse(filter.isDuplicate(1, 240101083001L));
+        assertFalse(filter.isDuplicate(2, 240101083000L));
+        //流水号按16位比较
+        assertTrue(filter.isDuplicate(65537, 240101083000L));
+    }
+
+    @Test
+    public void testOverwrite() {
+        DuplicateFilter filter = new DuplicateFilter(10);
+        for (int i = 0; i < 16; i++)
+            assertFalse(filter.isDuplicate(i, 240101083000L + i));
+        assertTrue(filter.isDuplicate(0, 240101083000L));
+        assertFalse(filter.isDuplicate(16, 240101083016L));
+        //容量16，最早的键被覆盖
+        assertFalse(filter.isDuplicate(0, 240101083000L));
+    }
+}
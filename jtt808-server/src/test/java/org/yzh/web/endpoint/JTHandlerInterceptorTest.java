@@ -0,0 +1,143 @@
+package org.yzh.web.endpoint;
+
+import io.github.yezhihao.netmc.core.annotation.Async;
+import io.github.yezhihao.netmc.core.annotation.Mapping;
+import io.github.yezhihao.netmc.handler.DispatcherHandler;
+import io.github.yezhihao.netmc.session.Packet;
+import io.github.yezhihao.netmc.session.Session;
+import io.github.yezhihao.netmc.session.SessionManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.t808.T0801;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JTHandlerInterceptorTest {
+
+    public static class AsyncEndpoint {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+
+        @Async
+        @Mapping(types = JT808.多媒体数据上传)
+        public JTMessage upload(JTMessage message) throws InterruptedException {
+            //前面的消息处理得更慢，在共享线程池中执行时顺序会被打乱
+            if (message.getSerialNo() % 10 == 0)
+                Thread.sleep(5);
+            received.add(message.getSerialNo());
+            return null;
+        }
+    }
+
+    public static class BlockingEndpoint extends AsyncEndpoint {
+        @Async
+        @Blocking(permits = 256)
+        @Mapping(types = JT808.多媒体数据上传)
+        public JTMessage upload(JTMessage message) throws InterruptedException {
+            return super.upload(message);
+        }
+    }
+
+    @Test
+    public void testAsyncHandlerOrder() throws Exception {
+        AsyncEndpoint endpoint = new AsyncEndpoint();
+        CompiledHandlerMapping mapping = new CompiledHandlerMapping(true);
+        mapping.registerHandlers(endpoint);
+        assertFalse(mapping.getHandler(JT808.多媒体数据上传).async);
+
+        OrderedExecutor executor = new OrderedExecutor(4, 1024, "test");
+        JTHandlerInterceptor interceptor = new JTHandlerInterceptor(null, mapping, executor);
+        ExecutorService shared = Executors.newFixedThreadPool(8);
+        EmbeddedChannel channel = new EmbeddedChannel(new DispatcherHandler(mapping, interceptor, shared));
+        Session session = new SessionManager().newInstance(channel, new InetSocketAddress(0), s -> true);
+
+        int messages = 200;
+        for (int i = 0; i < messages; i++) {
+            JTMessage message = new JTMessage(JT808.多媒体数据上传);
+            message.setClientId("13800000000");
+            message.setSerialNo(i);
+            channel.writeInbound(Packet.of(session, message));
+        }
+        executor.shutdown(10, TimeUnit.SECONDS);
+        shared.shutdown();
+
+        assertEquals(messages, endpoint.received.size());
+        for (int i = 0; i < messages; i++)
+            assertEquals(i, endpoint.received.get(i));
+        assertEquals((long) messages, interceptor.getExecutorStats().get("executed"));
+    }
+
+    @Test
+    public void testBlockingHandlerOrder() throws Exception {
+        BlockingEndpoint endpoint = new BlockingEndpoint();
+        CompiledHandlerMapping mapping = new CompiledHandlerMapping(false, true);
+        mapping.registerHandlers(endpoint);
+        assertFalse(mapping.getHandler(JT808.多媒体数据上传).async);
+
+        BlockingExecutor blockingExecutor = new BlockingExecutor(true, "test");
+        JTHandlerInterceptor interceptor = new JTHandlerInterceptor(null, mapping, null, blockingExecutor);
+        ExecutorService shared = Executors.newFixedThreadPool(8);
+        EmbeddedChannel channel = new EmbeddedChannel(new DispatcherHandler(mapping, interceptor, shared));
+        Session session = new SessionManager().newInstance(channel, new InetSocketAddress(0), s -> true);
+
+        int messages = 200;
+        for (int i = 0; i < messages; i++) {
+            JTMessage message = new JTMessage(JT808.多媒体数据上传);
+            message.setClientId("13800000000");
+            message.setSerialNo(i);
+            channel.writeInbound(Packet.of(session, message));
+        }
+        blockingExecutor.shutdown(10, TimeUnit.SECONDS);
+        shared.shutdown();
+
+        assertEquals(messages, endpoint.received.size());
+        for (int i = 0; i < messages; i++)
+            assertEquals(i, endpoint.received.get(i));
+    }
+
+    @Test
+    public void testBlockingRejectedRelease() throws Exception {
+        CompiledHandlerMapping mapping = new CompiledHandlerMapping(false, true);
+        mapping.registerHandlers(new BlockingEndpoint());
+        BlockingExecutor blockingExecutor = new BlockingExecutor(false, "test");
+        blockingExecutor.shutdown(1, TimeUnit.SECONDS);
+        JTHandlerInterceptor interceptor = new JTHandlerInterceptor(null, mapping, null, blockingExecutor);
+        Session session = new SessionManager().newInstance(new EmbeddedChannel(), new InetSocketAddress(0), s -> true);
+
+        ByteBuf packet = Unpooled.buffer(16).writeZero(16);
+        T0801 message = new T0801();
+        message.setMessageId(JT808.多媒体数据上传);
+        message.setClientId("13800000000");
+        message.setPacket(packet);
+        assertFalse(interceptor.beforeHandle(message, session));
+        assertEquals(0, packet.refCnt());
+    }
+
+    @Test
+    public void testRejectedRelease() throws Exception {
+        CompiledHandlerMapping mapping = new CompiledHandlerMapping(true);
+        mapping.registerHandlers(new AsyncEndpoint());
+        OrderedExecutor executor = new OrderedExecutor(1, 1, "test");
+        executor.shutdown(1, TimeUnit.SECONDS);
+        JTHandlerInterceptor interceptor = new JTHandlerInterceptor(null, mapping, executor);
+        Session session = new SessionManager().newInstance(new EmbeddedChannel(), new InetSocketAddress(0), s -> true);
+
+        ByteBuf packet = Unpooled.buffer(16).writeZero(16);
+        T0801 message = new T0801();
+        message.setMessageId(JT808.多媒体数据上传);
+        message.setClientId("13800000000");
+        message.setPacket(packet);
+        assertFalse(interceptor.beforeHandle(message, session));
+        assertEquals(0, packet.refCnt());
+        assertEquals(1L, interceptor.getExecutorStats().get("rejected"));
+    }
+}
@@ -0,0 +1,140 @@
+package org.yzh.web.endpoint;
+
+import io.github.yezhihao.netmc.session.Packet;
+import io.github.yezhihao.netmc.session.Session;
+import io.github.yezhihao.netmc.session.SessionManager;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.yzh.protocol.basics.JTMessage;
+import org.yzh.protocol.codec.MultiPacket;
+import org.yzh.protocol.commons.JT808;
+import org.yzh.protocol.t808.T8003;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JTMultiPacketListenerTest {
+
+    private final SessionManager sessionManager = new SessionManager();
+
+    /** 写出的消息暂存，不完成写出 */
+    private static class HoldingHandler extends ChannelOutboundHandlerAdapter {
+        private final List<ChannelPromise> promises = new ArrayList<>();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            promises.add(promise);
+        }
+    }
+
+    @Test
+    public void testBackoff() {
+        JTMultiPacketListener listener = new JTMultiPacketListener(1, 5, 16);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        MultiPacket multiPacket = multiPacket(session(channel, "13800000001"));
+
+        //1、2、4、8秒后不再倍增，超过最大次数后放弃
+        long[] delays = {1000, 2000, 4000, 8000, 8000, 8000};
+        for (long delay : delays) {
+            assertEquals(delay, listener.delay(multiPacket));
+            assertTrue(listener.receiveTimeout(multiPacket));
+            assertEquals(0L, listener.getStats().get("pending"));
+        }
+        assertEquals(6, multiPacket.getRetryCount());
+        assertFalse(listener.receiveTimeout(multiPacket));
+        assertEquals(6L, listener.getStats().get("sent"));
+
+        T8003 request = (T8003) ((Packet) channel.readOutbound()).message;
+        assertEquals(JT808.服务器补传分包请求, request.getMessageId());
+        assertEquals(7, request.getResponseSerialNo());
+        assertArrayEquals(new short[]{1, 2, 3}, request.getId());
+    }
+
+    @Test
+    public void testPending() {
+        JTMultiPacketListener listener = new JTMultiPacketListener(1, 5, 1);
+        HoldingHandler a = new HoldingHandler();
+        HoldingHandler b = new HoldingHandler();
+        Session sessionA = session(new EmbeddedChannel(a), "13800000001");
+        MultiPacket packetA = multiPacket(sessionA);
+        MultiPacket packetA2 = multiPacket(sessionA);
+        MultiPacket packetB = multiPacket(session(new EmbeddedChannel(b), "13800000002"));
+
+        assertTrue(listener.receiveTimeout(packetA));
+        assertEquals(1, a.promises.size());
+        assertEquals(1L, listener.getStats().get("pending"));
+
+        //同一会话已有未写出的请求
+        assertTrue(listener.receiveTimeout(packetA2));
+        assertEquals(0, packetA2.getRetryCount());
+        //全局未写出的请求已达上限
+        assertTrue(listener.receiveTimeout(packetB));
+        assertEquals(0, packetB.getRetryCount());
+        assertTrue(b.promises.isEmpty());
+        assertEquals(2L, listener.getStats().get("deferred"));
+        assertEquals(1L, listener.getStats().get("pending"));
+
+        //写出失败后释放，下一周期可以发送
+        a.promises.get(0).setFailure(new IOException("closed"));
+        assertEquals(0L, listener.getStats().get("pending"));
+        assertEquals(1L, listener.getStats().get("failed"));
+        assertTrue(listener.receiveTimeout(packetB));
+        assertEquals(1, packetB.getRetryCount());
+        assertEquals(1, b.promises.size());
+
+        b.promises.get(0).setSuccess();
+        assertEquals(0L, listener.getStats().get("pending"));
+        assertTrue(listener.receiveTimeout(packetA2));
+        assertEquals(1, packetA2.getRetryCount());
+        assertEquals(2, a.promises.size());
+        assertEquals(3L, listener.getStats().get("sent"));
+    }
+
+    @Test
+    public void testCompleteAndDiscard() {
+        JTMultiPacketListener listener = new JTMultiPacketListener(1, 5, 16);
+        HoldingHandler handler = new HoldingHandler();
+        MultiPacket multiPacket = multiPacket(session(new EmbeddedChannel(handler), "13800000001"));
+
+        assertTrue(listener.receiveTimeout(multiPacket));
+        listener.receiveComplete(multiPacket);
+        handler.promises.get(0).setSuccess();
+        listener.receiveDiscard(multiPacket(session(new EmbeddedChannel(), "13800000002")));
+
+        assertEquals(1L, listener.getStats().get("completed"));
+        assertEquals(1L, listener.getStats().get("abandoned"));
+        assertEquals(0L, listener.getStats().get("pending"));
+
+        //会话已关闭的分包消息不再请求补传
+        MultiPacket closed = multiPacket(null);
+        assertFalse(listener.receiveTimeout(closed));
+        assertEquals(1L, listener.getStats().get("sent"));
+    }
+
+    private Session session(EmbeddedChannel channel, String clientId) {
+        Session session = sessionManager.newInstance(channel, new InetSocketAddress(0), s -> true);
+        JTMessage message = new JTMessage();
+        message.setClientId(clientId);
+        session.register(message);
+        return session;
+    }
+
+    /** 共3包，均未到达 */
+    private static MultiPacket multiPacket(Session session) {
+        JTMessage firstPacket = new JTMessage(JT808.多媒体数据上传);
+        firstPacket.setClientId(session != null ? session.getClientId() : "13800000000");
+        firstPacket.setSubpackage(true);
+        firstPacket.setPackageTotal(3);
+        firstPacket.setSession(session);
+        MultiPacket multiPacket = new MultiPacket(firstPacket);
+        multiPacket.setSerialNo(7);
+        return multiPacket;
+    }
+}
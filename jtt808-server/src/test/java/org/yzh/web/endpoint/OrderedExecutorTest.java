@@ -0,0 +1,76 @@
+package org.yzh.web.endpoint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrderedExecutorTest {
+
+    @Test
+    public void testOrder() throws Exception {
+        OrderedExecutor executor = new OrderedExecutor(4, 10000, "test");
+        int devices = 16, messages = 500;
+        List<List<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < devices; i++)
+            results.add(new ArrayList<>());
+
+        //多个线程交错提交，同一设备的消息由同一线程按顺序提交
+        ExecutorService producers = Executors.newFixedThreadPool(devices);
+        for (int i = 0; i < devices; i++) {
+            String clientId = "1380000" + i;
+            List<Integer> result = results.get(i);
+            producers.execute(() -> {
+                for (int j = 0; j < messages; j++) {
+                    int seq = j;
+                    assertTrue(executor.execute(clientId, () -> result.add(seq)));
+                }
+            });
+        }
+        producers.shutdown();
+        assertTrue(producers.awaitTermination(10, TimeUnit.SECONDS));
+        executor.shutdown(10, TimeUnit.SECONDS);
+
+        for (List<Integer> result : results) {
+            assertEquals(messages, result.size());
+            for (int j = 0; j < messages; j++)
+                assertEquals(j, result.get(j));
+        }
+        assertEquals((long) devices * messages, executor.getStats().get("executed"));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        OrderedExecutor executor = new OrderedExecutor(2, 1, "test");
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        String clientId = "13800000000";
+        assertTrue(executor.execute(clientId, () -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        blocked.await();
+        //慢消息只阻塞所在的通道
+        assertTrue(executor.execute(clientId, () -> {
+        }));
+        assertFalse(executor.execute(clientId, () -> {
+        }));
+        String other = clientId;
+        for (int i = 0; executor.lane(other) == executor.lane(clientId); i++)
+            other = "1390000000" + i;
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(executor.execute(other, done::countDown));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+
+        release.countDown();
+        executor.shutdown(10, TimeUnit.SECONDS);
+        assertEquals(1L, executor.getStats().get("rejected"));
+        assertEquals(3L, executor.getStats().get("executed"));
+    }
+}
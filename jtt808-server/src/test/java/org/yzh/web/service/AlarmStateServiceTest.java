@@ -0,0 +1,66 @@
+package org.yzh.web.service;
+
+import org.junit.jupiter.api.Test;
+import org.yzh.web.model.vo.AlarmEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AlarmStateServiceTest {
+
+    /** 紧急报警 */
+    private static final int SOS = 1;
+    /** 超速报警 */
+    private static final int OVERSPEED = 1 << 1;
+    /** ACC开 */
+    private static final int ACC = 1;
+    /** 已定位 */
+    private static final int FIXED = 1 << 1;
+    /** 使用GPS卫星定位 */
+    private static final int GPS = 1 << 18;
+
+    @Test
+    public void testTransition() {
+        AlarmStateService service = new AlarmStateService(-1, 0x3FFF3);
+        List<AlarmEvent> received = new ArrayList<>();
+        Runnable unsubscribe = service.subscribe("1", received::add);
+
+        //首个位置只产生已有报警的事件
+        service.update("1", SOS, FIXED, 0, 0, 100);
+        service.update("1", SOS, FIXED, 0, 0, 110);
+        service.update("1", SOS | OVERSPEED, FIXED | ACC, 0, 0, 120);
+        //掩码之外的位不产生事件
+        service.update("1", OVERSPEED, FIXED | ACC | GPS, 0, 0, 130);
+        //乱序
+        service.update("1", 0, 0, 0, 0, 125);
+        service.update("2", 0, ACC, 0, 0, 100);
+
+        List<AlarmEvent> events = service.getEvents(null, 0, 100);
+        assertEquals(4, events.size());
+        assertEvent(events.get(0), 1, AlarmEvent.Warn, 0, true);
+        assertEvent(events.get(1), 2, AlarmEvent.Warn, 1, true);
+        assertEvent(events.get(2), 3, AlarmEvent.Status, 0, true);
+        assertEvent(events.get(3), 4, AlarmEvent.Warn, 0, false);
+        assertEquals(events, received);
+
+        assertEquals(2, service.getEvents("1", 2, 100).size());
+        assertTrue(service.getEvents("2", 0, 100).isEmpty());
+        assertArrayEquals(new int[]{OVERSPEED, FIXED | ACC | GPS}, service.getState("1"));
+        assertEquals(1L, service.getStats().get("outOfOrder"));
+
+        unsubscribe.run();
+        service.update("1", 0, FIXED, 0, 0, 140);
+        assertEquals(4, received.size());
+        assertEquals(6, service.getEvents(null, 0, 100).size());
+    }
+
+    private static void assertEvent(AlarmEvent event, long sequence, int type, int bit, boolean value) {
+        assertEquals(sequence, event.getSequence());
+        assertEquals("1", event.getClientId());
+        assertEquals(type, event.getType());
+        assertEquals(bit, event.getBit());
+        assertEquals(value, event.isValue());
+    }
+}
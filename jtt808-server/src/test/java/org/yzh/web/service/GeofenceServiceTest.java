@@ -0,0 +1,171 @@
+package org.yzh.web.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yzh.protocol.commons.ShapeAction;
+import org.yzh.protocol.t808.T8600;
+import org.yzh.protocol.t808.T8602;
+import org.yzh.protocol.t808.T8604;
+import org.yzh.web.model.vo.GeofenceEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GeofenceServiceTest {
+
+    /** 2024-01-01 12:00:00 +08:00 */
+    private static final long TIME = 1704081600L;
+
+    @TempDir
+    File root;
+
+    private int count;
+
+    @Test
+    public void testEnterExit() throws IOException {
+        GeofenceService service = new GeofenceService(null);
+        service.update(circles("1", ShapeAction.Update, new T8600.Circle(1, 0, 39900000, 116400000, 1000, null, null, null, null)));
+        service.update(rectangles("1", new T8602.Rectangle(2, 0, 39950000, 116350000, 39850000, 116450000, null, null, null, null)));
+        T8604 polygon = new T8604();
+        polygon.setClientId("1");
+        polygon.setId(3);
+        polygon.addPoint(116400000, 39900000);
+        polygon.addPoint(116500000, 39900000);
+        polygon.addPoint(116500000, 40000000);
+        service.update(polygon);
+
+        service.evaluate("1", 39800000, 116400000, 0, TIME);
+        assertEquals("", events(service));
+
+        service.evaluate("1", 39899000, 116400100, 0, TIME + 10);
+        assertEquals("0:1:1,0:2:2", events(service));
+        assertEquals(Collections.singletonList(1), service.getInside("1", GeofenceService.Circle));
+
+        //三角形内，矩形内，圆形外
+        service.evaluate("1", 39920000, 116440000, 0, TIME + 20);
+        assertEquals("0:3:3,1:1:1", events(service));
+
+        //乱序到达的历史位置不参与判断
+        service.evaluate("1", 39800000, 116400000, 0, TIME + 15);
+        assertEquals("", events(service));
+
+        service.remove("1", GeofenceService.Polygon, null);
+        service.evaluate("1", 39800000, 116400000, 0, TIME + 30);
+        assertEquals("1:2:2", events(service));
+        assertEquals(0, service.getInside("1", GeofenceService.Polygon).size());
+    }
+
+    @Test
+    public void testTimeAndSpeed() throws IOException {
+        GeofenceService service = new GeofenceService(null);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+        service.update(circles("1", ShapeAction.Update,
+                new T8600.Circle(1, 0, 39900000, 116400000, 1000, start, start.plusMinutes(1), null, null),
+                new T8600.Circle(2, 0, 39900000, 116400000, 1000, null, null, 60, 10)));
+
+        service.evaluate("1", 39900000, 116400000, 500, TIME - 1);
+        assertEquals("0:2:1", events(service));
+        service.evaluate("1", 39900000, 116400000, 650, TIME);
+        assertEquals("0:1:1", events(service));
+        service.evaluate("1", 39900000, 116400000, 650, TIME + 9);
+        assertEquals("", events(service));
+        service.evaluate("1", 39900000, 116400000, 650, TIME + 10);
+        assertEquals("2:2:1", events(service));
+        service.evaluate("1", 39900000, 116400000, 650, TIME + 20);
+        assertEquals("", events(service));
+
+        //超出生效时间，出区域
+        service.evaluate("1", 39900000, 116400000, 500, TIME + 61);
+        assertEquals("1:1:1", events(service));
+        service.evaluate("1", 39900000, 116400000, 650, TIME + 62);
+        service.evaluate("1", 39900000, 116400000, 650, TIME + 72);
+        assertEquals("2:2:1", events(service));
+
+        //更新(先清空,后追加)
+        service.update(circles("1", ShapeAction.Update, new T8600.Circle(3, 0, 39900000, 116400000, 1000, null, null, null, null)));
+        service.evaluate("1", 39900000, 116400000, 0, TIME + 80);
+        assertEquals("0:3:1", events(service));
+    }
+
+    @Test
+    public void testCandidates() throws IOException {
+        GeofenceService service = new GeofenceService(null);
+        //40000个半径200米的圆形区域，间隔约0.5公里
+        List<T8600.Circle> items = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            for (int j = 0; j < 200; j++)
+                items.add(new T8600.Circle(i * 200 + j, 0, 39400000 + i * 5000, 115900000 + j * 5000, 200, null, null, null, null));
+        service.update(circles("1", ShapeAction.Update, items.toArray(new T8600.Circle[0])));
+
+        for (int i = 0; i < 1000; i++)
+            service.evaluate("1", 39400000 + i * 997, 115900000 + i * 991, 0, TIME + i);
+        long tested = (Long) service.getStats().get("tested");
+        assertTrue(tested <= 1000 * 16, "tested=" + tested);
+        assertTrue(service.getEvents(null, 1000).size() > 0);
+    }
+
+    @Test
+    public void testPersistence() throws IOException {
+        GeofenceService service = new GeofenceService(root.getPath());
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+        service.update(circles("1", ShapeAction.Update,
+                new T8600.Circle(1, 0b11, 39900000, 116400000, 1000, start, start.plusMinutes(1), 60, 10, 40, "圆形"),
+                new T8600.Circle(2, 0, 39900000, 116400000, 500, null, null, null, null)));
+        service.update(rectangles("2", new T8602.Rectangle(2, 0, 39950000, 116350000, 39850000, 116450000, null, null, null, null)));
+        T8604 polygon = new T8604();
+        polygon.setClientId("1");
+        polygon.setId(3);
+        polygon.addPoint(116400000, 39900000);
+        polygon.addPoint(116500000, 39900000);
+        polygon.addPoint(116500000, 40000000);
+        service.update(polygon);
+        service.remove("1", GeofenceService.Circle, new int[]{2});
+        service.close();
+
+        GeofenceService reopened = new GeofenceService(root.getPath());
+        assertEquals(3L, reopened.getStats().get("areas"));
+        reopened.evaluate("1", 39901000, 116405000, 650, TIME);
+        reopened.evaluate("1", 39901000, 116405000, 650, TIME + 10);
+        reopened.evaluate("2", 39901000, 116405000, 0, TIME);
+        assertEquals("0:1:1,0:2:2,0:3:3,2:1:1", events(reopened));
+        assertEquals("圆形", reopened.getEvents("1", 1).get(0).getAreaName());
+
+        //生效时间之外出区域
+        reopened.evaluate("1", 39901000, 116405000, 0, TIME + 61);
+        assertEquals("1:1:1", events(reopened));
+    }
+
+    /** 上次调用后新产生的事件(类型:区域ID:区域类型)，同一位置产生的多个事件按字符串排序 */
+    private String events(GeofenceService service) {
+        List<GeofenceEvent> events = service.getEvents(null, 1000);
+        String result = events.stream().limit(events.size() - count).map(e -> e.getType() + ":" + e.getAreaId() + ":" + e.getAreaType())
+                .sorted().collect(Collectors.joining(","));
+        count = events.size();
+        return result;
+    }
+
+    private static T8600 circles(String clientId, int action, T8600.Circle... items) {
+        T8600 request = new T8600();
+        request.setClientId(clientId);
+        request.setAction(action);
+        request.setItems(Arrays.asList(items));
+        return request;
+    }
+
+    private static T8602 rectangles(String clientId, T8602.Rectangle... items) {
+        T8602 request = new T8602();
+        request.setClientId(clientId);
+        request.setAction(ShapeAction.Append);
+        request.setItems(Arrays.asList(items));
+        return request;
+    }
+}
@@ -0,0 +1,203 @@
+package org.yzh.web.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yzh.protocol.commons.transform.AttributeKey;
+import org.yzh.protocol.t808.T0200;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.protocol.t808.T0704;
+import org.yzh.web.model.vo.Mileage;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocationSequencerTest {
+
+    /** 2024-01-01 08:00:00 */
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 8, 0, 0);
+
+    private HikariDataSource dataSource;
+    @TempDir
+    File root;
+    private LocationService locationService;
+    private TrackService trackService;
+    private MileageService mileageService;
+    private LocationSequencer sequencer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:sequencer;mode=mysql;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(4);
+        locationService = new LocationService(dataSource, 100, 1, 1, null, 0);
+        trackService = new TrackService(new File(root, "track").getPath(), 256, 60000);
+        mileageService = new MileageService(new File(root, "mileage").getPath(), 7, 300);
+        GeofenceService geofenceService = new GeofenceService(null);
+        sequencer = new LocationSequencer(locationService, trackService, mileageService,
+                geofenceService, new RouteService(geofenceService, null), new AlarmStateService(-1, -1), 0, 60000, 500, 10);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        sequencer.close();
+        locationService.close();
+        trackService.close();
+        dataSource.close();
+    }
+
+    @Test
+    public void testBackfill() throws Exception {
+        //断线100分钟后重连，实时位置先于盲区补报到达
+        List<T0200View> live = new ArrayList<>();
+        for (int i = 100; i < 110; i++)
+            live.add(T0200View.of(message(1), location(i)));
+        sequencer.live(live);
+
+        sequencer.batch(backfill(0, 100));
+
+        //补报处理完之前实时位置不参与统计
+        Mileage mileage = null;
+        for (int i = 0; i < 500 && mileage == null; i++) {
+            sequencer.drain();
+            mileage = mileageService.get("1", 20240101);
+            Thread.sleep(10);
+        }
+        assertEquals(110, mileage.getPoints());
+        assertEquals(109 * 60, mileage.getMovingTime());
+        assertEquals(109 * 1000, mileage.getOdometerDistance());
+        assertEquals(110, trackService.find("1", START.toEpochSecond(TrackService.ZONE), START.plusHours(2).toEpochSecond(TrackService.ZONE)).size());
+
+        //已送出且无补报的设备在下次送出时移除
+        sequencer.drain();
+        assertEquals(0, sequencer.getStats().get("devices"));
+    }
+
+    @Test
+    public void testLateBackfill() throws Exception {
+        //重连后实时位置已过delay，盲区补报才到达
+        sequencer.online("1");
+        List<T0200View> live = new ArrayList<>();
+        for (int i = 100; i < 110; i++)
+            live.add(T0200View.of(message(1), location(i)));
+        sequencer.live(live);
+        sequencer.drain();
+        assertNull(mileageService.get("1", 20240101));
+
+        sequencer.batch(backfill(0, 100));
+        Mileage mileage = null;
+        for (int i = 0; i < 500 && (mileage == null || mileage.getPoints() < 110); i++) {
+            Thread.sleep(10);
+            sequencer.drain();
+            mileage = mileageService.get("1", 20240101);
+        }
+        assertEquals(110, mileage.getPoints());
+        assertEquals(109 * 1000, mileage.getOdometerDistance());
+        assertEquals(0L, sequencer.getStats().get("late"));
+    }
+
+    @Test
+    public void testBackfillAfterRelease() throws Exception {
+        //未等待补报时，实时位置已送出，补报早于已送出的位置，不参与统计
+        List<T0200View> live = new ArrayList<>();
+        for (int i = 100; i < 110; i++)
+            live.add(T0200View.of(message(1), location(i)));
+        sequencer.live(live);
+        sequencer.drain();
+        assertEquals(10, mileageService.get("1", 20240101).getPoints());
+
+        sequencer.batch(backfill(0, 100));
+        for (int i = 0; i < 500 && (Long) sequencer.getStats().get("released") < 110; i++) {
+            Thread.sleep(10);
+            sequencer.drain();
+        }
+        assertEquals(10, mileageService.get("1", 20240101).getPoints());
+    }
+
+    @Test
+    public void testBackfillRejected() throws Exception {
+        //补报线程停止后队列不再消费，队列满时拒绝，不在调用线程中写入
+        sequencer.close();
+        for (int i = 0; i < 10; i++)
+            assertTrue(sequencer.batch(backfill(i, i + 1)));
+        assertFalse(sequencer.batch(backfill(10, 20)));
+        assertEquals(10L, sequencer.getStats().get("rejected"));
+        assertEquals(10, sequencer.getStats().get("backfillQueued"));
+        assertEquals(0, trackService.find("1", START.toEpochSecond(TrackService.ZONE), START.plusHours(1).toEpochSecond(TrackService.ZONE)).size());
+    }
+
+    @Test
+    public void testOffline() throws Exception {
+        //在线期间保留送出进度，迟到的补报计入late；离线后移除
+        sequencer.online("1");
+        sequencer.live(Collections.singletonList(T0200View.of(message(0), location(100))));
+        for (int i = 0; i < 100 && (Long) sequencer.getStats().get("released") == 0; i++) {
+            Thread.sleep(10);
+            sequencer.drain();
+        }
+        sequencer.drain();
+        assertEquals(1, sequencer.getStats().get("devices"));
+
+        sequencer.batch(backfill(0, 10));
+        for (int i = 0; i < 500 && (Long) sequencer.getStats().get("released") < 11; i++) {
+            Thread.sleep(10);
+            sequencer.drain();
+        }
+        assertEquals(10L, sequencer.getStats().get("late"));
+
+        sequencer.offline("1");
+        sequencer.drain();
+        assertEquals(0, sequencer.getStats().get("devices"));
+    }
+
+    @Test
+    public void testReorder() {
+        //延迟窗口内的乱序
+        List<T0200View> list = new ArrayList<>();
+        for (int i : new int[]{0, 2, 1, 4, 3})
+            list.add(T0200View.of(message(0), location(i)));
+        sequencer.live(list);
+        sequencer.drain();
+
+        Mileage mileage = mileageService.get("1", 20240101);
+        assertEquals(5, mileage.getPoints());
+        assertEquals(4 * 60, mileage.getMovingTime());
+        assertEquals(2L, sequencer.getStats().get("reordered"));
+    }
+
+    private static T0704 backfill(int from, int to) {
+        T0704 message = message(1);
+        List<T0200> items = new ArrayList<>();
+        for (int i = from; i < to; i++)
+            items.add(location(i));
+        message.setItems(items);
+        return message;
+    }
+
+    private static T0704 message(int type) {
+        T0704 message = new T0704();
+        message.setClientId("1");
+        message.setType(type);
+        return message;
+    }
+
+    /** 每分钟一个点，行驶1公里 */
+    private static T0200 location(int i) {
+        T0200 location = new T0200();
+        location.setStatusBit(0b11);
+        location.setLatitude(40000000);
+        location.setLongitude(116000000 + i * 11700);
+        location.setSpeed(600);
+        location.setDeviceTime(START.plusMinutes(i));
+        location.setAttributes(Collections.singletonMap(AttributeKey.Mileage, 1000L + i * 10));
+        return location;
+    }
+}
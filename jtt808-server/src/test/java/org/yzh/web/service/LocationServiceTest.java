@@ -0,0 +1,155 @@
+package org.yzh.web.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.yzh.protocol.t808.T0200View;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用MySQL模式的H2内存库代替生产数据库
+ */
+public class LocationServiceTest {
+
+    private HikariDataSource dataSource;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:location;mode=mysql;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    public void testSave() throws Exception {
+        LocationService service = new LocationService(dataSource, 100, 2, 3, null, 0);
+
+        List<T0200View> list = new ArrayList<>();
+        for (int i = 0; i < 1203; i++)
+            list.add(location("1380000" + (i % 10), i, i % 3 == 0 ? 0x231231235959L : 0x240101000000L + i % 60));
+        list.add(location("13800000", 0, 0x240230000000L));
+        service.save(list);
+        service.save(list.subList(0, 7));
+        service.close();
+
+        assertEquals(401 + 3, count("location_20231231"));
+        assertEquals(802 + 4, count("location_20240101"));
+
+        Map<String, Object> stats = service.getStats();
+        assertEquals(1210L, stats.get("written"));
+        assertEquals(1L, stats.get("failed"));
+        assertEquals(0, stats.get("queued"));
+
+        try (Connection conn = dataSource.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT longitude,latitude,speed,mileage,device_time FROM location_20240101 WHERE device_id='13800001' AND longitude=116000001")) {
+            rs.next();
+            assertEquals(39000001, rs.getInt(2));
+            assertEquals(601, rs.getInt(3));
+            assertEquals(1001, rs.getLong(4));
+            assertEquals("2024-01-01T00:00:01", rs.getTimestamp(5).toLocalDateTime().toString());
+        }
+    }
+
+    @Test
+    public void testJournal(@TempDir File dir) throws Exception {
+        AtomicBoolean down = new AtomicBoolean(true);
+        DataSource unstable = new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                if (down.get())
+                    throw new SQLException("down");
+                return super.getConnection();
+            }
+        };
+
+        List<T0200View> list = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            list.add(location("13800001", i, 0x240102000000L + i % 10));
+
+        //数据库不可用期间全部写入日志，重启后回放
+        LocationService service = new LocationService(unstable, 10, 1, 2, dir.getPath(), 1);
+        for (int i = 0; i < 10; i++)
+            service.save(list);
+        service.close();
+        //回放后再次失败的批次会重复追加
+        assertTrue((Long) service.getStats().get("spilled") >= 1000L);
+        assertEquals(0L, service.getStats().get("failed"));
+        assertTrue((Long) service.getStats().get("journalBytes") > 0);
+
+        service = new LocationService(unstable, 10, 1, 2, dir.getPath(), 1);
+        service.save(list);
+        down.set(false);
+        awaitWritten(service, 1100L);
+        //队列已满的批次写入日志，由回放线程送回
+        service.save(list);
+        awaitWritten(service, 1200L);
+        service.close();
+
+        Map<String, Object> stats = service.getStats();
+        assertEquals(1200L, stats.get("written"));
+        assertEquals(0L, stats.get("journalBytes"));
+        assertEquals(1200, count("location_20240102"));
+        assertEquals(0, dir.list().length);
+    }
+
+    private static void awaitWritten(LocationService service, long rows) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            Map<String, Object> stats = service.getStats();
+            if ((Long) stats.get("written") >= rows && (Long) stats.get("journalBytes") == 0)
+                return;
+            Thread.sleep(100);
+        }
+    }
+
+    private int count(String table) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /** @param bcdTime 时间(YYMMDDHHMMSS)的BCD码 */
+    private static T0200View location(String clientId, int i, long bcdTime) {
+        ByteBuf buf = Unpooled.buffer(34);
+        buf.writeInt(0);
+        buf.writeInt(2);
+        buf.writeInt(39000000 + i);
+        buf.writeInt(116000000 + i);
+        buf.writeShort(50);
+        buf.writeShort(600 + i);
+        buf.writeShort(90);
+        buf.writeShort((int) (bcdTime >>> 32));
+        buf.writeInt((int) bcdTime);
+        buf.writeByte(0x01).writeByte(4).writeInt(1000 + i);
+
+        T0200View view = new T0200View().wrap(buf);
+        view.setClientId(clientId);
+        return view;
+    }
+}
@@ -0,0 +1,104 @@
+package org.yzh.web.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yzh.web.model.vo.Mileage;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MileageServiceTest {
+
+    /** ACC开、已定位 */
+    private static final int MOVING = 0b11;
+    /** ACC关、已定位 */
+    private static final int PARKED = 0b10;
+
+    @TempDir
+    File root;
+    /** 昨天23:59:00 */
+    private long start;
+    private int yesterday;
+    private int today;
+
+    @BeforeEach
+    public void setUp() {
+        LocalDate date = LocalDate.now(TrackService.ZONE);
+        start = date.atStartOfDay().toEpochSecond(TrackService.ZONE) - 60;
+        yesterday = MileageService.day(start);
+        today = MileageService.day(start + 60);
+    }
+
+    @Test
+    public void testDaily() throws IOException {
+        MileageService service = new MileageService(root.getPath(), 7, 300);
+        //东西向每0.001度约85米
+        service.update("1", start, 40000000, 116000000, 600, MOVING, 1000);
+        service.update("1", start + 30, 40000000, 116001000, 600, MOVING, 1001);
+        //跨天的间隔计入后一天
+        service.update("1", start + 60, 40000000, 116002000, 600, MOVING, 1002);
+        service.update("1", start + 90, 40000000, 116002000, 0, MOVING, 1002);
+        service.update("1", start + 120, 40000000, 116002000, 0, MOVING, 1002);
+        service.update("1", start + 150, 40000000, 116002000, 0, PARKED, 1002);
+        service.update("1", start + 180, 40000000, 116002000, 0, PARKED, 1002);
+        //乱序
+        service.update("1", start + 100, 40000000, 116009000, 0, MOVING, 1009);
+
+        Mileage day1 = service.get("1", yesterday);
+        assertEquals(2, day1.getPoints());
+        assertEquals(100, day1.getOdometerDistance());
+        assertEquals(85, day1.getGpsDistance(), 1);
+        assertEquals(30, day1.getMovingTime());
+        assertEquals(1000, day1.getStartMileage());
+        assertEquals(1001, day1.getEndMileage());
+
+        Mileage day2 = service.get("1", today);
+        assertEquals(5, day2.getPoints());
+        assertEquals(100, day2.getDistance());
+        assertEquals(85, day2.getGpsDistance(), 1);
+        assertEquals(60, day2.getMovingTime());
+        assertEquals(60, day2.getIdleTime());
+        assertEquals(600, day2.getMaxSpeed());
+        assertEquals(1L, service.getStats().get("outOfOrder"));
+        assertNull(service.get("2", today));
+
+        //重启后从最后一个定位点继续累加
+        service.close();
+        service = new MileageService(root.getPath(), 7, 300);
+        assertEquals(day2.toString(), service.get("1", today).toString());
+
+        //超过max-gap的间隔只计里程
+        service.update("1", start + 1000, 40000000, 116003000, 600, MOVING, 1003);
+        //里程表重置不计入
+        service.update("1", start + 1030, 40000000, 116004000, 600, MOVING, 5);
+        Mileage mileage = service.get("1", today);
+        assertEquals(200, mileage.getOdometerDistance());
+        assertEquals(85 * 3, mileage.getGpsDistance(), 3);
+        assertEquals(90, mileage.getMovingTime());
+        assertEquals(60, mileage.getIdleTime());
+    }
+
+    @Test
+    public void testGpsOnly() throws IOException {
+        MileageService service = new MileageService(root.getPath(), 7, 300);
+        //未上报速度和里程表读数，按平均速度判断行驶
+        for (int i = 0; i < 10; i++)
+            service.update("1", start + 60 + i * 10, 40000000, 116000000 + i * 1000, 0, MOVING, -1);
+        //静止时的漂移不计入
+        for (int i = 1; i < 10; i++)
+            service.update("1", start + 160 + i * 10, 40000000 + (i % 2) * 20, 116009000, 0, MOVING, -1);
+        //未定位
+        service.update("1", start + 300, 40000000, 117000000, 0, 0b01, -1);
+
+        Mileage mileage = service.get("1", today);
+        assertEquals(-1, mileage.getStartMileage());
+        assertEquals(0, mileage.getOdometerDistance());
+        assertEquals(85 * 9, mileage.getDistance(), 9);
+        assertEquals(90, mileage.getMovingTime());
+        assertEquals(150, mileage.getIdleTime());
+    }
+}
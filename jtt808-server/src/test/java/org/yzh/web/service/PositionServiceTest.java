@@ -0,0 +1,98 @@
+package org.yzh.web.service;
+
+import org.junit.jupiter.api.Test;
+import org.yzh.commons.util.GeomUtils;
+import org.yzh.web.model.vo.Position;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PositionServiceTest {
+
+    private static final int DEVICES = 100000;
+
+    @Test
+    public void testQuery() {
+        Random random = new Random(1);
+        PositionService service = new PositionService();
+        int[] lat = new int[DEVICES], lng = new int[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            //以北京为中心约200公里范围
+            lat[i] = 39900000 + random.nextInt(2000000) - 1000000;
+            lng[i] = 116400000 + random.nextInt(2000000) - 1000000;
+            service.update(String.valueOf(i), lat[i], lng[i], 0, 0, 1000L);
+        }
+
+        for (int n = 0; n < 50; n++) {
+            int y = 39900000 + random.nextInt(2400000) - 1200000;
+            int x = 116400000 + random.nextInt(2400000) - 1200000;
+
+            Set<String> expected = new HashSet<>();
+            for (int i = 0; i < DEVICES; i++)
+                if (lat[i] >= y && lat[i] <= y + 30000 && lng[i] >= x && lng[i] <= x + 50000)
+                    expected.add(String.valueOf(i));
+            assertEquals(expected, ids(service.within(y, x, y + 30000, x + 50000)));
+
+            expected.clear();
+            for (int i = 0; i < DEVICES; i++)
+                if (distance(y, x, lat[i], lng[i]) <= 2000)
+                    expected.add(String.valueOf(i));
+            List<Position> nearby = service.nearby(y, x, 2000);
+            assertEquals(expected, ids(nearby));
+            assertSorted(nearby);
+
+            List<Position> nearest = service.nearest(y, x, 10);
+            double[] distances = new double[DEVICES];
+            for (int i = 0; i < DEVICES; i++)
+                distances[i] = distance(y, x, lat[i], lng[i]);
+            Arrays.sort(distances);
+            assertEquals(10, nearest.size());
+            for (int i = 0; i < 10; i++)
+                assertEquals(distances[i], nearest.get(i).getDistance());
+        }
+    }
+
+    @Test
+    public void testUpdate() {
+        PositionService service = new PositionService();
+        service.update("1", 39900000, 116400000, 0, 0, 1000L);
+        service.update("2", 39900100, 116400100, 0, 0, 1000L);
+        assertEquals(2, service.within(39800000, 116300000, 40000000, 116500000).size());
+
+        //跨网格移动
+        service.update("1", 31200000, 121400000, 0, 0, 1010L);
+        assertEquals(ids("2"), ids(service.within(39800000, 116300000, 40000000, 116500000)));
+        assertEquals(ids("1"), ids(service.nearby(31200000, 121400000, 10)));
+
+        //补传的历史位置不覆盖最新位置
+        service.update("1", 39900000, 116400000, 0, 0, 1005L);
+        assertEquals(ids("2"), ids(service.within(39800000, 116300000, 40000000, 116500000)));
+
+        assertEquals(Arrays.asList("2", "1"), service.nearest(39900000, 116400000, 5).stream().map(Position::getDeviceId).collect(Collectors.toList()));
+
+        service.remove("2");
+        service.remove("1");
+        assertEquals(0, service.nearest(39900000, 116400000, 5).size());
+        assertEquals(0, service.getStats().get("cells"));
+    }
+
+    private static double distance(int lat1, int lng1, int lat2, int lng2) {
+        return GeomUtils.distance(lng1 / 1000000D, lat1 / 1000000D, lng2 / 1000000D, lat2 / 1000000D);
+    }
+
+    private static void assertSorted(List<Position> list) {
+        for (int i = 1; i < list.size(); i++)
+            assertTrue(list.get(i - 1).getDistance() <= list.get(i).getDistance());
+    }
+
+    private static Set<String> ids(List<Position> list) {
+        return list.stream().map(Position::getDeviceId).collect(Collectors.toSet());
+    }
+
+    private static Set<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,152 @@
+package org.yzh.web.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yzh.protocol.t808.T8606;
+import org.yzh.web.model.vo.GeofenceEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RouteServiceTest {
+
+    /** 2024-01-01 12:00:00 +08:00 */
+    private static final long TIME = 1704081600L;
+    /** 北纬40度 */
+    private static final int LAT = 40000000;
+    /** 拐点间隔0.01度，约850米 */
+    private static final int STEP = 10000;
+
+    @TempDir
+    File root;
+
+    private GeofenceService geofenceService;
+    private RouteService service;
+    private int count;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        geofenceService = new GeofenceService(null);
+        service = new RouteService(geofenceService, null);
+    }
+
+    @Test
+    public void testRoute() {
+        List<T8606.Line> items = new ArrayList<>();
+        items.add(new T8606.Line(1, 101, LAT, 116000000, 40, 0, 600, 60, null, null));
+        items.add(new T8606.Line(2, 102, LAT, 116000000 + STEP, 40, 0, 600, 60, null, null));
+        items.add(new T8606.Line(3, 103, LAT, 116000000 + STEP * 2, 40, 0, null, null, 60, 5));
+        items.add(new T8606.Line(4, 104, LAT, 116000000 + STEP * 3, 40, 0, null, null, null, null));
+        service.update(route("1", 9, items));
+
+        //尚未进入路线
+        service.evaluate("1", LAT + 10000, 116000000, 0, TIME);
+        assertEquals("", events());
+        assertNull(service.getSegment("1", 9));
+
+        //中途进入路段101，不判断该路段的行驶时间
+        service.evaluate("1", LAT + 100, 116005000, 500, TIME + 10);
+        service.evaluate("1", LAT, 116000000 + STEP + 2000, 500, TIME + 20);
+        assertEquals("", events());
+        assertEquals(102, service.getSegment("1", 9));
+
+        //路段102行驶时间不足60秒
+        service.evaluate("1", LAT, 116000000 + STEP * 2 + 2000, 500, TIME + 50);
+        assertEquals("5:102:30", events());
+
+        //路段103超速持续5秒
+        service.evaluate("1", LAT, 116000000 + STEP * 2 + 3000, 650, TIME + 51);
+        service.evaluate("1", LAT, 116000000 + STEP * 2 + 4000, 650, TIME + 56);
+        assertEquals("2:103:0", events());
+
+        //偏离路线约110米，只产生一次事件
+        service.evaluate("1", LAT + 1000, 116000000 + STEP * 2 + 5000, 500, TIME + 60);
+        service.evaluate("1", LAT + 1000, 116000000 + STEP * 2 + 6000, 500, TIME + 70);
+        assertEquals("3:103:0", events());
+        assertNull(service.getSegment("1", 9));
+
+        service.evaluate("1", LAT - 100, 116000000 + STEP * 2 + 7000, 500, TIME + 80);
+        assertEquals("", events());
+        assertEquals(103, service.getSegment("1", 9));
+
+        service.remove("1", null);
+        assertNull(service.getSegment("1", 9));
+    }
+
+    @Test
+    public void testProgress() {
+        //10000个路段的折线，沿途每个路段5个定位点
+        List<T8606.Line> items = new ArrayList<>();
+        for (int i = 0; i <= 10000; i++)
+            items.add(new T8606.Line(i, i, LAT + (i % 2) * 2000, 116000000 + i * STEP / 4, 50, 0, null, null, null, null));
+        service.update(route("1", 1, items));
+
+        long time = TIME;
+        for (int i = 0; i < 10000; i++) {
+            for (int j = 0; j < 5; j++) {
+                int lat = LAT + (i % 2 == 0 ? j * 400 : 2000 - j * 400);
+                service.evaluate("1", lat, 116000000 + i * STEP / 4 + j * STEP / 20, 500, time++);
+            }
+        }
+        assertEquals("", events());
+        assertEquals(9999, service.getSegment("1", 1));
+
+        Map<String, Object> stats = service.getStats();
+        assertEquals(50000L, stats.get("evaluated"));
+        assertEquals(1L, stats.get("indexMatched"));
+    }
+
+    @Test
+    public void testPersistence() throws IOException {
+        service = new RouteService(geofenceService, root.getPath());
+        List<T8606.Line> items = new ArrayList<>();
+        items.add(new T8606.Line(1, 101, LAT, 116000000, 40, 0b11, 600, 60, 60, 5));
+        items.add(new T8606.Line(2, 102, LAT, 116000000 + STEP, 40, 0, null, null, null, null));
+        items.add(new T8606.Line(3, 103, LAT, 116000000 + STEP * 2, 40, 0, null, null, null, null));
+        T8606 route = route("1", 9, items);
+        route.setAttribute(0b1);
+        route.setStartTime(LocalDateTime.of(2024, 1, 1, 0, 0, 0));
+        route.setEndTime(LocalDateTime.of(2024, 1, 2, 0, 0, 0));
+        route.setName("路线");
+        service.update(route);
+        service.update(route("1", 10, items));
+        service.remove("1", new int[]{10});
+        service.close();
+
+        service = new RouteService(geofenceService, root.getPath());
+        assertEquals(1L, service.getStats().get("routes"));
+        service.evaluate("1", LAT, 116000000 + 2000, 500, TIME);
+        assertEquals(101, service.getSegment("1", 9));
+        assertNull(service.getSegment("1", 10));
+        //路段101超速持续5秒
+        service.evaluate("1", LAT, 116000000 + 3000, 650, TIME + 1);
+        service.evaluate("1", LAT, 116000000 + 4000, 650, TIME + 6);
+        assertEquals("2:101:0", events());
+    }
+
+    /** 上次调用后新产生的事件(类型:路段ID:路段行驶时间) */
+    private String events() {
+        List<GeofenceEvent> events = geofenceService.getEvents(null, 1000);
+        String result = events.stream().limit(events.size() - count).map(e -> e.getType() + ":" + e.getSegmentId() + ":" + e.getDriveTime())
+                .sorted().collect(Collectors.joining(","));
+        count = events.size();
+        return result;
+    }
+
+    private static T8606 route(String clientId, int id, List<T8606.Line> items) {
+        T8606 request = new T8606();
+        request.setClientId(clientId);
+        request.setId(id);
+        request.setItems(items);
+        return request;
+    }
+}
@@ -0,0 +1,102 @@
+package org.yzh.web.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yzh.commons.util.DateUtils;
+import org.yzh.protocol.t808.T0200View;
+import org.yzh.track.Track;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrackServiceTest {
+
+    /** 2024-01-01 23:00:00 +08:00 */
+    private static final long START = 1704121200L;
+
+    @TempDir
+    File root;
+
+    @Test
+    public void testWrite() throws IOException {
+        TrackService service = new TrackService(root.getPath(), 100, 60000L);
+        Track track = zigzag();
+        List<T0200View> list = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++)
+            list.add(location("1", track.getTime(i), track.getLatitude(i), track.getLongitude(i)));
+        service.append(list);
+
+        String[] lines = write(service, 0, 0);
+        assertEquals(track.size(), lines.length);
+        assertEquals("{\"deviceTime\":\"2024-01-01 23:00:00\",\"latitude\":39000000,\"longitude\":116000000,\"altitude\":0,\"speed\":600,\"direction\":90,\"warnBit\":0,\"statusBit\":3}", lines[0]);
+        assertTrue(lines[lines.length - 1].startsWith("{\"deviceTime\":\"2024-01-02 01:46:35\""));
+
+        //10米容差只保留折线的拐点
+        assertEquals(11, write(service, 10, 0).length);
+        assertEquals(5, write(service, 10, 5).length);
+        assertEquals(5, write(service, 0, 5).length);
+        service.close();
+    }
+
+    @Test
+    public void testSimplify() {
+        Track track = zigzag();
+        assertArrayEquals(new int[]{0, 200, 400, 600, 800, 1000, 1200, 1400, 1600, 1800, 1999}, TrackService.simplify(track, 10, 0));
+        assertArrayEquals(new int[]{0, 1999}, TrackService.simplify(track, 0, 1));
+        assertEquals(track.size(), TrackService.simplify(track, 0, 0).length);
+        assertEquals(track.size(), TrackService.simplify(track, 0, track.size()).length);
+
+        //直线上偏差为0的点不占用点数
+        int[] index = TrackService.simplify(track, 0, 100);
+        assertTrue(index.length <= 100);
+        for (int i = 1; i < index.length; i++)
+            assertTrue(index[i - 1] < index[i]);
+        for (int i = 0; i < 2000; i += 200)
+            assertTrue(Arrays.binarySearch(index, i) >= 0);
+    }
+
+    private static String[] write(TrackService service, double tolerance, int maxPoints) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        service.write("1", START, START + 86400, tolerance, maxPoints, output);
+        return output.toString(StandardCharsets.UTF_8.name()).split("\n");
+    }
+
+    private static T0200View location(String clientId, long time, int latitude, int longitude) {
+        String bcd = LocalDateTime.ofEpochSecond(time, 0, TrackService.ZONE).format(DateUtils.yyMMddHHmmss);
+        ByteBuf buf = Unpooled.buffer(28);
+        buf.writeInt(0);
+        buf.writeInt(3);
+        buf.writeInt(latitude);
+        buf.writeInt(longitude);
+        buf.writeShort(0);
+        buf.writeShort(600);
+        buf.writeShort(90);
+        buf.writeBytes(ByteBufUtil.decodeHexDump(bcd));
+
+        T0200View view = new T0200View().wrap(buf);
+        view.setClientId(clientId);
+        return view;
+    }
+
+    /** 向东行驶，每200个点南北转向一次，每点约20米 */
+    private static Track zigzag() {
+        Track track = new Track();
+        int lat = 39000000;
+        for (int i = 0; i < 2000; i++) {
+            track.add(START + i * 5, lat, 116000000 + i * 200, 0, 0, 0, 0, 0);
+            lat += (i / 200) % 2 == 0 ? 100 : -100;
+        }
+        return track;
+    }
+}
@@ -0,0 +1,163 @@
+package org.yzh.track;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 数据块编解码，一个数据块按列依次存放：
+ * 长度[4] + 点数(varint) + 时间列 + 纬度 + 经度 + 高程 + 速度 + 方向 + 报警标志 + 状态
+ * 时间列存首个时间，其后为二阶差分(delta-of-delta)；纬度、经度、高程、速度、方向存首值及一阶差分；
+ * 以上均为zigzag变长整数，匀速直线行驶时多数只占1字节；报警标志、状态存与前一个值的异或，不变时为0
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+final class BlockCodec {
+
+    private byte[] buf = new byte[4096];
+    private int pos;
+
+    /** 编码track中[from, to)范围内的点，返回的数组在下次调用前有效，有效长度为length() */
+    byte[] encode(Track track, int from, int to) {
+        pos = 4;
+        writeVarLong(to - from);
+
+        long[] times = track.times();
+        long prevTime = times[from];
+        long prevDelta = 0;
+        writeVarLong(zigzag(prevTime));
+        for (int i = from + 1; i < to; i++) {
+            long delta = times[i] - prevTime;
+            writeVarLong(zigzag(delta - prevDelta));
+            prevTime = times[i];
+            prevDelta = delta;
+        }
+
+        writeDelta(track.latitudes(), from, to);
+        writeDelta(track.longitudes(), from, to);
+        writeDelta(track.altitudes(), from, to);
+        writeDelta(track.speeds(), from, to);
+        writeDelta(track.directions(), from, to);
+        writeXor(track.warnBits(), from, to);
+        writeXor(track.statusBits(), from, to);
+
+        int length = pos - 4;
+        buf[0] = (byte) (length >>> 24);
+        buf[1] = (byte) (length >>> 16);
+        buf[2] = (byte) (length >>> 8);
+        buf[3] = (byte) length;
+        return buf;
+    }
+
+    int length() {
+        return pos;
+    }
+
+    /**
+     * 解码一个数据块，将时间在[startTime, endTime]内的点追加到out
+     * @param input position位于数据块起始处，解码后位于数据块末尾
+     * @param block 解码用的临时对象，可在多次调用间复用
+     */
+    static void decode(ByteBuffer input, Track block, Track out, long startTime, long endTime) {
+        int length = input.getInt();
+        int end = input.position() + length;
+        int count = (int) readVarLong(input);
+
+        block.reserve(count);
+        long[] times = block.times();
+        long time = unzigzag(readVarLong(input));
+        long delta = 0;
+        times[0] = time;
+        for (int i = 1; i < count; i++) {
+            delta += unzigzag(readVarLong(input));
+            time += delta;
+            times[i] = time;
+        }
+
+        readDelta(input, block.latitudes(), count);
+        readDelta(input, block.longitudes(), count);
+        readDelta(input, block.altitudes(), count);
+        readDelta(input, block.speeds(), count);
+        readDelta(input, block.directions(), count);
+        readXor(input, block.warnBits(), count);
+        readXor(input, block.statusBits(), count);
+        input.position(end);
+        block.setSize(count);
+
+        int from = 0;
+        while (from < count && (times[from] < startTime || times[from] > endTime)) from++;
+        int to = from;
+        while (to < count && times[to] >= startTime && times[to] <= endTime) to++;
+        if (from == 0 && to == count) {
+            out.addAll(block, 0, count);
+            return;
+        }
+        //乱序补传的点可能分散在块内，逐个判断
+        for (int i = from; i < count; i++) {
+            long t = times[i];
+            if (t >= startTime && t <= endTime)
+                out.add(t, block.getLatitude(i), block.getLongitude(i), block.getAltitude(i), block.getSpeed(i),
+                        block.getDirection(i), block.getWarnBit(i), block.getStatusBit(i));
+        }
+    }
+
+    private void writeDelta(int[] values, int from, int to) {
+        int prev = 0;
+        for (int i = from; i < to; i++) {
+            writeVarLong(zigzag((long) values[i] - prev));
+            prev = values[i];
+        }
+    }
+
+    private void writeXor(int[] values, int from, int to) {
+        int prev = 0;
+        for (int i = from; i < to; i++) {
+            writeVarLong((values[i] ^ prev) & 0xFFFFFFFFL);
+            prev = values[i];
+        }
+    }
+
+    private static void readDelta(ByteBuffer input, int[] values, int count) {
+        long prev = 0;
+        for (int i = 0; i < count; i++) {
+            prev += unzigzag(readVarLong(input));
+            values[i] = (int) prev;
+        }
+    }
+
+    private static void readXor(ByteBuffer input, int[] values, int count) {
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            prev ^= (int) readVarLong(input);
+            values[i] = prev;
+        }
+    }
+
+    private void writeVarLong(long value) {
+        if (pos + 10 > buf.length)
+            buf = Arrays.copyOf(buf, buf.length << 1);
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    private static long readVarLong(ByteBuffer input) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("varint too long");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
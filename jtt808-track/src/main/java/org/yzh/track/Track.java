@@ -0,0 +1,214 @@
+package org.yzh.track;
+
+import java.util.Arrays;
+
+/**
+ * 列式存储的一段轨迹，各列按下标对应同一个定位点
+ * 数组长度可能大于size，只有前size个元素有效
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class Track {
+
+    private int size;
+    /** 设备时间(纪元秒) */
+    private long[] times;
+    /** 纬度(百万分之一度) */
+    private int[] latitudes;
+    /** 经度(百万分之一度) */
+    private int[] longitudes;
+    /** 高程(米) */
+    private int[] altitudes;
+    /** 速度(1/10公里每小时) */
+    private int[] speeds;
+    /** 方向 */
+    private int[] directions;
+    private int[] warnBits;
+    private int[] statusBits;
+
+    public Track() {
+        this(64);
+    }
+
+    public Track(int capacity) {
+        times = new long[capacity];
+        latitudes = new int[capacity];
+        longitudes = new int[capacity];
+        altitudes = new int[capacity];
+        speeds = new int[capacity];
+        directions = new int[capacity];
+        warnBits = new int[capacity];
+        statusBits = new int[capacity];
+    }
+
+    public void add(long time, int latitude, int longitude, int altitude, int speed, int direction, int warnBit, int statusBit) {
+        if (size == times.length)
+            grow(size + 1);
+        int i = size++;
+        times[i] = time;
+        latitudes[i] = latitude;
+        longitudes[i] = longitude;
+        altitudes[i] = altitude;
+        speeds[i] = speed;
+        directions[i] = direction;
+        warnBits[i] = warnBit;
+        statusBits[i] = statusBit;
+    }
+
+    /** 追加另一段轨迹中[from, to)范围内的点 */
+    public void addAll(Track track, int from, int to) {
+        int n = to - from;
+        if (n <= 0)
+            return;
+        if (size + n > times.length)
+            grow(size + n);
+        System.arraycopy(track.times, from, times, size, n);
+        System.arraycopy(track.latitudes, from, latitudes, size, n);
+        System.arraycopy(track.longitudes, from, longitudes, size, n);
+        System.arraycopy(track.altitudes, from, altitudes, size, n);
+        System.arraycopy(track.speeds, from, speeds, size, n);
+        System.arraycopy(track.directions, from, directions, size, n);
+        System.arraycopy(track.warnBits, from, warnBits, size, n);
+        System.arraycopy(track.statusBits, from, statusBits, size, n);
+        size += n;
+    }
+
+    /** 清空并保证容量，用于直接填充各列数组 */
+    void reserve(int capacity) {
+        size = 0;
+        if (capacity > times.length)
+            grow(capacity);
+    }
+
+    /** 各列数组已直接填充时设置有效长度 */
+    void setSize(int size) {
+        this.size = size;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, times.length + (times.length >> 1) + 1);
+        times = Arrays.copyOf(times, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        altitudes = Arrays.copyOf(altitudes, capacity);
+        speeds = Arrays.copyOf(speeds, capacity);
+        directions = Arrays.copyOf(directions, capacity);
+        warnBits = Arrays.copyOf(warnBits, capacity);
+        statusBits = Arrays.copyOf(statusBits, capacity);
+    }
+
+    /** 按时间排序(稳定)，已有序时不做任何操作 */
+    public void sort() {
+        int i = 1;
+        while (i < size && times[i - 1] <= times[i])
+            i++;
+        if (i >= size)
+            return;
+
+        //时间(纪元秒)小于2^31，高32位放时间，低32位放原下标
+        long[] keys = new long[size];
+        for (int j = 0; j < size; j++)
+            keys[j] = times[j] << 32 | j;
+        Arrays.sort(keys);
+
+        Track sorted = new Track(size);
+        for (long key : keys) {
+            int j = (int) key;
+            sorted.add(times[j], latitudes[j], longitudes[j], altitudes[j], speeds[j], directions[j], warnBits[j], statusBits[j]);
+        }
+        times = sorted.times;
+        latitudes = sorted.latitudes;
+        longitudes = sorted.longitudes;
+        altitudes = sorted.altitudes;
+        speeds = sorted.speeds;
+        directions = sorted.directions;
+        warnBits = sorted.warnBits;
+        statusBits = sorted.statusBits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public int getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    public int getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    public int getAltitude(int i) {
+        return altitudes[i];
+    }
+
+    public int getSpeed(int i) {
+        return speeds[i];
+    }
+
+    public int getDirection(int i) {
+        return directions[i];
+    }
+
+    public int getWarnBit(int i) {
+        return warnBits[i];
+    }
+
+    public int getStatusBit(int i) {
+        return statusBits[i];
+    }
+
+    public long[] times() {
+        return times;
+    }
+
+    public int[] latitudes() {
+        return latitudes;
+    }
+
+    public int[] longitudes() {
+        return longitudes;
+    }
+
+    public int[] altitudes() {
+        return altitudes;
+    }
+
+    public int[] speeds() {
+        return speeds;
+    }
+
+    public int[] directions() {
+        return directions;
+    }
+
+    public int[] warnBits() {
+        return warnBits;
+    }
+
+    public int[] statusBits() {
+        return statusBits;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(40);
+        sb.append("Track{size=").append(size);
+        if (size > 0)
+            sb.append(",start=").append(times[0]).append(",end=").append(times[size - 1]);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,455 @@
+package org.yzh.track;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 轨迹存储
+ * 每个设备每天一对追加写的文件：root/yyyyMMdd/设备号.dat 存放列式压缩的数据块(见BlockCodec)，
+ * root/yyyyMMdd/设备号.idx 为时间索引，每个数据块一项：最小时间[8] + 最大时间[8] + 偏移量[8] + 长度[4] + 点数[4]；
+ * 写入时按设备与日期分别缓存blockSize个点或flushInterval时长后编码为一个数据块，先写数据再写索引，
+ * 实时点与盲区补报的历史点交错到达时各自攒满数据块，不会因日期切换而写出碎片；每个设备最多同时缓存OPEN_DAYS天，
+ * 下次写入时按最后一条索引截断未完成的数据；查询时通过内存映射读取索引与时间范围内的数据块，合并尚未写入的缓存点
+ * @author yezhihao
+ * https://gitee.com/yezhihao/jt808-server
+ */
+public class TrackStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TrackStore.class);
+
+    static final int INDEX_ENTRY = 32;
+    /** 每个设备同时缓存的最大天数，超出时先写入停留最久的一天 */
+    static final int OPEN_DAYS = 4;
+    /** 未压缩时每个点的字节数：时间[8] + 7列[4] */
+    static final int RAW_POINT = 8 + 7 * 4;
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final File root;
+    private final int zoneOffset;
+    private final int blockSize;
+    private final long flushInterval;
+
+    private final ConcurrentHashMap<String, Buffer> buffers = new ConcurrentHashMap<>();
+    private final ThreadLocal<BlockCodec> codecs = ThreadLocal.withInitial(BlockCodec::new);
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder points = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public TrackStore(File root) {
+        this(root, 8 * 3600, 256, 60000L);
+    }
+
+    /**
+     * @param zoneOffset    按天分文件所用时区相对UTC的偏移秒数，如东八区为28800
+     * @param blockSize     每个数据块的最大点数
+     * @param flushInterval 缓存点的最长停留时间(毫秒)，超过后写入文件
+     */
+    public TrackStore(File root, int zoneOffset, int blockSize, long flushInterval) {
+        if (blockSize < 1 || flushInterval < 1)
+            throw new IllegalArgumentException("blockSize=" + blockSize + ",flushInterval=" + flushInterval);
+        this.root = root;
+        this.zoneOffset = zoneOffset;
+        this.blockSize = blockSize;
+        this.flushInterval = flushInterval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "TrackFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(flushInterval / 4, 100L);
+        this.scheduler.scheduleWithFixedDelay(this::flushExpired, period, period, TimeUnit.MILLISECONDS);
+        root.mkdirs();
+    }
+
+    /**
+     * @param time 设备时间(纪元秒)
+     */
+    public void append(String deviceId, long time, int latitude, int longitude, int altitude, int speed, int direction, int warnBit, int statusBit) {
+        long day = day(time);
+        for (; ; ) {
+            Buffer buffer = buffers.computeIfAbsent(deviceId, Buffer::new);
+            synchronized (buffer) {
+                if (buffer.removed)
+                    continue;
+                DayBuffer dayBuffer = buffer.open(day);
+                Track track = dayBuffer.track;
+                if (track.size() == 0)
+                    dayBuffer.since = System.currentTimeMillis();
+                track.add(time, latitude, longitude, altitude, speed, direction, warnBit, statusBit);
+                points.increment();
+                if (track.size() >= blockSize)
+                    flush(buffer, dayBuffer);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 查询时间范围内的轨迹，按时间排序
+     * @param startTime 开始时间(纪元秒)，包含
+     * @param endTime   结束时间(纪元秒)，包含
+     */
+    public Track query(String deviceId, long startTime, long endTime) throws IOException {
+        Track result = new Track();
+        query(deviceId, startTime, endTime, track -> result.addAll(track, 0, track.size()));
+        return result;
+    }
+
+    /**
+     * 按天依次查询时间范围内的轨迹，每天的点按时间排序后回调一次，无数据的日期不回调
+     * 回调参数在多次回调间复用，回调返回后不应再持有
+     * @param startTime 开始时间(纪元秒)，包含
+     * @param endTime   结束时间(纪元秒)，包含
+     */
+    public void query(String deviceId, long startTime, long endTime, Consumer<Track> consumer) throws IOException {
+        if (startTime > endTime)
+            return;
+        Track block = new Track(blockSize);
+        Track result = new Track();
+        String name = fileName(deviceId);
+        Buffer buffer = buffers.get(deviceId);
+        for (long day : days(day(startTime), day(endTime), buffer)) {
+            result.clear();
+            read(new File(root, dayName(day)), name, startTime, endTime, block, result);
+
+            if (buffer != null) {
+                synchronized (buffer) {
+                    DayBuffer dayBuffer = buffer.get(day);
+                    if (dayBuffer != null) {
+                        Track track = dayBuffer.track;
+                        for (int i = 0, size = track.size(); i < size; i++) {
+                            long t = track.getTime(i);
+                            if (t >= startTime && t <= endTime)
+                                result.add(t, track.getLatitude(i), track.getLongitude(i), track.getAltitude(i), track.getSpeed(i),
+                                        track.getDirection(i), track.getWarnBit(i), track.getStatusBit(i));
+                        }
+                    }
+                }
+            }
+            if (result.size() > 0) {
+                result.sort();
+                consumer.accept(result);
+            }
+        }
+    }
+
+    /** 需要读取的日期(纪元日)，升序 */
+    private long[] days(long startDay, long endDay, Buffer buffer) {
+        if (endDay - startDay <= 31) {
+            long[] days = new long[(int) (endDay - startDay + 1)];
+            for (int i = 0; i < days.length; i++)
+                days[i] = startDay + i;
+            return days;
+        }
+
+        //时间范围较大时只遍历已存在的日期目录，以及尚未写入文件的缓存点所在日期
+        String[] names = root.list((dir, name) -> name.length() == 8);
+        TreeSet<Long> days = new TreeSet<>();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    long day = LocalDate.parse(name, DAY).toEpochDay();
+                    if (day >= startDay && day <= endDay)
+                        days.add(day);
+                } catch (DateTimeParseException ignored) {
+                }
+            }
+        }
+        if (buffer != null) {
+            synchronized (buffer) {
+                for (DayBuffer dayBuffer : buffer.days) {
+                    if (dayBuffer.track.size() > 0 && dayBuffer.day >= startDay && dayBuffer.day <= endDay)
+                        days.add(dayBuffer.day);
+                }
+            }
+        }
+        long[] result = new long[days.size()];
+        int i = 0;
+        for (Long day : days)
+            result[i++] = day;
+        return result;
+    }
+
+    private static void read(File dir, String name, long startTime, long endTime, Track block, Track result) throws IOException {
+        File indexFile = new File(dir, name + ".idx");
+        if (!indexFile.isFile())
+            return;
+        try (FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+             FileChannel dataChannel = FileChannel.open(new File(dir, name + ".dat").toPath(), StandardOpenOption.READ)) {
+            int count = (int) (indexChannel.size() / INDEX_ENTRY);
+            if (count == 0)
+                return;
+            MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) count * INDEX_ENTRY);
+
+            long dataSize = dataChannel.size();
+            long from = Long.MAX_VALUE, to = 0;
+            for (int i = 0; i < count; i++) {
+                int p = i * INDEX_ENTRY;
+                if (index.getLong(p) <= endTime && index.getLong(p + 8) >= startTime) {
+                    long offset = index.getLong(p + 16);
+                    long end = offset + index.getInt(p + 24);
+                    if (end > dataSize)
+                        break;
+                    from = Math.min(from, offset);
+                    to = Math.max(to, end);
+                }
+            }
+            if (from >= to)
+                return;
+
+            MappedByteBuffer data = dataChannel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            for (int i = 0; i < count; i++) {
+                int p = i * INDEX_ENTRY;
+                long offset = index.getLong(p + 16);
+                if (index.getLong(p) <= endTime && index.getLong(p + 8) >= startTime && offset >= from && offset < to) {
+                    data.position((int) (offset - from));
+                    BlockCodec.decode(data, block, result, startTime, endTime);
+                }
+            }
+        }
+    }
+
+    /** 写入所有缓存点 */
+    public void flush() {
+        for (Buffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                for (DayBuffer dayBuffer : buffer.days)
+                    flush(buffer, dayBuffer);
+            }
+        }
+    }
+
+    /** 写入停留超过flushInterval的缓存点，释放空闲的日期缓存，移除长时间无数据的设备 */
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (Buffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                for (Iterator<DayBuffer> it = buffer.days.iterator(); it.hasNext(); ) {
+                    DayBuffer dayBuffer = it.next();
+                    if (now - dayBuffer.since < flushInterval)
+                        continue;
+                    if (dayBuffer.track.size() > 0)
+                        flush(buffer, dayBuffer);
+                    else
+                        it.remove();
+                }
+                if (buffer.days.isEmpty() && now - buffer.since >= flushInterval * 10) {
+                    buffer.removed = true;
+                    buffers.remove(buffer.deviceId, buffer);
+                }
+            }
+        }
+    }
+
+    /** 编码为一个数据块追加到文件，写入失败时丢弃 */
+    private void flush(Buffer buffer, DayBuffer dayBuffer) {
+        Track track = dayBuffer.track;
+        int size = track.size();
+        if (size == 0)
+            return;
+        File dir = new File(root, dayName(dayBuffer.day));
+        String name = fileName(buffer.deviceId);
+        try {
+            dir.mkdirs();
+            BlockCodec codec = codecs.get();
+            byte[] data = codec.encode(track, 0, size);
+            int length = codec.length();
+            append(dir, name, data, length, track);
+            blocks.increment();
+            bytes.add(length + INDEX_ENTRY);
+        } catch (IOException | RuntimeException e) {
+            dropped.add(size);
+            log.error("轨迹写入失败{}/{}，丢弃{}个点", dir, name, size, e);
+        } finally {
+            track.clear();
+            dayBuffer.since = buffer.since = System.currentTimeMillis();
+        }
+    }
+
+    private static void append(File dir, String name, byte[] data, int length, Track track) throws IOException {
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        long[] times = track.times();
+        for (int i = 0, size = track.size(); i < size; i++) {
+            minTime = Math.min(minTime, times[i]);
+            maxTime = Math.max(maxTime, times[i]);
+        }
+
+        try (FileChannel dataChannel = FileChannel.open(new File(dir, name + ".dat").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel indexChannel = FileChannel.open(new File(dir, name + ".idx").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+            long indexSize = indexChannel.size() / INDEX_ENTRY * INDEX_ENTRY;
+            long offset = 0;
+            if (indexSize > 0) {
+                readFully(indexChannel, entry, indexSize - INDEX_ENTRY);
+                offset = entry.getLong(16) + entry.getInt(24);
+            }
+            //截断上次异常退出时未写完的数据块或索引
+            long dataSize = dataChannel.size();
+            if (dataSize < offset)
+                throw new IOException("数据文件长度" + dataSize + "小于索引位置" + offset);
+            if (dataSize > offset)
+                dataChannel.truncate(offset);
+            if (indexChannel.size() > indexSize)
+                indexChannel.truncate(indexSize);
+
+            ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+            long position = offset;
+            while (buf.hasRemaining())
+                position += dataChannel.write(buf, position);
+
+            entry.clear();
+            entry.putLong(minTime).putLong(maxTime).putLong(offset).putInt(length).putInt(track.size()).flip();
+            position = indexSize;
+            while (entry.hasRemaining())
+                position += indexChannel.write(entry, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0)
+                throw new IOException("读取索引失败");
+        }
+        buf.flip();
+    }
+
+    /** 写入点数、数据块数、文件字节数、未压缩字节数及压缩比 */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>(8);
+        long points = this.points.sum();
+        long bytes = this.bytes.sum();
+        long raw = (points - dropped.sum() - buffered()) * RAW_POINT;
+        result.put("points", points);
+        result.put("dropped", dropped.sum());
+        result.put("blocks", blocks.sum());
+        result.put("bytes", bytes);
+        result.put("rawBytes", raw);
+        result.put("ratio", bytes == 0 ? 0d : (double) raw / bytes);
+        result.put("devices", buffers.size());
+        return result;
+    }
+
+    private long buffered() {
+        long size = 0;
+        for (Buffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                for (DayBuffer dayBuffer : buffer.days)
+                    size += dayBuffer.track.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private long day(long time) {
+        return Math.floorDiv(time + zoneOffset, 86400L);
+    }
+
+    private static String dayName(long day) {
+        //超出LocalDate范围时取边界
+        day = Math.max(Math.min(day, LocalDate.MAX.toEpochDay()), LocalDate.MIN.toEpochDay());
+        return LocalDate.ofEpochDay(day).format(DAY);
+    }
+
+    /** 设备号中文件名不允许的字符替换为'_' */
+    private static String fileName(String deviceId) {
+        char[] chars = deviceId.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '-' || c == '_'))
+                chars[i] = '_';
+        }
+        return new String(chars);
+    }
+
+    /** 单个设备尚未写入文件的点，按日期分别缓存 */
+    private final class Buffer {
+        private final String deviceId;
+        private final List<DayBuffer> days = new ArrayList<>(2);
+        /** 创建或上次写入的时间 */
+        private long since = System.currentTimeMillis();
+        private boolean removed;
+
+        private Buffer(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        private DayBuffer get(long day) {
+            for (DayBuffer dayBuffer : days) {
+                if (dayBuffer.day == day)
+                    return dayBuffer;
+            }
+            return null;
+        }
+
+        /** 获取或创建某天的缓存，已缓存OPEN_DAYS天时先写入并移除停留最久的一天 */
+        private DayBuffer open(long day) {
+            DayBuffer dayBuffer = get(day);
+            if (dayBuffer != null)
+                return dayBuffer;
+            if (days.size() >= OPEN_DAYS) {
+                DayBuffer oldest = days.get(0);
+                for (DayBuffer d : days) {
+                    if (d.since < oldest.since)
+                        oldest = d;
+                }
+                flush(this, oldest);
+                days.remove(oldest);
+            }
+            dayBuffer = new DayBuffer(day);
+            days.add(dayBuffer);
+            return dayBuffer;
+        }
+    }
+
+    /** 单个设备某一天尚未写入文件的点 */
+    private final class DayBuffer {
+        private final long day;
+        private final Track track = new Track(blockSize);
+        /** 首个缓存点的到达时间，无缓存点时为上次写入时间 */
+        private long since = System.currentTimeMillis();
+
+        private DayBuffer(long day) {
+            this.day = day;
+        }
+    }
+}
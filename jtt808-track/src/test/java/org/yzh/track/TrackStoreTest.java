@@ -0,0 +1,144 @@
+package org.yzh.track;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrackStoreTest {
+
+    /** 2024-01-01 23:00:00 +08:00 */
+    private static final long START = 1704121200L;
+
+    @TempDir
+    File root;
+
+    @Test
+    public void testAppendAndQuery() throws IOException {
+        TrackStore store = new TrackStore(root, 8 * 3600, 100, 60000L);
+        for (int i = 0; i < 1000; i++) {
+            store.append("013800000001", START + i * 5, lat(i), lng(i), 50, 600 + i % 7, i % 360, 0, i < 500 ? 3 : 1);
+            store.append("013800000002", START + i * 5, lat(i) + 1, lng(i) + 1, 50, 0, 0, 0, 0);
+        }
+
+        //跨天，部分点仍在缓存中
+        assertTrue(new File(root, "20240101/013800000001.dat").isFile());
+        assertTrue(new File(root, "20240102/013800000001.idx").isFile());
+        assertQuery(store.query("013800000001", START, START + 5000), 0, 999);
+        assertQuery(store.query("013800000001", START + 1003, START + 3600 + 7), 201, 721);
+        assertEquals(0, store.query("013800000001", START - 100, START - 1).size());
+        assertEquals(0, store.query("013800000003", START, START + 5000).size());
+
+        store.close();
+        assertQuery(store.query("013800000001", START + 2, START + 4000), 1, 800);
+
+        TrackStore reopened = new TrackStore(root, 8 * 3600, 100, 60000L);
+        assertQuery(reopened.query("013800000001", START, START + 5000), 0, 999);
+        assertEquals(1000, reopened.query("013800000002", START, START + 5000).size());
+
+        double ratio = (Double) store.getStats().get("ratio");
+        assertTrue(ratio > 3, "ratio=" + ratio);
+        reopened.close();
+    }
+
+    @Test
+    public void testQueryByDay() throws IOException {
+        TrackStore store = new TrackStore(root, 8 * 3600, 100, 60000L);
+        for (int i = 0; i < 1000; i++)
+            store.append("1", START + i * 5, lat(i), lng(i), 0, 0, 0, 0, 0);
+
+        //2024-01-01 23:00:00起720个点在当天，其余在次日
+        List<Integer> sizes = new ArrayList<>();
+        store.query("1", START, START + 5000, track -> sizes.add(track.size()));
+        assertEquals(Arrays.asList(720, 280), sizes);
+
+        sizes.clear();
+        store.query("1", 0, Long.MAX_VALUE / 4, track -> sizes.add(track.size()));
+        assertEquals(Arrays.asList(720, 280), sizes);
+        store.close();
+    }
+
+    @Test
+    public void testOutOfOrder() throws IOException {
+        TrackStore store = new TrackStore(root, 8 * 3600, 16, 60000L);
+        for (int i = 0; i < 100; i++) {
+            int j = i % 2 == 0 ? i : 100 - i;
+            store.append("1", START + j, lat(j), lng(j), 0, 0, 0, j, 0);
+        }
+        Track track = store.query("1", START, START + 100);
+        assertEquals(100, track.size());
+        for (int i = 1; i < track.size(); i++)
+            assertTrue(track.getTime(i - 1) <= track.getTime(i));
+        for (int i = 0; i < track.size(); i++)
+            assertEquals(lat((int) (track.getTime(i) - START)), track.getLatitude(i));
+        store.close();
+    }
+
+    @Test
+    public void testInterleavedDays() throws IOException {
+        TrackStore store = new TrackStore(root, 8 * 3600, 10, 60000L);
+        //实时点(次日)与盲区补报(当天)交错到达，各自攒满数据块
+        for (int i = 0; i < 20; i++) {
+            store.append("1", START + 3600 + i, lat(i), lng(i), 0, 0, 0, 0, 0);
+            store.append("1", START - 3600 + i, lat(i), lng(i), 0, 0, 0, 0, 0);
+        }
+        assertEquals(TrackStore.INDEX_ENTRY * 2, new File(root, "20240101/1.idx").length());
+        assertEquals(TrackStore.INDEX_ENTRY * 2, new File(root, "20240102/1.idx").length());
+
+        //超过同时缓存的天数时写入停留最久的一天
+        for (int d = 0; d <= TrackStore.OPEN_DAYS; d++)
+            store.append("1", START + 3600 + (d + 1) * 86400L, lat(d), lng(d), 0, 0, 0, 0, 0);
+        assertEquals(TrackStore.INDEX_ENTRY, new File(root, "20240103/1.idx").length());
+        assertEquals(0, new File(root, "20240107/1.idx").length());
+        assertEquals(45, store.query("1", START - 3600, START + 3600 + 86400L * 6).size());
+        store.close();
+        assertEquals(TrackStore.INDEX_ENTRY, new File(root, "20240107/1.idx").length());
+    }
+
+    @Test
+    public void testTruncateIncompleteBlock() throws IOException {
+        TrackStore store = new TrackStore(root, 8 * 3600, 10, 60000L);
+        for (int i = 0; i < 10; i++)
+            store.append("1", START + i, lat(i), lng(i), 0, 0, 0, 0, 0);
+
+        //模拟写数据块后、写索引前异常退出
+        try (FileOutputStream out = new FileOutputStream(new File(root, "20240101/1.dat"), true)) {
+            out.write(new byte[]{0, 0, 0, 99, 1, 2, 3});
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(root, "20240101/1.idx"), true)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        for (int i = 10; i < 20; i++)
+            store.append("1", START + i, lat(i), lng(i), 0, 0, 0, 0, 0);
+        assertQuery(store.query("1", START, START + 100), 0, 19);
+        assertEquals(TrackStore.INDEX_ENTRY * 2, new File(root, "20240101/1.idx").length());
+        store.close();
+    }
+
+    private static void assertQuery(Track track, int from, int to) {
+        long step = track.size() > 1 ? track.getTime(1) - track.getTime(0) : 0;
+        assertEquals(to - from + 1, track.size());
+        for (int n = 0; n < track.size(); n++) {
+            int i = from + n;
+            assertEquals(START + i * step, track.getTime(n));
+            assertEquals(lat(i), track.getLatitude(n));
+            assertEquals(lng(i), track.getLongitude(n));
+        }
+    }
+
+    private static int lat(int i) {
+        return 39000000 + i * 37 + (i % 3);
+    }
+
+    private static int lng(int i) {
+        return 116000000 - i * 53;
+    }
+}